@@ -0,0 +1,162 @@
+package com.github.wulfaz.android.openkarotz.layout;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+import android.widget.ScrollView;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.wulfaz.android.openkarotz.R;
+import com.github.wulfaz.android.openkarotz.adapter.RadioButtonAdapter;
+import com.github.wulfaz.android.openkarotz.image.LogoLoader;
+import com.github.wulfaz.android.openkarotz.model.RadioGroupModel;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
+
+/**
+ * Frame times of a radio tab of 500 stations, with one button per station in a {@link FlowLayout} (as before) and in a
+ * recycling grid. Frames are measured, laid out and drawn by hand into a screen-sized bitmap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RadioGridFrameTimeTest {
+
+    @Test
+    public void measureFrameTimes() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = new ContextThemeWrapper(instrumentation.getTargetContext(), R.style.AppTheme);
+        RadioGroupModel group = syntheticGroup(STATIONS);
+
+        long[][] flow = new long[1][];
+        long[][] grid = new long[1][];
+        int[] gridChildren = new int[1];
+        instrumentation.runOnMainSync(() -> {
+            int width = context.getResources().getDisplayMetrics().widthPixels;
+            int height = context.getResources().getDisplayMetrics().heightPixels;
+            Canvas canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+
+            // Warm up inflation and drawing of buttons
+            RadioGroupModel small = syntheticGroup(20);
+            run(() -> flowTab(context, small), canvas, width, height);
+            run(() -> gridTab(context, small), canvas, width, height);
+
+            flow[0] = run(() -> flowTab(context, group), canvas, width, height);
+            RecyclerView[] gridView = new RecyclerView[1];
+            grid[0] = run(() -> gridView[0] = gridTab(context, group), canvas, width, height);
+            gridChildren[0] = gridView[0].getChildCount();
+        });
+
+        report("FlowLayout", flow[0]);
+        report("Recycling grid", grid[0]);
+        Log.i(LOG_TAG, "Recycling grid: " + gridChildren[0] + " buttons for " + STATIONS + " stations");
+
+        // Only the buttons on screen exist, so the first frame does not grow with the group
+        assertTrue(gridChildren[0] < STATIONS / 4);
+        assertTrue(grid[0][0] < flow[0][0]);
+    }
+
+    /**
+     * Create and show a tab, then scroll it down a few pixels per frame.
+     * @return the time of the first frame, creation included, then of each scroll frame, in nanoseconds
+     */
+    private static long[] run(Supplier<ViewGroup> creator, Canvas canvas, int width, int height) {
+        long[] frames = new long[1 + SCROLL_FRAMES];
+        long start = System.nanoTime();
+        ViewGroup tab = creator.get();
+        tab.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        tab.layout(0, 0, width, height);
+        tab.draw(canvas);
+        frames[0] = System.nanoTime() - start;
+
+        for (int i = 1; i < frames.length; i++) {
+            start = System.nanoTime();
+            tab.scrollBy(0, SCROLL_STEP);
+            if (tab.isLayoutRequested()) {
+                tab.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+                tab.layout(0, 0, width, height);
+            }
+            tab.draw(canvas);
+            frames[i] = System.nanoTime() - start;
+        }
+        return frames;
+    }
+
+    /**
+     * The tab as before: a button per station, inflated at once.
+     */
+    private static ScrollView flowTab(Context context, RadioGroupModel group) {
+        LayoutInflater inflater = LayoutInflater.from(context);
+        LogoLoader loader = LogoLoader.getInstance(context);
+        int logoSize = context.getResources().getDimensionPixelSize(R.dimen.radio_logo_size);
+
+        ScrollView scroll = new ScrollView(context);
+        FlowLayout layout = new FlowLayout(context);
+        scroll.addView(layout, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        for (RadioModel radio : group.getRadios()) {
+            ImageButton button = (ImageButton) inflater.inflate(R.layout.button_radio, layout, false);
+            button.setContentDescription(radio.getName());
+            loader.load(button, "radios/" + radio.getId() + ".png", logoSize, android.R.drawable.ic_btn_speak_now);
+            layout.addView(button);
+        }
+        return scroll;
+    }
+
+    private static RecyclerView gridTab(Context context, RadioGroupModel group) {
+        int logoSize = context.getResources().getDimensionPixelSize(R.dimen.radio_logo_size);
+        int columnWidth = context.getResources().getDimensionPixelSize(R.dimen.radio_button_column_width);
+
+        RecyclerView view = (RecyclerView) LayoutInflater.from(context).inflate(R.layout.tab_radio, null, false);
+        view.setLayoutManager(new AutoFitGridLayoutManager(context, columnWidth));
+        view.setHasFixedSize(true);
+        view.setAdapter(new RadioButtonAdapter(group.getRadios(), LogoLoader.getInstance(context), logoSize, null));
+        return view;
+    }
+
+    private static RadioGroupModel syntheticGroup(int count) {
+        RadioGroupModel group = new RadioGroupModel("synthetic", "Synthetic");
+        for (int i = 0; i < count; i++) {
+            group.addRadio(new RadioModel("synthetic" + i, "Synthetic radio " + i, "http://localhost/" + i));
+        }
+        return group;
+    }
+
+    private static void report(String name, long[] frames) {
+        long[] scroll = Arrays.copyOfRange(frames, 1, frames.length);
+        Arrays.sort(scroll);
+        long total = 0;
+        for (long frame : scroll) {
+            total += frame;
+        }
+        Log.i(LOG_TAG, String.format("%s: first frame %.1f ms, scroll frames %.2f ms average, %.2f ms p90, %.2f ms max",
+                name, frames[0] / 1e6, total / 1e6 / scroll.length, scroll[scroll.length * 9 / 10] / 1e6,
+                scroll[scroll.length - 1] / 1e6));
+    }
+
+
+    private static final int STATIONS = 500;
+
+    private static final int SCROLL_FRAMES = 120;
+
+    private static final int SCROLL_STEP = 40;
+
+    private static final String LOG_TAG = RadioGridFrameTimeTest.class.getSimpleName();
+}
@@ -0,0 +1,148 @@
+package com.github.wulfaz.android.openkarotz.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.Instrumentation;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.MotionEvent;
+import android.view.Window;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.wulfaz.android.openkarotz.activity.MainActivity;
+
+/**
+ * Frame times while dragging a {@link RotaryKnob} two turns round, with touch events batching several samples.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RotaryKnobFrameMetricsTest {
+
+    @Test
+    public void dragWithoutDroppedFrames() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        List<Long> frames = new ArrayList<>();
+        List<Integer> angles = new ArrayList<>();
+        RotaryKnob[] knob = new RotaryKnob[1];
+        float[] frameBudget = new float[1];
+        HandlerThread metricsThread = new HandlerThread("Frame metrics");
+        metricsThread.start();
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            Window.OnFrameMetricsAvailableListener metricsListener = (window, metrics, dropCount) -> {
+                synchronized (frames) {
+                    frames.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+                }
+            };
+            scenario.onActivity(activity -> {
+                knob[0] = new RotaryKnob(activity);
+                knob[0].setKnobListener(new RotaryKnob.RotaryKnobListener() {
+                    @Override
+                    public void onKnobChanged(int direction, int angle) {
+                        angles.add(angle);
+                    }
+
+                    @Override
+                    public void onKnobReleased(int direction, int angle) {
+                        // Nothing to do
+                    }
+                });
+                activity.setContentView(knob[0]);
+                frameBudget[0] = 1e9f / activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+            });
+            instrumentation.waitForIdleSync();
+            SystemClock.sleep(500);
+
+            scenario.onActivity(activity -> activity.getWindow().addOnFrameMetricsAvailableListener(metricsListener,
+                    new Handler(metricsThread.getLooper())));
+            drag(instrumentation, knob[0]);
+            instrumentation.waitForIdleSync();
+            SystemClock.sleep(200);
+            scenario.onActivity(activity -> activity.getWindow().removeOnFrameMetricsAvailableListener(metricsListener));
+        } finally {
+            metricsThread.quitSafely();
+        }
+
+        int dropped = 0;
+        long total = 0;
+        long max = 0;
+        synchronized (frames) {
+            for (long frame : frames) {
+                total += frame;
+                max = Math.max(max, frame);
+                if (frame > frameBudget[0]) {
+                    dropped++;
+                }
+            }
+            Log.i(LOG_TAG, String.format("%d frames, %.2f ms average, %.2f ms max, budget %.2f ms, %d dropped",
+                    frames.size(), total / 1e6 / Math.max(1, frames.size()), max / 1e6, frameBudget[0] / 1e6, dropped));
+            assertTrue(frames.size() > 0);
+        }
+        assertEquals(0, dropped);
+
+        // Two turns: each of the 16 positions twice, never the same one in a row
+        assertTrue(angles.size() >= 30);
+        for (int i = 1; i < angles.size(); i++) {
+            assertNotEquals(angles.get(i - 1), angles.get(i));
+        }
+    }
+
+    /**
+     * Drag the finger round the knob, an event every 8 ms batching the samples of 2 ms.
+     */
+    private static void drag(Instrumentation instrumentation, RotaryKnob knob) {
+        int[] location = new int[2];
+        knob.getLocationOnScreen(location);
+        float cx = location[0] + knob.getWidth() / 2f;
+        float cy = location[1] + knob.getHeight() / 2f;
+        float radius = Math.min(knob.getWidth(), knob.getHeight()) / 3f;
+
+        long downTime = SystemClock.uptimeMillis();
+        instrumentation.sendPointerSync(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN,
+                cx + radius, cy, 0));
+
+        int steps = 2 * 360 / DEGREES_PER_EVENT;
+        for (int step = 1; step <= steps; step++) {
+            SystemClock.sleep(EVENT_INTERVAL);
+            long time = SystemClock.uptimeMillis();
+            MotionEvent move = null;
+            for (int sample = 1; sample <= SAMPLES_PER_EVENT; sample++) {
+                double radians = Math.toRadians((step - 1 + sample / (double) SAMPLES_PER_EVENT) * DEGREES_PER_EVENT);
+                float x = cx + (float) (radius * Math.cos(radians));
+                float y = cy + (float) (radius * Math.sin(radians));
+                long sampleTime = time - (SAMPLES_PER_EVENT - sample) * EVENT_INTERVAL / SAMPLES_PER_EVENT;
+                if (move == null) {
+                    move = MotionEvent.obtain(downTime, sampleTime, MotionEvent.ACTION_MOVE, x, y, 0);
+                } else {
+                    move.addBatch(sampleTime, x, y, 1f, 1f, 0);
+                }
+            }
+            instrumentation.sendPointerSync(move);
+        }
+
+        long upTime = SystemClock.uptimeMillis();
+        instrumentation.sendPointerSync(MotionEvent.obtain(downTime, upTime, MotionEvent.ACTION_UP, cx + radius, cy, 0));
+    }
+
+
+    private static final int DEGREES_PER_EVENT = 6;
+
+    private static final int SAMPLES_PER_EVENT = 4;
+
+    private static final long EVENT_INTERVAL = 8;
+
+    private static final String LOG_TAG = RotaryKnobFrameMetricsTest.class.getSimpleName();
+}
@@ -41,6 +41,8 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.Karotz;
 import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
 import com.github.wulfaz.android.openkarotz.viewmodel.DeviceManagementViewModel;
 
@@ -223,7 +225,8 @@ public class AddEditDeviceActivity extends AppCompatActivity {
         Toast.makeText(this, "Testing connection to " + host + ":" + port + "...", Toast.LENGTH_SHORT).show();
 
         new Thread(() -> {
-                OpenKarotz k = new OpenKarotz(host);
+                // An existing device warms up its client for later use
+                IKarotz k = isEditMode ? Karotz.getRegistry().get(deviceId, host, port) : new OpenKarotz(host, port);
                 boolean result = k.isOnline();
 
                 runOnUiThread(() -> {
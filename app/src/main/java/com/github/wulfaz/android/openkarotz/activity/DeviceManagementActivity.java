@@ -31,6 +31,7 @@ package com.github.wulfaz.android.openkarotz.activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
@@ -44,12 +45,10 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.adapter.KarotzDeviceAdapter;
 import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
-import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+import com.github.wulfaz.android.openkarotz.discovery.SubnetScanner;
 import com.github.wulfaz.android.openkarotz.viewmodel.DeviceManagementViewModel;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import java.util.List;
-
 /**
  * Activity for managing Karotz devices (list, add, edit, delete).
  */
@@ -98,28 +97,13 @@ public class DeviceManagementActivity extends AppCompatActivity {
         
         viewModel.getAllDevices().observe(this, devices -> {
             adapter.setDevices(devices);
-            checkDevicesOnlineStatus(devices);
+            if (devices != null) {
+                // Devices recently probed are skipped, status changes do not trigger new probes
+                viewModel.checkOnlineStatus(devices);
+            }
         });
     }
 
-    private void checkDevicesOnlineStatus(List<KarotzDevice> devices) {
-        if (devices == null) return;
-
-        for (KarotzDevice device : devices) {
-            new Thread(() -> {
-                OpenKarotz karotz = new OpenKarotz(device.getHostname());
-                boolean isOnline = karotz.isOnline();
-
-                // Update DB
-                runOnUiThread(() -> {
-                    if (device.isOnline() != isOnline) {
-                        viewModel.updateOnlineStatus(device.getId(), isOnline);
-                    }
-                });
-            }).start();
-        }
-    }
-
     private void setupRecyclerView() {
         adapter = new KarotzDeviceAdapter();
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
@@ -185,6 +169,38 @@ public class DeviceManagementActivity extends AppCompatActivity {
         }
     }
 
+    private void scanDevices() {
+        if (viewModel.isScanning()) {
+            Toast.makeText(this, "Scan already in progress", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String subnet = PreferenceManager.getDefaultSharedPreferences(this).getString(SettingsActivity.KEY_PREF_SCAN_SUBNET, "");
+        int addresses;
+        try {
+            addresses = viewModel.scanDevices(subnet, new SubnetScanner.Listener() {
+                @Override
+                public void onKarotzFound(String host, int port, String version) {
+                    // Shown by the device list
+                }
+
+                @Override
+                public void onScanFinished(int scanned, int found) {
+                    Toast.makeText(DeviceManagementActivity.this, "Scan finished, " + found + " Karotz found", Toast.LENGTH_SHORT).show();
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "Invalid subnet: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        if (addresses == 0) {
+            Toast.makeText(this, "Not connected to a local network", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Scanning " + addresses + " addresses...", Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_device_management, menu);
@@ -198,8 +214,7 @@ public class DeviceManagementActivity extends AppCompatActivity {
             finish();
             return true;
         } else if (itemId == R.id.action_scan_devices) {
-            // TODO: Implement device discovery
-            Toast.makeText(this, "Device scanning not yet implemented", Toast.LENGTH_SHORT).show();
+            scanDevices();
             return true;
         } else {
             return super.onOptionsItemSelected(item);
@@ -72,6 +72,7 @@ import com.github.wulfaz.android.openkarotz.fragment.TtsFragment;
 import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
 import com.github.wulfaz.android.openkarotz.karotz.IKarotz.SoundControlCommand;
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
+import com.github.wulfaz.android.openkarotz.karotz.TtsCache;
 import com.github.wulfaz.android.openkarotz.model.DrawerItem;
 import com.github.wulfaz.android.openkarotz.net.NetUtils;
 import com.github.wulfaz.android.openkarotz.task.GetStatusAsyncTask;
@@ -311,6 +312,11 @@ public class MainActivity extends AppCompatActivity {
         return homeFragment;
     }
 
+    private Karotz.Backend getPrefKarotzBackend() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return Karotz.Backend.fromPreference(prefs.getString(SettingsActivity.KEY_PREF_KAROTZ_BACKEND, null));
+    }
+
     private String getPrefKarotzHost() {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         String h = prefs.getString(SettingsActivity.KEY_PREF_KAROTZ_HOST, null);
@@ -320,6 +326,11 @@ public class MainActivity extends AppCompatActivity {
         return h;
     }
 
+    private boolean getPrefTtsCache() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return prefs.getBoolean(SettingsActivity.KEY_PREF_TTS_CACHE, true);
+    }
+
     private Fragment getRadioFragment() {
         if (radioFragment == null) {
             radioFragment = new RadioFragment();
@@ -423,15 +434,21 @@ public class MainActivity extends AppCompatActivity {
 
     private void initializeKarotz() {
         Log.d(LOG_TAG, "Initializing Karotz...");
+        TtsCache.setEnabled(getPrefTtsCache());
 
         // TRY DeviceManagement (nouveau système)
         try {
             DeviceManagementViewModel viewModel = new ViewModelProvider(this).get(DeviceManagementViewModel.class);
             viewModel.getDefaultDevice().observe(this, device -> {
                 if (device != null) {
-                    Karotz.initialize(device.getHostname());
-                    GetStatusTask task = new GetStatusTask(this);
-                    task.execute();
+                    Karotz.setBackend(getPrefKarotzBackend());
+                    // The default device row also changes with its online status, keep the same client then
+                    boolean changed = Karotz.select(device);
+                    if (changed || !statusChecked) {
+                        statusChecked = true;
+                        GetStatusTask task = new GetStatusTask(this);
+                        task.execute();
+                    }
                 } else {
                     // No default device try old
                     fallbackToLegacyInit();
@@ -451,6 +468,7 @@ public class MainActivity extends AppCompatActivity {
                 doActionManageDevices();
                 return;
             }
+            Karotz.setBackend(getPrefKarotzBackend());
             Karotz.initialize(hostname);
             GetStatusTask task = new GetStatusTask(this);
             task.execute();
@@ -667,6 +685,8 @@ public class MainActivity extends AppCompatActivity {
     private Fragment systemFragment;
     private Fragment aboutFragment;
 
+    private boolean statusChecked = false;
+
     // Activity settings
     private static final int RESULT_SETTINGS = 1;
 
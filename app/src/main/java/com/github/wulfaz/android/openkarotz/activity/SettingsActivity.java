@@ -51,4 +51,13 @@ public class SettingsActivity extends Activity {
     /** Key for Karotz hostname preference. */
     public static final String KEY_PREF_KAROTZ_HOST = "prefKarotzHost";
 
+    /** Key for Karotz network client preference. */
+    public static final String KEY_PREF_KAROTZ_BACKEND = "prefKarotzBackend";
+
+    /** Key for the subnet scanned for devices, empty for the local network. */
+    public static final String KEY_PREF_SCAN_SUBNET = "prefScanSubnet";
+
+    /** Key for reusing the phrases in the Karotz TTS cache. */
+    public static final String KEY_PREF_TTS_CACHE = "prefTtsCache";
+
 }
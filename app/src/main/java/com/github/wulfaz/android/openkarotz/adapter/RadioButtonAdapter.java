@@ -0,0 +1,153 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.adapter;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.github.wulfaz.android.openkarotz.R;
+import com.github.wulfaz.android.openkarotz.fragment.RadioTabFragment;
+import com.github.wulfaz.android.openkarotz.image.LogoLoader;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
+
+import java.util.List;
+
+/**
+ * RecyclerView adapter for radio logo buttons. Only the buttons on screen exist, and their logos are released when
+ * they scroll away.
+ */
+public class RadioButtonAdapter extends RecyclerView.Adapter<RadioButtonAdapter.ButtonViewHolder> {
+
+    /** Payload of a change of the enabled state only. */
+    private static final Object PAYLOAD_ENABLED = new Object();
+
+    private final List<RadioModel> radios;
+    private final LogoLoader loader;
+    private final int logoSize;
+    private final OnRadioClickListener clickListener;
+    private boolean enabled = true;
+
+    public interface OnRadioClickListener {
+        void onRadioClick(RadioModel radio);
+    }
+
+    /**
+     * Initialize the adapter.
+     * @param radios the radio stations
+     * @param loader the logo loader
+     * @param logoSize the logo size, in pixels
+     * @param listener the listener of clicks
+     */
+    public RadioButtonAdapter(List<RadioModel> radios, LogoLoader loader, int logoSize, OnRadioClickListener listener) {
+        this.radios = radios;
+        this.loader = loader;
+        this.logoSize = logoSize;
+        this.clickListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Enable or disable all buttons.
+     * @param enabled <code>true</code> to enable
+     */
+    public void setEnabled(boolean enabled) {
+        if (this.enabled != enabled) {
+            this.enabled = enabled;
+            notifyItemRangeChanged(0, radios.size(), PAYLOAD_ENABLED);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ButtonViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        ImageButton button = (ImageButton) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.button_radio, parent, false);
+        return new ButtonViewHolder(button);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ButtonViewHolder holder, int position) {
+        RadioModel radio = radios.get(position);
+        holder.bind(radio);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ButtonViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(p -> p == PAYLOAD_ENABLED)) {
+            // Keep the logo, no reload
+            holder.button.setEnabled(enabled);
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ButtonViewHolder holder) {
+        // Let the logo be reused once evicted from the cache
+        loader.release(holder.button);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getItemCount() {
+        return radios.size();
+    }
+
+    class ButtonViewHolder extends RecyclerView.ViewHolder {
+        final ImageButton button;
+
+        ButtonViewHolder(ImageButton button) {
+            super(button);
+            this.button = button;
+        }
+
+        void bind(RadioModel radio) {
+            button.setContentDescription(radio.getName());
+            button.setEnabled(enabled);
+
+            // TODO: Use 80x80 default radio image
+            loader.load(button, RadioTabFragment.getLogoPath(radio), logoSize, android.R.drawable.ic_btn_speak_now);
+
+            button.setOnClickListener(v -> {
+                if (clickListener != null) {
+                    clickListener.onRadioClick(radio);
+                }
+            });
+        }
+    }
+}
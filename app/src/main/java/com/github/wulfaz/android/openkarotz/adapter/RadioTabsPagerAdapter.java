@@ -28,6 +28,8 @@
 
 package com.github.wulfaz.android.openkarotz.adapter;
 
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.ActionBar;
@@ -37,11 +39,15 @@ import androidx.fragment.app.FragmentPagerAdapter;
 import androidx.fragment.app.FragmentTransaction;
 import androidx.viewpager.widget.ViewPager;
 import androidx.viewpager.widget.ViewPager.OnPageChangeListener;
+import android.content.Context;
 import android.util.Log;
 import android.view.ViewGroup;
 
+import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.fragment.RadioTabFragment;
+import com.github.wulfaz.android.openkarotz.image.LogoLoader;
 import com.github.wulfaz.android.openkarotz.model.RadioGroupModel;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
 
 /**
  * Adapter for pager of radio station tabs.
@@ -63,6 +69,7 @@ public class RadioTabsPagerAdapter extends FragmentPagerAdapter implements Actio
 
         this.fragments = new RadioTabFragment[groups.length];
         this.groups = groups;
+        this.context = activity.getApplicationContext();
 
         // Clean up current action bar
         actionBar = ((AppCompatActivity) activity).getSupportActionBar();
@@ -74,6 +81,8 @@ public class RadioTabsPagerAdapter extends FragmentPagerAdapter implements Actio
         for (RadioGroupModel group : groups) {
             addTab(actionBar.newTab(), group);
         }
+
+        prefetchLogos(pager.getCurrentItem());
     }
 
     @Override
@@ -125,6 +134,7 @@ public class RadioTabsPagerAdapter extends FragmentPagerAdapter implements Actio
     @Override
     public void onPageSelected(int position) {
         actionBar.setSelectedNavigationItem(position);
+        prefetchLogos(position);
     }
 
     @Override
@@ -156,15 +166,38 @@ public class RadioTabsPagerAdapter extends FragmentPagerAdapter implements Actio
         notifyDataSetChanged();
     }
 
+    /**
+     * Decode the first logos of the tabs next to the given one, so that they show at once when swiping. The others are
+     * decoded when scrolled to.
+     */
+    private void prefetchLogos(int position) {
+        List<String> paths = new ArrayList<String>();
+        for (int i = position - 1; i <= position + 1; i++) {
+            if (i >= 0 && i < groups.length) {
+                List<RadioModel> radios = groups[i].getRadios();
+                for (RadioModel radio : radios.subList(0, Math.min(PREFETCH_LIMIT, radios.size()))) {
+                    paths.add(RadioTabFragment.getLogoPath(radio));
+                }
+            }
+        }
+        int logoSize = context.getResources().getDimensionPixelSize(R.dimen.radio_logo_size);
+        LogoLoader.getInstance(context).prefetch(paths, logoSize);
+    }
+
 
     private final androidx.appcompat.app.ActionBar actionBar;
 
     private final ViewPager viewPager;
 
+    private final Context context;
+
     private final RadioTabFragment[] fragments;
 
     private final RadioGroupModel[] groups;
 
+    /** Number of logos prefetched per tab, about a screen of buttons. */
+    private static final int PREFETCH_LIMIT = 24;
+
     private static final String LOG_TAG = RadioTabsPagerAdapter.class.getSimpleName();
 
 }
\ No newline at end of file
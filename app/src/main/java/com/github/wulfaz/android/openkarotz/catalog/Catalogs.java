@@ -0,0 +1,139 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.catalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Access to the catalogs bundled in the assets, loaded on first use.
+ * <p>
+ * Catalogs are stored uncompressed in the APK, so they are memory-mapped rather than read.
+ */
+public final class Catalogs {
+
+    private Catalogs() {
+        // Utility class
+    }
+
+    /**
+     * Get the radio catalog.
+     *
+     * @param context a context
+     * @return the catalog, or <code>null</code> if it cannot be loaded
+     */
+    public static RadioCatalog getRadioCatalog(Context context) {
+        RadioCatalog catalog = radioCatalog;
+        if (catalog == null) {
+            synchronized (Catalogs.class) {
+                if (radioCatalog == null) {
+                    try {
+                        radioCatalog = RadioCatalog.read(load(context.getAssets(), RADIO_CATALOG));
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not load radio catalog", e);
+                    }
+                }
+                catalog = radioCatalog;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Get the color catalog.
+     *
+     * @param context a context
+     * @return the catalog, or <code>null</code> if it cannot be loaded
+     */
+    public static ColorCatalog getColorCatalog(Context context) {
+        ColorCatalog catalog = colorCatalog;
+        if (catalog == null) {
+            synchronized (Catalogs.class) {
+                if (colorCatalog == null) {
+                    try {
+                        colorCatalog = ColorCatalog.read(load(context.getAssets(), COLOR_CATALOG));
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not load color catalog", e);
+                    }
+                }
+                catalog = colorCatalog;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Map an asset, or read it if it is compressed.
+     */
+    private static ByteBuffer load(AssetManager assets, String path) throws IOException {
+        try (AssetFileDescriptor fd = assets.openFd(path);
+                FileInputStream in = new FileInputStream(fd.getFileDescriptor());
+                FileChannel channel = in.getChannel()) {
+            // The mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } catch (IOException e) {
+            // Compressed assets have no file descriptor
+            Log.d(LOG_TAG, "Reading compressed catalog " + path);
+        }
+
+        try (InputStream in = assets.open(path)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+    }
+
+
+    private static volatile RadioCatalog radioCatalog;
+
+    private static volatile ColorCatalog colorCatalog;
+
+    /** Asset path of the radio catalog. */
+    public static final String RADIO_CATALOG = "catalog/radios.bin";
+
+    /** Asset path of the color catalog. */
+    public static final String COLOR_CATALOG = "catalog/colors.bin";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String LOG_TAG = Catalogs.class.getSimpleName();
+}
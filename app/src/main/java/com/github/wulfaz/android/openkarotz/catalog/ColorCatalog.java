@@ -0,0 +1,129 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Catalog of the bundled LED colors, compiled from <code>colors.json</code> at build time by the
+ * <code>generateCatalogs</code> task. The format is big-endian:
+ *
+ * <pre>
+ * int magic "OKCC", short version, short count, then for each color: int RGB
+ * </pre>
+ */
+public final class ColorCatalog {
+
+    private ColorCatalog(int[] colors) {
+        this.colors = colors;
+    }
+
+    /**
+     * Read a catalog.
+     *
+     * @param buffer the catalog content, from position 0
+     * @return the catalog
+     * @throws IOException if the buffer is not a color catalog
+     */
+    public static ColorCatalog read(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (b.limit() < HEADER_SIZE || b.getInt(0) != MAGIC) {
+            throw new IOException("Not a color catalog");
+        }
+        int version = b.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported color catalog version: " + version);
+        }
+        int count = b.getShort(6) & 0xFFFF;
+        if (b.limit() < HEADER_SIZE + count * 4) {
+            throw new IOException("Corrupted color catalog");
+        }
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = b.getInt(HEADER_SIZE + i * 4) & 0xFFFFFF;
+        }
+        return new ColorCatalog(colors);
+    }
+
+    /**
+     * Get the number of colors.
+     *
+     * @return the number of colors
+     */
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Get a color.
+     *
+     * @param index the color index
+     * @return the RGB color, without alpha
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Get a color as sent to the Karotz.
+     *
+     * @param index the color index
+     * @return the color, as six hexadecimal digits
+     */
+    public String getCode(int index) {
+        return String.format("%06X", colors[index]);
+    }
+
+    /**
+     * Get the index of a color.
+     *
+     * @param rgb the RGB color, alpha is ignored
+     * @return the color index, or -1 if not in the catalog
+     */
+    public int indexOf(int rgb) {
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i] == (rgb & 0xFFFFFF)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private final int[] colors;
+
+    /** "OKCC" */
+    private static final int MAGIC = 0x4F4B4343;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+}
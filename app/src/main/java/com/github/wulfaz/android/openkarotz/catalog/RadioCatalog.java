@@ -0,0 +1,260 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import com.github.wulfaz.android.openkarotz.model.RadioGroupModel;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
+
+/**
+ * Catalog of the bundled radio stations, compiled from <code>radios.json</code> at build time by the
+ * <code>generateCatalogs</code> task.
+ * <p>
+ * The catalog is read in place from its buffer, which may be memory-mapped: nothing is parsed when loading, strings are
+ * decoded when a radio is requested, and radios are found by id through a hash table stored in the catalog. The
+ * format is big-endian:
+ *
+ * <pre>
+ * int magic "OKRC", short version, short 0, int group count, int radio count, int slot count, int pool offset
+ * groups: int id, int name, int first radio, int radio count
+ * radios: int id, int name, int url, int group
+ * slots:  int radio index + 1, or 0 if empty
+ * pool:   short length, UTF-8 bytes
+ * </pre>
+ *
+ * Strings are referenced by their offset in the pool. The slot of a radio is {@link #slotOf(String, int)}, probed
+ * linearly.
+ */
+public final class RadioCatalog {
+
+    private RadioCatalog(ByteBuffer buffer, int groupCount, int radioCount, int slotCount, int poolOffset) {
+        this.buffer = buffer;
+        this.groupCount = groupCount;
+        this.radioCount = radioCount;
+        this.slotCount = slotCount;
+        this.poolOffset = poolOffset;
+        this.radiosOffset = HEADER_SIZE + groupCount * RECORD_SIZE;
+        this.slotsOffset = radiosOffset + radioCount * RECORD_SIZE;
+    }
+
+    /**
+     * Open a catalog. Only the header is checked, the buffer is used as is.
+     *
+     * @param buffer the catalog content, from position 0
+     * @return the catalog
+     * @throws IOException if the buffer is not a radio catalog
+     */
+    public static RadioCatalog read(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (b.limit() < HEADER_SIZE || b.getInt(0) != MAGIC) {
+            throw new IOException("Not a radio catalog");
+        }
+        int version = b.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported radio catalog version: " + version);
+        }
+        int groupCount = b.getInt(8);
+        int radioCount = b.getInt(12);
+        int slotCount = b.getInt(16);
+        int poolOffset = b.getInt(20);
+        if (groupCount < 0 || radioCount < 0 || slotCount < radioCount || Integer.bitCount(slotCount) > 1
+                || poolOffset != HEADER_SIZE + (groupCount + radioCount) * RECORD_SIZE + slotCount * 4
+                || poolOffset > b.limit()) {
+            throw new IOException("Corrupted radio catalog");
+        }
+        return new RadioCatalog(b, groupCount, radioCount, slotCount, poolOffset);
+    }
+
+    /**
+     * Get the number of radio groups.
+     *
+     * @return the number of groups
+     */
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Get the number of radios, in all groups.
+     *
+     * @return the number of radios
+     */
+    public int getRadioCount() {
+        return radioCount;
+    }
+
+    /**
+     * Get a radio group, with its radios.
+     *
+     * @param index the group index
+     * @return the group
+     */
+    public RadioGroupModel getGroup(int index) {
+        checkIndex(index, groupCount);
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        RadioGroupModel group = new RadioGroupModel(string(buffer.getInt(record)), string(buffer.getInt(record + 4)));
+        int first = buffer.getInt(record + 8);
+        int count = buffer.getInt(record + 12);
+        for (int i = first; i < first + count; i++) {
+            group.addRadio(getRadio(i));
+        }
+        return group;
+    }
+
+    /**
+     * Get all radio groups, with their radios.
+     *
+     * @return the groups, in catalog order
+     */
+    public RadioGroupModel[] getGroups() {
+        RadioGroupModel[] groups = new RadioGroupModel[groupCount];
+        for (int i = 0; i < groupCount; i++) {
+            groups[i] = getGroup(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Get a radio.
+     *
+     * @param index the radio index, in all groups
+     * @return the radio
+     */
+    public RadioModel getRadio(int index) {
+        checkIndex(index, radioCount);
+        int record = radiosOffset + index * RECORD_SIZE;
+        return new RadioModel(string(buffer.getInt(record)), string(buffer.getInt(record + 4)),
+                string(buffer.getInt(record + 8)));
+    }
+
+    /**
+     * Find a radio by id.
+     *
+     * @param id the radio id
+     * @return the radio, or <code>null</code> if not in the catalog
+     */
+    public RadioModel findRadio(String id) {
+        int index = indexOf(id);
+        return index < 0 ? null : getRadio(index);
+    }
+
+    /**
+     * Get the index of a radio.
+     *
+     * @param id the radio id
+     * @return the radio index, or -1 if not in the catalog
+     */
+    public int indexOf(String id) {
+        if (id == null || slotCount == 0) {
+            return -1;
+        }
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int mask = slotCount - 1;
+        for (int slot = slotOf(id, slotCount), probes = 0; probes < slotCount; slot = (slot + 1) & mask, probes++) {
+            int entry = buffer.getInt(slotsOffset + slot * 4);
+            if (entry == 0) {
+                return -1;
+            }
+            int index = entry - 1;
+            if (equalsString(buffer.getInt(radiosOffset + index * RECORD_SIZE), key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the first slot of an id in the hash table.
+     *
+     * @param id the radio id
+     * @param slotCount the number of slots, a power of two
+     * @return the slot
+     */
+    public static int slotOf(String id, int slotCount) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (slotCount - 1);
+    }
+
+    private boolean equalsString(int ref, byte[] key) {
+        int offset = poolOffset + ref;
+        if ((buffer.getShort(offset) & 0xFFFF) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + 2 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int ref) {
+        int offset = poolOffset + ref;
+        int length = buffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + 2);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + ", count " + count);
+        }
+    }
+
+
+    private final ByteBuffer buffer;
+
+    private final int groupCount;
+
+    private final int radioCount;
+
+    private final int slotCount;
+
+    private final int poolOffset;
+
+    private final int radiosOffset;
+
+    private final int slotsOffset;
+
+    /** "OKRC" */
+    private static final int MAGIC = 0x4F4B5243;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int RECORD_SIZE = 16;
+}
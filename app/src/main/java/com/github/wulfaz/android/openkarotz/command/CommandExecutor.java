@@ -0,0 +1,591 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.command;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.github.wulfaz.android.openkarotz.net.Cancellation;
+
+/**
+ * Executes commands sent to a single Karotz.
+ * <p>
+ * Each device gets its own bounded pool, so a slow command (a long TTS, for instance) only holds one thread and
+ * does not delay an ear move sent meanwhile, nor commands sent to another Karotz. Threads time out when idle.
+ * <p>
+ * Commands are cancelled through their {@link Handle}. Cancelling interrupts the worker and closes the connection
+ * in use (see {@link Cancellation}), so a blocked socket read returns immediately.
+ * <p>
+ * Results are delivered on the callback executor, the main thread by default. When a {@link LifecycleOwner} is
+ * given, delivery waits until the owner is started and the command is cancelled when the owner is destroyed; the
+ * owner and the callback are released as soon as the command is over.
+ * <p>
+ * Commands setting an absolute target (ear positions, LED color) can be {@link #submitLatest submitted by kind}:
+ * a waiting command is replaced by a newer one of the same kind, and commands of a kind are sent one at a time, no
+ * more often than {@link #setMinInterval(String, long) the minimum interval}. A burst of knob or slider moves thus
+ * results in a bounded number of requests, the last target always being sent.
+ */
+public final class CommandExecutor {
+
+    /**
+     * Initialize a new executor.
+     *
+     * @param name the name of the worker threads
+     * @param threads the maximum number of commands running at the same time
+     * @param queueCapacity the maximum number of waiting commands
+     * @param callbackExecutor the executor used to deliver results
+     */
+    public CommandExecutor(String name, int threads, int queueCapacity, Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        this.pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory(name));
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the executor of a Karotz, delivering results on the main thread.
+     *
+     * @param address the Karotz address, as <code>host:port</code>
+     * @return the executor, created on first use
+     */
+    public static CommandExecutor forDevice(String address) {
+        synchronized (EXECUTORS) {
+            CommandExecutor executor = EXECUTORS.get(address);
+            if (executor == null) {
+                if (mainThread == null) {
+                    mainThread = new Handler(Looper.getMainLooper())::post;
+                }
+                executor = new CommandExecutor(address, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY, mainThread);
+                EXECUTORS.put(address, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Submit a command.
+     *
+     * @param command the command, run on a worker thread
+     * @param callback the callback receiving the outcome, may be <code>null</code>
+     * @param <T> the result type
+     * @return the handle of the command
+     */
+    public <T> Handle submit(Callable<T> command, Callback<T> callback) {
+        return submit(null, command, callback);
+    }
+
+    /**
+     * Submit a command bound to a lifecycle. Must be called on the main thread when an owner is given.
+     *
+     * @param owner the lifecycle owner waiting for the result, may be <code>null</code>
+     * @param command the command, run on a worker thread
+     * @param callback the callback receiving the outcome, may be <code>null</code>
+     * @param <T> the result type
+     * @return the handle of the command
+     */
+    public <T> Handle submit(LifecycleOwner owner, Callable<T> command, Callback<T> callback) {
+        Command<T> c = new Command<T>(owner, command, callback);
+        if (bind(owner, c)) {
+            dispatch(c);
+        }
+        return c;
+    }
+
+    /**
+     * Submit a command replacing the waiting command of the same kind, if any. The replaced command is cancelled.
+     * Must be called on the main thread when an owner is given.
+     *
+     * @param kind the kind of command, commands of the same kind setting the same target
+     * @param owner the lifecycle owner waiting for the result, may be <code>null</code>
+     * @param command the command, run on a worker thread
+     * @param callback the callback receiving the outcome, may be <code>null</code>
+     * @param <T> the result type
+     * @return the handle of the command
+     */
+    public <T> Handle submitLatest(String kind, LifecycleOwner owner, Callable<T> command, Callback<T> callback) {
+        Command<T> c = new Command<T>(owner, command, callback);
+        if (!bind(owner, c)) {
+            return c;
+        }
+
+        Slot slot = slotFor(kind);
+        Command<?> superseded;
+        synchronized (slot) {
+            superseded = slot.pending;
+            slot.pending = c;
+        }
+        if (superseded != null && superseded.cancel()) {
+            coalescedCount.incrementAndGet();
+        }
+        slot.schedule();
+        return c;
+    }
+
+    /**
+     * Get the minimum interval between two commands of a kind sent with {@link #submitLatest}.
+     *
+     * @param kind the kind of command
+     * @return the minimum interval, in milliseconds
+     */
+    public long getMinInterval(String kind) {
+        Slot slot = slotFor(kind);
+        synchronized (slot) {
+            return TimeUnit.NANOSECONDS.toMillis(slot.minIntervalNanos);
+        }
+    }
+
+    /**
+     * Set the minimum interval between two commands of a kind sent with {@link #submitLatest}.
+     *
+     * @param kind the kind of command
+     * @param minIntervalMillis the minimum interval, in milliseconds
+     */
+    public void setMinInterval(String kind, long minIntervalMillis) {
+        Slot slot = slotFor(kind);
+        synchronized (slot) {
+            slot.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        }
+    }
+
+    /**
+     * Get the number of commands replaced by a newer command of the same kind before being sent.
+     *
+     * @return the number of coalesced commands
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Get the number of commands running.
+     *
+     * @return the number of busy threads
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Get the number of commands waiting for a thread.
+     *
+     * @return the queue size
+     */
+    public int getQueuedCount() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Stop this executor, interrupting running commands.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Karotz command timer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+
+    private boolean bind(LifecycleOwner owner, Command<?> c) {
+        if (owner != null) {
+            if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+                c.release();
+                c.task.cancel(false);
+                return false;
+            }
+            owner.getLifecycle().addObserver(c);
+        }
+        return true;
+    }
+
+    private void dispatch(Command<?> c) {
+        try {
+            pool.execute(c.task);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Command rejected, " + pool.getQueue().size() + " commands waiting");
+            c.failure = e;
+            c.finish();
+            callbackExecutor.execute(c::deliver);
+        }
+    }
+
+    private Slot slotFor(String kind) {
+        synchronized (slots) {
+            Slot slot = slots.get(kind);
+            if (slot == null) {
+                slot = new Slot(kind);
+                slots.put(kind, slot);
+            }
+            return slot;
+        }
+    }
+
+
+    /**
+     * Receives the outcome of a command.
+     *
+     * @param <T> the result type
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called when the command completed.
+         *
+         * @param result the command result
+         */
+        void onResult(T result);
+
+        /**
+         * Called when the command threw an exception or could not be queued.
+         *
+         * @param e the exception
+         */
+        default void onFailure(Exception e) {
+            Log.e(LOG_TAG, "Command failed: " + e.getMessage(), e);
+        }
+
+        /**
+         * Called when the command was cancelled through its {@link Handle}.
+         */
+        default void onCancelled() {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Handle of a submitted command.
+     */
+    public interface Handle {
+
+        /**
+         * Cancel the command. A running command is interrupted and its connection closed.
+         *
+         * @return <code>false</code> if the command was already over
+         */
+        boolean cancel();
+
+        /**
+         * Check if the command was cancelled.
+         *
+         * @return <code>true</code> if cancelled
+         */
+        boolean isCancelled();
+
+        /**
+         * Check if the command is over, whatever the outcome.
+         *
+         * @return <code>true</code> if over
+         */
+        boolean isDone();
+    }
+
+
+    /**
+     * A submitted command. Lifecycle events and delivery happen on the callback thread.
+     */
+    private final class Command<T> implements Handle, DefaultLifecycleObserver {
+
+        Command(LifecycleOwner owner, Callable<T> command, Callback<T> callback) {
+            this.owner = owner;
+            this.callback = callback;
+            this.task = new FutureTask<T>(() -> call(command)) {
+
+                @Override
+                protected void done() {
+                    finish();
+                    callbackExecutor.execute(Command.this::deliver);
+                }
+            };
+        }
+
+        @Override
+        public boolean cancel() {
+            cancellation.cancel();
+            boolean cancelled = task.cancel(true);
+            if (cancelled) {
+                pool.remove(task);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone() || failure != null;
+        }
+
+        @Override
+        public void onStart(@NonNull LifecycleOwner source) {
+            // Deliver the result held while the owner was stopped
+            if (task.isDone()) {
+                deliver();
+            }
+        }
+
+        @Override
+        public void onDestroy(@NonNull LifecycleOwner source) {
+            // Nobody is left to be notified
+            release();
+            cancel();
+        }
+
+        /**
+         * Run the completion hook, once, whether the command ran, failed or was cancelled.
+         */
+        void finish() {
+            Runnable r = onDone;
+            if (r != null && finished.compareAndSet(false, true)) {
+                r.run();
+            }
+        }
+
+        private T call(Callable<T> command) throws Exception {
+            Cancellation.bind(cancellation);
+            try {
+                return command.call();
+            } finally {
+                Cancellation.bind(null);
+            }
+        }
+
+        private void deliver() {
+            if (callback == null) {
+                release();
+                return;
+            }
+            if (failure == null && !task.isCancelled() && owner != null
+                    && !owner.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                // Wait for onStart, or drop on onDestroy
+                return;
+            }
+
+            Callback<T> cb = callback;
+            release();
+
+            if (failure != null) {
+                cb.onFailure(failure);
+            } else if (task.isCancelled()) {
+                cb.onCancelled();
+            } else {
+                try {
+                    cb.onResult(task.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    cb.onFailure(cause instanceof Exception ? (Exception) cause : e);
+                } catch (InterruptedException | CancellationException e) {
+                    cb.onCancelled();
+                }
+            }
+        }
+
+        private void release() {
+            if (owner != null) {
+                owner.getLifecycle().removeObserver(this);
+                owner = null;
+            }
+            callback = null;
+        }
+
+
+        final FutureTask<T> task;
+
+        final Cancellation cancellation = new Cancellation();
+
+        volatile Exception failure;
+
+        volatile Runnable onDone;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private LifecycleOwner owner;
+
+        private Callback<T> callback;
+    }
+
+
+    /**
+     * Commands of a single kind: at most one waiting and one running.
+     */
+    private final class Slot {
+
+        Slot(String kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Send the waiting command if nothing of this kind is running and the minimum interval elapsed.
+         */
+        void schedule() {
+            Command<?> next;
+            synchronized (this) {
+                if (running || timerArmed || pending == null) {
+                    return;
+                }
+                long wait = lastSentAt + minIntervalNanos - System.nanoTime();
+                if (sentOnce && wait > 0) {
+                    timerArmed = true;
+                    timer().schedule(this::onTimer, wait, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                next = pending;
+                pending = null;
+                running = true;
+                sentOnce = true;
+                lastSentAt = System.nanoTime();
+            }
+
+            next.onDone = this::onDone;
+            if (next.isCancelled()) {
+                next.finish();
+            } else {
+                Log.v(LOG_TAG, "Sending latest " + kind + " command");
+                dispatch(next);
+            }
+        }
+
+        private void onDone() {
+            synchronized (this) {
+                running = false;
+            }
+            schedule();
+        }
+
+        private void onTimer() {
+            synchronized (this) {
+                timerArmed = false;
+            }
+            schedule();
+        }
+
+
+        private final String kind;
+
+        Command<?> pending;
+
+        long minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_INTERVAL);
+
+        private boolean running;
+
+        private boolean timerArmed;
+
+        private boolean sentOnce;
+
+        private long lastSentAt;
+    }
+
+
+    /**
+     * Names worker threads after the device.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "Karotz " + name + " #" + count.incrementAndGet());
+        }
+
+
+        private final String name;
+
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+
+    private final ThreadPoolExecutor pool;
+
+    private final Executor callbackExecutor;
+
+    private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private static final Map<String, CommandExecutor> EXECUTORS = new HashMap<String, CommandExecutor>();
+
+    private static Executor mainThread;
+
+    private static ScheduledExecutorService timer;
+
+    /** Default number of commands running at the same time on a single Karotz. */
+    public static final int DEFAULT_THREADS = 3;
+
+    /** Default number of commands waiting for a thread on a single Karotz. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    /** Default minimum interval between two commands of the same kind, in milliseconds. */
+    public static final long DEFAULT_MIN_INTERVAL = 250;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final String LOG_TAG = CommandExecutor.class.getSimpleName();
+}
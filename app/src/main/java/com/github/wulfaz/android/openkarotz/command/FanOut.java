@@ -0,0 +1,680 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.command;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.EarPosition;
+import com.github.wulfaz.android.openkarotz.karotz.KarotzRegistry;
+import com.github.wulfaz.android.openkarotz.net.Cancellation;
+
+/**
+ * Sends the same command to several rabbits at the same time.
+ * <p>
+ * Each device gets its own worker thread and its own timeout, started when its command is sent: a rabbit that does
+ * not answer is cut off, by closing its connection, without delaying the others. Devices beyond the worker threads
+ * wait for a free thread, and get their full timeout then. A call therefore takes as long as the slowest device, bounded by the
+ * timeout, instead of the sum of all devices. The outcome of every device is gathered in a {@link Report}.
+ * <p>
+ * Commands can also be {@link #executeSynchronized(Collection, DeviceCommand, long) synchronized}, so that they reach
+ * all rabbits at about the same time, for instance to start the same radio everywhere.
+ */
+public final class FanOut {
+
+    /**
+     * A command sent to a single device.
+     *
+     * @param <T> the type of the command result
+     */
+    public interface DeviceCommand<T> {
+
+        /**
+         * Run the command. A {@link Boolean#FALSE} result is reported as a failure.
+         *
+         * @param karotz the client of the device
+         * @return the result
+         * @throws IOException if an I/O error occurs
+         */
+        T execute(IKarotz karotz) throws IOException;
+    }
+
+    /**
+     * Initialize a new fan-out with default settings.
+     *
+     * @param registry the registry providing the client of each device
+     */
+    public FanOut(KarotzRegistry registry) {
+        this(registry, DEFAULT_THREADS);
+    }
+
+    /**
+     * Initialize a new fan-out.
+     *
+     * @param registry the registry providing the client of each device
+     * @param threads the maximum number of devices reached at the same time
+     */
+    public FanOut(KarotzRegistry registry, int threads) {
+        this.registry = registry;
+        this.workers = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "Karotz fan-out #" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Karotz fan-out timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Set the LED of all devices.
+     *
+     * @param color the color, as RGB
+     * @param pulse <code>true</code> to pulse
+     * @return the command
+     */
+    public static DeviceCommand<Void> led(int color, boolean pulse) {
+        return karotz -> {
+            karotz.led(color, pulse);
+            return null;
+        };
+    }
+
+    /**
+     * Move the ears of all devices.
+     *
+     * @param left the left ear position
+     * @param right the right ear position
+     * @return the command, giving the new positions
+     */
+    public static DeviceCommand<EarPosition[]> ears(EarPosition left, EarPosition right) {
+        return karotz -> karotz.ears(left, right);
+    }
+
+    /**
+     * Play a sound or a stream on all devices.
+     *
+     * @param url the URL to play
+     * @return the command
+     */
+    public static DeviceCommand<Boolean> sound(String url) {
+        return karotz -> karotz.sound(url);
+    }
+
+    /**
+     * Speak a text on all devices.
+     *
+     * @param voiceId the voice
+     * @param text the text
+     * @return the command
+     */
+    public static DeviceCommand<Boolean> tts(String voiceId, String text) {
+        return karotz -> karotz.tts(voiceId, text);
+    }
+
+    /**
+     * Put all devices to sleep.
+     *
+     * @return the command
+     */
+    public static DeviceCommand<Boolean> sleep() {
+        return IKarotz::sleep;
+    }
+
+    /**
+     * Send a command to devices, and wait for all of them to answer or time out.
+     *
+     * @param devices the devices
+     * @param command the command
+     * @param timeoutMillis the time each device is given, in milliseconds
+     * @param <T> the type of the command result
+     * @return the outcome of every device, in the order of the devices
+     * @throws InterruptedException if interrupted while waiting, the running commands are cancelled
+     */
+    public <T> Report<T> execute(Collection<KarotzDevice> devices, DeviceCommand<T> command, long timeoutMillis)
+            throws InterruptedException {
+        return run(devices, command, timeoutMillis, false, false);
+    }
+
+    /**
+     * Send a command to devices so that it reaches all of them at about the same time, and wait for all of them to
+     * answer or time out.
+     * <p>
+     * Requests are staggered by the one-way latency of each device, estimated from its recent round trips: the
+     * farthest device is sent the command first. Devices without enough round trips are pinged first. The achieved
+     * skew is given by {@link Report#getSkewMillis()}. The devices should not outnumber the worker threads.
+     *
+     * @param devices the devices
+     * @param command the command
+     * @param timeoutMillis the time each device is given once the command is sent, in milliseconds
+     * @param <T> the type of the command result
+     * @return the outcome of every device, in the order of the devices
+     * @throws InterruptedException if interrupted while waiting, the running commands are cancelled
+     */
+    public <T> Report<T> executeSynchronized(Collection<KarotzDevice> devices, DeviceCommand<T> command, long timeoutMillis)
+            throws InterruptedException {
+        if (devices.size() > workers.getMaximumPoolSize()) {
+            Log.w(LOG_TAG, devices.size() + " devices for " + workers.getMaximumPoolSize() + " threads, some will start late");
+        }
+        workers.prestartAllCoreThreads();
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            List<KarotzDevice> unknown = new ArrayList<KarotzDevice>();
+            for (KarotzDevice device : devices) {
+                if (estimator.getSampleCount(device.getId()) < MIN_SAMPLES) {
+                    unknown.add(device);
+                }
+            }
+            if (unknown.isEmpty() || run(unknown, PING, timeoutMillis, false, true).getCount(Status.SUCCESS) == 0) {
+                break;
+            }
+        }
+        return run(devices, command, timeoutMillis, true, true);
+    }
+
+    /**
+     * Get the round trips of the devices, as measured by their commands.
+     *
+     * @return the estimator
+     */
+    public RoundTripEstimator getRoundTrips() {
+        return estimator;
+    }
+
+    private <T> Report<T> run(Collection<KarotzDevice> devices, DeviceCommand<T> command, long timeoutMillis, boolean synchronize,
+            boolean measure) throws InterruptedException {
+        long start = System.nanoTime();
+        long sendAt = start;
+        if (synchronize) {
+            // Leave the threads time to be ready, then send to the farthest device first
+            long farthest = 0;
+            for (KarotzDevice device : devices) {
+                farthest = Math.max(farthest, estimator.getOneWayNanos(device.getId()));
+            }
+            sendAt = start + TimeUnit.MILLISECONDS.toNanos(DISPATCH_LEAD) + farthest;
+        }
+
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Task<T>> tasks = new ArrayList<Task<T>>(devices.size());
+        for (KarotzDevice device : devices) {
+            long dispatchAt = synchronize ? sendAt - estimator.getOneWayNanos(device.getId()) : start;
+            Task<T> task = new Task<T>(device, command, start, dispatchAt, timeoutNanos, measure);
+            task.future = workers.submit(task);
+            tasks.add(task);
+        }
+
+        List<Result<T>> results = new ArrayList<Result<T>>(tasks.size());
+        try {
+            // Devices queued behind others start late, at worst once per round of the worker threads
+            int rounds = (tasks.size() + workers.getMaximumPoolSize() - 1) / workers.getMaximumPoolSize();
+            long last = sendAt + rounds * (timeoutNanos + TimeUnit.MILLISECONDS.toNanos(GRACE_PERIOD));
+            for (Task<T> task : tasks) {
+                results.add(task.await(last));
+            }
+        } catch (InterruptedException e) {
+            for (Task<T> task : tasks) {
+                task.timeout();
+            }
+            throw e;
+        }
+
+        Report<T> report = new Report<T>(results, System.nanoTime() - start);
+        Log.d(LOG_TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Stop the worker threads. Running commands are cancelled.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        timer.shutdownNow();
+    }
+
+
+    /**
+     * Outcome of a command on a device.
+     */
+    public enum Status {
+
+        /** The command succeeded. */
+        SUCCESS,
+
+        /** The command failed or could not be sent. */
+        FAILED,
+
+        /** The device did not answer in time. */
+        TIMEOUT
+    }
+
+
+    /**
+     * Outcome of a command on a single device.
+     *
+     * @param <T> the type of the command result
+     */
+    public static final class Result<T> {
+
+        Result(KarotzDevice device, Status status, T value, Exception error, long elapsedNanos) {
+            this(device, status, value, error, elapsedNanos, 0, 0);
+        }
+
+        Result(KarotzDevice device, Status status, T value, Exception error, long elapsedNanos, long sentAt, long answeredAt) {
+            this.device = device;
+            this.status = status;
+            this.value = value;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+            this.sentAt = sentAt;
+            this.answeredAt = answeredAt;
+        }
+
+        /**
+         * Get the device.
+         *
+         * @return the device
+         */
+        public KarotzDevice getDevice() {
+            return device;
+        }
+
+        /**
+         * Get the outcome.
+         *
+         * @return the outcome
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Check if the command succeeded.
+         *
+         * @return <code>true</code> if succeeded
+         */
+        public boolean isSuccess() {
+            return status == Status.SUCCESS;
+        }
+
+        /**
+         * Get the command result.
+         *
+         * @return the result, <code>null</code> if the command did not succeed
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Get the error of a failed command.
+         *
+         * @return the error, or <code>null</code>
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * Get the time from the start of the fan-out to the answer of this device.
+         *
+         * @return the time, in milliseconds
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * Get the round trip of the command.
+         *
+         * @return the time from sending the command to its answer, in milliseconds, <code>0</code> if not answered
+         */
+        public double getRoundTripMillis() {
+            return (answeredAt - sentAt) / 1e6;
+        }
+
+        /**
+         * Get the estimated time the command reached the device, halfway through its round trip.
+         *
+         * @return the time, from {@link System#nanoTime()}
+         */
+        long getArrivalNanos() {
+            return sentAt + (answeredAt - sentAt) / 2;
+        }
+
+        @Override
+        public String toString() {
+            return device.getName() + " (" + device.getHostname() + ":" + device.getPort() + "): " + status
+                    + " in " + getElapsedMillis() + " ms" + (error != null ? ", " + error.getMessage() : "");
+        }
+
+
+        private final KarotzDevice device;
+
+        private final Status status;
+
+        private final T value;
+
+        private final Exception error;
+
+        private final long elapsedNanos;
+
+        /** Times the command was sent and answered, from {@link System#nanoTime()}. */
+        private final long sentAt;
+
+        private final long answeredAt;
+    }
+
+
+    /**
+     * Outcome of a command on all devices, including partial failures.
+     *
+     * @param <T> the type of the command result
+     */
+    public static final class Report<T> {
+
+        Report(List<Result<T>> results, long elapsedNanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Get the outcome of every device, in the order of the devices.
+         *
+         * @return the results
+         */
+        public List<Result<T>> getResults() {
+            return results;
+        }
+
+        /**
+         * Get the number of devices with an outcome.
+         *
+         * @param status the outcome
+         * @return the number of devices
+         */
+        public int getCount(Status status) {
+            int count = 0;
+            for (Result<T> r : results) {
+                if (r.status == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Get the devices on which the command did not succeed.
+         *
+         * @return the devices
+         */
+        public List<KarotzDevice> getFailedDevices() {
+            List<KarotzDevice> failed = new ArrayList<KarotzDevice>();
+            for (Result<T> r : results) {
+                if (!r.isSuccess()) {
+                    failed.add(r.device);
+                }
+            }
+            return failed;
+        }
+
+        /**
+         * Check if the command succeeded on all devices.
+         *
+         * @return <code>true</code> if all succeeded
+         */
+        public boolean isAllSucceeded() {
+            return getCount(Status.SUCCESS) == results.size();
+        }
+
+        /**
+         * Get the time the whole fan-out took.
+         *
+         * @return the time, in milliseconds
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * Get the spread of the times the command reached the devices that answered, each estimated halfway through
+         * its round trip.
+         *
+         * @return the skew, in milliseconds, <code>0</code> with less than two answers
+         */
+        public double getSkewMillis() {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (Result<T> r : results) {
+                if (r.isSuccess()) {
+                    first = Math.min(first, r.getArrivalNanos());
+                    last = Math.max(last, r.getArrivalNanos());
+                }
+            }
+            return first < last ? (last - first) / 1e6 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return results.size() + " devices in " + getElapsedMillis() + " ms: " + getCount(Status.SUCCESS) + " succeeded, "
+                    + getCount(Status.FAILED) + " failed, " + getCount(Status.TIMEOUT) + " timed out, skew "
+                    + String.format(Locale.ROOT, "%.1f", getSkewMillis()) + " ms";
+        }
+
+
+        private final List<Result<T>> results;
+
+        private final long elapsedNanos;
+    }
+
+
+    /**
+     * Command running on a device.
+     */
+    private final class Task<T> implements Callable<Result<T>> {
+
+        Task(KarotzDevice device, DeviceCommand<T> command, long start, long dispatchAt, long timeoutNanos,
+                boolean measure) {
+            this.device = device;
+            this.command = command;
+            this.start = start;
+            this.dispatchAt = dispatchAt;
+            this.timeoutNanos = timeoutNanos;
+            this.measure = measure;
+        }
+
+        @Override
+        public Result<T> call() {
+            // The timeout starts when the device is reached, not while it waits for a worker thread
+            long now = System.nanoTime();
+            deadline = Math.max(now, dispatchAt) + timeoutNanos;
+            ScheduledFuture<?> cutOff = timer.schedule(this::timeout, deadline - now, TimeUnit.NANOSECONDS);
+            Cancellation.bind(cancellation);
+            try {
+                IKarotz karotz = registry.get(device);
+                for (long wait = dispatchAt - System.nanoTime(); wait > 0; wait = dispatchAt - System.nanoTime()) {
+                    if (cancellation.isCancelled() || Thread.interrupted()) {
+                        return timedOut();
+                    }
+                    LockSupport.parkNanos(wait);
+                }
+                if (cancellation.isCancelled()) {
+                    return timedOut();
+                }
+
+                long sentAt = System.nanoTime();
+                T value = command.execute(karotz);
+                long answeredAt = System.nanoTime();
+                Status status = Boolean.FALSE.equals(value) ? Status.FAILED : Status.SUCCESS;
+                if (measure && status == Status.SUCCESS) {
+                    estimator.record(device.getId(), answeredAt - sentAt);
+                }
+                return new Result<T>(device, status, status == Status.SUCCESS ? value : null, null, answeredAt - start,
+                        sentAt, answeredAt);
+            } catch (IOException | RuntimeException e) {
+                if (cancellation.isCancelled()) {
+                    return timedOut();
+                }
+                return new Result<T>(device, Status.FAILED, null, e, System.nanoTime() - start);
+            } finally {
+                Cancellation.bind(null);
+                cutOff.cancel(false);
+            }
+        }
+
+        /**
+         * Cut off the device: the connection is closed, or the command is dropped if it did not start yet.
+         */
+        void timeout() {
+            cancellation.cancel();
+            Future<Result<T>> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+
+        /**
+         * Wait for the outcome, until the timeout of the device and a grace period, or until the last time a queued
+         * device can start.
+         */
+        Result<T> await(long last) throws InterruptedException {
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long started = deadline;
+                    long end = started != 0 ? started + TimeUnit.MILLISECONDS.toNanos(GRACE_PERIOD) : last;
+                    if (end - now <= 0) {
+                        // Stuck where it cannot be cancelled, or never started, do not wait for it
+                        future.cancel(true);
+                        return timedOut();
+                    }
+                    try {
+                        // Still queued: check again once in a while whether it started
+                        long wait = started != 0 ? end - now
+                                : Math.min(end - now, TimeUnit.MILLISECONDS.toNanos(GRACE_PERIOD));
+                        return future.get(wait, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        // Check the deadline again
+                    }
+                }
+            } catch (CancellationException e) {
+                return timedOut();
+            } catch (ExecutionException e) {
+                // Cannot happen, errors are caught by the task
+                return new Result<T>(device, Status.FAILED, null, e, System.nanoTime() - start);
+            }
+        }
+
+        private Result<T> timedOut() {
+            return new Result<T>(device, Status.TIMEOUT, null, null, System.nanoTime() - start);
+        }
+
+
+        private final KarotzDevice device;
+
+        private final DeviceCommand<T> command;
+
+        private final long start;
+
+        /** Time the command is sent, from {@link System#nanoTime()}. */
+        private final long dispatchAt;
+
+        /** Time given to the device once the command is sent, in nanoseconds. */
+        private final long timeoutNanos;
+
+        /** Whether the round trip is recorded, only for commands always sending a request. */
+        private final boolean measure;
+
+        /** End of the timeout, from {@link System#nanoTime()}, <code>0</code> while waiting for a worker thread. */
+        private volatile long deadline;
+
+        private final Cancellation cancellation = new Cancellation();
+
+        private volatile Future<Result<T>> future;
+    }
+
+
+    private final KarotzRegistry registry;
+
+    private final ThreadPoolExecutor workers;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final RoundTripEstimator estimator = new RoundTripEstimator();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /** Default number of devices reached at the same time. */
+    public static final int DEFAULT_THREADS = 16;
+
+    /** Default time each device is given, in milliseconds. */
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    /** Round trips needed per device before a synchronized command, as few pings cannot tell the latency. */
+    public static final int MIN_SAMPLES = 3;
+
+    /** Maximum number of ping rounds before a synchronized command. */
+    private static final int CALIBRATION_ROUNDS = 3;
+
+    /** Time given to the threads to be ready before a synchronized command is sent, in milliseconds. */
+    private static final long DISPATCH_LEAD = 20;
+
+    /** Cheap request measuring the round trip to a device. */
+    private static final DeviceCommand<Boolean> PING = IKarotz::isOnline;
+
+    /** Time waited past the timeout for a command that cannot be cut off, in milliseconds. */
+    private static final long GRACE_PERIOD = 500;
+
+    private static final long KEEP_ALIVE = 30000;
+
+    private static final String LOG_TAG = FanOut.class.getSimpleName();
+}
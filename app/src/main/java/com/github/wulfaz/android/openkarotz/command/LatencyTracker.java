@@ -0,0 +1,125 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.command;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the latency and the rate of a stream of commands, such as a live LED preview.
+ */
+public final class LatencyTracker {
+
+    /**
+     * Record a completed command.
+     *
+     * @param latencyNanos the time the command took, in nanoseconds
+     */
+    public void record(long latencyNanos) {
+        record(latencyNanos, System.nanoTime());
+    }
+
+    /**
+     * Record a completed command.
+     *
+     * @param latencyNanos the time the command took, in nanoseconds
+     * @param completedAt the time the command completed, from {@link System#nanoTime()}
+     */
+    public synchronized void record(long latencyNanos, long completedAt) {
+        last = latencyNanos;
+        average = count == 0 ? latencyNanos : average + (latencyNanos - average) * SMOOTHING;
+        completions[(int) (count % completions.length)] = completedAt;
+        count++;
+    }
+
+    /**
+     * Get the number of recorded commands.
+     *
+     * @return the number of commands
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the latency of the last command.
+     *
+     * @return the latency, in milliseconds
+     */
+    public synchronized long getLastMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(last);
+    }
+
+    /**
+     * Get the smoothed average latency.
+     *
+     * @return the average latency, in milliseconds
+     */
+    public synchronized long getAverageMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) average);
+    }
+
+    /**
+     * Get the number of commands completed per second, over the last recorded commands.
+     *
+     * @return the rate, 0 if less than two commands were recorded
+     */
+    public synchronized double getRate() {
+        int n = (int) Math.min(count, completions.length);
+        if (n < 2) {
+            return 0;
+        }
+        long newest = completions[(int) ((count - 1) % completions.length)];
+        long oldest = completions[(int) ((count - n) % completions.length)];
+        return newest == oldest ? 0 : (n - 1) * 1e9 / (newest - oldest);
+    }
+
+    /**
+     * Forget all recorded commands.
+     */
+    public synchronized void reset() {
+        count = 0;
+        last = 0;
+        average = 0;
+    }
+
+
+    private final long[] completions = new long[WINDOW];
+
+    private long count;
+
+    private long last;
+
+    private double average;
+
+    /** Number of commands the rate is computed on. */
+    private static final int WINDOW = 32;
+
+    /** Weight of the latest latency in the average. */
+    private static final double SMOOTHING = 0.2;
+}
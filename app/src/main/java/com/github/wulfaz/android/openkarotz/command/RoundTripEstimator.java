@@ -0,0 +1,123 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Estimates the one-way latency to each device from its recent round trips.
+ * <p>
+ * The shortest of the last round trips is kept: queuing on the network or on the rabbit only ever adds delay, so the
+ * shortest one is the closest to the network latency. Half of it is taken as the one-way latency.
+ */
+public final class RoundTripEstimator {
+
+    /**
+     * Record the round trip of a request answered by a device.
+     *
+     * @param deviceId the device ID
+     * @param roundTripNanos the time from sending the request to receiving the answer, in nanoseconds
+     */
+    public synchronized void record(long deviceId, long roundTripNanos) {
+        Samples samples = devices.get(deviceId);
+        if (samples == null) {
+            samples = new Samples();
+            devices.put(deviceId, samples);
+        }
+        samples.values[samples.count % WINDOW] = roundTripNanos;
+        samples.count++;
+    }
+
+    /**
+     * Get the number of recent round trips of a device, at most {@link #WINDOW}.
+     *
+     * @param deviceId the device ID
+     * @return the number of round trips
+     */
+    public synchronized int getSampleCount(long deviceId) {
+        Samples samples = devices.get(deviceId);
+        return samples == null ? 0 : Math.min(samples.count, WINDOW);
+    }
+
+    /**
+     * Get the shortest recent round trip of a device.
+     *
+     * @param deviceId the device ID
+     * @return the round trip, in nanoseconds, or <code>-1</code> if unknown
+     */
+    public synchronized long getRoundTripNanos(long deviceId) {
+        Samples samples = devices.get(deviceId);
+        if (samples == null) {
+            return -1;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = Math.min(samples.count, WINDOW) - 1; i >= 0; i--) {
+            min = Math.min(min, samples.values[i]);
+        }
+        return min;
+    }
+
+    /**
+     * Get the estimated one-way latency to a device.
+     *
+     * @param deviceId the device ID
+     * @return the latency, in nanoseconds, <code>0</code> if unknown
+     */
+    public long getOneWayNanos(long deviceId) {
+        long rtt = getRoundTripNanos(deviceId);
+        return rtt < 0 ? 0 : rtt / 2;
+    }
+
+    /**
+     * Forget the round trips of a device, typically when its address changes.
+     *
+     * @param deviceId the device ID
+     */
+    public synchronized void forget(long deviceId) {
+        devices.remove(deviceId);
+    }
+
+
+    /**
+     * Recent round trips of a device.
+     */
+    private static final class Samples {
+
+        final long[] values = new long[WINDOW];
+
+        int count;
+    }
+
+
+    private final Map<Long, Samples> devices = new HashMap<Long, Samples>();
+
+    /** Number of round trips kept per device. */
+    public static final int WINDOW = 8;
+}
@@ -34,13 +34,15 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 /**
  * Room database for the OpenKarotz application.
  */
 @Database(
-    entities = {KarotzDevice.class},
-    version = 1,
+    entities = {KarotzDevice.class, RadioStation.class, RadioSyncState.class},
+    version = 2,
     exportSchema = false
 )
 @TypeConverters({DatabaseConverters.class})
@@ -51,6 +53,20 @@ public abstract class AppDatabase extends RoomDatabase {
     
     public abstract KarotzDeviceDao karotzDeviceDao();
     
+    public abstract RadioStationDao radioStationDao();
+    
+    // Version 2: radio stations of each device
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `radio_stations` (`deviceId` INTEGER NOT NULL, "
+                    + "`stationId` INTEGER NOT NULL, `name` TEXT NOT NULL, `url` TEXT NOT NULL, "
+                    + "`position` INTEGER NOT NULL, PRIMARY KEY(`deviceId`, `stationId`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `radio_sync_state` (`deviceId` INTEGER NOT NULL, "
+                    + "`hash` TEXT, `syncedAt` INTEGER NOT NULL, PRIMARY KEY(`deviceId`))");
+        }
+    };
+    
     public static AppDatabase getInstance(Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
@@ -60,6 +76,7 @@ public abstract class AppDatabase extends RoomDatabase {
                             AppDatabase.class,
                             DATABASE_NAME
                     )
+                    .addMigrations(MIGRATION_1_2)
                     .addCallback(new DatabaseCallback())
                     .build();
                 }
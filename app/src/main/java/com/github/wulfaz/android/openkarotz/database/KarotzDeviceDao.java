@@ -33,9 +33,11 @@ import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data Access Object for Karotz device operations.
@@ -88,6 +90,14 @@ public interface KarotzDeviceDao {
     @Query("UPDATE karotz_devices SET isOnline = :isOnline, lastSeen = :lastSeen WHERE id = :id")
     void updateOnlineStatus(long id, boolean isOnline, long lastSeen);
     
+    @Transaction
+    default void updateOnlineStatuses(Map<Long, Boolean> statuses, long lastSeen) {
+        // Single transaction, observers are notified once
+        for (Map.Entry<Long, Boolean> status : statuses.entrySet()) {
+            updateOnlineStatus(status.getKey(), status.getValue(), lastSeen);
+        }
+    }
+    
     @Query("UPDATE karotz_devices SET version = :version WHERE id = :id")
     void updateVersion(long id, String version);
     
@@ -0,0 +1,118 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+
+import java.util.Objects;
+
+/**
+ * Entity representing a radio station stored on a Karotz device.
+ */
+@Entity(tableName = "radio_stations", primaryKeys = {"deviceId", "stationId"})
+public class RadioStation {
+    
+    public long deviceId;
+    
+    // Station id on the Karotz
+    public int stationId;
+    
+    @NonNull
+    public String name = "";
+    
+    @NonNull
+    public String url = "";
+    
+    // Order in the Karotz list
+    public int position;
+    
+    // Constructors
+    public RadioStation() {}
+    
+    @Ignore
+    public RadioStation(long deviceId, int stationId, @NonNull String name, @NonNull String url, int position) {
+        this.deviceId = deviceId;
+        this.stationId = stationId;
+        this.name = name;
+        this.url = url;
+        this.position = position;
+    }
+    
+    // Getters
+    public long getDeviceId() {
+        return deviceId;
+    }
+    
+    public int getStationId() {
+        return stationId;
+    }
+    
+    @NonNull
+    public String getName() {
+        return name;
+    }
+    
+    @NonNull
+    public String getUrl() {
+        return url;
+    }
+    
+    public int getPosition() {
+        return position;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RadioStation)) return false;
+        RadioStation that = (RadioStation) o;
+        return deviceId == that.deviceId
+                && stationId == that.stationId
+                && position == that.position
+                && name.equals(that.name)
+                && url.equals(that.url);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, stationId, name, url, position);
+    }
+    
+    @Override
+    public String toString() {
+        return "RadioStation{" +
+                "deviceId=" + deviceId +
+                ", stationId=" + stationId +
+                ", name='" + name + '\'' +
+                ", position=" + position +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.database;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Delete;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Update;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the radio stations of Karotz devices.
+ */
+@Dao
+public interface RadioStationDao {
+    
+    @Query("SELECT * FROM radio_stations WHERE deviceId = :deviceId ORDER BY position ASC")
+    LiveData<List<RadioStation>> getStations(long deviceId);
+    
+    @Query("SELECT * FROM radio_stations WHERE deviceId = :deviceId ORDER BY position ASC")
+    List<RadioStation> getStationsSync(long deviceId);
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertStations(List<RadioStation> stations);
+    
+    @Update
+    void updateStations(List<RadioStation> stations);
+    
+    @Delete
+    void deleteStations(List<RadioStation> stations);
+    
+    @Query("DELETE FROM radio_stations WHERE deviceId = :deviceId")
+    void deleteAllStations(long deviceId);
+    
+    @Query("SELECT * FROM radio_sync_state WHERE deviceId = :deviceId")
+    RadioSyncState getSyncState(long deviceId);
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void setSyncState(RadioSyncState state);
+    
+    @Query("DELETE FROM radio_sync_state WHERE deviceId = :deviceId")
+    void deleteSyncState(long deviceId);
+    
+    @Transaction
+    default void applyChanges(List<RadioStation> inserts, List<RadioStation> updates, List<RadioStation> deletes,
+            RadioSyncState state) {
+        // Single transaction, observers are notified once
+        if (!deletes.isEmpty()) {
+            deleteStations(deletes);
+        }
+        if (!updates.isEmpty()) {
+            updateStations(updates);
+        }
+        if (!inserts.isEmpty()) {
+            insertStations(inserts);
+        }
+        setSyncState(state);
+    }
+    
+    @Transaction
+    default void deleteAllForDevice(long deviceId) {
+        deleteAllStations(deviceId);
+        deleteSyncState(deviceId);
+    }
+}
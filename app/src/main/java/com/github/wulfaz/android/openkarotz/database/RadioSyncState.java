@@ -0,0 +1,78 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity recording the last radio list synchronized from a Karotz device.
+ */
+@Entity(tableName = "radio_sync_state")
+public class RadioSyncState {
+    
+    @PrimaryKey
+    public long deviceId;
+    
+    // Content hash of the radio list
+    public String hash;
+    
+    public long syncedAt;
+    
+    // Constructors
+    public RadioSyncState() {}
+    
+    @Ignore
+    public RadioSyncState(long deviceId, String hash, long syncedAt) {
+        this.deviceId = deviceId;
+        this.hash = hash;
+        this.syncedAt = syncedAt;
+    }
+    
+    // Getters
+    public long getDeviceId() {
+        return deviceId;
+    }
+    
+    public String getHash() {
+        return hash;
+    }
+    
+    public long getSyncedAt() {
+        return syncedAt;
+    }
+    
+    @NonNull
+    @Override
+    public String toString() {
+        return "RadioSyncState{deviceId=" + deviceId + ", hash='" + hash + "', syncedAt=" + syncedAt + '}';
+    }
+}
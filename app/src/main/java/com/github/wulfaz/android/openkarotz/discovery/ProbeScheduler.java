@@ -0,0 +1,351 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.discovery;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+
+/**
+ * Checks whether Karotz devices are online, with a bounded number of threads.
+ * <p>
+ * Each device is probed at most once at a time. A device found online is not probed again before
+ * {@link #RECHECK_INTERVAL}; an offline device is retried with an exponential backoff. Only status changes are
+ * reported, in batches, so that writing them to the database (which emits the device list again) does not start
+ * a new round of probes.
+ */
+public class ProbeScheduler {
+
+    /**
+     * Initialize a new scheduler with default settings.
+     *
+     * @param probe the probe checking a single device
+     * @param writer the writer of status changes
+     */
+    public ProbeScheduler(Probe probe, StatusWriter writer) {
+        this(probe, writer, DEFAULT_THREADS, System::nanoTime);
+    }
+
+    ProbeScheduler(Probe probe, StatusWriter writer, int threads, LongSupplier clock) {
+        this.probe = probe;
+        this.writer = writer;
+        this.clock = clock;
+        this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "Karotz probe #" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Probe a TCP connection to the Karotz web server.
+     *
+     * @param timeoutMillis the connect timeout, in milliseconds
+     * @return the probe
+     */
+    public static Probe tcpProbe(int timeoutMillis) {
+        return (host, port) -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Probe the Karotz API with a <code>HEAD</code> request, no body is transferred.
+     *
+     * @param timeoutMillis the connect and read timeout, in milliseconds
+     * @return the probe
+     */
+    public static Probe headProbe(int timeoutMillis) {
+        return (host, port) -> {
+            HttpURLConnection conn = (HttpURLConnection) new URL("http", host, port, STATUS_PATH).openConnection();
+            try {
+                conn.setRequestMethod("HEAD");
+                conn.setConnectTimeout(timeoutMillis);
+                conn.setReadTimeout(timeoutMillis);
+                return conn.getResponseCode() < 500;
+            } finally {
+                conn.disconnect();
+            }
+        };
+    }
+
+    /**
+     * Probe the devices that are due, skipping those already being probed or backing off.
+     *
+     * @param devices the current list of devices, as stored in the database
+     * @return the number of probes started
+     */
+    public int probeAll(Collection<KarotzDevice> devices) {
+        int started = 0;
+        long now = clock.getAsLong();
+
+        synchronized (this) {
+            Set<Long> ids = new HashSet<Long>();
+            for (KarotzDevice device : devices) {
+                ids.add(device.getId());
+                DeviceState state = states.get(device.getId());
+                if (state == null || !state.isSameAddress(device)) {
+                    // New or edited device, probe right away
+                    state = new DeviceState(device.getHostname(), device.getPort());
+                    states.put(device.getId(), state);
+                }
+                if (!pending.containsKey(device.getId())) {
+                    state.stored = device.isOnline();
+                }
+
+                if (state.probing || (state.probed && now - state.notBefore < 0)) {
+                    continue;
+                }
+                state.probing = true;
+                probing++;
+                started++;
+                long id = device.getId();
+                executor.execute(() -> probe(id));
+            }
+            // Forget deleted devices
+            states.keySet().retainAll(ids);
+        }
+
+        if (started > 0) {
+            Log.d(LOG_TAG, "Probing " + started + " of " + devices.size() + " devices");
+        }
+        return started;
+    }
+
+    /**
+     * Stop probing. Pending status changes are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void probe(long id) {
+        String host;
+        int port;
+        synchronized (this) {
+            DeviceState state = states.get(id);
+            if (state == null) {
+                probing--;
+                return;
+            }
+            host = state.host;
+            port = state.port;
+        }
+
+        boolean online;
+        try {
+            online = probe.isOnline(host, port);
+        } catch (IOException e) {
+            online = false;
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Cannot probe " + host + ":" + port + ": " + e.getMessage());
+            online = false;
+        }
+
+        boolean flushNow = false;
+        synchronized (this) {
+            probing--;
+            DeviceState state = states.get(id);
+            if (state != null) {
+                state.probing = false;
+                state.probed = true;
+                long now = clock.getAsLong();
+                if (online) {
+                    state.failures = 0;
+                    state.notBefore = now + TimeUnit.MILLISECONDS.toNanos(RECHECK_INTERVAL);
+                } else {
+                    state.failures++;
+                    long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(state.failures - 1, 16));
+                    state.notBefore = now + TimeUnit.MILLISECONDS.toNanos(backoff);
+                }
+                if (online != state.stored) {
+                    pending.put(id, online);
+                } else {
+                    pending.remove(id);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                if (probing == 0) {
+                    flushNow = true;
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    executor.schedule(this::flush, BATCH_DELAY, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        Map<Long, Boolean> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new HashMap<Long, Boolean>(pending);
+            pending.clear();
+            for (Map.Entry<Long, Boolean> e : batch.entrySet()) {
+                DeviceState state = states.get(e.getKey());
+                if (state != null) {
+                    state.stored = e.getValue();
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "Writing " + batch.size() + " status changes");
+        writer.write(batch);
+    }
+
+
+    /**
+     * Checks if a single device is online.
+     */
+    public interface Probe {
+
+        /**
+         * Check if a device is online.
+         *
+         * @param host the device hostname
+         * @param port the device port
+         * @return <code>true</code> if online
+         * @throws IOException if the device cannot be reached
+         */
+        boolean isOnline(String host, int port) throws IOException;
+    }
+
+    /**
+     * Writes status changes, typically to the database.
+     */
+    public interface StatusWriter {
+
+        /**
+         * Write a batch of status changes. Called on a probe thread.
+         *
+         * @param statuses the new online status, by device ID
+         */
+        void write(Map<Long, Boolean> statuses);
+    }
+
+
+    /**
+     * Probe state of a device.
+     */
+    private static final class DeviceState {
+
+        DeviceState(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        boolean isSameAddress(KarotzDevice device) {
+            return port == device.getPort() && host.equals(device.getHostname());
+        }
+
+
+        final String host;
+
+        final int port;
+
+        /** Online status as last stored. */
+        boolean stored;
+
+        boolean probing;
+
+        boolean probed;
+
+        int failures;
+
+        /** Time before which the device is not probed again, from the clock. */
+        long notBefore;
+    }
+
+
+    private final Probe probe;
+
+    private final StatusWriter writer;
+
+    private final LongSupplier clock;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private final Map<Long, DeviceState> states = new HashMap<Long, DeviceState>();
+
+    private final Map<Long, Boolean> pending = new HashMap<Long, Boolean>();
+
+    private int probing;
+
+    private boolean flushScheduled;
+
+    /** Default number of devices probed at the same time. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** Default probe timeout, in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 1500;
+
+    /** Time before an online device is probed again, in milliseconds. */
+    public static final long RECHECK_INTERVAL = 30000;
+
+    /** Time before an offline device is probed again after its first failure, in milliseconds. */
+    public static final long BASE_BACKOFF = 5000;
+
+    /** Maximum time before an offline device is probed again, in milliseconds. */
+    public static final long MAX_BACKOFF = 300000;
+
+    /** Time status changes are gathered before being written, in milliseconds. */
+    public static final long BATCH_DELAY = 250;
+
+    private static final String STATUS_PATH = "/cgi-bin/status";
+
+    private static final String LOG_TAG = ProbeScheduler.class.getSimpleName();
+}
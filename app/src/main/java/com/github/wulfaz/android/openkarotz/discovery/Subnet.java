@@ -0,0 +1,215 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.discovery;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An IPv4 subnet, in CIDR notation.
+ */
+public final class Subnet {
+
+    private Subnet(int network, int prefix) {
+        this.prefix = prefix;
+        this.network = network & mask(prefix);
+    }
+
+    /**
+     * Parse a subnet like <code>192.168.1.0/24</code>. A single address is taken as its /24.
+     *
+     * @param cidr the subnet
+     * @return the subnet
+     * @throws IllegalArgumentException if the subnet is not valid or too large to be scanned
+     */
+    public static Subnet parse(String cidr) {
+        if (cidr == null) {
+            throw new IllegalArgumentException("No subnet");
+        }
+        String value = cidr.trim();
+        int prefix = DEFAULT_PREFIX;
+        int slash = value.indexOf('/');
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix: " + cidr);
+            }
+            value = value.substring(0, slash);
+        }
+        if (prefix < MIN_PREFIX || prefix > 32) {
+            throw new IllegalArgumentException("Prefix must be between " + MIN_PREFIX + " and 32: " + cidr);
+        }
+
+        String[] parts = value.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + cidr);
+        }
+        int address = 0;
+        for (String part : parts) {
+            int b;
+            try {
+                b = Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid IPv4 address: " + cidr);
+            }
+            if (b < 0 || b > 255) {
+                throw new IllegalArgumentException("Invalid IPv4 address: " + cidr);
+            }
+            address = (address << 8) | b;
+        }
+        return new Subnet(address, prefix);
+    }
+
+    /**
+     * Get the subnets of the site-local IPv4 addresses of this device, at most /24 each.
+     *
+     * @return the local subnets, empty if not connected
+     */
+    public static List<Subnet> localSubnets() {
+        List<Subnet> subnets = new ArrayList<Subnet>();
+        try {
+            for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!ni.isUp() || ni.isLoopback()) {
+                    continue;
+                }
+                for (InterfaceAddress ia : ni.getInterfaceAddresses()) {
+                    InetAddress address = ia.getAddress();
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        // Larger networks would take too long, scan the neighbourhood only
+                        int prefix = Math.max(DEFAULT_PREFIX, ia.getNetworkPrefixLength());
+                        Subnet subnet = new Subnet(toInt(address.getAddress()), prefix);
+                        if (!subnets.contains(subnet)) {
+                            subnets.add(subnet);
+                        }
+                    }
+                }
+            }
+        } catch (SocketException | NullPointerException e) {
+            // No interface
+        }
+        return subnets;
+    }
+
+    /**
+     * Get the number of host addresses, without the network and broadcast addresses.
+     *
+     * @return the number of hosts
+     */
+    public int getHostCount() {
+        int size = 1 << (32 - prefix);
+        return size > 2 ? size - 2 : size;
+    }
+
+    /**
+     * Get the host addresses, without the network and broadcast addresses.
+     *
+     * @return the hosts
+     */
+    public List<InetAddress> getHosts() {
+        int count = getHostCount();
+        int first = count == 1 << (32 - prefix) ? network : network + 1;
+        List<InetAddress> hosts = new ArrayList<InetAddress>(count);
+        for (int i = 0; i < count; i++) {
+            hosts.add(toAddress(first + i));
+        }
+        return hosts;
+    }
+
+    /**
+     * Get the socket addresses of all hosts on a port.
+     *
+     * @param port the port
+     * @return the addresses to scan
+     */
+    public List<InetSocketAddress> getTargets(int port) {
+        List<InetAddress> hosts = getHosts();
+        List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>(hosts.size());
+        for (InetAddress host : hosts) {
+            targets.add(new InetSocketAddress(host, port));
+        }
+        return targets;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Subnet)) {
+            return false;
+        }
+        Subnet other = (Subnet) o;
+        return network == other.network && prefix == other.prefix;
+    }
+
+    @Override
+    public int hashCode() {
+        return network * 31 + prefix;
+    }
+
+    @Override
+    public String toString() {
+        return toAddress(network).getHostAddress() + '/' + prefix;
+    }
+
+    private static int mask(int prefix) {
+        return prefix == 0 ? 0 : -1 << (32 - prefix);
+    }
+
+    private static int toInt(byte[] address) {
+        return ((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16) | ((address[2] & 0xFF) << 8) | (address[3] & 0xFF);
+    }
+
+    private static InetAddress toAddress(int address) {
+        byte[] bytes = { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen with 4 bytes
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private final int network;
+
+    private final int prefix;
+
+    /** Prefix used for single addresses and local networks. */
+    public static final int DEFAULT_PREFIX = 24;
+
+    /** Largest subnet that can be scanned, 1022 hosts. */
+    public static final int MIN_PREFIX = 22;
+}
@@ -0,0 +1,386 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.karotz.KarotzResponseDecoder;
+
+/**
+ * Finds OpenKarotz rabbits on the local network.
+ * <p>
+ * All addresses are swept with non-blocking connects from a single selector thread, so hundreds of hosts are tried at
+ * the same time and a /24 takes about one connect timeout. Hosts accepting the connection are then confirmed by
+ * decoding their <code>/cgi-bin/status</code> answer on a few worker threads, while the sweep goes on. Rabbits are
+ * reported as soon as they are confirmed.
+ */
+public class SubnetScanner {
+
+    /**
+     * Initialize a new scanner with default settings.
+     */
+    public SubnetScanner() {
+        this(DEFAULT_MAX_CONNECTS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_FINGERPRINT_TIMEOUT);
+    }
+
+    /**
+     * Initialize a new scanner.
+     *
+     * @param maxConnects the maximum number of pending connects
+     * @param connectTimeoutMillis the connect timeout, in milliseconds
+     * @param fingerprintTimeoutMillis the timeout of status requests, in milliseconds
+     */
+    public SubnetScanner(int maxConnects, int connectTimeoutMillis, int fingerprintTimeoutMillis) {
+        this.maxConnects = maxConnects;
+        this.connectTimeout = connectTimeoutMillis;
+        this.fingerprintTimeout = fingerprintTimeoutMillis;
+    }
+
+    /**
+     * Scan a list of addresses. Blocks until all addresses are checked or the scan is cancelled; the listener is
+     * called on the scanner threads.
+     *
+     * @param targets the addresses to scan
+     * @param listener the listener of found rabbits
+     * @return the number of rabbits found
+     * @throws IOException if the selector cannot be opened
+     */
+    public int scan(List<InetSocketAddress> targets, Listener listener) throws IOException {
+        long start = System.nanoTime();
+        AtomicInteger found = new AtomicInteger();
+        List<Future<?>> fingerprints = new ArrayList<Future<?>>();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(FINGERPRINT_THREADS, FINGERPRINT_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "Karotz scan #" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+
+        try (Selector s = Selector.open()) {
+            synchronized (this) {
+                if (cancelled) {
+                    return 0;
+                }
+                selector = s;
+            }
+
+            int next = 0;
+            int pending = 0;
+            long timeout = TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+            while ((next < targets.size() || pending > 0) && !cancelled) {
+                // Keep the pipeline full
+                while (pending < maxConnects && next < targets.size()) {
+                    InetSocketAddress target = targets.get(next++);
+                    int state = connect(s, target, System.nanoTime() + timeout);
+                    if (state == CONNECT_PENDING) {
+                        pending++;
+                    } else if (state == CONNECT_DONE) {
+                        fingerprint(workers, fingerprints, target, found, listener);
+                    }
+                }
+
+                long now = System.nanoTime();
+                long wait = timeout;
+                for (SelectionKey key : s.keys()) {
+                    if (key.isValid()) {
+                        wait = Math.min(wait, ((Pending) key.attachment()).deadline - now);
+                    }
+                }
+                s.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+                Iterator<SelectionKey> it = s.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    boolean connected;
+                    try {
+                        connected = ((SocketChannel) key.channel()).finishConnect();
+                    } catch (IOException e) {
+                        // Refused or unreachable
+                        close(key);
+                        pending--;
+                        continue;
+                    }
+                    if (connected) {
+                        close(key);
+                        pending--;
+                        fingerprint(workers, fingerprints, ((Pending) key.attachment()).target, found, listener);
+                    }
+                }
+
+                // Drop connects past their deadline
+                now = System.nanoTime();
+                for (SelectionKey key : s.keys()) {
+                    if (key.isValid() && ((Pending) key.attachment()).deadline - now <= 0) {
+                        close(key);
+                        pending--;
+                    }
+                }
+            }
+
+            for (SelectionKey key : s.keys()) {
+                close(key);
+            }
+        } finally {
+            synchronized (this) {
+                selector = null;
+            }
+        }
+
+        // Wait for the last confirmations
+        for (Future<?> f : fingerprints) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                // Reported by the worker
+            }
+        }
+        workers.shutdownNow();
+
+        Log.d(LOG_TAG, "Scanned " + targets.size() + " addresses in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + " ms, " + fingerprints.size() + " answered, " + found.get() + " rabbits");
+        if (!cancelled) {
+            listener.onScanFinished(targets.size(), found.get());
+        }
+        return found.get();
+    }
+
+    /**
+     * Stop a running scan. Rabbits being confirmed may still be reported.
+     */
+    public void cancel() {
+        Selector s;
+        synchronized (this) {
+            cancelled = true;
+            s = selector;
+        }
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    /**
+     * Check if the scan was cancelled.
+     *
+     * @return <code>true</code> if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Check if a web server is an OpenKarotz, from its status answer.
+     *
+     * @param host the host
+     * @param port the port
+     * @param timeoutMillis the connect and read timeout, in milliseconds
+     * @return the OpenKarotz version, or <code>null</code> if the server is not an OpenKarotz
+     * @throws IOException if the server cannot be reached
+     */
+    public static String fingerprint(String host, int port, int timeoutMillis) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http", host, port, STATUS_PATH).openConnection();
+        try {
+            conn.setConnectTimeout(timeoutMillis);
+            conn.setReadTimeout(timeoutMillis);
+            conn.setInstanceFollowRedirects(false);
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            KarotzResponseDecoder decoder = KarotzResponseDecoder.forCurrentThread();
+            try (InputStream in = conn.getInputStream()) {
+                if (!decoder.decodeStatus(in)) {
+                    return null;
+                }
+            }
+            String version = decoder.getStatus().getVersion().getVersion();
+            return version != null ? version : "";
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static int connect(Selector selector, InetSocketAddress target, long deadline) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(target)) {
+                // Connected at once, usually on loopback
+                channel.close();
+                return CONNECT_DONE;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, new Pending(target, deadline));
+            return CONNECT_PENDING;
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Ignore
+                }
+            }
+            // Unreachable or unresolved, nothing to confirm
+            return CONNECT_FAILED;
+        }
+    }
+
+    private void fingerprint(ExecutorService workers, List<Future<?>> fingerprints, InetSocketAddress target,
+            AtomicInteger found, Listener listener) {
+        if (!cancelled) {
+            fingerprints.add(workers.submit(() -> {
+                String host = target.getAddress().getHostAddress();
+                try {
+                    String version = fingerprint(host, target.getPort(), fingerprintTimeout);
+                    if (version != null && !cancelled) {
+                        found.incrementAndGet();
+                        Log.i(LOG_TAG, "Found OpenKarotz " + version + " at " + host + ":" + target.getPort());
+                        listener.onKarotzFound(host, target.getPort(), version);
+                    }
+                } catch (IOException e) {
+                    // Not a web server
+                }
+            }));
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+
+    /**
+     * Listener of scan results.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a rabbit is confirmed, on a scanner thread.
+         *
+         * @param host the IP address
+         * @param port the port
+         * @param version the OpenKarotz version, empty if unknown
+         */
+        void onKarotzFound(String host, int port, String version);
+
+        /**
+         * Called when all addresses are checked, unless the scan was cancelled.
+         *
+         * @param scanned the number of addresses scanned
+         * @param found the number of rabbits found
+         */
+        default void onScanFinished(int scanned, int found) {
+            // Nothing by default
+        }
+    }
+
+
+    /**
+     * A connect in progress.
+     */
+    private static final class Pending {
+
+        Pending(InetSocketAddress target, long deadline) {
+            this.target = target;
+            this.deadline = deadline;
+        }
+
+
+        final InetSocketAddress target;
+
+        /** Time the connect is given up, from {@link System#nanoTime()}. */
+        final long deadline;
+    }
+
+
+    private final int maxConnects;
+
+    private final int connectTimeout;
+
+    private final int fingerprintTimeout;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private volatile boolean cancelled;
+
+    private Selector selector;
+
+    /** Default number of connects in progress at the same time. */
+    public static final int DEFAULT_MAX_CONNECTS = 256;
+
+    /** Default connect timeout, in milliseconds. A rabbit on the LAN answers in a few milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 1000;
+
+    /** Default timeout of status requests, in milliseconds. */
+    public static final int DEFAULT_FINGERPRINT_TIMEOUT = 2000;
+
+    /** Number of hosts confirmed at the same time. */
+    public static final int FINGERPRINT_THREADS = 8;
+
+    /** Default port of the OpenKarotz web server. */
+    public static final int DEFAULT_PORT = 80;
+
+    private static final int CONNECT_PENDING = 0;
+
+    private static final int CONNECT_DONE = 1;
+
+    private static final int CONNECT_FAILED = 2;
+
+    private static final String STATUS_PATH = "/cgi-bin/status";
+
+    private static final String LOG_TAG = SubnetScanner.class.getSimpleName();
+}
@@ -49,6 +49,8 @@ import android.widget.Toast;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.activity.MainActivity;
+import com.github.wulfaz.android.openkarotz.command.CommandExecutor;
+import com.github.wulfaz.android.openkarotz.command.LatencyTracker;
 import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
 import com.github.wulfaz.android.openkarotz.task.GetColorAsyncTask;
@@ -65,14 +67,26 @@ public class ColorFragment extends Fragment {
 
     private static final String LOG_TAG = ColorFragment.class.getSimpleName();
 
+    // Minimum interval between two live preview updates, in milliseconds
+    private static final long LIVE_PREVIEW_INTERVAL = 50;
+
     // UI Elements
     private View colorPreview;
     private EditText editHexColor;
     private SeekBar seekBarRed, seekBarGreen, seekBarBlue;
     private TextView textRedValue, textGreenValue, textBlueValue;
     private SwitchCompat pulseSwitch;
+    private SwitchCompat livePreviewSwitch;
+    private TextView textLatency;
     private Button buttonApplyColor;
 
+    // Latency of live preview updates
+    private final LatencyTracker latency = new LatencyTracker();
+
+    // Executor streaming the live preview, and its LED interval to restore when the preview stops
+    private CommandExecutor previewExecutor;
+    private long savedMinInterval;
+
     // Current color values
     private int currentRed = 255;
     private int currentGreen = 0;
@@ -110,6 +124,21 @@ public class ColorFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (livePreviewSwitch.isChecked()) {
+            startPreviewInterval();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        // LED commands sent from other pages keep their own rate
+        stopPreviewInterval();
+    }
+
     private void initializeView(View view) {
         // Color preview
         colorPreview = view.findViewById(R.id.colorPreview);
@@ -135,6 +164,11 @@ public class ColorFragment extends Fragment {
         pulseSwitch = view.findViewById(R.id.switchPulse);
         pulseSwitch.setOnCheckedChangeListener(new PulseSwitchListener());
 
+        // Live preview switch and latency overlay
+        textLatency = view.findViewById(R.id.textLatency);
+        livePreviewSwitch = view.findViewById(R.id.switchLivePreview);
+        livePreviewSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> setLivePreview(isChecked));
+
         // Apply button
         buttonApplyColor = view.findViewById(R.id.buttonApplyColor);
         buttonApplyColor.setOnClickListener(v -> applyColor());
@@ -167,6 +201,7 @@ public class ColorFragment extends Fragment {
 
         btn.setOnClickListener(v -> {
             setColor(r, g, b);
+            streamColor();
         });
     }
 
@@ -212,6 +247,7 @@ public class ColorFragment extends Fragment {
                 seekBarBlue.setProgress(currentBlue);
 
                 updateColorPreview();
+                streamColor();
             } catch (NumberFormatException e) {
                 Log.e(LOG_TAG, "Invalid hex color: " + hex);
             }
@@ -227,6 +263,56 @@ public class ColorFragment extends Fragment {
         new LedChangeTask(getActivity(), color, pulse).execute();
     }
 
+    private void setLivePreview(boolean enabled) {
+        Log.d(LOG_TAG, "Live preview: " + enabled);
+
+        if (enabled) {
+            startPreviewInterval();
+        } else {
+            stopPreviewInterval();
+        }
+
+        latency.reset();
+        textLatency.setText("");
+        textLatency.setVisibility(enabled ? View.VISIBLE : View.GONE);
+
+        streamColor();
+    }
+
+    /**
+     * Stream faster than the usual rate of LED commands while the preview is on, only the latest color is sent anyway.
+     */
+    private void startPreviewInterval() {
+        if (previewExecutor != null) {
+            return;
+        }
+        previewExecutor = CommandExecutor.forDevice(Karotz.getAddress());
+        savedMinInterval = previewExecutor.getMinInterval(LedAsyncTask.COALESCING_KEY);
+        previewExecutor.setMinInterval(LedAsyncTask.COALESCING_KEY, LIVE_PREVIEW_INTERVAL);
+    }
+
+    /**
+     * Restore the rate of LED commands of the device the preview was streaming to.
+     */
+    private void stopPreviewInterval() {
+        if (previewExecutor == null) {
+            return;
+        }
+        previewExecutor.setMinInterval(LedAsyncTask.COALESCING_KEY, savedMinInterval);
+        previewExecutor = null;
+    }
+
+    /**
+     * Send the current color right away if live preview is enabled.
+     */
+    private void streamColor() {
+        if (!livePreviewSwitch.isChecked()) {
+            return;
+        }
+        int color = Color.rgb(currentRed, currentGreen, currentBlue);
+        new LivePreviewTask(getActivity(), color, pulseSwitch.isChecked()).execute();
+    }
+
     // ==================== Inner Classes ====================
 
     private class ColorSeekBarListener implements SeekBar.OnSeekBarChangeListener {
@@ -251,13 +337,17 @@ public class ColorFragment extends Fragment {
             isUpdating = false;
 
             updateColorPreview();
+            streamColor();
         }
 
         @Override
         public void onStartTrackingTouch(SeekBar seekBar) {}
 
         @Override
-        public void onStopTrackingTouch(SeekBar seekBar) {}
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            // Make sure the final color is sent
+            streamColor();
+        }
     }
 
     private class HexTextWatcher implements TextWatcher {
@@ -284,6 +374,7 @@ public class ColorFragment extends Fragment {
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             Log.d(LOG_TAG, "Pulse switch: " + isChecked);
+            streamColor();
         }
     }
 
@@ -299,6 +390,7 @@ public class ColorFragment extends Fragment {
             KarotzStatus status = (KarotzStatus) result;
             boolean awake = (status != null && status.isAwake());
             buttonApplyColor.setEnabled(awake);
+            livePreviewSwitch.setEnabled(awake);
         }
     }
 
@@ -337,21 +429,52 @@ public class ColorFragment extends Fragment {
         }
     }
 
+    /**
+     * Live preview update, timed for the latency overlay.
+     */
+    private class LivePreviewTask extends LedAsyncTask {
+
+        public LivePreviewTask(Activity activity, int color, boolean pulse) {
+            super(activity, color, pulse);
+        }
+
+        @Override
+        protected Integer doInBackground(Object... params) {
+            long start = System.nanoTime();
+            Integer result = super.doInBackground(params);
+            elapsed = System.nanoTime() - start;
+            return result;
+        }
+
+        @Override
+        public void onPostExecute(Object result) {
+            super.onPostExecute(result);
+
+            latency.record(elapsed);
+            if (isAdded()) {
+                textLatency.setText(getString(R.string.color_latency, latency.getLastMillis(),
+                        latency.getAverageMillis(), latency.getRate()));
+            }
+        }
+
+
+        private volatile long elapsed;
+    }
+
     private static class LedChangeTask extends LedAsyncTask {
-        private final Activity activity;
 
         public LedChangeTask(Activity activity, int color, boolean pulse) {
             super(activity, color, pulse);
-            this.activity = activity;
         }
 
         @Override
         public void onPostExecute(Object result) {
             super.onPostExecute(result);
 
+            Activity activity = getActivity();
             if (activity != null && !activity.isFinishing()) {
                 Toast.makeText(activity, R.string.color_applied, Toast.LENGTH_SHORT).show();
             }
         }
     }
-}
\ No newline at end of file
+}
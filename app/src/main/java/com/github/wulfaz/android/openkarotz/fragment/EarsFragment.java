@@ -120,14 +120,13 @@ public class EarsFragment extends Fragment {
 
             @Override
             public void onKnobChanged(int direction, int angle) {
-                // TODO: show position in TextView?
+                // Follow the knob live, superseded positions are dropped by the command queue
+                rotateEars(EarPosition.fromAngle(angle));
             }
 
             @Override
             public void onKnobReleased(int direction, int angle) {
-                EarPosition pos = EarPosition.fromAngle(angle);
-                // Log.v(LOG_TAG, "Knob released on " + angle + "°, ear position " + pos.toString());
-                new RotateEarsTask(getActivity(), pos).execute();
+                rotateEars(EarPosition.fromAngle(angle));
             }
         });
     }
@@ -139,6 +138,8 @@ public class EarsFragment extends Fragment {
 
             @Override
             public void onClick(View v) {
+                // Ears will move, the next knob position must be sent
+                lastEarPosition = null;
                 new EarsRandomTask(getActivity()).execute();
             }
         });
@@ -151,6 +152,8 @@ public class EarsFragment extends Fragment {
 
             @Override
             public void onClick(View v) {
+                // Ears will move, the next knob position must be sent
+                lastEarPosition = null;
                 new EarsResetTask(getActivity()).execute();
             }
         });
@@ -170,6 +173,14 @@ public class EarsFragment extends Fragment {
         initializeEarsDisabled(view);
     }
 
+    private void rotateEars(EarPosition position) {
+        if (position == lastEarPosition) {
+            return;
+        }
+        lastEarPosition = position;
+        new RotateEarsTask(getActivity(), position).execute();
+    }
+
     private static void setEnableFields(boolean enable) {
         earsResetButton.setEnabled(enable);
         earsRandomButton.setEnabled(enable);
@@ -315,6 +326,8 @@ public class EarsFragment extends Fragment {
     }
 
 
+    private EarPosition lastEarPosition = null;
+
     private static RotaryKnob earsKnob = null;
     private static ImageButton earsResetButton = null;
     private static ImageButton earsRandomButton = null;
@@ -29,7 +29,6 @@
 package com.github.wulfaz.android.openkarotz.fragment;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import androidx.fragment.app.Fragment;
 import android.util.Log;
@@ -41,8 +40,9 @@ import android.widget.Toast;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.activity.MainActivity;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
-import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+import com.github.wulfaz.android.openkarotz.task.KarotzAsyncTask;
 
 /**
  * Home fragment.
@@ -95,13 +95,12 @@ public class HomeFragment extends Fragment {
     }
 
     /**
-     * AsyncTask for random mood
+     * Task for random mood
      */
-    private class RandomMoodTask extends AsyncTask<Void, Void, Boolean> {
-        private final Activity activity;
+    private class RandomMoodTask extends KarotzAsyncTask {
 
         RandomMoodTask(Activity activity) {
-            this.activity = activity;
+            super(activity);
         }
 
         @Override
@@ -110,9 +109,14 @@ public class HomeFragment extends Fragment {
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
+        protected void onCancelled() {
+            buttonRandomMood.setEnabled(true);
+        }
+
+        @Override
+        protected Boolean doInBackground(Object... params) {
             try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
+                IKarotz karotz = Karotz.getInstance();
                 if (karotz != null) {
                     return karotz.randomMood();
                 }
@@ -123,12 +127,13 @@ public class HomeFragment extends Fragment {
         }
 
         @Override
-        protected void onPostExecute(Boolean success) {
+        protected void onPostExecute(Object result) {
             buttonRandomMood.setEnabled(true);
 
+            Activity activity = getActivity();
             if (activity == null || activity.isFinishing()) return;
 
-            if (success) {
+            if (Boolean.TRUE.equals(result)) {
                 Toast.makeText(activity, R.string.home_random_mood_success, Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(activity, R.string.home_random_mood_error, Toast.LENGTH_SHORT).show();
@@ -137,13 +142,12 @@ public class HomeFragment extends Fragment {
     }
 
     /**
-     * AsyncTask for random ears
+     * Task for random ears
      */
-    private class RandomEarsTask extends AsyncTask<Void, Void, Boolean> {
-        private final Activity activity;
+    private class RandomEarsTask extends KarotzAsyncTask {
 
         RandomEarsTask(Activity activity) {
-            this.activity = activity;
+            super(activity);
         }
 
         @Override
@@ -152,9 +156,14 @@ public class HomeFragment extends Fragment {
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
+        protected void onCancelled() {
+            buttonRandomEars.setEnabled(true);
+        }
+
+        @Override
+        protected Boolean doInBackground(Object... params) {
             try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
+                IKarotz karotz = Karotz.getInstance();
                 if (karotz != null) {
                     karotz.earsRandom();
                     return true;
@@ -166,12 +175,13 @@ public class HomeFragment extends Fragment {
         }
 
         @Override
-        protected void onPostExecute(Boolean success) {
+        protected void onPostExecute(Object result) {
             buttonRandomEars.setEnabled(true);
 
+            Activity activity = getActivity();
             if (activity == null || activity.isFinishing()) return;
 
-            if (success) {
+            if (Boolean.TRUE.equals(result)) {
                 Toast.makeText(activity, R.string.home_random_ears_success, Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(activity, R.string.home_random_ears_error, Toast.LENGTH_SHORT).show();
@@ -31,11 +31,13 @@ package com.github.wulfaz.android.openkarotz.fragment;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.activity.SettingsActivity;
+import com.github.wulfaz.android.openkarotz.karotz.Karotz;
 
 /**
  * Karotz settings fragment.
@@ -54,6 +56,12 @@ public class KarotzSettingsFragment extends PreferenceFragment implements OnShar
         String value = preferences.getString(SettingsActivity.KEY_PREF_KAROTZ_HOST, "");
         updatePreferenceSummary(SettingsActivity.KEY_PREF_KAROTZ_HOST, value, R.string.karotz_host_pref_summary);
 
+        String backend = preferences.getString(SettingsActivity.KEY_PREF_KAROTZ_BACKEND, Karotz.Backend.NET_UTILS.name());
+        updateBackendSummary(backend);
+
+        String subnet = preferences.getString(SettingsActivity.KEY_PREF_SCAN_SUBNET, "");
+        updatePreferenceSummary(SettingsActivity.KEY_PREF_SCAN_SUBNET, subnet, R.string.scan_subnet_pref_summary);
+
     }
 
     @Override
@@ -73,9 +81,25 @@ public class KarotzSettingsFragment extends PreferenceFragment implements OnShar
         if (key.equals(SettingsActivity.KEY_PREF_KAROTZ_HOST)) {
             String value = preferences.getString(key, "");
             updatePreferenceSummary(key, value, R.string.karotz_host_pref_summary);
+        } else if (key.equals(SettingsActivity.KEY_PREF_KAROTZ_BACKEND)) {
+            String value = preferences.getString(key, Karotz.Backend.NET_UTILS.name());
+            updateBackendSummary(value);
+
+            // Switch the current Karotz instance to the new client
+            Karotz.setBackend(Karotz.Backend.fromPreference(value));
+        } else if (key.equals(SettingsActivity.KEY_PREF_SCAN_SUBNET)) {
+            String value = preferences.getString(key, "");
+            updatePreferenceSummary(key, value, R.string.scan_subnet_pref_summary);
         }
     }
 
+    private void updateBackendSummary(String value) {
+        ListPreference pref = (ListPreference) findPreference(SettingsActivity.KEY_PREF_KAROTZ_BACKEND);
+        int index = pref.findIndexOfValue(value);
+        CharSequence label = index >= 0 ? pref.getEntries()[index] : value;
+        pref.setSummary(getString(R.string.karotz_backend_pref_summary) + ' ' + label);
+    }
+
     private void updatePreferenceSummary(String key, String value, int descResId) {
         Preference pref = findPreference(key);
         pref.setSummary(getString(descResId) + ' ' + value);
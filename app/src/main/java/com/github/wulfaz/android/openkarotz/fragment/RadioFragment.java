@@ -29,15 +29,24 @@
 package com.github.wulfaz.android.openkarotz.fragment;
 
 import android.app.Activity;
-import android.os.AsyncTask;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import androidx.appcompat.widget.SwitchCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -45,29 +54,53 @@ import android.widget.Toast;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.activity.MainActivity;
+import com.github.wulfaz.android.openkarotz.command.FanOut;
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.github.wulfaz.android.openkarotz.database.RadioStation;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
-import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+import com.github.wulfaz.android.openkarotz.media.ContentSource;
+import com.github.wulfaz.android.openkarotz.media.MediaServer;
+import com.github.wulfaz.android.openkarotz.repository.KarotzDeviceRepository;
+import com.github.wulfaz.android.openkarotz.repository.RadioStationRepository;
+import com.github.wulfaz.android.openkarotz.repository.RadioStationSync;
+import com.github.wulfaz.android.openkarotz.search.RadioSearch;
+import com.github.wulfaz.android.openkarotz.search.StationIndex;
+import com.github.wulfaz.android.openkarotz.stream.StreamValidator;
+import com.github.wulfaz.android.openkarotz.task.KarotzAsyncTask;
 import com.github.wulfaz.android.openkarotz.task.SoundAsyncTask;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * Radio fragment - loads radio stations from Karotz.
+ * Radio fragment - shows the radio stations of the Karotz stored in the database, and synchronizes them in the
+ * background. Searching also finds the radios of the bundled catalog.
  */
 public class RadioFragment extends Fragment {
 
     private static final String LOG_TAG = RadioFragment.class.getSimpleName();
+    private static final int SEARCH_LIMIT = 100;
+    private static final int REQUEST_PICK_AUDIO = 1;
 
     private RecyclerView recyclerView;
     private ProgressBar progressBar;
     private TextView textNoRadios;
+    private SwitchCompat switchPlayAll;
+    private EditText editSearch;
+    private Button buttonPlayLocal;
 
     private RadioAdapter adapter;
-    private List<RadioStation> radioStations = new ArrayList<>();
+    private RadioStationRepository repository;
+    private long deviceId;
+    private boolean loaded = false;
+    private int stationCount = 0;
+    private int shownCount = 0;
+
+    private List<RadioStation> stations = Collections.emptyList();
+    private StationIndex<RadioStation>.Session search;
 
     public RadioFragment() {
         // Required empty constructor
@@ -82,16 +115,33 @@ public class RadioFragment extends Fragment {
         getActivity().setTitle(pageTitle);
 
         View view = inflater.inflate(R.layout.page_radio, container, false);
+        repository = RadioStationRepository.getInstance(getActivity());
+        deviceId = Karotz.getDeviceId();
         initializeView(view);
         return view;
     }
 
+    @Override
+    public void onViewCreated(View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        // Render the stored stations at once, then each synchronized change
+        repository.getStations(deviceId).observe(getViewLifecycleOwner(), stations -> {
+            loaded = true;
+            stationCount = stations.size();
+            this.stations = stations;
+            indexStations();
+            showStations();
+            validateStations();
+        });
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
         if (savedInstanceState == null) {
-            loadRadioStations();
+            syncRadioStations();
         }
     }
 
@@ -99,33 +149,151 @@ public class RadioFragment extends Fragment {
         progressBar = view.findViewById(R.id.progressBarRadio);
         textNoRadios = view.findViewById(R.id.textNoRadios);
         recyclerView = view.findViewById(R.id.recyclerViewRadios);
+        switchPlayAll = view.findViewById(R.id.switchPlayAll);
+        editSearch = view.findViewById(R.id.editSearchRadio);
+        buttonPlayLocal = view.findViewById(R.id.buttonPlayLocal);
 
         recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
         adapter = new RadioAdapter();
         recyclerView.setAdapter(adapter);
+
+        editSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                // Nothing to do
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                // Nothing to do
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                showStations();
+            }
+        });
+        buttonPlayLocal.setOnClickListener(v -> pickAudio());
+        updateVisibility();
     }
 
-    private void loadRadioStations() {
-        new LoadRadiosTask(getActivity()).execute();
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == REQUEST_PICK_AUDIO && resultCode == Activity.RESULT_OK && data != null
+                && data.getData() != null) {
+            Uri uri = data.getData();
+            try {
+                // The rabbit may read the file long after this screen is gone
+                getActivity().getContentResolver().takePersistableUriPermission(uri,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w(LOG_TAG, "No persistable permission for " + uri);
+            }
+            new PlayLocalTask(getActivity(), uri, switchPlayAll.isChecked()).execute();
+        }
     }
 
-    // ==================== Radio Station Model ====================
+    private void updateVisibility() {
+        boolean syncing = repository.isSyncing(deviceId);
+        boolean empty = stationCount == 0;
+        progressBar.setVisibility(!loaded || (empty && syncing) ? View.VISIBLE : View.GONE);
+        textNoRadios.setVisibility(loaded && shownCount == 0 && !(empty && syncing) ? View.VISIBLE : View.GONE);
+        recyclerView.setVisibility(shownCount == 0 ? View.GONE : View.VISIBLE);
+    }
 
-    private static class RadioStation {
-        int id;
-        String name;
-        String url;
+    // ==================== Search ====================
 
-        RadioStation(int id, String name, String url) {
-            this.id = id;
-            this.name = name;
-            this.url = url;
+    private void indexStations() {
+        Activity activity = getActivity();
+        List<RadioStation> indexed = stations;
+        RadioSearch.buildIndexAsync(activity, deviceId, indexed, index -> activity.runOnUiThread(() -> {
+            // Drop indexes of replaced station lists
+            if (isAdded() && getView() != null && indexed == stations) {
+                search = index.newSession();
+                showStations();
+            }
+        }));
+    }
+
+    /**
+     * Show the stored stations, or the search results while a query is typed. Searching is fast enough to run on each
+     * key stroke.
+     */
+    private void showStations() {
+        String query = editSearch.getText().toString();
+        List<RadioStation> shown = stations;
+        if (search != null && !StationIndex.tokenize(query).isEmpty()) {
+            shown = search.search(query, SEARCH_LIMIT);
+        }
+        shownCount = shown.size();
+        adapter.submitList(shown);
+        updateVisibility();
+    }
+
+    // ==================== Stream Check ====================
+
+    /**
+     * Check the streams of the stations in the background, so that playing one of them does not wait for its check.
+     */
+    private void validateStations() {
+        List<String> urls = new ArrayList<>(stations.size());
+        for (RadioStation station : stations) {
+            urls.add(station.getUrl());
+        }
+        StreamValidator.getInstance().validateAll(urls, null);
+    }
+
+    // ==================== Radio Sync ====================
+
+    private void syncRadioStations() {
+        IKarotz karotz = Karotz.getInstance();
+        if (karotz == null) {
+            return;
+        }
+
+        Activity activity = getActivity();
+        repository.sync(deviceId, karotz, new RadioStationRepository.OnSyncCallback() {
+            @Override
+            public void onSynced(RadioStationSync.Changes changes, int count) {
+                activity.runOnUiThread(() -> syncFinished());
+            }
+
+            @Override
+            public void onError(Exception error) {
+                activity.runOnUiThread(() -> syncFinished());
+            }
+        });
+        updateVisibility();
+    }
+
+    private void syncFinished() {
+        // Stations come through the database, only the sync state changed
+        if (isAdded() && getView() != null) {
+            updateVisibility();
         }
     }
 
     // ==================== RecyclerView Adapter ====================
 
-    private class RadioAdapter extends RecyclerView.Adapter<RadioAdapter.ViewHolder> {
+    private static final DiffUtil.ItemCallback<RadioStation> DIFF_CALLBACK = new DiffUtil.ItemCallback<RadioStation>() {
+        @Override
+        public boolean areItemsTheSame(RadioStation oldItem, RadioStation newItem) {
+            return oldItem.getStationId() == newItem.getStationId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(RadioStation oldItem, RadioStation newItem) {
+            return oldItem.getName().equals(newItem.getName()) && oldItem.getUrl().equals(newItem.getUrl());
+        }
+    };
+
+    private class RadioAdapter extends ListAdapter<RadioStation, RadioAdapter.ViewHolder> {
+
+        RadioAdapter() {
+            super(DIFF_CALLBACK);
+        }
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -136,15 +304,10 @@ public class RadioFragment extends Fragment {
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            RadioStation station = radioStations.get(position);
+            RadioStation station = getItem(position);
             holder.bind(station);
         }
 
-        @Override
-        public int getItemCount() {
-            return radioStations.size();
-        }
-
         class ViewHolder extends RecyclerView.ViewHolder {
             TextView textName;
             ImageButton buttonPlay;
@@ -156,7 +319,7 @@ public class RadioFragment extends Fragment {
             }
 
             void bind(RadioStation station) {
-                textName.setText(station.name);
+                textName.setText(station.getName());
 
                 // Click on row or play button
                 View.OnClickListener playListener = v -> playRadio(station);
@@ -168,9 +331,23 @@ public class RadioFragment extends Fragment {
 
     // ==================== Play Radio ====================
 
+    private static List<KarotzDevice> getOnlineDevices(Context context) {
+        List<KarotzDevice> devices = new ArrayList<>();
+        for (KarotzDevice device : KarotzDeviceRepository.getInstance(context).getAllDevicesSync()) {
+            if (device.isOnline()) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
     private void playRadio(RadioStation station) {
-        Log.d(LOG_TAG, "Playing radio: " + station.name + " - " + station.url);
-        new PlayRadioTask(getActivity(), station.url, station.name).execute();
+        Log.d(LOG_TAG, "Playing radio: " + station.getName() + " - " + station.getUrl());
+        if (switchPlayAll.isChecked()) {
+            new PlayRadioEverywhereTask(getActivity(), station.getUrl(), station.getName()).execute();
+        } else {
+            new PlayRadioTask(getActivity(), station.getUrl(), station.getName()).execute();
+        }
     }
 
     private class PlayRadioTask extends SoundAsyncTask {
@@ -186,77 +363,144 @@ public class RadioFragment extends Fragment {
             super.onPostExecute(result);
 
             if (getActivity() != null && !getActivity().isFinishing()) {
-                Toast.makeText(getActivity(),
-                        getString(R.string.radio_starting) + " " + name,
-                        Toast.LENGTH_SHORT).show();
+                String message = Boolean.TRUE.equals(result) ? getString(R.string.radio_starting) + " " + name
+                        : getString(R.string.radio_unavailable, name);
+                Toast.makeText(getActivity(), message, Toast.LENGTH_SHORT).show();
             }
         }
     }
 
-    // ==================== Load Radios Task ====================
-
-    private class LoadRadiosTask extends AsyncTask<Void, Void, List<RadioStation>> {
-        private final Activity activity;
+    /**
+     * Starts a radio on all online rabbits at the same time.
+     */
+    private class PlayRadioEverywhereTask extends KarotzAsyncTask {
+        private final Context context;
+        private final String url;
+        private final String name;
 
-        LoadRadiosTask(Activity activity) {
-            this.activity = activity;
+        PlayRadioEverywhereTask(Activity activity, String url, String name) {
+            super(activity);
+            this.context = activity.getApplicationContext();
+            this.url = url;
+            this.name = name;
         }
 
         @Override
-        protected void onPreExecute() {
-            progressBar.setVisibility(View.VISIBLE);
-            textNoRadios.setVisibility(View.GONE);
-            recyclerView.setVisibility(View.GONE);
+        protected Object doInBackground(Object... params) {
+            List<KarotzDevice> devices = getOnlineDevices(context);
+            if (devices.isEmpty()) {
+                return null;
+            }
+
+            try {
+                // Resolved once for all rabbits, so that they all start the same stream
+                String stream = StreamValidator.getInstance().resolve(url);
+                return Karotz.getFanOut().executeSynchronized(devices, FanOut.sound(stream), FanOut.DEFAULT_TIMEOUT);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, e.getMessage());
+                return Boolean.FALSE;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
         }
 
         @Override
-        protected List<RadioStation> doInBackground(Void... params) {
-            List<RadioStation> stations = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        protected void onPostExecute(Object result) {
+            Activity activity = getActivity();
+            if (activity == null || activity.isFinishing()) return;
 
-            try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
-                if (karotz != null) {
-                    String json = karotz.getRadiosList();
-                    if (json != null) {
-                        JSONObject response = new JSONObject(json);
-
-                        if ("0".equals(response.optString("return", "1"))) {
-                            JSONArray streams = response.getJSONArray("streams");
-
-                            for (int i = 0; i < streams.length(); i++) {
-                                JSONObject stream = streams.getJSONObject(i);
-                                int id = stream.getInt("id");
-                                String name = stream.getString("name");
-                                String url = stream.getString("url");
-                                stations.add(new RadioStation(id, name, url));
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Error loading radios: " + e.getMessage(), e);
+            if (Boolean.FALSE.equals(result)) {
+                Toast.makeText(activity, getString(R.string.radio_unavailable, name), Toast.LENGTH_SHORT).show();
+                return;
             }
+            FanOut.Report<Boolean> report = (FanOut.Report<Boolean>) result;
+            if (report == null) {
+                Toast.makeText(activity, R.string.radio_no_online_rabbits, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(activity, getString(R.string.radio_sync_started, name, report.getCount(FanOut.Status.SUCCESS),
+                        report.getResults().size(), report.getSkewMillis()), Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    // ==================== Play Local Audio ====================
 
-            return stations;
+    private void pickAudio() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("audio/*");
+        startActivityForResult(intent, REQUEST_PICK_AUDIO);
+    }
+
+    /**
+     * Plays an audio file of the phone: the file is served by the embedded media server, and its LAN URL is sent to
+     * the rabbits.
+     */
+    private class PlayLocalTask extends KarotzAsyncTask {
+        private final Context context;
+        private final Uri uri;
+        private final boolean everywhere;
+        private String name;
+
+        PlayLocalTask(Activity activity, Uri uri, boolean everywhere) {
+            super(activity);
+            this.context = activity.getApplicationContext();
+            this.uri = uri;
+            this.everywhere = everywhere;
         }
 
         @Override
-        protected void onPostExecute(List<RadioStation> stations) {
-            progressBar.setVisibility(View.GONE);
+        protected Object doInBackground(Object... params) {
+            try {
+                ContentSource source = ContentSource.create(context, uri);
+                name = source.getName();
+                MediaServer server = MediaServer.getInstance();
+                String path = server.publish(source);
+
+                // The address the current rabbit reaches the phone at, the others are on the same network
+                String address = Karotz.getAddress();
+                int colon = address.lastIndexOf(':');
+                String host = colon < 0 ? address : address.substring(0, colon);
+                String url = server.getUrl(path, MediaServer.localAddressFor(host));
+                Log.d(LOG_TAG, "Serving " + uri + " at " + url);
+
+                if (!everywhere) {
+                    return Boolean.valueOf(Karotz.getInstance().sound(url));
+                }
+                List<KarotzDevice> devices = getOnlineDevices(context);
+                if (devices.isEmpty()) {
+                    return null;
+                }
+                return Karotz.getFanOut().executeSynchronized(devices, FanOut.sound(url), FanOut.DEFAULT_TIMEOUT);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Cannot play " + uri + ": " + e.getMessage(), e);
+                return Boolean.FALSE;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
 
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onPostExecute(Object result) {
+            Activity activity = getActivity();
             if (activity == null || activity.isFinishing()) return;
 
-            radioStations.clear();
-            radioStations.addAll(stations);
-            adapter.notifyDataSetChanged();
-
-            if (stations.isEmpty()) {
-                textNoRadios.setVisibility(View.VISIBLE);
-                recyclerView.setVisibility(View.GONE);
+            if (result == null) {
+                Toast.makeText(activity, R.string.radio_no_online_rabbits, Toast.LENGTH_SHORT).show();
+            } else if (result instanceof Boolean) {
+                String message = Boolean.TRUE.equals(result) ? getString(R.string.radio_starting) + " " + name
+                        : getString(R.string.radio_local_error);
+                Toast.makeText(activity, message, Toast.LENGTH_SHORT).show();
             } else {
-                textNoRadios.setVisibility(View.GONE);
-                recyclerView.setVisibility(View.VISIBLE);
+                FanOut.Report<Boolean> report = (FanOut.Report<Boolean>) result;
+                Toast.makeText(activity, getString(R.string.radio_sync_started, name,
+                        report.getCount(FanOut.Status.SUCCESS), report.getResults().size(), report.getSkewMillis()),
+                        Toast.LENGTH_LONG).show();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -28,33 +28,28 @@
 
 package com.github.wulfaz.android.openkarotz.fragment;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import android.app.Activity;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.ImageButton;
 import android.widget.Toast;
 
 import com.github.wulfaz.android.openkarotz.R;
+import com.github.wulfaz.android.openkarotz.adapter.RadioButtonAdapter;
+import com.github.wulfaz.android.openkarotz.image.LogoLoader;
 import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
-import com.github.wulfaz.android.openkarotz.layout.FlowLayout;
+import com.github.wulfaz.android.openkarotz.layout.AutoFitGridLayoutManager;
 import com.github.wulfaz.android.openkarotz.model.RadioGroupModel;
 import com.github.wulfaz.android.openkarotz.model.RadioModel;
 import com.github.wulfaz.android.openkarotz.task.GetStatusAsyncTask;
 import com.github.wulfaz.android.openkarotz.task.SoundAsyncTask;
-import com.github.wulfaz.android.openkarotz.util.AssetUtils;
 
 /**
- * Tab fragment for radio buttons.
+ * Tab fragment for radio buttons, in a grid only binding the buttons on screen.
  */
 public class RadioTabFragment extends Fragment {
 
@@ -117,6 +112,13 @@ public class RadioTabFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+
+        // Recycles the buttons, which lets their logos be reused once evicted from the cache
+        if (radioView != null) {
+            radioView.setAdapter(null);
+            radioView = null;
+        }
+        adapter = null;
         Log.v(LOG_TAG, "onDestroyView: " + getGroupName());
     }
 
@@ -174,27 +176,18 @@ public class RadioTabFragment extends Fragment {
 
     private void addButtonsToLayout() {
         Log.v(LOG_TAG, "Adding buttons to radio layout: " + getGroupName());
-        buttonMap.clear();
-
-        for (RadioModel radio : group.getRadios()) {
-            // Button
-            ImageButton btn = (ImageButton) LayoutInflater.from(getActivity()).inflate(R.layout.button_radio, null);
 
-            btn.setContentDescription(radio.getName());
-
-            Bitmap bmp = AssetUtils.loadBitmapFromAsset(getActivity(), "radios/" + radio.getId() + ".png");
-            if (bmp != null) {
-                btn.setImageBitmap(bmp);
-            } else {
-                // TODO: Use 80x80 default radio image
-                btn.setImageResource(android.R.drawable.ic_btn_speak_now);
-            }
-
-            btn.setOnClickListener(new RadioButtonOnClickListener(radio.getUrl(), radio.getName()));
-
-            buttonMap.put(radio.getId(), btn);
-            radioLayout.addView(btn, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
-        }
+        LogoLoader loader = LogoLoader.getInstance(getActivity());
+        int logoSize = getResources().getDimensionPixelSize(R.dimen.radio_logo_size);
+        int columnWidth = getResources().getDimensionPixelSize(R.dimen.radio_button_column_width);
+
+        adapter = new RadioButtonAdapter(group.getRadios(), loader, logoSize, radio -> {
+            Log.d(LOG_TAG, "Radio button clicked: " + radio.getUrl());
+            new PlayRadioTask(getActivity(), radio.getUrl(), radio.getName()).execute();
+        });
+        radioView.setLayoutManager(new AutoFitGridLayoutManager(getActivity(), columnWidth));
+        radioView.setHasFixedSize(true);
+        radioView.setAdapter(adapter);
     }
 
     private void disableFields() {
@@ -211,7 +204,7 @@ public class RadioTabFragment extends Fragment {
             return;
         }
 
-        radioLayout = view.findViewById(R.id.layoutRadios);
+        radioView = view.findViewById(R.id.recyclerViewRadios);
 
         addButtonsToLayout();
     }
@@ -224,8 +217,8 @@ public class RadioTabFragment extends Fragment {
     }
 
     private void setEnableFields(boolean enable) {
-        for (ImageButton button : buttonMap.values()) {
-            button.setEnabled(enable);
+        if (adapter != null) {
+            adapter.setEnabled(enable);
         }
     }
 
@@ -247,6 +240,15 @@ public class RadioTabFragment extends Fragment {
         return fragment;
     }
 
+    /**
+     * Get the asset path of the logo of a radio station.
+     * @param radio the radio station
+     * @return the logo path
+     */
+    public static String getLogoPath(RadioModel radio) {
+        return "radios/" + radio.getId() + ".png";
+    }
+
     private class GetStatusTask extends GetStatusAsyncTask {
 
         public GetStatusTask(Activity activity) {
@@ -278,29 +280,14 @@ public class RadioTabFragment extends Fragment {
         public void onPostExecute(Object result) {
             super.onPostExecute(result);
 
-            Toast.makeText(getActivity(), getString(R.string.radio_starting) + " " + name, Toast.LENGTH_SHORT).show();
+            String message = Boolean.TRUE.equals(result) ? getString(R.string.radio_starting) + " " + name
+                    : getString(R.string.radio_unavailable, name);
+            Toast.makeText(getActivity(), message, Toast.LENGTH_SHORT).show();
         }
 
         private final String name;
     }
 
-    private class RadioButtonOnClickListener implements OnClickListener {
-
-        public RadioButtonOnClickListener(String url, String name) {
-            this.url = url;
-            this.name = name;
-        }
-
-        @Override
-        public void onClick(View btn) {
-            Log.d(LOG_TAG, "Radio button clicked: " + url);
-            new PlayRadioTask(getActivity(), url, name).execute();
-        }
-
-        private final String url;
-        private final String name;
-    }
-
     private String getGroupName() {
         return group == null ? "no group" : group.getName();
     }
@@ -308,11 +295,11 @@ public class RadioTabFragment extends Fragment {
     /** Bundle key for group. */
     public static final String KEY_GROUP = "group";
 
-    private FlowLayout radioLayout = null;
+    private RecyclerView radioView = null;
 
-    private RadioGroupModel group;
+    private RadioButtonAdapter adapter = null;
 
-    private final Map<String, ImageButton> buttonMap = new HashMap<String, ImageButton>();
+    private RadioGroupModel group;
 
     private static final String LOG_TAG = RadioTabFragment.class.getSimpleName();
 }
@@ -23,7 +23,6 @@ import com.github.wulfaz.android.openkarotz.task.GetVersionAsyncTask;
 import com.github.wulfaz.android.openkarotz.task.SleepAsyncTask;
 import com.github.wulfaz.android.openkarotz.task.WakeupAsyncTask;
 
-import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
 
 /**
  * System fragment.
@@ -169,7 +168,7 @@ public class SystemFragment extends Fragment {
 
             // Get extended info from Karotz
             try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
+                IKarotz karotz = Karotz.getInstance();
 
                 if (karotz != null) {
                     OpenKarotzState state = karotz.getState();
@@ -1,7 +1,6 @@
 package com.github.wulfaz.android.openkarotz.fragment;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import androidx.fragment.app.Fragment;
 import android.text.Editable;
@@ -19,8 +18,11 @@ import android.widget.Toast;
 
 import com.github.wulfaz.android.openkarotz.R;
 import com.github.wulfaz.android.openkarotz.activity.MainActivity;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
-import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.TtsCache;
+import com.github.wulfaz.android.openkarotz.task.KarotzAsyncTask;
+import com.github.wulfaz.android.openkarotz.tts.TtsPipeline;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -34,12 +36,14 @@ import java.util.List;
 public class TtsFragment extends Fragment {
 
     private static final String LOG_TAG = TtsFragment.class.getSimpleName();
-    private static final int MAX_CHARS = 200;
+    private static final int MAX_CHARS = 2000;
 
     private Spinner spinnerVoice;
     private EditText editTextTts;
     private TextView textCharCount;
     private Button buttonSpeak;
+    private TextView textCacheStats;
+    private TtsPipeline pipeline;
 
     private List<Voice> voiceList = new ArrayList<>();
 
@@ -70,11 +74,24 @@ public class TtsFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        // Leaving the page stops speaking: a new view could not reach this pipeline to stop it
+        if (pipeline != null) {
+            pipeline.cancel();
+            pipeline = null;
+        }
+    }
+
     private void initializeView(View view) {
         spinnerVoice = view.findViewById(R.id.spinnerVoice);
         editTextTts = view.findViewById(R.id.editTextTts);
         textCharCount = view.findViewById(R.id.textCharCount);
         buttonSpeak = view.findViewById(R.id.buttonSpeak);
+        textCacheStats = view.findViewById(R.id.textCacheStats);
+        updateCacheStats();
 
         // Character counter
         editTextTts.addTextChangedListener(new TextWatcher() {
@@ -105,6 +122,12 @@ public class TtsFragment extends Fragment {
     }
 
     private void speak() {
+        if (pipeline != null) {
+            // Speaking: the button stops
+            pipeline.cancel();
+            return;
+        }
+
         String text = editTextTts.getText().toString().trim();
 
         if (text.isEmpty()) {
@@ -127,6 +150,18 @@ public class TtsFragment extends Fragment {
         new SpeakTask(getActivity(), selectedVoice.id, text).execute();
     }
 
+    private void updateCacheStats() {
+        IKarotz karotz = Karotz.getInstance();
+        TtsCache.Stats stats = karotz != null ? karotz.getTtsCache().getStats() : null;
+        if (stats == null || stats.getHitCount() + stats.getMissCount() == 0) {
+            textCacheStats.setVisibility(View.GONE);
+            return;
+        }
+        textCacheStats.setText(getString(R.string.tts_cache_stats, stats.getHitCount(), stats.getHitLatencyMillis(),
+                stats.getMissCount(), stats.getMissLatencyMillis()));
+        textCacheStats.setVisibility(View.VISIBLE);
+    }
+
     /**
      * Voice data class
      */
@@ -146,21 +181,20 @@ public class TtsFragment extends Fragment {
     }
 
     /**
-     * AsyncTask to load voices from Karotz
+     * Task to load voices from Karotz
      */
-    private class LoadVoicesTask extends AsyncTask<Void, Void, List<Voice>> {
-        private final Activity activity;
+    private class LoadVoicesTask extends KarotzAsyncTask {
 
         LoadVoicesTask(Activity activity) {
-            this.activity = activity;
+            super(activity);
         }
 
         @Override
-        protected List<Voice> doInBackground(Void... params) {
+        protected List<Voice> doInBackground(Object... params) {
             List<Voice> voices = new ArrayList<>();
 
             try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
+                IKarotz karotz = Karotz.getInstance();
                 if (karotz != null) {
                     String json = karotz.getVoiceList();
                     if (json != null) {
@@ -183,9 +217,13 @@ public class TtsFragment extends Fragment {
         }
 
         @Override
-        protected void onPostExecute(List<Voice> voices) {
+        @SuppressWarnings("unchecked")
+        protected void onPostExecute(Object result) {
+            Activity activity = getActivity();
             if (activity == null || activity.isFinishing()) return;
 
+            List<Voice> voices = result != null ? (List<Voice>) result : new ArrayList<Voice>();
+
             if (voices.isEmpty()) {
                 Toast.makeText(activity, R.string.tts_error_loading_voices, Toast.LENGTH_SHORT).show();
                 return;
@@ -213,48 +251,68 @@ public class TtsFragment extends Fragment {
     }
 
     /**
-     * AsyncTask to send TTS request
+     * Task to speak a text, chunk by chunk, until its end or until stopped
      */
-    private class SpeakTask extends AsyncTask<Void, Void, Boolean> {
-        private final Activity activity;
+    private class SpeakTask extends KarotzAsyncTask {
         private final String voiceId;
         private final String text;
+        private final TtsPipeline speaking;
 
         SpeakTask(Activity activity, String voiceId, String text) {
-            this.activity = activity;
+            super(activity);
             this.voiceId = voiceId;
             this.text = text;
+            this.speaking = new TtsPipeline(Karotz.getInstance());
         }
 
         @Override
         protected void onPreExecute() {
-            buttonSpeak.setEnabled(false);
+            pipeline = speaking;
             buttonSpeak.setText(R.string.tts_speaking);
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
+        protected void onCancelled() {
+            if (pipeline == speaking) {
+                pipeline = null;
+                buttonSpeak.setText(R.string.tts_speak_button);
+            }
+        }
+
+        @Override
+        protected Boolean doInBackground(Object... params) {
             try {
-                OpenKarotz karotz = (OpenKarotz) Karotz.getInstance();
-                if (karotz != null) {
-                    return karotz.tts(voiceId, text);
-                }
+                return speaking.speak(voiceId, text, (index, count, chunk) -> {
+                    if (count > 1) {
+                        buttonSpeak.post(() -> {
+                            if (pipeline == speaking && isAdded()) {
+                                buttonSpeak.setText(getString(R.string.tts_stop_button, index + 1, count));
+                            }
+                        });
+                    }
+                });
             } catch (Exception e) {
                 Log.e(LOG_TAG, "Error sending TTS: " + e.getMessage(), e);
             }
-            return false;
+            return null;
         }
 
         @Override
-        protected void onPostExecute(Boolean success) {
-            buttonSpeak.setEnabled(true);
+        protected void onPostExecute(Object result) {
+            if (pipeline != speaking) {
+                // Stopped by leaving the page
+                return;
+            }
+            pipeline = null;
             buttonSpeak.setText(R.string.tts_speak_button);
 
+            Activity activity = getActivity();
             if (activity == null || activity.isFinishing()) return;
+            updateCacheStats();
 
-            if (success) {
+            if (Boolean.TRUE.equals(result)) {
                 Toast.makeText(activity, R.string.tts_success, Toast.LENGTH_SHORT).show();
-            } else {
+            } else if (result == null) {
                 Toast.makeText(activity, R.string.tts_error_speaking, Toast.LENGTH_SHORT).show();
             }
         }
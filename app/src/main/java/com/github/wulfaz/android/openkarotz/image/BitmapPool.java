@@ -0,0 +1,126 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.image;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * Pool of bitmaps no longer displayed, reused by the decoder through {@code BitmapFactory.Options.inBitmap} instead of
+ * allocating new ones.
+ * <p>
+ * Bitmaps are sorted by allocation size; a request gets the smallest bitmap large enough, as any mutable bitmap at
+ * least as large as the decoded image can be reused.
+ */
+final class BitmapPool {
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap large enough for an image.
+     *
+     * @param byteCount the size of the decoded image, in bytes
+     * @return a bitmap, or <code>null</code> if none fits
+     */
+    synchronized Bitmap get(int byteCount) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = bitmaps.ceilingEntry(byteCount);
+        // Do not waste a much larger bitmap on a small image
+        if (entry == null || entry.getKey() > byteCount * MAX_OVERSIZE) {
+            missCount++;
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            bitmaps.remove(entry.getKey());
+        }
+        bytes -= entry.getKey();
+        hitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Give back a bitmap that is no longer displayed. It is dropped if the pool is full.
+     *
+     * @param bitmap the bitmap
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (bytes + size > maxBytes) {
+            return;
+        }
+        ArrayDeque<Bitmap> sameSize = bitmaps.get(size);
+        if (sameSize == null) {
+            sameSize = new ArrayDeque<Bitmap>();
+            bitmaps.put(size, sameSize);
+        }
+        sameSize.add(bitmap);
+        bytes += size;
+    }
+
+    /**
+     * Drop all bitmaps.
+     */
+    synchronized void clear() {
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    synchronized long size() {
+        return bytes;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+
+    private final long maxBytes;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> bitmaps = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+
+    private long bytes;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private static final int MAX_OVERSIZE = 2;
+}
@@ -0,0 +1,278 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.image;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory cache bounded by the byte size of its values, dropping the least recently used entries first.
+ * <p>
+ * Same contract as {@code android.util.LruCache}, in plain Java so that it can be tested on the JVM. Evicted values
+ * are handed to a listener, outside of the cache lock, so that they can be reused.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class ByteLruCache<K, V> {
+
+    /**
+     * Gives the size of a value.
+     *
+     * @param <V> the type of the values
+     */
+    public interface Sizer<V> {
+
+        /**
+         * Get the size of a value. It must not change while the value is cached.
+         *
+         * @param value the value
+         * @return the size, in bytes
+         */
+        int sizeOf(V value);
+    }
+
+    /**
+     * Listener of values dropped from the cache.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     */
+    public interface EvictionListener<K, V> {
+
+        /**
+         * Called when a value is evicted, replaced or removed.
+         *
+         * @param key the key
+         * @param value the value no longer cached
+         */
+        void onEvicted(K key, V value);
+    }
+
+    /**
+     * Initialize a new cache.
+     *
+     * @param maxBytes the maximum size of the cached values, in bytes
+     * @param sizer the sizer of values
+     * @param listener the listener of evicted values, or <code>null</code>
+     */
+    public ByteLruCache(long maxBytes, Sizer<V> sizer, EvictionListener<K, V> listener) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+        this.listener = listener;
+    }
+
+    /**
+     * Get a value, making it the most recently used.
+     *
+     * @param key the key
+     * @return the value, or <code>null</code> if not cached
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value, evicting the least recently used values if the cache is full. A value larger than the cache
+     * is not cached.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or <code>null</code>
+     */
+    public V put(K key, V value) {
+        int size = sizer.sizeOf(value);
+        List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>();
+        V previous;
+        synchronized (this) {
+            if (size > maxBytes) {
+                previous = entries.remove(key);
+                if (previous != null) {
+                    bytes -= sizer.sizeOf(previous);
+                }
+            } else {
+                previous = entries.put(key, value);
+                bytes += size;
+                if (previous != null) {
+                    bytes -= sizer.sizeOf(previous);
+                }
+                trim(maxBytes, evicted);
+            }
+        }
+        if (previous != null && previous != value) {
+            evicted.add(0, new AbstractMap.SimpleImmutableEntry<K, V>(key, previous));
+        }
+        notify(evicted);
+        return previous;
+    }
+
+    /**
+     * Remove a value.
+     *
+     * @param key the key
+     * @return the removed value, or <code>null</code>
+     */
+    public V remove(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.remove(key);
+            if (value == null) {
+                return null;
+            }
+            bytes -= sizer.sizeOf(value);
+        }
+        if (listener != null) {
+            listener.onEvicted(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Evict the least recently used values until the cache fits a size, typically when memory runs low.
+     *
+     * @param targetBytes the size to fit, in bytes
+     */
+    public void trimToSize(long targetBytes) {
+        List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>();
+        synchronized (this) {
+            trim(targetBytes, evicted);
+        }
+        notify(evicted);
+    }
+
+    /**
+     * Evict all values.
+     */
+    public void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Get the size of the cached values.
+     *
+     * @return the size, in bytes
+     */
+    public synchronized long size() {
+        return bytes;
+    }
+
+    /**
+     * Get the maximum size of the cached values.
+     *
+     * @return the size, in bytes
+     */
+    public long maxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of cached values.
+     *
+     * @return the number of values
+     */
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of {@link #get(Object)} calls that returned a value.
+     *
+     * @return the number of hits
+     */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of {@link #get(Object)} calls that returned <code>null</code>.
+     *
+     * @return the number of misses
+     */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of values evicted to make room.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private void trim(long targetBytes, List<Map.Entry<K, V>> evicted) {
+        Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+        while (bytes > targetBytes && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            it.remove();
+            bytes -= sizer.sizeOf(eldest.getValue());
+            evictionCount++;
+            evicted.add(new AbstractMap.SimpleImmutableEntry<K, V>(eldest.getKey(), eldest.getValue()));
+        }
+    }
+
+    private void notify(List<Map.Entry<K, V>> evicted) {
+        if (listener != null) {
+            for (Map.Entry<K, V> e : evicted) {
+                listener.onEvicted(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+
+    private final long maxBytes;
+
+    private final Sizer<V> sizer;
+
+    private final EvictionListener<K, V> listener;
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+}
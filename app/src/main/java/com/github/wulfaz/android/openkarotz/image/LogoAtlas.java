@@ -0,0 +1,290 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.image;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of a logo atlas, a single image holding many logos, generated at build time by the
+ * <code>generateLogoAtlas</code> task.
+ * <p>
+ * Atlases are stored in the assets as <code>atlas/&lt;name&gt;-&lt;cell size&gt;.png</code>, with an index of the same
+ * name ending with <code>.idx</code>. The name is the asset directory of the original logos, the cell size the size in
+ * pixels each logo was scaled to fit. The index is big-endian:
+ *
+ * <pre>
+ * int magic "OKLA", short version, short cell size, short sheet width, short sheet height, int count,
+ * then for each logo: UTF id, short x, short y, short width, short height
+ * </pre>
+ */
+public final class LogoAtlas {
+
+    /**
+     * Bounds of a logo in the atlas image.
+     */
+    public static final class Entry {
+
+        Entry(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Get the left edge of the logo.
+         *
+         * @return the left edge, in pixels
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * Get the top edge of the logo.
+         *
+         * @return the top edge, in pixels
+         */
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * Get the logo width.
+         *
+         * @return the width, in pixels
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Get the logo height.
+         *
+         * @return the height, in pixels
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "+" + x + "+" + y;
+        }
+
+        private final int x;
+
+        private final int y;
+
+        private final int width;
+
+        private final int height;
+    }
+
+    private LogoAtlas(int cellSize, int width, int height, Map<String, Entry> entries) {
+        this.cellSize = cellSize;
+        this.width = width;
+        this.height = height;
+        this.entries = entries;
+    }
+
+    /**
+     * Read an atlas index.
+     *
+     * @param in the index stream, not closed
+     * @return the atlas
+     * @throws IOException if the index cannot be read or is not an atlas index
+     */
+    public static LogoAtlas read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a logo atlas index");
+        }
+        int version = data.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported logo atlas version: " + version);
+        }
+        int cellSize = data.readUnsignedShort();
+        int width = data.readUnsignedShort();
+        int height = data.readUnsignedShort();
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid logo count: " + count);
+        }
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String id = data.readUTF();
+            Entry entry = new Entry(data.readUnsignedShort(), data.readUnsignedShort(), data.readUnsignedShort(),
+                    data.readUnsignedShort());
+            if (entry.x + entry.width > width || entry.y + entry.height > height) {
+                throw new IOException("Logo " + id + " out of the atlas: " + entry);
+            }
+            entries.put(id, entry);
+        }
+        return new LogoAtlas(cellSize, width, height, entries);
+    }
+
+    /**
+     * Get the bounds of a logo.
+     *
+     * @param id the logo id, the radio id for radio logos
+     * @return the logo bounds, or <code>null</code> if not in the atlas
+     */
+    public Entry get(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Get the size each logo was scaled to fit.
+     *
+     * @return the cell size, in pixels
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Get the atlas image width.
+     *
+     * @return the width, in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the atlas image height.
+     *
+     * @return the height, in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of logos in the atlas.
+     *
+     * @return the number of logos
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the asset path of an atlas index.
+     *
+     * @param name the atlas name
+     * @param cellSize the cell size
+     * @return the index path
+     */
+    public static String getIndexPath(String name, int cellSize) {
+        return DIRECTORY + "/" + name + "-" + cellSize + INDEX_SUFFIX;
+    }
+
+    /**
+     * Get the asset path of an atlas image.
+     *
+     * @param name the atlas name
+     * @param cellSize the cell size
+     * @return the image path
+     */
+    public static String getImagePath(String name, int cellSize) {
+        return DIRECTORY + "/" + name + "-" + cellSize + IMAGE_SUFFIX;
+    }
+
+    /**
+     * Get the cell sizes of the atlases of a given name.
+     *
+     * @param files the files of the atlas directory
+     * @param name the atlas name
+     * @return the cell sizes, sorted
+     */
+    public static int[] parseCellSizes(String[] files, String name) {
+        String prefix = name + "-";
+        int[] sizes = new int[files == null ? 0 : files.length];
+        int count = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            String file = files[i];
+            if (file.startsWith(prefix) && file.endsWith(INDEX_SUFFIX)) {
+                try {
+                    sizes[count] = Integer.parseInt(file.substring(prefix.length(), file.length() - INDEX_SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // Not an atlas of this name
+                }
+            }
+        }
+        sizes = Arrays.copyOf(sizes, count);
+        Arrays.sort(sizes);
+        return sizes;
+    }
+
+    /**
+     * Choose the atlas to display logos at a given size: the smallest one at least as large, or the largest one.
+     *
+     * @param cellSizes the available cell sizes, sorted
+     * @param sizePx the display size, in pixels
+     * @return the cell size, or -1 if there are no atlases
+     */
+    public static int chooseCellSize(int[] cellSizes, int sizePx) {
+        for (int cellSize : cellSizes) {
+            if (cellSize >= sizePx) {
+                return cellSize;
+            }
+        }
+        return cellSizes.length == 0 ? -1 : cellSizes[cellSizes.length - 1];
+    }
+
+
+    private final int cellSize;
+
+    private final int width;
+
+    private final int height;
+
+    private final Map<String, Entry> entries;
+
+    /** Asset directory of the atlases. */
+    public static final String DIRECTORY = "atlas";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final String IMAGE_SUFFIX = ".png";
+
+    /** "OKLA" */
+    private static final int MAGIC = 0x4F4B4C41;
+
+    private static final int VERSION = 1;
+}
@@ -0,0 +1,432 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.image;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.github.wulfaz.android.openkarotz.R;
+
+/**
+ * Loads logos from the assets into image views, shared by all screens.
+ * <p>
+ * Logos are decoded on background threads, at the size they are displayed, while the view shows a placeholder.
+ * Logos packed in a {@link LogoAtlas} at build time are cut from the atlas image, decoded once for all of them;
+ * others are decoded from their own asset. Decoded logos are kept in a memory cache bounded by byte size, so that
+ * coming back to a screen does not decode them again. Logos evicted from the cache and no longer displayed go to a {@link BitmapPool}, and their memory is reused
+ * by the next decodes.
+ * <p>
+ * Views must {@link #release(ImageView) release} their logo when they are destroyed. All methods but
+ * {@link #prefetch(Collection, int)} must be called on the main thread.
+ */
+public final class LogoLoader {
+
+    /**
+     * Get the loader of the application.
+     *
+     * @param context a context
+     * @return the loader
+     */
+    public static synchronized LogoLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new LogoLoader(context.getApplicationContext(), Runtime.getRuntime().maxMemory() / CACHE_FRACTION,
+                    POOL_BYTES);
+        }
+        return instance;
+    }
+
+    LogoLoader(Context context, long cacheBytes, long poolBytes) {
+        this.assets = context.getAssets();
+        this.pool = new BitmapPool(poolBytes);
+        this.cache = new ByteLruCache<String, Bitmap>(cacheBytes, Bitmap::getAllocationByteCount, (key, bitmap) -> evicted(bitmap));
+        this.executor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "Logo decoder #" + threadCount.incrementAndGet()));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Show a logo in a view. The placeholder is shown until the logo is decoded, or if it does not exist.
+     *
+     * @param view the view
+     * @param path the asset path of the logo
+     * @param sizePx the size the logo is displayed at, in pixels
+     * @param placeholderResId the placeholder drawable
+     */
+    public void load(ImageView view, String path, int sizePx, int placeholderResId) {
+        release(view);
+        Binding binding = new Binding();
+        view.setTag(R.id.tag_logo, binding);
+
+        String key = key(path, sizePx);
+        Bitmap cached = cache.get(key);
+        if (cached != null && show(view, binding, key, cached)) {
+            return;
+        }
+
+        view.setImageResource(placeholderResId);
+        if (missing.contains(path)) {
+            return;
+        }
+        fetch(path, sizePx).thenAccept(bitmap -> mainHandler.post(() -> {
+            if (bitmap != null && view.getTag(R.id.tag_logo) == binding && !show(view, binding, key, bitmap)) {
+                // Evicted in the meantime, try again
+                load(view, path, sizePx, placeholderResId);
+            }
+        }));
+    }
+
+    /**
+     * Decode logos in the background, so that they are ready when shown. Logos already cached are skipped.
+     *
+     * @param paths the asset paths of the logos
+     * @param sizePx the size the logos are displayed at, in pixels
+     */
+    public void prefetch(Collection<String> paths, int sizePx) {
+        for (String path : paths) {
+            if (!missing.contains(path)) {
+                fetch(path, sizePx);
+            }
+        }
+    }
+
+    /**
+     * Release the logo shown in a view, typically when the view is destroyed. The logo stays cached.
+     *
+     * @param view the view
+     */
+    public void release(ImageView view) {
+        Object tag = view.getTag(R.id.tag_logo);
+        if (!(tag instanceof Binding)) {
+            return;
+        }
+        view.setTag(R.id.tag_logo, null);
+        Bitmap bitmap = ((Binding) tag).bitmap;
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (this) {
+            Integer count = displayed.remove(bitmap);
+            if (count != null && count > 1) {
+                displayed.put(bitmap, count - 1);
+            } else if (evictedDisplayed.remove(bitmap) != null) {
+                // Evicted while displayed, its memory can now be reused
+                pool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached logos that are not displayed, typically when memory runs low.
+     */
+    public void clear() {
+        cache.evictAll();
+        pool.clear();
+        synchronized (atlases) {
+            atlases.clear();
+        }
+    }
+
+    /**
+     * Get the cache of decoded logos.
+     *
+     * @return the cache
+     */
+    public ByteLruCache<String, Bitmap> getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the largest power of two by which an image can be subsampled, still covering the requested size.
+     *
+     * @param width the image width
+     * @param height the image height
+     * @param reqWidth the requested width
+     * @param reqHeight the requested height
+     * @return the sample size, 1 to decode at full size
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private CompletableFuture<Bitmap> fetch(String path, int sizePx) {
+        String key = key(path, sizePx);
+        synchronized (inflight) {
+            CompletableFuture<Bitmap> future = inflight.get(key);
+            if (future != null) {
+                return future;
+            }
+            Bitmap cached = cache.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+
+            CompletableFuture<Bitmap> decoding = new CompletableFuture<Bitmap>();
+            inflight.put(key, decoding);
+            executor.execute(() -> {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = decode(path, sizePx);
+                    if (bitmap != null) {
+                        cache.put(key, bitmap);
+                    }
+                } catch (FileNotFoundException e) {
+                    missing.add(path);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(LOG_TAG, "Cannot decode logo " + path + ": " + e.getMessage());
+                } finally {
+                    synchronized (inflight) {
+                        inflight.remove(key);
+                    }
+                    decoding.complete(bitmap);
+                }
+            });
+            return decoding;
+        }
+    }
+
+    private Bitmap decode(String path, int sizePx) throws IOException {
+        Bitmap logo = cutFromAtlas(path, sizePx);
+        if (logo != null) {
+            return logo;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = assets.open(path)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, sizePx, sizePx);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = pool.get(width * height * BYTES_PER_PIXEL);
+        try (InputStream in = assets.open(path)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap cannot hold this image
+            options.inBitmap = null;
+            try (InputStream in = assets.open(path)) {
+                return BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+    }
+
+    /**
+     * Cut a logo from the atlas of its directory, if it was packed in one.
+     */
+    private Bitmap cutFromAtlas(String path, int sizePx) {
+        int slash = path.lastIndexOf('/');
+        if (slash <= 0 || !path.endsWith(".png")) {
+            return null;
+        }
+        Atlas atlas = getAtlas(path.substring(0, slash), sizePx);
+        LogoAtlas.Entry entry = atlas == null ? null : atlas.index.get(path.substring(slash + 1, path.length() - 4));
+        if (entry == null) {
+            return null;
+        }
+        return Bitmap.createBitmap(atlas.image, entry.getX(), entry.getY(), entry.getWidth(), entry.getHeight());
+    }
+
+    /**
+     * Get the atlas of a directory, decoding it on first use.
+     */
+    private Atlas getAtlas(String name, int sizePx) {
+        synchronized (atlases) {
+            int[] cellSizes = atlasSizes.get(name);
+            if (cellSizes == null) {
+                try {
+                    cellSizes = LogoAtlas.parseCellSizes(assets.list(LogoAtlas.DIRECTORY), name);
+                } catch (IOException e) {
+                    cellSizes = new int[0];
+                }
+                atlasSizes.put(name, cellSizes);
+            }
+            int cellSize = LogoAtlas.chooseCellSize(cellSizes, sizePx);
+            if (cellSize < 0) {
+                return null;
+            }
+
+            String key = key(name, cellSize);
+            if (atlases.containsKey(key)) {
+                return atlases.get(key);
+            }
+            Atlas atlas = null;
+            try (InputStream index = assets.open(LogoAtlas.getIndexPath(name, cellSize));
+                    InputStream image = assets.open(LogoAtlas.getImagePath(name, cellSize))) {
+                LogoAtlas logoAtlas = LogoAtlas.read(index);
+                Bitmap bitmap = BitmapFactory.decodeStream(image);
+                if (bitmap != null) {
+                    atlas = new Atlas(logoAtlas, bitmap);
+                    Log.d(LOG_TAG, "Decoded atlas " + key + ": " + logoAtlas.size() + " logos");
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot read atlas " + key + ": " + e.getMessage());
+            }
+            // Remember missing atlases too, logos are then decoded one by one
+            atlases.put(key, atlas);
+            return atlas;
+        }
+    }
+
+    /**
+     * Show a cached logo, unless it was evicted and may already be reused.
+     */
+    private synchronized boolean show(ImageView view, Binding binding, String key, Bitmap bitmap) {
+        if (cache.get(key) != bitmap) {
+            return false;
+        }
+        Integer count = displayed.get(bitmap);
+        displayed.put(bitmap, count == null ? 1 : count + 1);
+        binding.bitmap = bitmap;
+        view.setImageBitmap(bitmap);
+        return true;
+    }
+
+    private synchronized void evicted(Bitmap bitmap) {
+        if (displayed.containsKey(bitmap)) {
+            // Reused once no longer displayed
+            evictedDisplayed.put(bitmap, Boolean.TRUE);
+        } else {
+            pool.put(bitmap);
+        }
+    }
+
+    private static String key(String path, int sizePx) {
+        return path + '@' + sizePx;
+    }
+
+
+    /**
+     * Decoded logo atlas.
+     */
+    private static final class Atlas {
+
+        Atlas(LogoAtlas index, Bitmap image) {
+            this.index = index;
+            this.image = image;
+        }
+
+        final LogoAtlas index;
+
+        final Bitmap image;
+    }
+
+
+    /**
+     * Logo shown by a view, kept as the view tag.
+     */
+    private static final class Binding {
+
+        Bitmap bitmap;
+    }
+
+
+    private static LogoLoader instance;
+
+    private final AssetManager assets;
+
+    private final BitmapPool pool;
+
+    private final ByteLruCache<String, Bitmap> cache;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private final Map<String, CompletableFuture<Bitmap>> inflight = new HashMap<String, CompletableFuture<Bitmap>>();
+
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /** Decoded atlases by name and cell size, <code>null</code> if missing. */
+    private final Map<String, Atlas> atlases = new HashMap<String, Atlas>();
+
+    /** Available atlas cell sizes by name. */
+    private final Map<String, int[]> atlasSizes = new HashMap<String, int[]>();
+
+    /** Number of views showing each cached bitmap. */
+    private final Map<Bitmap, Integer> displayed = new IdentityHashMap<Bitmap, Integer>();
+
+    /** Bitmaps evicted while displayed, pooled when released. */
+    private final Map<Bitmap, Boolean> evictedDisplayed = new IdentityHashMap<Bitmap, Boolean>();
+
+    /** Part of the heap used by the cache. */
+    private static final int CACHE_FRACTION = 16;
+
+    /** Maximum size of the pool, in bytes. */
+    private static final long POOL_BYTES = 1024 * 1024;
+
+    private static final int DECODE_THREADS = 2;
+
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    /** Decoded logos are ARGB_8888. */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final String LOG_TAG = LogoLoader.class.getSimpleName();
+}
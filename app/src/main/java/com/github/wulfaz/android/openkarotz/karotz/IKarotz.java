@@ -28,8 +28,6 @@
 
 package com.github.wulfaz.android.openkarotz.karotz;
 
-import androidx.room.util.StringUtil;
-
 import java.io.IOException;
 
 /**
@@ -96,6 +94,25 @@ public interface IKarotz {
      */
     String getHostname();
 
+    /**
+     * Get the list of radio streams configured on the Karotz.
+     * @return the JSON answer with a "streams" array
+     * @throws IOException if an I/O error occurs
+     */
+    String getRadiosList() throws IOException;
+
+    /**
+     * Get the last known Karotz state.
+     * @return the state, or {@code null} if the Karotz was never contacted
+     */
+    OpenKarotzState getState();
+
+    /**
+     * Get the index of the phrases in the TTS cache of the Karotz, with the statistics of the TTS requests.
+     * @return the TTS cache index
+     */
+    TtsCache getTtsCache();
+
     /**
      * Get the Karotz status.
      * @return the status
@@ -110,6 +127,19 @@ public interface IKarotz {
      */
     KarotzVersion getVersion() throws IOException;
 
+    /**
+     * Get the list of available TTS voices.
+     * @return the JSON answer with a "voices" array
+     * @throws IOException if an I/O error occurs
+     */
+    String getVoiceList() throws IOException;
+
+    /**
+     * Check if the Karotz answers to requests.
+     * @return {@code true} if the Karotz is reachable
+     */
+    boolean isOnline();
+
     /**
      * Check if Karotz LED is pulsing.
      * @return the
@@ -125,6 +155,13 @@ public interface IKarotz {
      */
     void led(int color, boolean pulse) throws IOException;
 
+    /**
+     * Play a random mood.
+     * @return {@code true} if action was successful, else {@code false}.
+     * @throws IOException if an I/O error occurs
+     */
+    boolean randomMood() throws IOException;
+
     /**
      * Put Karotz to sleep.
      * @return {@code true} if action was successful, else {@code false}. If Karotz was already sleeping, {@code true}
@@ -150,6 +187,15 @@ public interface IKarotz {
      */
     boolean soundControl(SoundControlCommand command) throws IOException;
 
+    /**
+     * Make Karotz speak a text.
+     * @param voiceId the voice ID
+     * @param text the text to speak
+     * @return {@code true} if action was successful, else {@code false}.
+     * @throws IOException if an I/O error occurs
+     */
+    boolean tts(String voiceId, String text) throws IOException;
+
     /**
      * Wake up Karotz.
      * @param silent if {@code true}, no sound is played on wake up
@@ -28,8 +28,14 @@
 
 package com.github.wulfaz.android.openkarotz.karotz;
 
+import com.github.wulfaz.android.openkarotz.command.FanOut;
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+
 /**
  * Karotz instance.
+ * <p>
+ * Clients are held by a {@link KarotzRegistry}, one per device: selecting another device reuses its client if it was
+ * used recently, with its cached status.
  */
 public class Karotz {
 
@@ -37,16 +43,58 @@ public class Karotz {
         // No instance
     }
 
+    /**
+     * Get the address of the current Karotz.
+     * 
+     * @return the address, as <code>host:port</code>
+     */
+    public static String getAddress() {
+        return getSelection().address;
+    }
+
+    /**
+     * Get the backend used for new Karotz instances.
+     * 
+     * @return the backend
+     */
+    public static Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Get the ID of the current device.
+     * 
+     * @return the device ID, {@link #LEGACY_DEVICE_ID} for the host set in the settings
+     */
+    public static long getDeviceId() {
+        return getSelection().id;
+    }
+
     /**
      * Get the Karotz instance.
      * 
      * @return the Karotz instance.
      */
     public static IKarotz getInstance() {
-        if (k == null) {
-            throw new IllegalAccessError();
-        }
-        return k;
+        return getSelection().client;
+    }
+
+    /**
+     * Get the fan-out sending commands to several devices, with the clients of the registry.
+     * 
+     * @return the fan-out
+     */
+    public static FanOut getFanOut() {
+        return FAN_OUT;
+    }
+
+    /**
+     * Get the registry of the clients of all devices.
+     * 
+     * @return the registry
+     */
+    public static KarotzRegistry getRegistry() {
+        return REGISTRY;
     }
 
     /**
@@ -55,9 +103,145 @@ public class Karotz {
      * @param hostname the Karotz hostname.
      */
     public static void initialize(String hostname) {
-        k = new OpenKarotz(hostname);
+        initialize(hostname, DEFAULT_PORT);
     }
 
+    /**
+     * Initialize the Karotz application singleton, for the host set in the settings.
+     * 
+     * @param hostname the Karotz hostname.
+     * @param port the Karotz HTTP port.
+     */
+    public static void initialize(String hostname, int port) {
+        select(LEGACY_DEVICE_ID, hostname, port);
+    }
+
+    /**
+     * Make a device the current Karotz.
+     * 
+     * @param device the device
+     * @return <code>true</code> if the current Karotz changed
+     */
+    public static boolean select(KarotzDevice device) {
+        return select(device.getId(), device.getHostname(), device.getPort());
+    }
+
+    /**
+     * Make a device the current Karotz.
+     * 
+     * @param id the device ID
+     * @param hostname the Karotz hostname
+     * @param port the Karotz HTTP port
+     * @return <code>true</code> if the current Karotz changed
+     */
+    public static synchronized boolean select(long id, String hostname, int port) {
+        IKarotz client = REGISTRY.get(id, hostname, port);
+        Selection previous = selection;
+        if (previous != null && previous.id == id && previous.client == client) {
+            return false;
+        }
+        selection = new Selection(id, hostname, port, client);
+        return true;
+    }
+
+    /**
+     * Change the backend. All clients are dropped, the current Karotz is re-created with the new backend.
+     * 
+     * @param newBackend the backend to use
+     */
+    public static synchronized void setBackend(Backend newBackend) {
+        if (newBackend == backend) {
+            return;
+        }
+        backend = newBackend;
+        REGISTRY.clear();
+        Selection current = selection;
+        if (current != null) {
+            select(current.id, current.hostname, current.port);
+        }
+    }
+
+    private static Selection getSelection() {
+        Selection current = selection;
+        if (current == null) {
+            throw new IllegalAccessError();
+        }
+        return current;
+    }
+
+
+    /**
+     * The current device and its client, published as a whole.
+     */
+    private static final class Selection {
+
+        Selection(long id, String hostname, int port, IKarotz client) {
+            this.id = id;
+            this.hostname = hostname;
+            this.port = port;
+            this.address = hostname + ":" + port;
+            this.client = client;
+        }
+
+
+        final long id;
+
+        final String hostname;
+
+        final int port;
+
+        final String address;
+
+        final IKarotz client;
+    }
+
+
+    /**
+     * Available implementations of {@link IKarotz}.
+     */
+    public enum Backend {
+
+        /** {@link OpenKarotz} on top of {@link com.github.wulfaz.android.openkarotz.net.NetUtils NetUtils}. */
+        NET_UTILS,
+
+        /** {@link RetrofitOpenKarotz} on top of Retrofit and OkHttp. */
+        RETROFIT;
+
+        /**
+         * Get the backend for a preference value.
+         * 
+         * @param value the preference value
+         * @return the corresponding backend, {@link #NET_UTILS} by default
+         */
+        public static Backend fromPreference(String value) {
+            for (Backend b : values()) {
+                if (b.name().equalsIgnoreCase(value)) {
+                    return b;
+                }
+            }
+            return NET_UTILS;
+        }
+
+        IKarotz create(String hostname, int port) {
+            if (this == RETROFIT) {
+                return new RetrofitOpenKarotz(hostname, port);
+            }
+            return new OpenKarotz(hostname, port);
+        }
+    }
+
+
+    private static volatile Backend backend = Backend.NET_UTILS;
+
+    private static final KarotzRegistry REGISTRY = new KarotzRegistry(KarotzRegistry.DEFAULT_CAPACITY,
+            (hostname, port) -> backend.create(hostname, port));
+
+    private static final FanOut FAN_OUT = new FanOut(REGISTRY);
+
+    private static volatile Selection selection = null;
+
+    /** Device ID of the host set in the settings, which is not in the device database. */
+    public static final long LEGACY_DEVICE_ID = -1;
 
-    private static IKarotz k = null;
+    private static final int DEFAULT_PORT = 80;
 }
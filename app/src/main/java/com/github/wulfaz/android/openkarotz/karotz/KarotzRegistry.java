@@ -0,0 +1,192 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+
+/**
+ * Registry of Karotz clients, one per device.
+ * <p>
+ * Clients are kept warm, with their cached status, while other devices are used: switching back to a device reuses
+ * its client instead of creating a new one. Connections are pooled per host and port by the shared transport, so
+ * they are kept as well. The least recently used clients are dropped when the registry is full.
+ * <p>
+ * A client is replaced when the hostname or port of its device changes. All methods are thread-safe.
+ */
+public final class KarotzRegistry {
+
+    /**
+     * Creates a client for a device.
+     */
+    public interface ClientFactory {
+
+        /**
+         * Create a client.
+         * @param hostname the hostname or IP
+         * @param port the HTTP port
+         * @return the client
+         */
+        IKarotz create(String hostname, int port);
+    }
+
+    /**
+     * Initialize a new registry.
+     * @param capacity the maximum number of clients kept
+     * @param factory the client factory
+     */
+    public KarotzRegistry(int capacity, ClientFactory factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.factory = factory;
+        this.entries = new LinkedHashMap<Long, Entry>(capacity + 1, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > KarotzRegistry.this.capacity) {
+                    Log.d(LOG_TAG, "Dropping client of device " + eldest.getKey() + " (" + eldest.getValue().address + ")");
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the client of a device, creating it if needed.
+     * @param device the device
+     * @return the client
+     */
+    public IKarotz get(KarotzDevice device) {
+        return get(device.getId(), device.getHostname(), device.getPort());
+    }
+
+    /**
+     * Get the client of a device, creating it if needed or if the address of the device changed.
+     * @param id the device ID
+     * @param hostname the hostname or IP
+     * @param port the HTTP port
+     * @return the client
+     */
+    public synchronized IKarotz get(long id, String hostname, int port) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.port != port || !entry.hostname.equals(hostname)) {
+            entry = new Entry(hostname, port, factory.create(hostname, port));
+            entries.put(id, entry);
+            createCount++;
+        }
+        return entry.client;
+    }
+
+    /**
+     * Get the client of a device, if any, without creating it.
+     * @param id the device ID
+     * @return the client, or {@code null}
+     */
+    public synchronized IKarotz peek(long id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.client;
+    }
+
+    /**
+     * Drop the client of a device, typically when it is deleted.
+     * @param id the device ID
+     */
+    public synchronized void remove(long id) {
+        entries.remove(id);
+    }
+
+    /**
+     * Drop all clients, typically when the backend changes.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of clients kept.
+     * @return the number of clients
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of clients created since the registry was created.
+     * @return the number of clients created
+     */
+    public synchronized int getCreateCount() {
+        return createCount;
+    }
+
+
+    /**
+     * A client and the address it was created for.
+     */
+    private static final class Entry {
+
+        Entry(String hostname, int port, IKarotz client) {
+            this.hostname = hostname;
+            this.port = port;
+            this.address = hostname + ":" + port;
+            this.client = client;
+        }
+
+
+        final String hostname;
+
+        final int port;
+
+        final String address;
+
+        final IKarotz client;
+    }
+
+
+    private final int capacity;
+
+    private final ClientFactory factory;
+
+    private final LinkedHashMap<Long, Entry> entries;
+
+    private int createCount;
+
+    /** Default number of clients kept. */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static final String LOG_TAG = KarotzRegistry.class.getSimpleName();
+}
@@ -0,0 +1,836 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for the flat JSON objects answered by OpenKarotz to {@code /status} and {@code /ears} requests.
+ * <p>
+ * Values are parsed straight from the response stream into the primitive fields of reusable holders, without
+ * buffering the response or building intermediate maps. String fields are only allocated when their value changes
+ * from one response to the next. A decoder is not thread-safe: use {@link #forCurrentThread()}.
+ */
+public final class KarotzResponseDecoder {
+
+    /**
+     * Initialize a new decoder.
+     */
+    public KarotzResponseDecoder() {
+        // Nothing to do
+    }
+
+    /**
+     * Get the decoder of the calling thread.
+     * @return the decoder of the calling thread
+     */
+    public static KarotzResponseDecoder forCurrentThread() {
+        return DECODERS.get();
+    }
+
+    /**
+     * Decode an {@code /ears}, {@code /ears_random} or {@code /ears_reset} answer into the {@link #getEars() ears
+     * holder}.
+     * @param in the response body
+     * @return {@code true} if the answer was well-formed
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean decodeEars(InputStream in) throws IOException {
+        // Answer: {"return":"0","left":"0","right":"0"}
+        // Answer: {"return":"1","msg":"Unable to perform action, rabbit is sleeping."}
+        ears.reset();
+        target = TARGET_EARS;
+        return ears.valid = parse(in);
+    }
+
+    /**
+     * Decode a {@code /status} answer into the {@link #getStatus() status holder}.
+     * @param in the response body
+     * @return {@code true} if the answer was well-formed and contained the sleep, LED and ear fields
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean decodeStatus(InputStream in) throws IOException {
+        status.reset();
+        target = TARGET_STATUS;
+        boolean ok = parse(in);
+        status.fillMissing();
+        return status.valid = ok && (status.seen & Status.REQUIRED) == Status.REQUIRED;
+    }
+
+    /**
+     * Get the holder filled by {@link #decodeEars(InputStream)}. The same instance is reused for every call.
+     * @return the ears holder
+     */
+    public Ears getEars() {
+        return ears;
+    }
+
+    /**
+     * Get the holder filled by {@link #decodeStatus(InputStream)}. The same instance is reused for every call.
+     * @return the status holder
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    private boolean parse(InputStream stream) throws IOException {
+        in = stream;
+        pos = 0;
+        limit = 0;
+        try {
+            parseObject();
+            return true;
+        } catch (SyntaxException e) {
+            return false;
+        } finally {
+            in = null;
+        }
+    }
+
+    private void parseObject() throws IOException, SyntaxException {
+        if (nextNonWhitespace() != '{') {
+            throw SYNTAX;
+        }
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return;
+        }
+        while (true) {
+            if (c != '"') {
+                throw SYNTAX;
+            }
+            keyLength = readString(keyBuffer);
+            if (nextNonWhitespace() != ':') {
+                throw SYNTAX;
+            }
+
+            int key = lookupKey();
+            if (key < 0) {
+                skipValue(nextNonWhitespace());
+            } else {
+                readValue(nextNonWhitespace());
+                if (valueLength >= 0) {
+                    onValue(key);
+                }
+            }
+
+            c = nextNonWhitespace();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw SYNTAX;
+            }
+            c = nextNonWhitespace();
+        }
+    }
+
+    private void onValue(int key) throws SyntaxException {
+        if (target == TARGET_EARS) {
+            switch (key) {
+            case KEY_RETURN:
+                ears.ok = isReturnOk();
+                break;
+            case KEY_LEFT:
+                ears.left = parseInt();
+                ears.seen |= Ears.SEEN_LEFT;
+                break;
+            case KEY_RIGHT:
+                ears.right = parseInt();
+                ears.seen |= Ears.SEEN_RIGHT;
+                break;
+            default:
+                break;
+            }
+            return;
+        }
+
+        switch (key) {
+        case KEY_VERSION:
+            // Kept as sent, like the JSON parser: not always a number
+            status.version = toString(status.version);
+            status.seen |= Status.SEEN_VERSION;
+            break;
+        case KEY_PATCH:
+            status.patch = toString(status.patch);
+            status.seen |= Status.SEEN_PATCH;
+            break;
+        case KEY_SLEEP:
+            status.sleeping = isFlagSet();
+            status.seen |= Status.SEEN_SLEEP;
+            break;
+        case KEY_LED_COLOR:
+            status.ledColor = parseColor();
+            status.seen |= Status.SEEN_LED_COLOR;
+            break;
+        case KEY_LED_PULSE:
+            status.pulsing = isFlagSet();
+            break;
+        case KEY_EARS_DISABLED:
+            status.earsDisabled = isFlagSet();
+            status.seen |= Status.SEEN_EARS_DISABLED;
+            break;
+        case KEY_KAROTZ_FREE_SPACE:
+            status.freeSpace = toString(status.freeSpace);
+            status.seen |= Status.SEEN_FREE_SPACE;
+            break;
+        case KEY_KAROTZ_PERCENT_USED:
+            status.percentUsed = toString(status.percentUsed);
+            status.seen |= Status.SEEN_PERCENT_USED;
+            break;
+        case KEY_WLAN_MAC:
+            status.wlanMac = toString(status.wlanMac);
+            status.seen |= Status.SEEN_WLAN_MAC;
+            break;
+        case KEY_NB_MOODS:
+            status.nbMoods = toString(status.nbMoods);
+            status.seen |= Status.SEEN_NB_MOODS;
+            break;
+        case KEY_NB_SOUNDS:
+            status.nbSounds = toString(status.nbSounds);
+            status.seen |= Status.SEEN_NB_SOUNDS;
+            break;
+        case KEY_NB_TAGS:
+            status.nbTags = toString(status.nbTags);
+            status.seen |= Status.SEEN_NB_TAGS;
+            break;
+        case KEY_TTS_CACHE_SIZE:
+            // Optional, unknown if not a number
+            status.ttsCacheSize = parseInt(-1);
+            break;
+        default:
+            break;
+        }
+    }
+
+    // Value parsing
+
+    private boolean isFlagSet() {
+        // "1", or a boolean
+        if (valueLength == 1) {
+            return valueBuffer[0] == '1';
+        }
+        return !valueQuoted && valueEquals(LITERAL_TRUE);
+    }
+
+    private boolean isReturnOk() {
+        // "0" on success, a boolean for some commands
+        if (valueLength == 1) {
+            return valueBuffer[0] == '0';
+        }
+        return !valueQuoted && valueEquals(LITERAL_TRUE);
+    }
+
+    private int parseColor() throws SyntaxException {
+        if (valueLength != 6) {
+            throw SYNTAX;
+        }
+        int color = 0;
+        for (int i = 0; i < 6; i++) {
+            int d = Character.digit(valueBuffer[i], 16);
+            if (d < 0) {
+                throw SYNTAX;
+            }
+            color = (color << 4) | d;
+        }
+        return color;
+    }
+
+    private int parseInt() throws SyntaxException {
+        int i = 0;
+        boolean negative = false;
+        if (valueLength > 0 && valueBuffer[0] == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i >= valueLength || valueLength - i > 9) {
+            throw SYNTAX;
+        }
+        int value = 0;
+        for (; i < valueLength; i++) {
+            int d = valueBuffer[i] - '0';
+            if (d < 0 || d > 9) {
+                throw SYNTAX;
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    private int parseInt(int fallback) {
+        try {
+            return parseInt();
+        } catch (SyntaxException e) {
+            return fallback;
+        }
+    }
+
+    private String toString(String previous) {
+        // Reuse the previous string if the value did not change
+        if (previous != null && previous.length() == valueLength) {
+            boolean same = true;
+            for (int i = 0; i < valueLength; i++) {
+                if (previous.charAt(i) != valueBuffer[i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return previous;
+            }
+        }
+        return new String(valueBuffer, 0, valueLength, StandardCharsets.UTF_8);
+    }
+
+    private boolean valueEquals(byte[] literal) {
+        if (valueLength != literal.length) {
+            return false;
+        }
+        for (int i = 0; i < valueLength; i++) {
+            if (valueBuffer[i] != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lookupKey() {
+        if (keyLength < 0) {
+            return -1;
+        }
+        for (int k = 0; k < KEYS.length; k++) {
+            byte[] key = KEYS[k];
+            if (key.length != keyLength) {
+                continue;
+            }
+            int i = 0;
+            while (i < keyLength && key[i] == keyBuffer[i]) {
+                i++;
+            }
+            if (i == keyLength) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    // Tokenizer
+
+    private void readValue(int c) throws IOException, SyntaxException {
+        if (c == '"') {
+            valueQuoted = true;
+            valueLength = readString(valueBuffer);
+            return;
+        }
+        if (c == '{' || c == '[') {
+            // Nested values are never used
+            skipValue(c);
+            valueLength = -1;
+            return;
+        }
+
+        // Number or literal
+        valueQuoted = false;
+        int length = 0;
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+            if (length < valueBuffer.length) {
+                valueBuffer[length] = (byte) c;
+            }
+            length++;
+            c = read();
+        }
+        if (c == -1 || length == 0) {
+            throw SYNTAX;
+        }
+        // Push back the delimiter, it is still in the buffer
+        pos--;
+        valueLength = length <= valueBuffer.length ? length : -1;
+    }
+
+    /**
+     * Read a string after its opening quote into the given buffer.
+     * @return the string length in bytes, or -1 if it did not fit
+     */
+    private int readString(byte[] dest) throws IOException, SyntaxException {
+        int length = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw SYNTAX;
+            }
+            if (c == '"') {
+                return length <= dest.length ? length : -1;
+            }
+            if (c == '\\') {
+                c = readEscape();
+                if (c >= 0x80) {
+                    // Encode as UTF-8
+                    if (c >= 0x800) {
+                        length = put(dest, length, 0xE0 | (c >> 12));
+                        length = put(dest, length, 0x80 | ((c >> 6) & 0x3F));
+                    } else {
+                        length = put(dest, length, 0xC0 | (c >> 6));
+                    }
+                    c = 0x80 | (c & 0x3F);
+                }
+            }
+            length = put(dest, length, c);
+        }
+    }
+
+    private int readEscape() throws IOException, SyntaxException {
+        int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int d = Character.digit(read(), 16);
+                if (d < 0) {
+                    throw SYNTAX;
+                }
+                value = (value << 4) | d;
+            }
+            return value;
+        default:
+            throw SYNTAX;
+        }
+    }
+
+    private void skipValue(int c) throws IOException, SyntaxException {
+        if (c == '"') {
+            skipString();
+            return;
+        }
+        if (c != '{' && c != '[') {
+            readValue(c);
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            c = read();
+            if (c == -1) {
+                throw SYNTAX;
+            } else if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private void skipString() throws IOException, SyntaxException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw SYNTAX;
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\' && read() == -1) {
+                throw SYNTAX;
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return -1;
+            }
+            pos = 0;
+            limit = n;
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    private static int put(byte[] dest, int length, int c) {
+        if (length < dest.length) {
+            dest[length] = (byte) c;
+        }
+        return length + 1;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Decoded {@code /ears} answer.
+     */
+    public static final class Ears {
+
+        /**
+         * Get the left ear position.
+         * @return the left ear position
+         */
+        public int getLeft() {
+            return left;
+        }
+
+        /**
+         * Get the right ear position.
+         * @return the right ear position
+         */
+        public int getRight() {
+            return right;
+        }
+
+        /**
+         * Check if the command succeeded and both ear positions were answered.
+         * @return {@code true} if the ear positions can be used
+         */
+        public boolean isOk() {
+            return valid && ok && (seen & SEEN_BOTH) == SEEN_BOTH;
+        }
+
+        /**
+         * Check if the command succeeded.
+         * @return {@code true} if the Karotz answered with a success code
+         */
+        public boolean isSuccess() {
+            return valid && ok;
+        }
+
+        /**
+         * Check if the last answer was well-formed.
+         * @return {@code true} if the answer could be decoded
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        void reset() {
+            valid = false;
+            ok = false;
+            left = 0;
+            right = 0;
+            seen = 0;
+        }
+
+
+        boolean valid;
+
+        boolean ok;
+
+        int left;
+
+        int right;
+
+        int seen;
+
+        static final int SEEN_LEFT = 1;
+
+        static final int SEEN_RIGHT = 2;
+
+        static final int SEEN_BOTH = SEEN_LEFT | SEEN_RIGHT;
+    }
+
+    /**
+     * Decoded {@code /status} answer.
+     */
+    public static final class Status {
+
+        /**
+         * Get the LED color, as RGB.
+         * @return the LED color
+         */
+        public int getLedColor() {
+            return ledColor;
+        }
+
+        /**
+         * Get the version. The same instance is returned as long as the version does not change.
+         * @return the version
+         */
+        public IKarotz.KarotzVersion getVersion() {
+            String v = (seen & SEEN_VERSION) != 0 ? version : UNDEFINED;
+            String p = (seen & SEEN_PATCH) != 0 ? patch : UNDEFINED;
+            // Unchanged values are the same instances, see toString(String)
+            if (versionObject == null || versionObjectVersion != v || versionObjectPatch != p) {
+                versionObject = new IKarotz.KarotzVersion(v, p);
+                versionObjectVersion = v;
+                versionObjectPatch = p;
+            }
+            return versionObject;
+        }
+
+        /**
+         * Check if the ears are disabled.
+         * @return {@code true} if the ears are disabled
+         */
+        public boolean isEarsDisabled() {
+            return earsDisabled;
+        }
+
+        /**
+         * Check if the LED is pulsing.
+         * @return {@code true} if the LED is pulsing
+         */
+        public boolean isPulsing() {
+            return pulsing;
+        }
+
+        /**
+         * Check if the Karotz is sleeping.
+         * @return {@code true} if the Karotz is sleeping
+         */
+        public boolean isSleeping() {
+            return sleeping;
+        }
+
+        /**
+         * Check if the last answer was well-formed and complete.
+         * @return {@code true} if the status can be used
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        void reset() {
+            valid = false;
+            seen = 0;
+            sleeping = false;
+            ledColor = 0;
+            pulsing = false;
+            earsDisabled = false;
+            ttsCacheSize = -1;
+            // Previous strings are kept, to be reused if the values did not change
+        }
+
+        void fillMissing() {
+            if ((seen & SEEN_FREE_SPACE) == 0) {
+                freeSpace = MISSING;
+            }
+            if ((seen & SEEN_PERCENT_USED) == 0) {
+                percentUsed = MISSING;
+            }
+            if ((seen & SEEN_WLAN_MAC) == 0) {
+                wlanMac = MISSING;
+            }
+            if ((seen & SEEN_NB_MOODS) == 0) {
+                nbMoods = MISSING;
+            }
+            if ((seen & SEEN_NB_SOUNDS) == 0) {
+                nbSounds = MISSING;
+            }
+            if ((seen & SEEN_NB_TAGS) == 0) {
+                nbTags = MISSING;
+            }
+        }
+
+
+        boolean valid;
+
+        int seen;
+
+        String version;
+
+        String patch;
+
+        boolean sleeping;
+
+        int ledColor;
+
+        boolean pulsing;
+
+        boolean earsDisabled;
+
+        int ttsCacheSize;
+
+        String freeSpace;
+
+        String percentUsed;
+
+        String wlanMac;
+
+        String nbMoods;
+
+        String nbSounds;
+
+        String nbTags;
+
+        private IKarotz.KarotzVersion versionObject;
+
+        private String versionObjectVersion;
+
+        private String versionObjectPatch;
+
+        static final int SEEN_SLEEP = 1;
+
+        static final int SEEN_LED_COLOR = 2;
+
+        static final int SEEN_EARS_DISABLED = 4;
+
+        static final int REQUIRED = SEEN_SLEEP | SEEN_LED_COLOR | SEEN_EARS_DISABLED;
+
+        static final int SEEN_FREE_SPACE = 8;
+
+        static final int SEEN_PERCENT_USED = 16;
+
+        static final int SEEN_WLAN_MAC = 32;
+
+        static final int SEEN_NB_MOODS = 64;
+
+        static final int SEEN_NB_SOUNDS = 128;
+
+        static final int SEEN_NB_TAGS = 256;
+
+        static final int SEEN_VERSION = 512;
+
+        static final int SEEN_PATCH = 1024;
+
+        private static final String MISSING = "-";
+
+        private static final String UNDEFINED = "undefined";
+    }
+
+    /**
+     * Malformed input. Thrown without a stack trace, as a plain control flow signal.
+     */
+    private static final class SyntaxException extends Exception {
+
+        SyntaxException() {
+            super("Malformed JSON", null, false, false);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final byte[] keyBuffer = new byte[32];
+
+    private final byte[] valueBuffer = new byte[64];
+
+    private final Ears ears = new Ears();
+
+    private final Status status = new Status();
+
+    private InputStream in;
+
+    private int pos;
+
+    private int limit;
+
+    private int keyLength;
+
+    private int valueLength;
+
+    private boolean valueQuoted;
+
+    private int target;
+
+    private static final int TARGET_STATUS = 0;
+
+    private static final int TARGET_EARS = 1;
+
+    private static final int BUFFER_SIZE = 512;
+
+    private static final SyntaxException SYNTAX = new SyntaxException();
+
+    private static final byte[] LITERAL_TRUE = ascii("true");
+
+    private static final int KEY_RETURN = 0;
+    private static final int KEY_VERSION = 1;
+    private static final int KEY_PATCH = 2;
+    private static final int KEY_SLEEP = 3;
+    private static final int KEY_LED_COLOR = 4;
+    private static final int KEY_LED_PULSE = 5;
+    private static final int KEY_EARS_DISABLED = 6;
+    private static final int KEY_KAROTZ_FREE_SPACE = 7;
+    private static final int KEY_KAROTZ_PERCENT_USED = 8;
+    private static final int KEY_WLAN_MAC = 9;
+    private static final int KEY_NB_MOODS = 10;
+    private static final int KEY_NB_SOUNDS = 11;
+    private static final int KEY_NB_TAGS = 12;
+    private static final int KEY_LEFT = 13;
+    private static final int KEY_RIGHT = 14;
+    private static final int KEY_TTS_CACHE_SIZE = 15;
+
+    // Indexed by the KEY_ constants above
+    private static final byte[][] KEYS = {
+            ascii("return"),
+            ascii("version"),
+            ascii("patch"),
+            ascii("sleep"),
+            ascii("led_color"),
+            ascii("led_pulse"),
+            ascii("ears_disabled"),
+            ascii("karotz_free_space"),
+            ascii("karotz_percent_used_space"),
+            ascii("wlan_mac"),
+            ascii("nb_moods"),
+            ascii("nb_sounds"),
+            ascii("nb_tags"),
+            ascii("left"),
+            ascii("right"),
+            ascii("tts_cache_size"),
+    };
+
+    private static final ThreadLocal<KarotzResponseDecoder> DECODERS = new ThreadLocal<KarotzResponseDecoder>() {
+        @Override
+        protected KarotzResponseDecoder initialValue() {
+            return new KarotzResponseDecoder();
+        }
+    };
+}
@@ -35,7 +35,6 @@ import java.net.URL;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.graphics.Color;
 import android.util.Log;
 
 import com.github.wulfaz.android.openkarotz.net.NetUtils;
@@ -50,11 +49,20 @@ public class OpenKarotz implements IKarotz {
      * @param hostname the hostname or IP
      */
     public OpenKarotz(String hostname) {
+        this(hostname, PORT);
+    }
+
+    /**
+     * Initialize a new OpenKarotz instance.
+     * @param hostname the hostname or IP
+     * @param port the HTTP port
+     */
+    public OpenKarotz(String hostname, int port) {
 
         this.hostname = hostname;
 
         try {
-            this.api = new URL(PROTOCOL, hostname, PORT, "");
+            this.api = new URL(PROTOCOL, hostname, port, "");
         } catch (MalformedURLException e) {
             e.printStackTrace();
         }
@@ -69,6 +77,7 @@ public class OpenKarotz implements IKarotz {
         };
 
         // Current position, if available
+        OpenKarotzState state = statusCache.peek();
         if (state != null) {
             newPositions = new EarPosition[] {
                     state.getLeftEarPosition(), state.getRightEarPosition()
@@ -78,33 +87,24 @@ public class OpenKarotz implements IKarotz {
         URL url = newAPIURL(api, "/ears?noreset=1&left=" + left.toString() + "&right=" + right.toString());
         Log.d(LOG_TAG, url.toString());
 
-        String result = NetUtils.downloadUrl(url);
-        Log.d(LOG_TAG, result);
-
         // Answer: {"return":"0","left":"0","right":"0"}
-        try {
-            JSONObject json = new JSONObject(result);
-            boolean ok = "0".equals(json.getString("return"));
-
-            if (ok) {
-                newPositions[0] = EarPosition.fromIntValue(Integer.valueOf(json.getString("left")).intValue());
-                newPositions[1] = EarPosition.fromIntValue(Integer.valueOf(json.getString("right")).intValue());
-            }
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, "Cannot move Karotz ears: " + e.getMessage(), e);
+        KarotzResponseDecoder.Ears result = downloadEars(url);
+        if (result == null) {
+            Log.e(LOG_TAG, "Cannot move Karotz ears: malformed answer");
+        } else if (result.isOk()) {
+            newPositions[0] = EarPosition.fromIntValue(result.getLeft());
+            newPositions[1] = EarPosition.fromIntValue(result.getRight());
         }
 
-        if (state != null) {
-            state.setLeftEarPosition(newPositions[0]);
-            state.setRightEarPosition(newPositions[1]);
-        }
+        updateEarPositions(newPositions[0], newPositions[1]);
 
         return newPositions;
     }
 
     @Override
     public EarMode earsMode(EarMode mode) throws IOException {
-        EarMode currentMode = getEarMode();
+        OpenKarotzState state = knownState();
+        EarMode currentMode = state.getEarMode();
         if (currentMode == mode) {
             // No change
             Log.d(LOG_TAG, "No change in ear mode");
@@ -124,7 +124,7 @@ public class OpenKarotz implements IKarotz {
 
             if (ok) {
                 EarMode newMode = "0".equals(json.getString("disabled")) ? EarMode.ENABLED : EarMode.DISABLED;
-                state.setEarMode(newMode);
+                statusCache.patch(s -> s != null ? s.withEarMode(newMode) : null);
                 return newMode;
             }
         } catch (JSONException e) {
@@ -143,6 +143,7 @@ public class OpenKarotz implements IKarotz {
         };
 
         // Current position, if available
+        OpenKarotzState state = statusCache.peek();
         if (state != null) {
             newPositions = new EarPosition[] {
                     state.getLeftEarPosition(), state.getRightEarPosition()
@@ -152,28 +153,18 @@ public class OpenKarotz implements IKarotz {
         URL url = newAPIURL(api, "/ears_random");
         Log.d(LOG_TAG, url.toString());
 
-        String result = NetUtils.downloadUrl(url);
-        Log.d(LOG_TAG, result);
-
         // Answer: {"left":"0","right":"0","return":"0"}
         // Answer: {"return":"1","msg":"Unable to perform action, rabbit is sleeping."}
         // Answer: {"return":"1","msg":"Unable to perform action, ears disabled."}
-        try {
-            JSONObject json = new JSONObject(result);
-            boolean ok = "0".equals(json.getString("return"));
-
-            if (ok) {
-                newPositions[0] = EarPosition.fromIntValue(Integer.valueOf(json.getString("left")).intValue());
-                newPositions[1] = EarPosition.fromIntValue(Integer.valueOf(json.getString("right")).intValue());
-            }
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, "Cannot put Karotz ears in random position: " + e.getMessage(), e);
+        KarotzResponseDecoder.Ears result = downloadEars(url);
+        if (result == null) {
+            Log.e(LOG_TAG, "Cannot put Karotz ears in random position: malformed answer");
+        } else if (result.isOk()) {
+            newPositions[0] = EarPosition.fromIntValue(result.getLeft());
+            newPositions[1] = EarPosition.fromIntValue(result.getRight());
         }
 
-        if (state != null) {
-            state.setLeftEarPosition(newPositions[0]);
-            state.setRightEarPosition(newPositions[1]);
-        }
+        updateEarPositions(newPositions[0], newPositions[1]);
 
         return newPositions;
     }
@@ -183,49 +174,33 @@ public class OpenKarotz implements IKarotz {
         URL url = newAPIURL(api, "/ears_reset");
         Log.d(LOG_TAG, url.toString());
 
-        String result = NetUtils.downloadUrl(url);
-        Log.d(LOG_TAG, result);
-
         // Answer: {"return":"0"}
         // Answer: {"return":"1","msg":"Unable to perform action, rabbit is sleeping."}
         // Answer: {"return":"1","msg":"Unable to perform action, ears disabled."}
-        try {
-            JSONObject json = new JSONObject(result);
-            boolean ok = "0".equals(json.getString("return"));
-
-            if (ok) {
-                if (state != null) {
-                    state.setLeftEarPosition(EarPosition.POSITION_1);
-                    state.setRightEarPosition(EarPosition.POSITION_1);
-                }
-            }
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, "Cannot reset Karotz ears: " + e.getMessage(), e);
+        KarotzResponseDecoder.Ears result = downloadEars(url);
+        if (result == null) {
+            Log.e(LOG_TAG, "Cannot reset Karotz ears: malformed answer");
+        } else if (result.isSuccess()) {
+            updateEarPositions(EarPosition.POSITION_1, EarPosition.POSITION_1);
         }
     }
 
     @Override
     public int getColor() throws IOException {
-        if (state == null) {
-            status();
-        }
-        return state.getLedColor();
+        return statusCache.get().getLedColor();
     }
 
     @Override
     public EarMode getEarMode() throws IOException {
-        if (isOffline()) {
-            // Re-check state
-            status();
-        }
-        return state.getEarMode();
+        return statusCache.get().getEarMode();
     }
 
     @Override
     public EarPosition[] getEarPositions() throws IOException {
-        if (isOffline()) {
-            // Re-check state
-            status();
+        // Ear positions are not part of the status, only re-check if offline
+        OpenKarotzState state = statusCache.peek();
+        if (state == null || state.getStatus().isOffline()) {
+            state = statusCache.get();
         }
 
         // Default position
@@ -249,35 +224,24 @@ public class OpenKarotz implements IKarotz {
 
     @Override
     public KarotzStatus getStatus() throws IOException {
-        if (isOffline()) {
-            // Re-check state
-            status();
-        }
-        return state.getStatus();
+        return statusCache.get().getStatus();
     }
 
     @Override
     public KarotzVersion getVersion() throws IOException {
-        if (isOffline()) {
-            // Re-check state
-            status();
-        }
-        return state.getVersion();
+        return statusCache.get().getVersion();
     }
 
     @Override
     public boolean isPulsing() throws IOException {
-        if (isOffline()) {
-            // Re-check state
-            status();
-        }
-        return state.isPulsing();
+        return statusCache.get().isPulsing();
     }
 
     @Override
     public void led(int color, boolean pulse) throws IOException {
         int rgb = color & 0x00FFFFFF;
 
+        OpenKarotzState state = knownState();
         if (pulse == state.isPulsing() && rgb == state.getLedColor()) {
             // No change
             return;
@@ -298,8 +262,8 @@ public class OpenKarotz implements IKarotz {
             boolean ok = "0".equals(json.getString("return"));
 
             if (ok) {
-                state.setLedColor(Color.parseColor("#" + json.getString("color")));
-                state.setPulsing("1".equals(json.getString("pulse")));
+                // The answer echoes the color sent, keep the masked RGB the status decoder also stores
+                updateLed(rgb, "1".equals(json.getString("pulse")));
                 return;
             }
         } catch (JSONException e) {
@@ -307,8 +271,7 @@ public class OpenKarotz implements IKarotz {
         }
 
         // Not OK, set back to previous values
-        state.setLedColor(rgb);
-        state.setPulsing(pulse);
+        updateLed(rgb, pulse);
     }
 
     @Override
@@ -329,10 +292,10 @@ public class OpenKarotz implements IKarotz {
         // Answer: {"return":"1","msg":"Unable to perform action, rabbit is already sleeping."}
         try {
             JSONObject json = new JSONObject(result);
-            state.setStatus("0".equals(json.getString("return")) ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE);
+            updateStatus("0".equals(json.getString("return")) ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE);
             return true;
         } catch (JSONException e) {
-            state.setStatus(KarotzStatus.UNKNOWN);
+            updateStatus(KarotzStatus.UNKNOWN);
             return false;
         }
 
@@ -404,27 +367,35 @@ public class OpenKarotz implements IKarotz {
         Log.d(LOG_TAG, result);
 
         // Answer: {"return":"0","silent":"1"}
+        KarotzStatus newStatus;
         try {
             JSONObject json = new JSONObject(result);
-            state.setStatus("0".equals(json.getString("return")) ? KarotzStatus.AWAKE : KarotzStatus.UNKNOWN);
+            newStatus = "0".equals(json.getString("return")) ? KarotzStatus.AWAKE : KarotzStatus.UNKNOWN;
         } catch (JSONException e) {
-            state.setStatus(KarotzStatus.UNKNOWN);
+            newStatus = KarotzStatus.UNKNOWN;
         }
+        updateStatus(newStatus);
 
-        return (state.getStatus().isAwake());
+        return (newStatus.isAwake());
     }
 
-    private boolean isAwake() {
-        return (state != null && state.getStatus().isAwake());
+    /**
+     * Set the time to live of the cached status. Getters answer from the cache as long as it is fresh.
+     * @param ttlMillis the time to live, in milliseconds
+     */
+    public void setStatusTtl(long ttlMillis) {
+        statusCache.setTtl(ttlMillis);
     }
 
-    private boolean isOffline() {
-        return (state == null || state.getStatus().isOffline());
+    private boolean isAwake() {
+        OpenKarotzState state = statusCache.peek();
+        return (state != null && state.getStatus().isAwake());
     }
 
     /**
      * Simple connectivity check - Just verify we get a response from api (json)
      */
+    @Override
     public boolean isOnline() {
         try {
             URL url = newAPIURL(api, "/status");
@@ -437,27 +408,76 @@ public class OpenKarotz implements IKarotz {
         }
     }
 
-    /**
-     * Get the current state.
-     * @return the OpenKarotz state
-     */
+    @Override
     public OpenKarotzState getState() {
-        return state;
+        return statusCache.peek();
+    }
+
+    @Override
+    public TtsCache getTtsCache() {
+        return ttsCache;
     }
 
     private boolean isSleeping() {
+        OpenKarotzState state = statusCache.peek();
         return (state != null && state.getStatus().isSleeping());
     }
 
-    private void status() throws IOException {
+    private void updateEarPositions(EarPosition left, EarPosition right) {
+        statusCache.patch(s -> s != null ? s.withEarPositions(left, right) : null);
+    }
+
+    private void updateLed(int color, boolean pulse) {
+        statusCache.patch(s -> s != null ? s.withLed(color, pulse) : null);
+    }
+
+    private void updateStatus(KarotzStatus status) {
+        statusCache.patch(s -> (s != null ? s : new OpenKarotzState()).withStatus(status));
+        if (status == KarotzStatus.UNKNOWN) {
+            statusCache.invalidate();
+        }
+    }
+
+    /**
+     * Get the last known status, loading it only if there is none or the Karotz was offline. Commands keep it up to
+     * date, so it is enough to skip a command that would change nothing, without a /status request once the TTL has
+     * expired.
+     */
+    private OpenKarotzState knownState() throws IOException {
+        OpenKarotzState state = statusCache.peek();
+        return state != null && !state.getStatus().isOffline() ? state : statusCache.get();
+    }
+
+    private OpenKarotzState status() throws IOException {
         URL url = newAPIURL(api, "/status");
         Log.d(LOG_TAG, url.toString());
 
-        String result = NetUtils.downloadUrl(url);
-        Log.d(LOG_TAG, result);
+        // Decode straight from the response stream
+        KarotzResponseDecoder decoder = KarotzResponseDecoder.forCurrentThread();
+        NetUtils.downloadUrl(url, decoder::decodeStatus);
+        if (!decoder.getStatus().isValid()) {
+            Log.e(LOG_TAG, "Cannot parse status answer");
+        }
+
+        OpenKarotzState state = new OpenKarotzState(decoder.getStatus());
+        ttsCache.onCacheSize(state.getTtsCacheSize());
+
+        // Ear positions are not part of the status, keep the known ones
+        OpenKarotzState previous = statusCache.peek();
+        if (previous != null) {
+            state = state.withEarPositions(previous.getLeftEarPosition(), previous.getRightEarPosition());
+        }
 
-        state = new OpenKarotzState(result);
         Log.d(LOG_TAG, state.toString());
+        return state;
+    }
+
+    private static KarotzResponseDecoder.Ears downloadEars(URL url) throws IOException {
+        KarotzResponseDecoder decoder = KarotzResponseDecoder.forCurrentThread();
+        NetUtils.downloadUrl(url, decoder::decodeEars);
+        KarotzResponseDecoder.Ears ears = decoder.getEars();
+        Log.d(LOG_TAG, "Ears answer: ok=" + ears.isOk() + ", left=" + ears.getLeft() + ", right=" + ears.getRight());
+        return ears.isValid() ? ears : null;
     }
 
     private static String toColorCode(int c) {
@@ -478,6 +498,7 @@ public class OpenKarotz implements IKarotz {
      * @return JSON string with voices array, or null on error
      * @throws IOException if network error
      */
+    @Override
     public String getVoiceList() throws IOException {
         URL url = newAPIURL(api, "/voice_list");
         Log.d(LOG_TAG, url.toString());
@@ -495,24 +516,30 @@ public class OpenKarotz implements IKarotz {
      * @return true if successful
      * @throws IOException if network error
      */
+    @Override
     public boolean tts(String voiceId, String text) throws IOException {
         if (text == null || text.isEmpty()) {
             return false;
         }
 
+        TtsCache.Phrase phrase = ttsCache.prepare(voiceId, text);
+
         // URL encode the text
         String encodedText;
         try {
-            encodedText = java.net.URLEncoder.encode(text, "UTF-8");
+            encodedText = java.net.URLEncoder.encode(phrase.getText(), "UTF-8");
         } catch (Exception e) {
             Log.e(LOG_TAG, "Error encoding text: " + e.getMessage());
             return false;
         }
 
-        // Add nocache parameter with current timestamp to avoid caching
-        long nocache = System.currentTimeMillis();
+        String query = "/tts?voice=" + voiceId + "&text=" + encodedText;
+        if (!TtsCache.isEnabled()) {
+            // Add nocache parameter with current timestamp to avoid caching
+            query += "&nocache=" + System.currentTimeMillis();
+        }
 
-        URL url = newAPIURL(api, "/tts?voice=" + voiceId + "&text=" + encodedText + "&nocache=" + nocache);
+        URL url = newAPIURL(api, query);
         Log.d(LOG_TAG, url.toString());
 
         String result = NetUtils.downloadUrl(url);
@@ -534,6 +561,7 @@ public class OpenKarotz implements IKarotz {
             }
 
             if (ok) {
+                ttsCache.record(phrase, json.optBoolean("cache", false), json.optString("id", null));
                 Log.i(LOG_TAG, "Karotz TTS started");
                 return true;
             }
@@ -550,6 +578,7 @@ public class OpenKarotz implements IKarotz {
      * @return true if successful
      * @throws IOException if network error
      */
+    @Override
     public boolean randomMood() throws IOException {
         URL url = newAPIURL(api, "/apps/moods");
         Log.d(LOG_TAG, url.toString());
@@ -558,6 +587,8 @@ public class OpenKarotz implements IKarotz {
         Log.d(LOG_TAG, result);
 
         // Answer: {"moods":"259","return":"0"}
+        // Moods may move the ears and change the LED
+        statusCache.invalidate();
         try {
             JSONObject json = new JSONObject(result);
             return "0".equals(json.optString("return", "1"));
@@ -573,6 +604,7 @@ public class OpenKarotz implements IKarotz {
      * @return JSON string with streams array, or null on error
      * @throws IOException if network error
      */
+    @Override
     public String getRadiosList() throws IOException {
         URL url = newAPIURL(api, "/radios_list");
         Log.d(LOG_TAG, url.toString());
@@ -586,7 +618,9 @@ public class OpenKarotz implements IKarotz {
 
     private URL api = null;
 
-    private OpenKarotzState state = null;
+    private final StatusCache statusCache = new StatusCache(this::status, StatusCache.DEFAULT_TTL);
+
+    private final TtsCache ttsCache = new TtsCache();
 
     private static final String PROTOCOL = "http";
 
@@ -28,6 +28,8 @@
 
 package com.github.wulfaz.android.openkarotz.karotz;
 
+import java.util.function.Consumer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -40,14 +42,18 @@ import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
 
 /**
  * Status for OpenKarotz.
+ * <p>
+ * A status is an immutable snapshot: it can be shared between the UI thread and background tasks without locking.
+ * Changes are made by creating a modified copy with one of the {@code with} methods, which is then published as a
+ * whole, see {@link StatusCache#patch(java.util.function.UnaryOperator)}.
  */
-public class OpenKarotzState {
+public final class OpenKarotzState {
 
     /**
      * Initialize a new status.
      */
     public OpenKarotzState() {
-        // Nothing to do
+        this(new Builder());
     }
 
     /**
@@ -56,41 +62,33 @@ public class OpenKarotzState {
      * @param json the JSON string
      */
     public OpenKarotzState(String json) {
-        // Answer:
-        // {"version":"200","ears_disabled":"0","sleep":"0","sleep_time":"0","led_color":"0000FF","led_pulse":"1","tts_cache_size":"4","usb_free_space":"-1","karotz_free_space":"148.4M","eth_mac":"00:00:00:00:00:00","wlan_mac":"01:23:45:67:89:AB","nb_tags":"4","nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"37","usb_percent_used_space":""}
-        // {"version":"210","patch":"310","ears_disabled":"0","sleep":"1","sleep_time":"1754001236","led_color":"000000","led_pulse":"0","tts_cache_size":"1","usb_free_space":"-1","karotz_free_space":"147.3M","eth_mac":"00:00:00:00:00:00","wlan_mac":"01:23:45:67:89:AB","nb_tags":"6","nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"37","usb_percent_used_space":"","data_dir":"/usr/openkarotz"}
-
-        // Correction : Patch is not always available (I've got v 201 but no patch)
-        // {"version":"201", "ears_disabled":"0", "sleep":"0","sleep_time":"0","led_color":"FFC0CB","led_pulse":"1","tts_cache_size":"0",
-        // "usb_free_space":"-1","karotz_free_space":"148.6M",
-        // "eth_mac":"00:00:00:00:00:00",
-        // "wlan_mac":"00:0E:8E:2C:BD:EE","nb_tags":"1",
-        // "nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"36","usb_percent_used_space":"","data_dir":"/usr/openkarotz"}
-        if (json != null) {
-            try {
-                JSONObject jo = new JSONObject(json);
-                version = new IKarotz.KarotzVersion(jo.optString(KEY_VERSION, "undefined"), jo.optString(KEY_PATCH, "undefined"));
-                status = ("1".equals(jo.getString(KEY_SLEEP)) ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE);
-                ledColor = Color.parseColor("#" + jo.getString(KEY_LED_COLOR));
-                pulsing = ("1".equals(jo.optString(KEY_LED_PULSE, "0")));
-                earMode = ("1".equals(jo.getString(KEY_EARS_DISABLED)) ? EarMode.DISABLED : EarMode.ENABLED);
-                // System info
-                freeSpace = jo.optString(KEY_KAROTZ_FREE_SPACE, "-");
-                percentUsed = jo.optString(KEY_KAROTZ_PERCENT_USED, "-");
-                wlanMac = jo.optString(KEY_WLAN_MAC, "-");
-                nbMoods = jo.optString(KEY_NB_MOODS, "-");
-                nbSounds = jo.optString(KEY_NB_SOUNDS, "-");
-                nbTags = jo.optString(KEY_NB_TAGS, "-");
+        this(parse(json));
+    }
 
-            } catch (JSONException e) {
-                e.printStackTrace();
-                Log.e(LOG_TAG, "Cannot parse status answer: " + json);
-                status = KarotzStatus.UNKNOWN;
-            }
+    /**
+     * Initialize a new status from a decoded status answer.
+     *
+     * @param decoded the decoded status, see {@link KarotzResponseDecoder#decodeStatus(java.io.InputStream)}
+     */
+    public OpenKarotzState(KarotzResponseDecoder.Status decoded) {
+        this(decode(decoded));
+    }
 
-        } else {
-            status = KarotzStatus.UNKNOWN;
-        }
+    private OpenKarotzState(Builder b) {
+        this.version = b.version;
+        this.status = b.status;
+        this.ledColor = b.ledColor & 0x00FFFFFF;
+        this.pulsing = b.pulsing;
+        this.earMode = b.earMode;
+        this.leftEarPosition = b.leftEarPosition;
+        this.rightEarPosition = b.rightEarPosition;
+        this.freeSpace = b.freeSpace;
+        this.percentUsed = b.percentUsed;
+        this.wlanMac = b.wlanMac;
+        this.nbMoods = b.nbMoods;
+        this.nbSounds = b.nbSounds;
+        this.nbTags = b.nbTags;
+        this.ttsCacheSize = b.ttsCacheSize;
     }
 
     /**
@@ -108,7 +106,7 @@ public class OpenKarotzState {
      * @return the LED color
      */
     public int getLedColor() {
-        return ledColor & 0x00FFFFFF;
+        return ledColor;
     }
 
     /**
@@ -169,6 +167,15 @@ public class OpenKarotzState {
         return nbTags;
     }
 
+    /**
+     * Get the number of phrases in the TTS cache of the Karotz.
+     *
+     * @return the number of phrases, {@code -1} if unknown
+     */
+    public int getTtsCacheSize() {
+        return ttsCacheSize;
+    }
+
     /**
      * Check if LED is pulsing.
      *
@@ -179,61 +186,176 @@ public class OpenKarotzState {
     }
 
     /**
-     * Set the ear mode.
+     * Get a copy of this status with another ear mode.
      *
      * @param mode the ear mode
+     * @return the new status
      */
-    public void setEarMode(EarMode mode) {
-        this.earMode = mode;
+    public OpenKarotzState withEarMode(EarMode mode) {
+        return copy(b -> b.earMode = mode);
     }
 
     /**
-     * Set the LED color.
+     * Get a copy of this status with other ear positions.
      *
-     * @param color the color to set
+     * @param left the left ear position
+     * @param right the right ear position
+     * @return the new status
      */
-    public void setLedColor(int color) {
-        this.ledColor = color & 0x00FFFFFF;
+    public OpenKarotzState withEarPositions(EarPosition left, EarPosition right) {
+        return copy(b -> {
+            b.leftEarPosition = left;
+            b.rightEarPosition = right;
+        });
     }
 
     /**
-     * Set the left ear position.
-     * @param position the left ear position to set
+     * Get a copy of this status with another LED state.
+     *
+     * @param color the LED color
+     * @param pulse the LED pulsing state
+     * @return the new status
+     */
+    public OpenKarotzState withLed(int color, boolean pulse) {
+        return copy(b -> {
+            b.ledColor = color;
+            b.pulsing = pulse;
+        });
+    }
+
+    /**
+     * Get a copy of this status with another Karotz status.
+     *
+     * @param newStatus the Karotz status
+     * @return the new status
      */
-    public void setLeftEarPosition(EarPosition position) {
-        this.leftEarPosition = position;
+    public OpenKarotzState withStatus(KarotzStatus newStatus) {
+        return copy(b -> b.status = newStatus);
     }
 
     /**
-     * Set the LED pulsing state.
+     * Get a copy of this status with other system information.
      *
-     * @param pulsing the pulsing state to set
+     * @param newFreeSpace the free space on Karotz storage
+     * @param newPercentUsed the percentage of used space on Karotz storage
+     * @param newWlanMac the WiFi MAC address
+     * @param newNbMoods the number of moods
+     * @param newNbSounds the number of sounds
+     * @param newNbTags the number of tags
+     * @return the new status
      */
-    public void setPulsing(boolean pulsing) {
-        this.pulsing = pulsing;
+    public OpenKarotzState withSystemInfo(String newFreeSpace, String newPercentUsed, String newWlanMac,
+            String newNbMoods, String newNbSounds, String newNbTags) {
+        return copy(b -> {
+            b.freeSpace = newFreeSpace;
+            b.percentUsed = newPercentUsed;
+            b.wlanMac = newWlanMac;
+            b.nbMoods = newNbMoods;
+            b.nbSounds = newNbSounds;
+            b.nbTags = newNbTags;
+        });
     }
 
     /**
-     * Set the right ear position.
-     * @param position the right ear position to set
+     * Get a copy of this status with another TTS cache size.
+     *
+     * @param newTtsCacheSize the number of phrases in the TTS cache, {@code -1} if unknown
+     * @return the new status
      */
-    public void setRightEarPosition(EarPosition position) {
-        this.rightEarPosition = position;
+    public OpenKarotzState withTtsCacheSize(int newTtsCacheSize) {
+        return copy(b -> b.ttsCacheSize = newTtsCacheSize);
     }
 
     /**
-     * Set the Karotz status.
+     * Get a copy of this status with another version.
      *
-     * @param status the status to set
+     * @param newVersion the version
+     * @return the new status
      */
-    public void setStatus(KarotzStatus status) {
-        this.status = status;
+    public OpenKarotzState withVersion(IKarotz.KarotzVersion newVersion) {
+        return copy(b -> b.version = newVersion);
+    }
+
+    /**
+     * Copy this status with some changes, so that the {@code with} methods only name the fields they change.
+     */
+    private OpenKarotzState copy(Consumer<Builder> change) {
+        Builder b = new Builder(this);
+        change.accept(b);
+        return new OpenKarotzState(b);
+    }
+
+    private static Builder decode(KarotzResponseDecoder.Status decoded) {
+        Builder b = new Builder();
+        if (decoded.isValid()) {
+            b.version = decoded.getVersion();
+            b.status = decoded.isSleeping() ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE;
+            b.ledColor = decoded.getLedColor();
+            b.pulsing = decoded.isPulsing();
+            b.earMode = decoded.isEarsDisabled() ? EarMode.DISABLED : EarMode.ENABLED;
+            // System info
+            b.freeSpace = decoded.freeSpace;
+            b.percentUsed = decoded.percentUsed;
+            b.wlanMac = decoded.wlanMac;
+            b.nbMoods = decoded.nbMoods;
+            b.nbSounds = decoded.nbSounds;
+            b.nbTags = decoded.nbTags;
+            b.ttsCacheSize = decoded.ttsCacheSize;
+        }
+        return b;
+    }
+
+    private static Builder parse(String json) {
+        // Answer:
+        // {"version":"200","ears_disabled":"0","sleep":"0","sleep_time":"0","led_color":"0000FF","led_pulse":"1","tts_cache_size":"4","usb_free_space":"-1","karotz_free_space":"148.4M","eth_mac":"00:00:00:00:00:00","wlan_mac":"01:23:45:67:89:AB","nb_tags":"4","nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"37","usb_percent_used_space":""}
+        // {"version":"210","patch":"310","ears_disabled":"0","sleep":"1","sleep_time":"1754001236","led_color":"000000","led_pulse":"0","tts_cache_size":"1","usb_free_space":"-1","karotz_free_space":"147.3M","eth_mac":"00:00:00:00:00:00","wlan_mac":"01:23:45:67:89:AB","nb_tags":"6","nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"37","usb_percent_used_space":"","data_dir":"/usr/openkarotz"}
+
+        // Correction : Patch is not always available (I've got v 201 but no patch)
+        // {"version":"201", "ears_disabled":"0", "sleep":"0","sleep_time":"0","led_color":"FFC0CB","led_pulse":"1","tts_cache_size":"0",
+        // "usb_free_space":"-1","karotz_free_space":"148.6M",
+        // "eth_mac":"00:00:00:00:00:00",
+        // "wlan_mac":"00:0E:8E:2C:BD:EE","nb_tags":"1",
+        // "nb_moods":"305","nb_sounds":"14","nb_stories":"0","karotz_percent_used_space":"36","usb_percent_used_space":"","data_dir":"/usr/openkarotz"}
+        if (json != null) {
+            try {
+                JSONObject jo = new JSONObject(json);
+                Builder b = new Builder();
+                b.version = new IKarotz.KarotzVersion(jo.optString(KEY_VERSION, "undefined"), jo.optString(KEY_PATCH, "undefined"));
+                b.status = "1".equals(jo.getString(KEY_SLEEP)) ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE;
+                b.ledColor = Color.parseColor("#" + jo.getString(KEY_LED_COLOR)) & 0x00FFFFFF;
+                b.pulsing = "1".equals(jo.optString(KEY_LED_PULSE, "0"));
+                b.earMode = "1".equals(jo.getString(KEY_EARS_DISABLED)) ? EarMode.DISABLED : EarMode.ENABLED;
+                // System info
+                b.freeSpace = jo.optString(KEY_KAROTZ_FREE_SPACE, "-");
+                b.percentUsed = jo.optString(KEY_KAROTZ_PERCENT_USED, "-");
+                b.wlanMac = jo.optString(KEY_WLAN_MAC, "-");
+                b.nbMoods = jo.optString(KEY_NB_MOODS, "-");
+                b.nbSounds = jo.optString(KEY_NB_SOUNDS, "-");
+                b.nbTags = jo.optString(KEY_NB_TAGS, "-");
+                b.ttsCacheSize = parseInt(jo.optString(KEY_TTS_CACHE_SIZE));
+                return b;
+
+            } catch (JSONException e) {
+                e.printStackTrace();
+                Log.e(LOG_TAG, "Cannot parse status answer: " + json);
+            }
+        }
+        return new Builder();
+    }
+
+    private static int parseInt(String value) {
+        // Unknown if not a number, like the streaming decoder: optInt() wraps values out of range
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     @Override
     public String toString() {
         String sb = "OpenKarotzState { \"version\": \"" +
-                version.toString() +
+                version +
                 "\", \"status\": \"" +
                 status.name() +
                 "\", \"color\": \"" +
@@ -250,25 +372,69 @@ public class OpenKarotzState {
         return sb;
     }
 
+    /**
+     * Mutable values of a status being built, initialized to those of a new status.
+     */
+    private static final class Builder {
+
+        Builder() {
+            // Defaults
+        }
+
+        Builder(OpenKarotzState s) {
+            version = s.version;
+            status = s.status;
+            ledColor = s.ledColor;
+            pulsing = s.pulsing;
+            earMode = s.earMode;
+            leftEarPosition = s.leftEarPosition;
+            rightEarPosition = s.rightEarPosition;
+            freeSpace = s.freeSpace;
+            percentUsed = s.percentUsed;
+            wlanMac = s.wlanMac;
+            nbMoods = s.nbMoods;
+            nbSounds = s.nbSounds;
+            nbTags = s.nbTags;
+            ttsCacheSize = s.ttsCacheSize;
+        }
+
+        IKarotz.KarotzVersion version = null;
+        KarotzStatus status = KarotzStatus.UNKNOWN;
+        int ledColor = Color.GREEN;
+        boolean pulsing = true;
+        EarMode earMode = EarMode.ENABLED;
+        EarPosition leftEarPosition = EarPosition.POSITION_1;
+        EarPosition rightEarPosition = EarPosition.POSITION_1;
+        String freeSpace = "";
+        String percentUsed = "";
+        String wlanMac = "";
+        String nbMoods = "";
+        String nbSounds = "";
+        String nbTags = "";
+        int ttsCacheSize = -1;
+    }
+
 
     // Version + patch
-    private IKarotz.KarotzVersion version = null;
+    private final IKarotz.KarotzVersion version;
+
+    private final KarotzStatus status;
 
-    private KarotzStatus status = KarotzStatus.UNKNOWN;
+    private final int ledColor;
+    private final boolean pulsing;
 
-    private int ledColor = Color.GREEN;
-    private boolean pulsing = true;
+    private final EarMode earMode;
+    private final EarPosition leftEarPosition;
+    private final EarPosition rightEarPosition;
 
-    private EarMode earMode = EarMode.ENABLED;
-    private EarPosition leftEarPosition = EarPosition.POSITION_1;
-    private EarPosition rightEarPosition = EarPosition.POSITION_1;
+    private final String freeSpace;
+    private final String percentUsed;
+    private final String wlanMac;
+    private final String nbMoods;
+    private final String nbSounds;
+    private final String nbTags;
 
-    private String freeSpace = "";
-    private String percentUsed = "";
-    private String wlanMac = "";
-    private String nbMoods = "";
-    private String nbSounds = "";
-    private String nbTags = "";
+    private final int ttsCacheSize;
 
     private static final String KEY_VERSION = "version";
 
@@ -290,4 +456,5 @@ public class OpenKarotzState {
     private static final String KEY_NB_MOODS = "nb_moods";
     private static final String KEY_NB_SOUNDS = "nb_sounds";
     private static final String KEY_NB_TAGS = "nb_tags";
+    private static final String KEY_TTS_CACHE_SIZE = "tts_cache_size";
 }
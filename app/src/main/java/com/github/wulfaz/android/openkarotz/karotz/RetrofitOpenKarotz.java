@@ -0,0 +1,476 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import android.graphics.Color;
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.net.Cancellation;
+import com.github.wulfaz.android.openkarotz.network.OpenKarotzApi;
+import com.github.wulfaz.android.openkarotz.network.ServiceGenerator;
+import com.github.wulfaz.android.openkarotz.network.model.EarsModeResponse;
+import com.github.wulfaz.android.openkarotz.network.model.EarsResponse;
+import com.github.wulfaz.android.openkarotz.network.model.KarotzResponse;
+import com.github.wulfaz.android.openkarotz.network.model.LedsResponse;
+import com.github.wulfaz.android.openkarotz.network.model.StatusResponse;
+import com.github.wulfaz.android.openkarotz.network.model.TtsResponse;
+import com.google.gson.stream.MalformedJsonException;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * OpenKarotz implementation based on Retrofit and OkHttp.
+ * <p>
+ * Connections, dispatcher and JSON adapters are shared with every other Karotz through {@link ServiceGenerator}, and
+ * answers are decoded by Gson straight from the response stream.
+ */
+public class RetrofitOpenKarotz implements IKarotz {
+
+    /**
+     * Initialize a new instance.
+     * @param hostname the hostname or IP
+     * @param port the HTTP port
+     */
+    public RetrofitOpenKarotz(String hostname, int port) {
+        this.hostname = hostname;
+        this.api = ServiceGenerator.createService(OpenKarotzApi.class, "http://" + hostname + ":" + port);
+    }
+
+    @Override
+    public EarPosition[] ears(EarPosition left, EarPosition right) throws IOException {
+        EarPosition[] newPositions = currentEarPositions();
+
+        EarsResponse answer = execute(api.moveEars(left.getPosition(), right.getPosition(), 1));
+        if (answer != null && answer.isSuccess()) {
+            newPositions[0] = EarPosition.fromIntValue(answer.getLeftEarPositionInt());
+            newPositions[1] = EarPosition.fromIntValue(answer.getRightEarPositionInt());
+        }
+
+        updateEarPositions(newPositions);
+        return newPositions;
+    }
+
+    @Override
+    public EarMode earsMode(EarMode mode) throws IOException {
+        OpenKarotzState state = knownState();
+        EarMode currentMode = state.getEarMode();
+        if (currentMode == mode) {
+            // No change
+            Log.d(LOG_TAG, "No change in ear mode");
+            return mode;
+        }
+
+        EarsModeResponse answer = execute(api.setEarsMode(mode.isEnabled() ? 0 : 1));
+        if (answer != null && answer.isSuccess()) {
+            EarMode newMode = answer.isEarsEnabled() ? EarMode.ENABLED : EarMode.DISABLED;
+            statusCache.patch(s -> s != null ? s.withEarMode(newMode) : null);
+            return newMode;
+        }
+
+        return currentMode;
+    }
+
+    @Override
+    public EarPosition[] earsRandom() throws IOException {
+        EarPosition[] newPositions = currentEarPositions();
+
+        EarsResponse answer = execute(api.randomEars());
+        if (answer != null && answer.isSuccess()) {
+            newPositions[0] = EarPosition.fromIntValue(answer.getLeftEarPositionInt());
+            newPositions[1] = EarPosition.fromIntValue(answer.getRightEarPositionInt());
+        }
+
+        updateEarPositions(newPositions);
+        return newPositions;
+    }
+
+    @Override
+    public void earsReset() throws IOException {
+        KarotzResponse answer = execute(api.resetEars());
+        if (answer != null && answer.isSuccess()) {
+            updateEarPositions(new EarPosition[] {
+                    EarPosition.POSITION_1, EarPosition.POSITION_1
+            });
+        }
+    }
+
+    @Override
+    public int getColor() throws IOException {
+        return statusCache.get().getLedColor();
+    }
+
+    @Override
+    public EarMode getEarMode() throws IOException {
+        return statusCache.get().getEarMode();
+    }
+
+    @Override
+    public EarPosition[] getEarPositions() throws IOException {
+        // Ear positions are not part of the status, only re-check if offline
+        OpenKarotzState state = statusCache.peek();
+        if (state == null || state.getStatus().isOffline()) {
+            statusCache.get();
+        }
+        return currentEarPositions();
+    }
+
+    @Override
+    public String getHostname() {
+        return hostname;
+    }
+
+    @Override
+    public String getRadiosList() throws IOException {
+        return executeRaw(api.getRadiosList());
+    }
+
+    @Override
+    public OpenKarotzState getState() {
+        return statusCache.peek();
+    }
+
+    @Override
+    public TtsCache getTtsCache() {
+        return ttsCache;
+    }
+
+    @Override
+    public KarotzStatus getStatus() throws IOException {
+        return statusCache.get().getStatus();
+    }
+
+    @Override
+    public KarotzVersion getVersion() throws IOException {
+        return statusCache.get().getVersion();
+    }
+
+    @Override
+    public String getVoiceList() throws IOException {
+        return executeRaw(api.getVoiceList());
+    }
+
+    @Override
+    public boolean isOnline() {
+        try {
+            StatusResponse answer = execute(api.getStatus());
+            return answer != null;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Karotz is not online : " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isPulsing() throws IOException {
+        return statusCache.get().isPulsing();
+    }
+
+    @Override
+    public void led(int color, boolean pulse) throws IOException {
+        OpenKarotzState state = knownState();
+
+        int rgb = color & 0x00FFFFFF;
+        if (pulse == state.isPulsing() && rgb == state.getLedColor()) {
+            // No change
+            return;
+        }
+
+        LedsResponse answer = execute(api.setLedColor(String.format("%06X", rgb), pulse ? 1 : null));
+        if (answer != null && answer.isSuccess() && answer.getColor() != null) {
+            updateLed(rgb, answer.isPulsing());
+            return;
+        }
+
+        // Not OK, set back to previous values
+        updateLed(rgb, pulse);
+    }
+
+    @Override
+    public boolean randomMood() throws IOException {
+        KarotzResponse answer = execute(api.randomMood());
+        // Moods may move the ears and change the LED
+        statusCache.invalidate();
+        return answer != null && answer.isSuccess();
+    }
+
+    @Override
+    public boolean sleep() throws IOException {
+        OpenKarotzState state = statusCache.peek();
+        if (state != null && state.getStatus().isSleeping()) {
+            // No change
+            Log.d(LOG_TAG, "Already sleeping, no need to go to sleep");
+            return true;
+        }
+
+        KarotzResponse answer = execute(api.sleep());
+        if (answer == null) {
+            updateStatus(KarotzStatus.UNKNOWN);
+            return false;
+        }
+        updateStatus(answer.isSuccess() ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE);
+        return true;
+    }
+
+    @Override
+    public boolean sound(String url) throws IOException {
+        if (url == null || url.length() <= 0) {
+            return true;
+        }
+
+        KarotzResponse answer = execute(api.playSound(url));
+        if (answer != null && answer.isSuccess()) {
+            Log.i(LOG_TAG, "Karotz is playing sound");
+            return true;
+        }
+        Log.e(LOG_TAG, "Karotz cannot play the sound");
+        return false;
+    }
+
+    @Override
+    public boolean soundControl(SoundControlCommand command) throws IOException {
+        KarotzResponse answer = execute(api.soundControl(command.toString()));
+        return answer != null && answer.isSuccess();
+    }
+
+    @Override
+    public boolean tts(String voiceId, String text) throws IOException {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+
+        TtsCache.Phrase phrase = ttsCache.prepare(voiceId, text);
+        // Without nocache, the Karotz plays the phrase from its cache if it has it
+        Long nocache = TtsCache.isEnabled() ? null : Long.valueOf(System.currentTimeMillis());
+        TtsResponse answer = execute(api.speak(voiceId, phrase.getText(), nocache));
+        if (answer != null && answer.isSuccess()) {
+            ttsCache.record(phrase, answer.isCache(), answer.getId());
+            Log.i(LOG_TAG, "Karotz TTS started");
+            return true;
+        }
+        Log.e(LOG_TAG, "Karotz TTS failed: " + (answer != null ? answer.getMessage() : "Unknown error"));
+        return false;
+    }
+
+    @Override
+    public boolean wakeup(boolean silent) throws IOException {
+        OpenKarotzState state = statusCache.peek();
+        if (state != null && state.getStatus().isAwake()) {
+            // No change
+            Log.d(LOG_TAG, "Already awake, no need to wake up");
+            return true;
+        }
+
+        KarotzResponse answer = execute(api.wakeup(silent ? 1 : null));
+        KarotzStatus newStatus = answer != null && answer.isSuccess() ? KarotzStatus.AWAKE : KarotzStatus.UNKNOWN;
+        updateStatus(newStatus);
+
+        return newStatus.isAwake();
+    }
+
+    /**
+     * Set the time to live of the cached status. Getters answer from the cache as long as it is fresh.
+     * @param ttlMillis the time to live, in milliseconds
+     */
+    public void setStatusTtl(long ttlMillis) {
+        statusCache.setTtl(ttlMillis);
+    }
+
+    private EarPosition[] currentEarPositions() {
+        OpenKarotzState state = statusCache.peek();
+        if (state != null) {
+            return new EarPosition[] {
+                    state.getLeftEarPosition(), state.getRightEarPosition()
+            };
+        }
+        // Default position
+        return new EarPosition[] {
+                EarPosition.POSITION_1, EarPosition.POSITION_1
+        };
+    }
+
+    /**
+     * Get the last known status, loading it only if there is none or the Karotz was offline. Commands keep it up to
+     * date, so it is enough to skip a command that would change nothing, without a /status request once the TTL has
+     * expired.
+     */
+    private OpenKarotzState knownState() throws IOException {
+        OpenKarotzState state = statusCache.peek();
+        return state != null && !state.getStatus().isOffline() ? state : statusCache.get();
+    }
+
+    private OpenKarotzState status() throws IOException {
+        StatusResponse answer = execute(api.getStatus());
+
+        OpenKarotzState newState = new OpenKarotzState();
+        if (answer != null && answer.isSuccess()) {
+            newState = newState
+                    .withVersion(new KarotzVersion(answer.getVersion() != null ? answer.getVersion() : "undefined",
+                            answer.getPatch() != null ? answer.getPatch() : "undefined"))
+                    .withStatus(answer.isSleeping() ? KarotzStatus.SLEEPING : KarotzStatus.AWAKE)
+                    .withLed(Color.parseColor("#" + answer.getLedColor()) & 0x00FFFFFF, answer.isPulsing())
+                    .withEarMode(answer.areEarsEnabled() ? EarMode.ENABLED : EarMode.DISABLED)
+                    .withSystemInfo(orDash(answer.getKarotzFreeSpace()), orDash(answer.getKarotzPercentUsedSpace()),
+                            orDash(answer.getWlanMac()), orDash(answer.getNbMoods()), orDash(answer.getNbSounds()),
+                            orDash(answer.getNbTags()))
+                    .withTtsCacheSize(parseInt(answer.getTtsCacheSize()));
+            ttsCache.onCacheSize(newState.getTtsCacheSize());
+        }
+
+        // Ear positions are not part of the status, keep the known ones
+        OpenKarotzState previous = statusCache.peek();
+        if (previous != null) {
+            newState = newState.withEarPositions(previous.getLeftEarPosition(), previous.getRightEarPosition());
+        }
+
+        Log.d(LOG_TAG, newState.toString());
+        return newState;
+    }
+
+    private void updateEarPositions(EarPosition[] positions) {
+        statusCache.patch(s -> s != null ? s.withEarPositions(positions[0], positions[1]) : null);
+    }
+
+    private void updateLed(int color, boolean pulse) {
+        statusCache.patch(s -> s != null ? s.withLed(color, pulse) : null);
+    }
+
+    private void updateStatus(KarotzStatus status) {
+        statusCache.patch(s -> (s != null ? s : new OpenKarotzState()).withStatus(status));
+        if (status == KarotzStatus.UNKNOWN) {
+            statusCache.invalidate();
+        }
+    }
+
+    /**
+     * Execute a call and return the decoded answer.
+     * @return the answer, or {@code null} if it cannot be decoded
+     * @throws IOException if an I/O error occurs or the HTTP status is not successful
+     */
+    private static <T> T execute(Call<T> call) throws IOException {
+        Log.d(LOG_TAG, call.request().url().toString());
+        Cancellation cancellation = attach(call);
+        try {
+            Response<T> response = call.execute();
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP error " + response.code() + " for " + call.request().url());
+            }
+            T body = response.body();
+            Log.d(LOG_TAG, String.valueOf(body));
+            return body;
+        } catch (MalformedJsonException | RuntimeException e) {
+            // Gson reports malformed answers with unchecked exceptions, or an I/O one if not JSON at all
+            Log.e(LOG_TAG, "Cannot parse Karotz answer: " + e.getMessage(), e);
+            return null;
+        } catch (IOException e) {
+            throw cancelled(cancellation, call, e);
+        } finally {
+            detach(cancellation);
+        }
+    }
+
+    private static String executeRaw(Call<ResponseBody> call) throws IOException {
+        Log.d(LOG_TAG, call.request().url().toString());
+        Cancellation cancellation = attach(call);
+        try {
+            Response<ResponseBody> response = call.execute();
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP error " + response.code() + " for " + call.request().url());
+            }
+            try {
+                return body.string();
+            } finally {
+                body.close();
+            }
+        } catch (IOException e) {
+            throw cancelled(cancellation, call, e);
+        } finally {
+            detach(cancellation);
+        }
+    }
+
+    /**
+     * Attach a call to the {@link Cancellation} bound to the current thread: cancelling it cancels the call, which
+     * unblocks a pending read.
+     * @return the signal, or {@code null} if the request cannot be cancelled
+     */
+    private static Cancellation attach(Call<?> call) {
+        Cancellation cancellation = Cancellation.current();
+        if (cancellation != null) {
+            cancellation.attach(call::cancel);
+        }
+        return cancellation;
+    }
+
+    private static void detach(Cancellation cancellation) {
+        if (cancellation != null) {
+            cancellation.detach();
+        }
+    }
+
+    /**
+     * Report the failure of a cancelled call as an {@link InterruptedIOException}, like the other transports.
+     */
+    private static IOException cancelled(Cancellation cancellation, Call<?> call, IOException e) {
+        if (cancellation == null || !cancellation.isCancelled() || e instanceof InterruptedIOException) {
+            return e;
+        }
+        InterruptedIOException cancelled = new InterruptedIOException("Request cancelled: " + call.request().url());
+        cancelled.initCause(e);
+        return cancelled;
+    }
+
+    private static String orDash(String value) {
+        return value != null ? value : "-";
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    private final String hostname;
+
+    private final OpenKarotzApi api;
+
+    private final StatusCache statusCache = new StatusCache(this::status, StatusCache.DEFAULT_TTL);
+
+    private final TtsCache ttsCache = new TtsCache();
+
+    private static final String LOG_TAG = RetrofitOpenKarotz.class.getSimpleName();
+}
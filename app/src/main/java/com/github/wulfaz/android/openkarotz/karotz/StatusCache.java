@@ -0,0 +1,272 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cache of the last Karotz status, shared by all getters of an {@link IKarotz} implementation.
+ * <p>
+ * A status is served from the cache for a configurable time to live. When it is stale, concurrent callers share a
+ * single in-flight request instead of each sending their own {@code /status} request. Offline or unknown states are
+ * never served from the cache, except to the callers of the request that produced them.
+ * <p>
+ * Commands that change the state of the Karotz either {@link #patch(UnaryOperator) patch} the cached status, or
+ * {@link #invalidate() invalidate} it when the new state cannot be known from their answer.
+ * <p>
+ * The status itself is an immutable {@link OpenKarotzState} snapshot held in an {@link AtomicReference}: readers
+ * never lock, and every change is published atomically with a compare-and-set, so that concurrent commands and
+ * loads cannot lose each other's updates.
+ */
+public class StatusCache {
+
+    /**
+     * Loads the status from the Karotz.
+     */
+    public interface Loader {
+
+        /**
+         * Load the status.
+         * @return the status, never {@code null}
+         * @throws IOException if an I/O error occurs
+         */
+        OpenKarotzState load() throws IOException;
+    }
+
+    /**
+     * Initialize a new cache.
+     * @param loader the status loader
+     * @param ttlMillis the time to live of a loaded status, in milliseconds
+     */
+    public StatusCache(Loader loader, long ttlMillis) {
+        this.loader = loader;
+        setTtl(ttlMillis);
+    }
+
+    /**
+     * Get the status, from the cache if it is fresh, else from the Karotz. If a request is already in flight, wait
+     * for its result instead of sending another one.
+     * @return the status
+     * @throws IOException if the status cannot be loaded
+     */
+    public OpenKarotzState get() throws IOException {
+        // Fast path, without locking
+        OpenKarotzState current = state.get();
+        if (isFresh(current, System.nanoTime())) {
+            hitCount.incrementAndGet();
+            return current;
+        }
+
+        CompletableFuture<OpenKarotzState> flight;
+        long startGeneration;
+        synchronized (this) {
+            current = state.get();
+            if (isFresh(current, System.nanoTime())) {
+                hitCount.incrementAndGet();
+                return current;
+            }
+            flight = inFlight;
+            if (flight == null) {
+                flight = new CompletableFuture<OpenKarotzState>();
+                inFlight = flight;
+                startGeneration = generation;
+            } else {
+                coalescedCount++;
+                startGeneration = -1;
+            }
+        }
+
+        if (startGeneration < 0) {
+            return await(flight);
+        }
+        return load(flight, startGeneration, current);
+    }
+
+    /**
+     * Get the number of requests avoided because a request was already in flight.
+     * @return the number of coalesced requests
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Get the number of requests served from the cache.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of status requests sent to the Karotz.
+     * @return the number of loads
+     */
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Get the time to live of a loaded status.
+     * @return the time to live, in milliseconds
+     */
+    public long getTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    /**
+     * Mark the cached status as stale: the next {@link #get()} loads it again. A request in flight is not cancelled,
+     * but its result is not cached as fresh.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        fresh = false;
+    }
+
+    /**
+     * Atomically replace the cached status with a modified copy, without changing its freshness. The function may be
+     * called several times if other threads change the status concurrently, so it must not have side effects.
+     * @param function the function computing the new status from the current one, which may be {@code null} if the
+     *            status was never loaded. Returning {@code null} leaves the status unchanged.
+     * @return the new status, or {@code null} if unchanged
+     */
+    public OpenKarotzState patch(UnaryOperator<OpenKarotzState> function) {
+        while (true) {
+            OpenKarotzState current = state.get();
+            OpenKarotzState next = function.apply(current);
+            if (next == null) {
+                return null;
+            }
+            if (state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Get the cached status without loading it, even if it is stale.
+     * @return the cached status, or {@code null} if it was never loaded
+     */
+    public OpenKarotzState peek() {
+        return state.get();
+    }
+
+    /**
+     * Set the time to live of a loaded status. A zero time to live disables caching, but concurrent requests are still
+     * coalesced.
+     * @param ttlMillis the time to live, in milliseconds
+     */
+    public void setTtl(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttl < 0: " + ttlMillis);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    private boolean isFresh(OpenKarotzState current, long now) {
+        return fresh && current != null && !current.getStatus().isOffline() && now - loadedAt < ttlNanos;
+    }
+
+    private OpenKarotzState load(CompletableFuture<OpenKarotzState> flight, long startGeneration,
+            OpenKarotzState previous) throws IOException {
+        long start = System.nanoTime();
+        OpenKarotzState loaded = null;
+        Throwable failure = null;
+        try {
+            loaded = loader.load();
+            if (loaded == null) {
+                throw new IOException("No Karotz status");
+            }
+            return loaded;
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                inFlight = null;
+                loadCount++;
+                // If a command changed the status in the meantime, the answer may be outdated: keep the patched
+                // status and load again next time
+                if (failure == null && state.compareAndSet(previous, loaded)) {
+                    fresh = (startGeneration == generation);
+                    loadedAt = start;
+                } else if (failure == null) {
+                    fresh = false;
+                }
+            }
+            if (failure == null) {
+                flight.complete(loaded);
+            } else {
+                flight.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static OpenKarotzState await(CompletableFuture<OpenKarotzState> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Karotz status");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+
+    private final Loader loader;
+
+    private volatile long ttlNanos;
+
+    private final AtomicReference<OpenKarotzState> state = new AtomicReference<OpenKarotzState>();
+
+    private volatile boolean fresh = false;
+
+    private volatile long loadedAt = 0;
+
+    private long generation = 0;
+
+    private CompletableFuture<OpenKarotzState> inFlight = null;
+
+    private long loadCount = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private long coalescedCount = 0;
+
+    /** Default time to live of a loaded status, in milliseconds. */
+    public static final long DEFAULT_TTL = 2000;
+}
@@ -0,0 +1,417 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the phrases a Karotz keeps in its own TTS cache, shared by the TTS requests of an {@link IKarotz}
+ * implementation.
+ * <p>
+ * The Karotz stores each synthesized phrase and replays it when the same voice and text are asked again, unless the
+ * request has a {@code nocache} parameter. In cache-aware mode, the text is normalized so that the same announcement
+ * is always sent the same way, and {@code nocache} is left out: repeated phrases are then played from the rabbit's
+ * cache instead of being synthesized again. Phrases are indexed by a hash of their voice and normalized text, with
+ * the id the Karotz answered, so that the client knows which phrases the rabbit has; the index is dropped when the
+ * {@code tts_cache_size} of the status shows that the rabbit lost some of them.
+ * <p>
+ * Hits and misses are counted from the {@code cache} flag of the answers, with their latency.
+ */
+public class TtsCache {
+
+    /**
+     * A phrase being spoken.
+     */
+    public static final class Phrase {
+
+        Phrase(String key, String voiceId, String text, boolean indexed) {
+            this.key = key;
+            this.voiceId = voiceId;
+            this.text = text;
+            this.indexed = indexed;
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Get the key of the phrase, a hash of its voice and normalized text.
+         *
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the text to send, normalized in cache-aware mode.
+         *
+         * @return the text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Get the voice.
+         *
+         * @return the voice id
+         */
+        public String getVoiceId() {
+            return voiceId;
+        }
+
+        /**
+         * Tell whether the phrase is expected in the rabbit's cache.
+         *
+         * @return {@code true} if the phrase is in the index
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        private final String key;
+
+        private final String voiceId;
+
+        private final String text;
+
+        private final boolean indexed;
+
+        private final long startNanos;
+    }
+
+    /**
+     * Statistics of the TTS requests.
+     */
+    public static final class Stats {
+
+        Stats(int hits, int misses, int evictions, long hitNanos, long missNanos, long minHitNanos, long minMissNanos,
+                int indexSize) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.hitNanos = hitNanos;
+            this.missNanos = missNanos;
+            this.minHitNanos = minHitNanos;
+            this.minMissNanos = minMissNanos;
+            this.indexSize = indexSize;
+        }
+
+        /**
+         * Get the number of indexed phrases the rabbit had synthesized again.
+         *
+         * @return the number of evictions
+         */
+        public int getEvictionCount() {
+            return evictions;
+        }
+
+        /**
+         * Get the number of phrases played from the rabbit's cache.
+         *
+         * @return the number of hits
+         */
+        public int getHitCount() {
+            return hits;
+        }
+
+        /**
+         * Get the mean latency of the phrases played from the rabbit's cache.
+         *
+         * @return the latency, in milliseconds, {@code 0} without hits
+         */
+        public double getHitLatencyMillis() {
+            return hits == 0 ? 0 : hitNanos / 1e6 / hits;
+        }
+
+        /**
+         * Get the ratio of phrases played from the rabbit's cache.
+         *
+         * @return the ratio, between {@code 0} and {@code 1}
+         */
+        public double getHitRatio() {
+            int total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        /**
+         * Get the number of indexed phrases.
+         *
+         * @return the size of the index
+         */
+        public int getIndexSize() {
+            return indexSize;
+        }
+
+        /**
+         * Get the shortest latency of the phrases played from the rabbit's cache. Delays on the network or on the
+         * rabbit only ever make a request longer, so it is the closest to the time a phrase needs to start playing.
+         *
+         * @return the latency, in milliseconds, {@code 0} without hits
+         */
+        public double getMinHitLatencyMillis() {
+            return hits == 0 ? 0 : minHitNanos / 1e6;
+        }
+
+        /**
+         * Get the shortest latency of the phrases the rabbit synthesized.
+         *
+         * @return the latency, in milliseconds, {@code 0} without misses
+         */
+        public double getMinMissLatencyMillis() {
+            return misses == 0 ? 0 : minMissNanos / 1e6;
+        }
+
+        /**
+         * Get the number of phrases the rabbit synthesized.
+         *
+         * @return the number of misses
+         */
+        public int getMissCount() {
+            return misses;
+        }
+
+        /**
+         * Get the mean latency of the phrases the rabbit synthesized.
+         *
+         * @return the latency, in milliseconds, {@code 0} without misses
+         */
+        public double getMissLatencyMillis() {
+            return misses == 0 ? 0 : missNanos / 1e6 / misses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US, "%d hits (%.1f ms), %d misses (%.1f ms), %d evictions, %d indexed",
+                    hits, getHitLatencyMillis(), misses, getMissLatencyMillis(), evictions, indexSize);
+        }
+
+        private final int hits;
+
+        private final int misses;
+
+        private final int evictions;
+
+        private final long hitNanos;
+
+        private final long missNanos;
+
+        private final long minHitNanos;
+
+        private final long minMissNanos;
+
+        private final int indexSize;
+    }
+
+    /**
+     * Initialize a new cache index.
+     */
+    public TtsCache() {
+        this(MAX_PHRASES);
+    }
+
+    TtsCache(int maxPhrases) {
+        this.maxPhrases = maxPhrases;
+    }
+
+    /**
+     * Tell whether TTS requests use the rabbit's cache.
+     *
+     * @return {@code true} in cache-aware mode, the default
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether TTS requests use the rabbit's cache, for all Karotz.
+     *
+     * @param enable {@code true} for cache-aware mode, {@code false} to synthesize all phrases again
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Get the key of a phrase.
+     *
+     * @param voiceId the voice
+     * @param normalizedText the normalized text
+     * @return the hexadecimal SHA-1 of the voice and text
+     */
+    public static String key(String voiceId, String normalizedText) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(voiceId.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(normalizedText.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Normalize a text, so that the same announcement is always sent the same way: Unicode composition, blanks
+     * collapsed and trimmed. Case and punctuation are kept, they change the speech.
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    public static String normalize(String text) {
+        String composed = Normalizer.normalize(text, Normalizer.Form.NFC);
+        return BLANKS.matcher(composed).replaceAll(" ").trim();
+    }
+
+    /**
+     * Clear the index, for instance when the rabbit's cache is cleared.
+     */
+    public synchronized void clear() {
+        phrases.clear();
+    }
+
+    /**
+     * Get the id the rabbit gave to a phrase.
+     *
+     * @param key the key of the phrase
+     * @return the id, {@code null} if the phrase is not indexed
+     */
+    public synchronized String getPhraseId(String key) {
+        return phrases.get(key);
+    }
+
+    /**
+     * Get the statistics.
+     *
+     * @return a snapshot of the statistics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, hitNanos, missNanos, minHitNanos, minMissNanos, phrases.size());
+    }
+
+    /**
+     * Update the index with the number of phrases in the rabbit's cache, from its status. If the rabbit has fewer
+     * phrases than indexed, some of them were removed, and the index is dropped: it is rebuilt from the next answers.
+     *
+     * @param size the {@code tts_cache_size} of the status, negative if unknown
+     */
+    public synchronized void onCacheSize(int size) {
+        if (size >= 0 && size < phrases.size()) {
+            phrases.clear();
+        }
+    }
+
+    /**
+     * Prepare a phrase before sending it.
+     *
+     * @param voiceId the voice
+     * @param text the text
+     * @return the phrase
+     */
+    public Phrase prepare(String voiceId, String text) {
+        if (!enabled) {
+            return new Phrase(null, voiceId, text, false);
+        }
+        String normalized = normalize(text);
+        String key = key(voiceId, normalized);
+        boolean indexed;
+        synchronized (this) {
+            indexed = phrases.containsKey(key);
+        }
+        return new Phrase(key, voiceId, normalized, indexed);
+    }
+
+    /**
+     * Record the answer of the rabbit to a phrase.
+     *
+     * @param phrase the phrase
+     * @param cached the {@code cache} flag of the answer: {@code true} if played from the rabbit's cache
+     * @param phraseId the {@code id} of the answer, may be {@code null}
+     */
+    public synchronized void record(Phrase phrase, boolean cached, String phraseId) {
+        long elapsed = System.nanoTime() - phrase.startNanos;
+        if (cached) {
+            hits++;
+            hitNanos += elapsed;
+            minHitNanos = Math.min(minHitNanos, elapsed);
+        } else {
+            misses++;
+            missNanos += elapsed;
+            minMissNanos = Math.min(minMissNanos, elapsed);
+            if (phrase.indexed) {
+                // The rabbit dropped it since
+                evictions++;
+            }
+        }
+
+        if (phrase.key != null) {
+            phrases.put(phrase.key, phraseId != null ? phraseId : "");
+            while (phrases.size() > maxPhrases) {
+                phrases.remove(phrases.keySet().iterator().next());
+            }
+        }
+    }
+
+
+    private final int maxPhrases;
+
+    /** Phrase ids by key, least recently used first. */
+    private final Map<String, String> phrases = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+    private int hits;
+
+    private int misses;
+
+    private int evictions;
+
+    private long hitNanos;
+
+    private long missNanos;
+
+    private long minHitNanos = Long.MAX_VALUE;
+
+    private long minMissNanos = Long.MAX_VALUE;
+
+    private static volatile boolean enabled = true;
+
+    private static final int MAX_PHRASES = 1000;
+
+    private static final Pattern BLANKS = Pattern.compile("\\s+");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -0,0 +1,76 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.layout;
+
+import android.content.Context;
+
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Grid layout manager fitting as many columns of a given width as the width allows, like a {@link FlowLayout} of
+ * children of the same size, but only laying out the children on screen.
+ */
+public class AutoFitGridLayoutManager extends GridLayoutManager {
+
+    /**
+     * Initialize the layout manager.
+     * @param context the context
+     * @param columnWidth the column width, in pixels, spacing included
+     */
+    public AutoFitGridLayoutManager(Context context, int columnWidth) {
+        super(context, 1);
+        this.columnWidth = columnWidth;
+    }
+
+    @Override
+    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width > 0 && width != lastWidth) {
+            lastWidth = width;
+            setSpanCount(getSpanCount(width, columnWidth));
+        }
+        super.onLayoutChildren(recycler, state);
+    }
+
+    /**
+     * Get the number of columns fitting in a width.
+     * @param width the available width, in pixels
+     * @param columnWidth the column width, in pixels
+     * @return the number of columns, at least 1
+     */
+    public static int getSpanCount(int width, int columnWidth) {
+        return Math.max(1, width / Math.max(1, columnWidth));
+    }
+
+
+    private final int columnWidth;
+
+    private int lastWidth;
+}
@@ -142,6 +142,23 @@ public class FlowLayout extends ViewGroup {
         }
     }
 
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+
+        // Following children move, the new one is measured
+        child.forceLayout();
+        lines.invalidateFrom(indexOfChild(child));
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+
+        // The index of the child is gone
+        lines.invalidateFrom(0);
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int sizeWidth = MeasureSpec.getSize(widthMeasureSpec) - this.getPaddingRight() - this.getPaddingLeft();
@@ -161,81 +178,25 @@ public class FlowLayout extends ViewGroup {
             mode = modeHeight;
         }
 
-        int lineThicknessWithSpacing = 0;
-        int lineThickness = 0;
-        int lineLengthWithSpacing = 0;
-        int lineLength;
-
-        int prevLinePosition = 0;
-
-        int controlMaxLength = 0;
-        int controlMaxThickness = 0;
-
-        final int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == GONE) {
-                continue;
-            }
-
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-
-            child.measure(getChildMeasureSpec(widthMeasureSpec, this.getPaddingLeft() + this.getPaddingRight(), lp.width),
-                          getChildMeasureSpec(heightMeasureSpec, this.getPaddingTop() + this.getPaddingBottom(), lp.height));
-
-            int hSpacing = this.getHorizontalSpacing(lp);
-            int vSpacing = this.getVerticalSpacing(lp);
-
-            int childWidth = child.getMeasuredWidth();
-            int childHeight = child.getMeasuredHeight();
-
-            int childLength;
-            int childThickness;
-            int spacingLength;
-            int spacingThickness;
-
-            if (orientation == HORIZONTAL) {
-                childLength = childWidth;
-                childThickness = childHeight;
-                spacingLength = hSpacing;
-                spacingThickness = vSpacing;
-            } else {
-                childLength = childHeight;
-                childThickness = childWidth;
-                spacingLength = vSpacing;
-                spacingThickness = hSpacing;
-            }
-
-            lineLength = lineLengthWithSpacing + childLength;
-            lineLengthWithSpacing = lineLength + spacingLength;
-
-            boolean newLine = lp.newLine || (mode != MeasureSpec.UNSPECIFIED && lineLength > size);
-            if (newLine) {
-                prevLinePosition = prevLinePosition + lineThicknessWithSpacing;
-
-                lineThickness = childThickness;
-                lineLength = childLength;
-                lineThicknessWithSpacing = childThickness + spacingThickness;
-                lineLengthWithSpacing = lineLength + spacingLength;
-            }
+        // Children are measured against the parent size: any change invalidates them all
+        if (widthMeasureSpec != lastWidthMeasureSpec || heightMeasureSpec != lastHeightMeasureSpec
+                || getPaddingLeft() != lastPaddingLeft || getPaddingTop() != lastPaddingTop
+                || getPaddingRight() != lastPaddingRight || getPaddingBottom() != lastPaddingBottom) {
+            lines.invalidate();
+            lastWidthMeasureSpec = widthMeasureSpec;
+            lastHeightMeasureSpec = heightMeasureSpec;
+            lastPaddingLeft = getPaddingLeft();
+            lastPaddingTop = getPaddingTop();
+            lastPaddingRight = getPaddingRight();
+            lastPaddingBottom = getPaddingBottom();
+        }
 
-            lineThicknessWithSpacing = Math.max(lineThicknessWithSpacing, childThickness + spacingThickness);
-            lineThickness = Math.max(lineThickness, childThickness);
+        children.widthMeasureSpec = widthMeasureSpec;
+        children.heightMeasureSpec = heightMeasureSpec;
+        lines.flow(children, size, mode != MeasureSpec.UNSPECIFIED);
 
-            int posX;
-            int posY;
-            if (orientation == HORIZONTAL) {
-                posX = getPaddingLeft() + lineLength - childLength;
-                posY = getPaddingTop() + prevLinePosition;
-            } else {
-                posX = getPaddingLeft() + prevLinePosition;
-                posY = getPaddingTop() + lineLength - childHeight;
-            }
-            lp.setPosition(posX, posY);
-
-            controlMaxLength = Math.max(controlMaxLength, lineLength);
-            controlMaxThickness = prevLinePosition + lineThickness;
-        }
+        int controlMaxLength = lines.getMaxLength();
+        int controlMaxThickness = lines.getMaxThickness();
 
         /* need to take paddings into account */
         if (orientation == HORIZONTAL) {
@@ -333,6 +294,79 @@ public class FlowLayout extends ViewGroup {
         return vSpacing;
     }
 
+    /**
+     * Children of this layout, as seen by the line breaking.
+     */
+    private class FlowChildren implements FlowLines.Children {
+
+        @Override
+        public int getCount() {
+            return getChildCount();
+        }
+
+        @Override
+        public boolean isGone(int index) {
+            return getChildAt(index).getVisibility() == GONE;
+        }
+
+        @Override
+        public boolean isDirty(int index) {
+            // Set by requestLayout() and cleared by layout(), so true for children changed since the last pass
+            return getChildAt(index).isLayoutRequested();
+        }
+
+        @Override
+        public void measure(int index) {
+            View child = getChildAt(index);
+            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            child.measure(getChildMeasureSpec(widthMeasureSpec, getPaddingLeft() + getPaddingRight(), lp.width),
+                          getChildMeasureSpec(heightMeasureSpec, getPaddingTop() + getPaddingBottom(), lp.height));
+        }
+
+        @Override
+        public int getLength(int index) {
+            View child = getChildAt(index);
+            return orientation == HORIZONTAL ? child.getMeasuredWidth() : child.getMeasuredHeight();
+        }
+
+        @Override
+        public int getThickness(int index) {
+            View child = getChildAt(index);
+            return orientation == HORIZONTAL ? child.getMeasuredHeight() : child.getMeasuredWidth();
+        }
+
+        @Override
+        public int getSpacingLength(int index) {
+            LayoutParams lp = (LayoutParams) getChildAt(index).getLayoutParams();
+            return orientation == HORIZONTAL ? getHorizontalSpacing(lp) : getVerticalSpacing(lp);
+        }
+
+        @Override
+        public int getSpacingThickness(int index) {
+            LayoutParams lp = (LayoutParams) getChildAt(index).getLayoutParams();
+            return orientation == HORIZONTAL ? getVerticalSpacing(lp) : getHorizontalSpacing(lp);
+        }
+
+        @Override
+        public boolean isNewLine(int index) {
+            return ((LayoutParams) getChildAt(index).getLayoutParams()).newLine;
+        }
+
+        @Override
+        public void setPosition(int index, int length, int line) {
+            LayoutParams lp = (LayoutParams) getChildAt(index).getLayoutParams();
+            if (orientation == HORIZONTAL) {
+                lp.setPosition(getPaddingLeft() + length, getPaddingTop() + line);
+            } else {
+                lp.setPosition(getPaddingLeft() + line, getPaddingTop() + length);
+            }
+        }
+
+        private int widthMeasureSpec;
+
+        private int heightMeasureSpec;
+    }
+
     private void readStyleParameters(Context context, AttributeSet attributeSet) {
         TypedArray a = context.obtainStyledAttributes(attributeSet, R.styleable.FlowLayout);
         try {
@@ -443,4 +477,20 @@ public class FlowLayout extends ViewGroup {
     private int orientation = 0;
 
     private boolean debugDraw = false;
+
+    private final FlowLines lines = new FlowLines();
+
+    private final FlowChildren children = new FlowChildren();
+
+    private int lastWidthMeasureSpec = -1;
+
+    private int lastHeightMeasureSpec = -1;
+
+    private int lastPaddingLeft;
+
+    private int lastPaddingTop;
+
+    private int lastPaddingRight;
+
+    private int lastPaddingBottom;
 }
\ No newline at end of file
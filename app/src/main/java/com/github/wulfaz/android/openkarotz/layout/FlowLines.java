@@ -0,0 +1,253 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.layout;
+
+import java.util.Arrays;
+
+/**
+ * Line breaking of a {@link FlowLayout}, remembered between passes.
+ * <p>
+ * The flow state on entering each child is kept, so that a pass starts again from the first dirty child, and only
+ * measures the children that changed. Lengths are along the orientation, thicknesses across it.
+ */
+final class FlowLines {
+
+    /**
+     * Children to flow.
+     */
+    interface Children {
+
+        /**
+         * @return the number of children
+         */
+        int getCount();
+
+        /**
+         * @param index the child index
+         * @return <code>true</code> if the child takes no space
+         */
+        boolean isGone(int index);
+
+        /**
+         * @param index the child index
+         * @return <code>true</code> if the child must be measured again
+         */
+        boolean isDirty(int index);
+
+        /**
+         * Measure a child.
+         * @param index the child index
+         */
+        void measure(int index);
+
+        /**
+         * @param index the child index
+         * @return the measured length of the child
+         */
+        int getLength(int index);
+
+        /**
+         * @param index the child index
+         * @return the measured thickness of the child
+         */
+        int getThickness(int index);
+
+        /**
+         * @param index the child index
+         * @return the spacing after the child, along the line
+         */
+        int getSpacingLength(int index);
+
+        /**
+         * @param index the child index
+         * @return the spacing after the line of the child
+         */
+        int getSpacingThickness(int index);
+
+        /**
+         * @param index the child index
+         * @return <code>true</code> if the child starts a new line
+         */
+        boolean isNewLine(int index);
+
+        /**
+         * Place a child.
+         * @param index the child index
+         * @param length the position along the line
+         * @param line the position of the line
+         */
+        void setPosition(int index, int length, int line);
+    }
+
+    /**
+     * Forget all measurements, for instance when the available size changes.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Flow again from a child, whose index changed.
+     * @param index the child index
+     */
+    void invalidateFrom(int index) {
+        firstDirty = Math.min(firstDirty, index);
+    }
+
+    /**
+     * Flow the children.
+     * @param children the children
+     * @param size the available length
+     * @param limited <code>true</code> if lines break at the available length
+     * @return the number of children measured
+     */
+    int flow(Children children, int size, boolean limited) {
+        final int count = children.getCount();
+        boolean full = !valid || size != lastSize || limited != lastLimited;
+        int start = full ? 0 : Math.min(firstDirty, count);
+        for (int i = 0; i < start; i++) {
+            if (children.isDirty(i)) {
+                start = i;
+            }
+        }
+        if (!full && start >= count && count == lastCount) {
+            return 0;
+        }
+
+        if (states.length < count * STATE_SIZE) {
+            states = Arrays.copyOf(states, Math.max(count, states.length / STATE_SIZE * 2) * STATE_SIZE);
+        }
+
+        // Flow state on entering the first child to flow
+        int lineThicknessWithSpacing = 0;
+        int lineThickness = 0;
+        int lineLengthWithSpacing = 0;
+        int prevLinePosition = 0;
+        int maxLength = 0;
+        int maxThickness = 0;
+        if (start > 0) {
+            int s = start * STATE_SIZE;
+            lineThicknessWithSpacing = states[s];
+            lineThickness = states[s + 1];
+            lineLengthWithSpacing = states[s + 2];
+            prevLinePosition = states[s + 3];
+            maxLength = states[s + 4];
+            maxThickness = states[s + 5];
+        }
+
+        int measured = 0;
+        for (int i = start; i < count; i++) {
+            int s = i * STATE_SIZE;
+            states[s] = lineThicknessWithSpacing;
+            states[s + 1] = lineThickness;
+            states[s + 2] = lineLengthWithSpacing;
+            states[s + 3] = prevLinePosition;
+            states[s + 4] = maxLength;
+            states[s + 5] = maxThickness;
+
+            if (children.isGone(i)) {
+                continue;
+            }
+            if (full || children.isDirty(i)) {
+                children.measure(i);
+                measured++;
+            }
+
+            int childLength = children.getLength(i);
+            int childThickness = children.getThickness(i);
+            int spacingLength = children.getSpacingLength(i);
+            int spacingThickness = children.getSpacingThickness(i);
+
+            int lineLength = lineLengthWithSpacing + childLength;
+            lineLengthWithSpacing = lineLength + spacingLength;
+
+            boolean newLine = children.isNewLine(i) || (limited && lineLength > size);
+            if (newLine) {
+                prevLinePosition = prevLinePosition + lineThicknessWithSpacing;
+
+                lineThickness = childThickness;
+                lineLength = childLength;
+                lineThicknessWithSpacing = childThickness + spacingThickness;
+                lineLengthWithSpacing = lineLength + spacingLength;
+            }
+
+            lineThicknessWithSpacing = Math.max(lineThicknessWithSpacing, childThickness + spacingThickness);
+            lineThickness = Math.max(lineThickness, childThickness);
+
+            children.setPosition(i, lineLength - childLength, prevLinePosition);
+
+            maxLength = Math.max(maxLength, lineLength);
+            maxThickness = prevLinePosition + lineThickness;
+        }
+
+        this.maxLength = maxLength;
+        this.maxThickness = maxThickness;
+        this.lastCount = count;
+        this.lastSize = size;
+        this.lastLimited = limited;
+        this.firstDirty = Integer.MAX_VALUE;
+        this.valid = true;
+        return measured;
+    }
+
+    /**
+     * @return the length of the longest line, after the last flow
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the thickness of all lines, after the last flow
+     */
+    int getMaxThickness() {
+        return maxThickness;
+    }
+
+
+    /** Ints of flow state per child. */
+    private static final int STATE_SIZE = 6;
+
+    /** Flow state on entering each child. */
+    private int[] states = new int[0];
+
+    private int firstDirty = Integer.MAX_VALUE;
+
+    private boolean valid = false;
+
+    private int lastCount;
+
+    private int lastSize;
+
+    private boolean lastLimited;
+
+    private int maxLength;
+
+    private int maxThickness;
+}
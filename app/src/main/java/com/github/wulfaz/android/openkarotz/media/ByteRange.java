@@ -0,0 +1,133 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.media;
+
+/**
+ * Range of bytes asked by an HTTP {@code Range} header. Only single ranges are supported: players seek with one range
+ * at a time, and the whole content is served for anything else, as HTTP allows.
+ */
+public final class ByteRange {
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse a {@code Range} header.
+     *
+     * @param header the header value, may be {@code null}
+     * @param length the length of the content
+     * @return the range, {@code null} to serve the whole content, or {@link #NOT_SATISFIABLE} if the range starts
+     *         after the end of the content
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6) || value.indexOf(',') >= 0) {
+            return null;
+        }
+        value = value.substring(6).trim();
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = value.substring(0, dash).trim();
+            String last = value.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix: the last bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return NOT_SATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                // Syntactically invalid, ignored
+                return null;
+            }
+            if (start >= length) {
+                return NOT_SATISFIABLE;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the last byte, inclusive.
+     *
+     * @return the last byte
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of bytes.
+     *
+     * @return the length
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Get the first byte.
+     *
+     * @return the first byte
+     */
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        return this == NOT_SATISFIABLE ? "not satisfiable" : start + "-" + end;
+    }
+
+
+    private final long start;
+
+    private final long end;
+
+    /** Range starting after the end of the content. */
+    public static final ByteRange NOT_SATISFIABLE = new ByteRange(0, -1);
+}
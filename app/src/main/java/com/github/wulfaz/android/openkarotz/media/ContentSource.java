@@ -0,0 +1,136 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.media;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+/**
+ * Audio document picked by the user, like a file of the music library.
+ */
+public final class ContentSource implements MediaSource {
+
+    private ContentSource(ContentResolver resolver, Uri uri, String name, String contentType, long length) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.name = name;
+        this.contentType = contentType;
+        this.length = length;
+    }
+
+    /**
+     * Create the source of a document. Its name, type and length are read once.
+     *
+     * @param context a context
+     * @param uri the document
+     * @return the source
+     * @throws IOException if the document cannot be opened, or is not a seekable file
+     */
+    public static ContentSource create(Context context, Uri uri) throws IOException {
+        ContentResolver resolver = context.getApplicationContext().getContentResolver();
+
+        String name = null;
+        try (Cursor cursor = resolver.query(uri, new String[] { OpenableColumns.DISPLAY_NAME }, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                name = cursor.getString(0);
+            }
+        }
+        if (name == null) {
+            name = uri.getLastPathSegment() == null ? "audio" : uri.getLastPathSegment();
+        }
+
+        long length;
+        try (ParcelFileDescriptor pfd = openDescriptor(resolver, uri)) {
+            length = pfd.getStatSize();
+        }
+        if (length < 0) {
+            // Pipes cannot be sent with transferTo nor seeked
+            throw new IOException("Not a file: " + uri);
+        }
+        return new ContentSource(resolver, uri, name, resolver.getType(uri), length);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public FileChannel open() throws IOException {
+        ParcelFileDescriptor pfd = openDescriptor(resolver, uri);
+        return new FileInputStream(pfd.getFileDescriptor()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    pfd.close();
+                }
+            }
+        }.getChannel();
+    }
+
+    private static ParcelFileDescriptor openDescriptor(ContentResolver resolver, Uri uri) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return pfd;
+    }
+
+
+    private final ContentResolver resolver;
+
+    private final Uri uri;
+
+    private final String name;
+
+    private final String contentType;
+
+    private final long length;
+}
@@ -0,0 +1,559 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.media;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Small HTTP server serving audio of the phone to the Karotz, which can only play URLs.
+ * <p>
+ * Each {@link #publish(MediaSource) published} source gets a URL with a random token, so that only published content
+ * can be fetched from the network. Content is sent with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel) transferTo}, copied by the kernel from the file to the socket without going
+ * through the Java heap. {@code Range} requests are supported, so that players can seek and resume, and several
+ * rabbits can play at the same time, each connection being served by its own thread.
+ */
+public final class MediaServer implements Closeable {
+
+    /**
+     * Get the server of the application, started on first use.
+     *
+     * @return the server
+     * @throws IOException if the server cannot be started
+     */
+    public static synchronized MediaServer getInstance() throws IOException {
+        if (instance == null || instance.isClosed()) {
+            instance = new MediaServer(0);
+        }
+        return instance;
+    }
+
+    /**
+     * Start a new server on all interfaces.
+     *
+     * @param port the port, {@code 0} for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public MediaServer(int port) throws IOException {
+        this(new InetSocketAddress(port), MAX_CONNECTIONS);
+    }
+
+    MediaServer(InetSocketAddress address, int maxConnections) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(address);
+        this.executor = new ThreadPoolExecutor(0, maxConnections, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), r -> {
+                    Thread thread = new Thread(r, "Media connection #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.acceptor = new Thread(this::accept, "Media server");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        Log.i(LOG_TAG, "Media server listening on port " + getPort());
+    }
+
+    /**
+     * Find the address of this device that a host reaches it at, from the routing table. No packet is sent.
+     *
+     * @param host the host that will connect, the Karotz
+     * @return the local address
+     * @throws IOException if the host cannot be reached
+     */
+    public static InetAddress localAddressFor(String host) throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(InetAddress.getByName(host), 9);
+            InetAddress local = socket.getLocalAddress();
+            if (local == null || local.isAnyLocalAddress()) {
+                throw new IOException("No route to " + host);
+            }
+            return local;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        executor.shutdownNow();
+        synchronized (sources) {
+            sources.clear();
+        }
+    }
+
+    /**
+     * Get the total number of bytes of content sent.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get the number of accepted connections.
+     *
+     * @return the number of connections
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of served requests.
+     *
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Get the URL of a published path.
+     *
+     * @param path the path, from {@link #publish(MediaSource)}
+     * @param address the address of this device, as seen by the client
+     * @return the URL
+     */
+    public String getUrl(String path, InetAddress address) {
+        return "http://" + address.getHostAddress() + ":" + getPort() + path;
+    }
+
+    /**
+     * Tell whether the server has been closed.
+     *
+     * @return {@code true} if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Publish a source. Only the last published sources are kept.
+     *
+     * @param source the source
+     * @return the path of the source on this server
+     */
+    public String publish(MediaSource source) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format(Locale.US, "%02x", b & 0xFF));
+        }
+        synchronized (sources) {
+            sources.put(token.toString(), source);
+        }
+
+        // No name in the path: the Karotz may decode the URL it is given, and request a path with spaces
+        return PATH_PREFIX + token + extension(source.getName());
+    }
+
+    /**
+     * Set whether content is sent without copy, with {@link FileChannel#transferTo(long, long,
+     * java.nio.channels.WritableByteChannel) transferTo}, or copied through a heap buffer. Used to compare both.
+     *
+     * @param zeroCopy {@code true} to send without copy, the default
+     */
+    void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Remove a published source. Requests in progress are not interrupted.
+     *
+     * @param path the path of the source
+     */
+    public void unpublish(String path) {
+        String token = token(path);
+        if (token != null) {
+            synchronized (sources) {
+                sources.remove(token);
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot accept connection: " + e.getMessage());
+                continue;
+            }
+
+            connectionCount.incrementAndGet();
+            try {
+                executor.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                // All connection threads busy
+                try {
+                    writeHeaders(channel, 503, "Service Unavailable", EMPTY_HEADERS, 0, false);
+                } catch (IOException ignored) {
+                    // Closed anyway
+                }
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try {
+            channel.socket().setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            channel.socket().setTcpNoDelay(true);
+            // The socket stream honors the timeout, unlike reads on the channel
+            InputStream in = new BufferedInputStream(channel.socket().getInputStream());
+            boolean keepAlive = true;
+            while (keepAlive && !closed) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    break;
+                }
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                Map<String, String> headers = readHeaders(in);
+                keepAlive = respond(channel, requestLine, headers);
+            }
+        } catch (SocketTimeoutException e) {
+            // Idle connection
+        } catch (IOException e) {
+            // Client gone, usually a player stopping or seeking
+            Log.d(LOG_TAG, "Connection closed: " + e.getMessage());
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Answer a request.
+     *
+     * @return {@code true} if the connection can be used for another request
+     */
+    private boolean respond(SocketChannel channel, String requestLine, Map<String, String> headers)
+            throws IOException {
+        requestCount.incrementAndGet();
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            writeHeaders(channel, 400, "Bad Request", EMPTY_HEADERS, 0, false);
+            return false;
+        }
+        String method = parts[0];
+        boolean keepAlive = isKeepAlive(parts[2], headers.get("connection"));
+
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            writeHeaders(channel, 405, "Method Not Allowed", EMPTY_HEADERS, 0, keepAlive);
+            return keepAlive;
+        }
+
+        MediaSource source = null;
+        String token = token(parts[1]);
+        if (token != null) {
+            synchronized (sources) {
+                source = sources.get(token);
+            }
+        }
+        if (source == null) {
+            writeHeaders(channel, 404, "Not Found", EMPTY_HEADERS, 0, keepAlive);
+            return keepAlive;
+        }
+
+        try (FileChannel file = source.open()) {
+            long length = source.getLength();
+            ByteRange range = ByteRange.parse(headers.get("range"), length);
+            Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+            String type = source.getContentType();
+            responseHeaders.put("Content-Type", type == null ? DEFAULT_CONTENT_TYPE : type);
+            responseHeaders.put("Accept-Ranges", "bytes");
+
+            if (range == ByteRange.NOT_SATISFIABLE) {
+                responseHeaders.put("Content-Range", "bytes */" + length);
+                writeHeaders(channel, 416, "Range Not Satisfiable", responseHeaders, 0, keepAlive);
+                return keepAlive;
+            }
+
+            long start = 0;
+            long count = length;
+            if (range == null) {
+                writeHeaders(channel, 200, "OK", responseHeaders, length, keepAlive);
+            } else {
+                start = range.getStart();
+                count = range.getLength();
+                responseHeaders.put("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + length);
+                writeHeaders(channel, 206, "Partial Content", responseHeaders, count, keepAlive);
+            }
+            if (!head) {
+                send(file, start, count, channel);
+            }
+        }
+        return keepAlive;
+    }
+
+    private void send(FileChannel file, long start, long count, SocketChannel channel) throws IOException {
+        long position = start;
+        long remaining = count;
+        if (zeroCopy) {
+            while (remaining > 0) {
+                long sent = file.transferTo(position, Math.min(remaining, TRANSFER_CHUNK), channel);
+                if (sent <= 0) {
+                    throw new IOException("Content truncated at " + position);
+                }
+                position += sent;
+                remaining -= sent;
+                bytesSent.addAndGet(sent);
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(remaining, buffer.capacity()));
+                int read = file.read(buffer, position);
+                if (read <= 0) {
+                    throw new IOException("Content truncated at " + position);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                position += read;
+                remaining -= read;
+                bytesSent.addAndGet(read);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    private static boolean isKeepAlive(String version, String connection) {
+        if (connection != null) {
+            String value = connection.toLowerCase(Locale.US);
+            if (value.contains("close")) {
+                return false;
+            }
+            if (value.contains("keep-alive")) {
+                return true;
+            }
+        }
+        return "HTTP/1.1".equals(version);
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int count = 0; count < MAX_HEADERS; count++) {
+            String line = readLine(in);
+            if (line == null || line.isEmpty()) {
+                return headers;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+        }
+        throw new IOException("Too many headers");
+    }
+
+    /**
+     * Read a header line, without its line break.
+     *
+     * @return the line, {@code null} at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(LINE_BYTES);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return line.size() == 0 ? null : line.toString("ISO-8859-1");
+            }
+            if (line.size() >= MAX_LINE_BYTES) {
+                throw new IOException("Header line too long");
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * Get the extension of a name, which players may need to recognize the format.
+     *
+     * @return the extension with its dot, empty if none or not made of letters and digits
+     */
+    private static String extension(String name) {
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        if (dot < 0 || name.length() - dot - 1 > MAX_EXTENSION_LENGTH) {
+            return "";
+        }
+        String extension = name.substring(dot + 1).toLowerCase(Locale.US);
+        return extension.matches("[a-z0-9]+") ? "." + extension : "";
+    }
+
+    /**
+     * Get the token of a request path, like {@code /media/<token>.mp3}.
+     *
+     * @return the token, {@code null} if the path is not one of a source
+     */
+    private static String token(String path) {
+        if (path == null || !path.startsWith(PATH_PREFIX)) {
+            return null;
+        }
+        int end = PATH_PREFIX.length();
+        while (end < path.length() && Character.digit(path.charAt(end), 16) >= 0) {
+            end++;
+        }
+        return path.substring(PATH_PREFIX.length(), end);
+    }
+
+    private static void writeHeaders(SocketChannel channel, int code, String reason, Map<String, String> headers,
+            long contentLength, boolean keepAlive) throws IOException {
+        StringBuilder response = new StringBuilder(256);
+        response.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            response.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        response.append("Content-Length: ").append(contentLength).append("\r\n");
+        response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+        ByteBuffer buffer = ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private final ServerSocketChannel serverChannel;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Thread acceptor;
+
+    private final Map<String, MediaSource> sources = new LinkedHashMap<String, MediaSource>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MediaSource> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    private volatile boolean zeroCopy = true;
+
+    private static MediaServer instance = null;
+
+    /** Number of connections served at the same time: a few per rabbit, which reconnect to seek. */
+    private static final int MAX_CONNECTIONS = 16;
+
+    /** Number of sources kept published. */
+    private static final int MAX_SOURCES = 16;
+
+    private static final int IDLE_TIMEOUT_MILLIS = 15000;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** Bytes sent per {@code transferTo} call, the kernel may send less. */
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private static final int TOKEN_BYTES = 16;
+
+    private static final int LINE_BYTES = 128;
+
+    private static final int MAX_LINE_BYTES = 8192;
+
+    private static final int MAX_HEADERS = 100;
+
+    private static final Map<String, String> EMPTY_HEADERS = Collections.emptyMap();
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final String PATH_PREFIX = "/media/";
+
+    private static final int MAX_EXTENSION_LENGTH = 5;
+
+    private static final String LOG_TAG = MediaServer.class.getSimpleName();
+}
@@ -0,0 +1,112 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Audio content served by the {@link MediaServer}.
+ */
+public interface MediaSource {
+
+    /**
+     * Get the content type.
+     *
+     * @return the content type, like {@code audio/mpeg}
+     */
+    String getContentType();
+
+    /**
+     * Get the length of the content.
+     *
+     * @return the length, in bytes
+     */
+    long getLength();
+
+    /**
+     * Get the name of the content. Only its extension is shown in its URL.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Open the content, once per request. Requests only use positional reads, so that the channel position does not
+     * matter.
+     *
+     * @return a new channel, closed by the caller
+     * @throws IOException if the content cannot be opened
+     */
+    FileChannel open() throws IOException;
+
+    /**
+     * Audio file of the local file system.
+     */
+    final class FileSource implements MediaSource {
+
+        /**
+         * Initialize a new source.
+         *
+         * @param file the file
+         * @param contentType the content type
+         */
+        public FileSource(File file, String contentType) {
+            this.file = file;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getLength() {
+            return file.length();
+        }
+
+        @Override
+        public String getName() {
+            return file.getName();
+        }
+
+        @Override
+        public FileChannel open() throws IOException {
+            return new RandomAccessFile(file, "r").getChannel();
+        }
+
+
+        private final File file;
+
+        private final String contentType;
+    }
+}
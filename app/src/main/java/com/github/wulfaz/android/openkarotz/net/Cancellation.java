@@ -0,0 +1,142 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Cancellation signal of a request running on a worker thread.
+ * <p>
+ * Interrupting a thread does not unblock a socket read, so transports {@link #attach(Closeable) attach} the
+ * connection in use to the signal bound to the current thread. {@link #cancel() Cancelling} the signal closes it,
+ * which makes the blocked read fail right away.
+ */
+public final class Cancellation {
+
+    /**
+     * Get the signal bound to the current thread.
+     *
+     * @return the signal, or <code>null</code> if the request cannot be cancelled
+     */
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind a signal to the current thread.
+     *
+     * @param cancellation the signal, or <code>null</code> to unbind
+     */
+    public static void bind(Cancellation cancellation) {
+        if (cancellation == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(cancellation);
+        }
+    }
+
+    /**
+     * Fail fast if the signal bound to the current thread is cancelled.
+     *
+     * @throws InterruptedIOException if the request is cancelled
+     */
+    static void throwIfCancelled() throws InterruptedIOException {
+        Cancellation c = CURRENT.get();
+        if (c != null && c.isCancelled()) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    /**
+     * Attach the resource used by the running request. It is closed immediately if the signal is already cancelled.
+     *
+     * @param resource the resource to close on cancellation
+     */
+    public void attach(Closeable resource) {
+        boolean close;
+        synchronized (this) {
+            this.resource = resource;
+            close = cancelled;
+        }
+        if (close) {
+            closeQuietly(resource);
+        }
+    }
+
+    /**
+     * Detach the resource previously {@link #attach(Closeable) attached}.
+     */
+    public synchronized void detach() {
+        resource = null;
+    }
+
+    /**
+     * Cancel the request, closing the attached resource if any.
+     */
+    public void cancel() {
+        Closeable r;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            r = resource;
+            resource = null;
+        }
+        if (r != null) {
+            closeQuietly(r);
+        }
+    }
+
+    /**
+     * Check if the request is cancelled.
+     *
+     * @return <code>true</code> if {@link #cancel()} was called
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+
+    private boolean cancelled;
+
+    private Closeable resource;
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<Cancellation>();
+}
@@ -0,0 +1,195 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of idle persistent connections, grouped by host and port.
+ * <p>
+ * Connections that stayed idle longer than the keep-alive duration are evicted and closed, and at most
+ * {@code maxIdlePerHost} idle connections are kept for each host.
+ */
+public class ConnectionPool {
+
+    /**
+     * Initialize a new pool with default settings.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * Initialize a new pool.
+     * @param maxIdlePerHost the maximum number of idle connections kept per host; {@code 0} disables pooling
+     * @param keepAliveMillis the time after which an idle connection is evicted, in milliseconds
+     */
+    public ConnectionPool(int maxIdlePerHost, long keepAliveMillis) {
+        if (maxIdlePerHost < 0) {
+            throw new IllegalArgumentException("maxIdlePerHost < 0: " + maxIdlePerHost);
+        }
+        if (keepAliveMillis <= 0) {
+            throw new IllegalArgumentException("keepAliveMillis <= 0: " + keepAliveMillis);
+        }
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Close and remove all idle connections.
+     */
+    public void evictAll() {
+        List<HttpConnection> evicted = new ArrayList<HttpConnection>();
+        synchronized (this) {
+            for (Deque<HttpConnection> deque : idle.values()) {
+                evicted.addAll(deque);
+            }
+            idle.clear();
+        }
+        for (HttpConnection c : evicted) {
+            c.closeQuietly();
+        }
+    }
+
+    /**
+     * Get the number of idle connections in this pool.
+     * @return the number of idle connections
+     */
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (Deque<HttpConnection> deque : idle.values()) {
+            count += deque.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the keep-alive duration of idle connections.
+     * @return the keep-alive duration, in milliseconds
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * Get the maximum number of idle connections kept per host.
+     * @return the maximum number of idle connections per host
+     */
+    public int getMaxIdlePerHost() {
+        return maxIdlePerHost;
+    }
+
+    /**
+     * Take the most recently used idle connection to the given host, if any.
+     * @param key the host key
+     * @return an idle connection, or {@code null} if none is available
+     */
+    HttpConnection acquire(String key) {
+        List<HttpConnection> evicted = new ArrayList<HttpConnection>();
+        HttpConnection connection = null;
+        synchronized (this) {
+            evictExpired(System.currentTimeMillis(), evicted);
+            Deque<HttpConnection> deque = idle.get(key);
+            if (deque != null) {
+                connection = deque.pollFirst();
+                if (deque.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+        }
+        for (HttpConnection c : evicted) {
+            c.closeQuietly();
+        }
+        return connection;
+    }
+
+    /**
+     * Give a connection back to the pool, or close it if it cannot be kept.
+     * @param connection the connection
+     */
+    void release(HttpConnection connection) {
+        List<HttpConnection> evicted = new ArrayList<HttpConnection>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictExpired(now, evicted);
+
+            if (maxIdlePerHost > 0 && connection.isReusable()) {
+                connection.idleSince = now;
+                Deque<HttpConnection> deque = idle.get(connection.getKey());
+                if (deque == null) {
+                    deque = new ArrayDeque<HttpConnection>(maxIdlePerHost);
+                    idle.put(connection.getKey(), deque);
+                }
+                deque.addFirst(connection);
+                while (deque.size() > maxIdlePerHost) {
+                    // Drop the least recently used
+                    evicted.add(deque.pollLast());
+                }
+            } else {
+                evicted.add(connection);
+            }
+        }
+        for (HttpConnection c : evicted) {
+            c.closeQuietly();
+        }
+    }
+
+    private void evictExpired(long now, List<HttpConnection> evicted) {
+        Iterator<Deque<HttpConnection>> it = idle.values().iterator();
+        while (it.hasNext()) {
+            Deque<HttpConnection> deque = it.next();
+            // Least recently used connections are at the end
+            while (!deque.isEmpty() && now - deque.peekLast().idleSince >= keepAliveMillis) {
+                evicted.add(deque.pollLast());
+            }
+            if (deque.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    private final Map<String, Deque<HttpConnection>> idle = new HashMap<String, Deque<HttpConnection>>();
+
+    private final int maxIdlePerHost;
+
+    private final long keepAliveMillis;
+
+    /** Default number of idle connections kept per host. */
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 2;
+
+    /** Default keep-alive duration: the Karotz web server drops idle clients quickly. */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 15000;
+}
@@ -0,0 +1,498 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A persistent HTTP/1.1 connection to a single host, as handed out by the {@link ConnectionPool}.
+ * <p>
+ * A connection runs one exchange at a time. Once the response body has been fully read, the connection can be
+ * given back to the pool if the server agreed to keep it alive.
+ */
+final class HttpConnection {
+
+    /**
+     * Open a new connection.
+     * @param host the host name or IP
+     * @param port the port
+     * @param connectTimeout the connect timeout, in milliseconds
+     * @param readTimeout the read timeout, in milliseconds
+     * @throws IOException if the connection cannot be established
+     */
+    HttpConnection(String host, int port, int connectTimeout, int readTimeout) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.key = keyOf(host, port);
+        this.readTimeout = readTimeout;
+
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setSoTimeout(readTimeout);
+            in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the pool key of a host and port.
+     * @param host the host name or IP
+     * @param port the port
+     * @return the pool key
+     */
+    static String keyOf(String host, int port) {
+        return host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /**
+     * Close this connection, ignoring errors.
+     */
+    void closeQuietly() {
+        reusable = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Send a GET request and read the response headers.
+     * <p>
+     * The response body must be fully read (or the connection closed) before another exchange is started.
+     * @param file the request path and query
+     * @return the response
+     * @throws IOException if an I/O error occurs
+     */
+    Response get(String file) throws IOException {
+        reusable = false;
+        requestSent = false;
+
+        StringBuilder request = new StringBuilder(128);
+        request.append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(host);
+        if (port != DEFAULT_PORT) {
+            request.append(':').append(port);
+        }
+        request.append("\r\n");
+        request.append("Connection: keep-alive\r\n");
+        request.append("Accept: application/json, */*\r\n");
+        request.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        request.append("\r\n");
+
+        out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        requestSent = true;
+
+        String statusLine = readLine(true);
+
+        // Status line: HTTP/1.1 200 OK
+        if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+            throw new IOException("Unexpected status line: " + statusLine);
+        }
+        boolean http10 = statusLine.startsWith("HTTP/1.0");
+        int code;
+        try {
+            code = Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected status line: " + statusLine);
+        }
+
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean keepAlive = !http10;
+
+        String line;
+        while (!(line = readLine(false)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: " + value);
+                }
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                String v = value.toLowerCase(Locale.ROOT);
+                if (v.contains("close")) {
+                    keepAlive = false;
+                } else if (v.contains("keep-alive")) {
+                    keepAlive = true;
+                }
+            }
+        }
+
+        InputStream body;
+        if (code == 204 || code == 304 || (code >= 100 && code < 200)) {
+            body = new FixedLengthInputStream(in, 0, keepAlive);
+        } else if (chunked) {
+            body = new ChunkedInputStream(in, keepAlive);
+        } else if (contentLength >= 0) {
+            body = new FixedLengthInputStream(in, contentLength, keepAlive);
+        } else {
+            // No framing, body ends when the server closes the connection
+            body = new FixedLengthInputStream(in, Long.MAX_VALUE, false);
+        }
+
+        return new Response(code, body);
+    }
+
+    /**
+     * Get the pool key of this connection.
+     * @return the pool key
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Check if this connection can still be used: not closed and not half-closed by the server.
+     * <p>
+     * Connections that were idle for more than a few milliseconds are probed for an end of stream, which costs up to
+     * a millisecond. Only connections used in a burst of requests are trusted: a request sent on a connection the
+     * server closed in the meantime may have been received, and cannot be retried.
+     * @param now the current time, in milliseconds
+     * @return {@code true} if the connection looks healthy
+     */
+    boolean isHealthy(long now) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        if (now - idleSince < PROBE_IDLE_MILLIS) {
+            return true;
+        }
+        try {
+            // Peek for an end of stream, without blocking for more than a millisecond
+            socket.setSoTimeout(1);
+            in.mark(1);
+            int b = in.read();
+            if (b == -1) {
+                return false;
+            }
+            // Unexpected data from the server, cannot be trusted
+            in.reset();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.setSoTimeout(readTimeout);
+            } catch (IOException e) {
+                reusable = false;
+            }
+        }
+    }
+
+    /**
+     * Check if the last request was fully sent. The server may then have acted on it, even if it closed the
+     * connection without answering.
+     * @return {@code true} if the request was written and flushed
+     */
+    boolean isRequestSent() {
+        return requestSent;
+    }
+
+    /**
+     * Check if the last response body was fully read and the server agreed to keep the connection alive.
+     * @return {@code true} if this connection can be given back to the pool
+     */
+    boolean isReusable() {
+        return reusable && !socket.isClosed();
+    }
+
+    private String readLine(boolean first) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            sb.append((char) c);
+        }
+        if (first && sb.length() == 0) {
+            throw new EOFException("Connection closed by server");
+        }
+        throw new EOFException("Unexpected end of headers");
+    }
+
+
+    /**
+     * Response of an exchange: status code and body stream.
+     */
+    static final class Response {
+
+        Response(int code, InputStream body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        final int code;
+
+        final InputStream body;
+    }
+
+    /**
+     * Body of known length. Marks the connection reusable once the last byte was read.
+     */
+    private final class FixedLengthInputStream extends FilterInputStream {
+
+        FixedLengthInputStream(InputStream in, long length, boolean keepAlive) {
+            super(in);
+            this.remaining = length;
+            this.keepAlive = keepAlive;
+            checkDone();
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(remaining, super.available());
+        }
+
+        @Override
+        public void close() {
+            if (remaining > 0) {
+                // Body not fully read, the connection cannot be reused
+                closeQuietly();
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                return endOfStream();
+            }
+            remaining--;
+            checkDone();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                return endOfStream();
+            }
+            remaining -= n;
+            checkDone();
+            return n;
+        }
+
+        private void checkDone() {
+            if (remaining == 0) {
+                reusable = keepAlive;
+            }
+        }
+
+        private int endOfStream() throws IOException {
+            if (remaining != Long.MAX_VALUE) {
+                throw new EOFException("Unexpected end of body");
+            }
+            // Body delimited by connection close
+            remaining = 0;
+            closeQuietly();
+            return -1;
+        }
+
+        private long remaining;
+
+        private final boolean keepAlive;
+    }
+
+    /**
+     * Body using chunked transfer encoding. Marks the connection reusable once the last chunk was read.
+     */
+    private final class ChunkedInputStream extends FilterInputStream {
+
+        ChunkedInputStream(InputStream in, boolean keepAlive) {
+            super(in);
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return done ? 0 : Math.min(chunkRemaining, super.available());
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                closeQuietly();
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of chunk");
+            }
+            chunkRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, chunkRemaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of chunk");
+            }
+            chunkRemaining -= n;
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (done) {
+                return false;
+            }
+            if (chunkRemaining > 0) {
+                return true;
+            }
+            if (started) {
+                // CRLF after chunk data
+                readLine(false);
+            }
+            started = true;
+
+            String size = readLine(false);
+            int semicolon = size.indexOf(';');
+            if (semicolon >= 0) {
+                size = size.substring(0, semicolon);
+            }
+            try {
+                chunkRemaining = Integer.parseInt(size.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + size);
+            }
+
+            if (chunkRemaining == 0) {
+                // Skip trailers
+                while (!readLine(false).isEmpty()) {
+                    // Ignore
+                }
+                done = true;
+                reusable = keepAlive;
+                return false;
+            }
+            return true;
+        }
+
+        private int chunkRemaining = 0;
+
+        private boolean started = false;
+
+        private boolean done = false;
+
+        private final boolean keepAlive;
+    }
+
+
+    /** Time at which the connection was given back to the pool. */
+    long idleSince = 0;
+
+    /** Number of exchanges done on this connection. */
+    int useCount = 0;
+
+    private final String host;
+    private final int port;
+    private final String key;
+    private final int readTimeout;
+
+    private final Socket socket;
+    private final BufferedInputStream in;
+    private final OutputStream out;
+
+    private boolean reusable = false;
+    private boolean requestSent = false;
+
+    private static final int DEFAULT_PORT = 80;
+
+    private static final long PROBE_IDLE_MILLIS = 20;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private static final String USER_AGENT = "OpenKarotz-Android";
+}
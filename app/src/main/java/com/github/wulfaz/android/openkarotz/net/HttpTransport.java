@@ -0,0 +1,59 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * This interface describes an HTTP transport used by {@link NetUtils} to talk to a Karotz.
+ */
+public interface HttpTransport {
+
+    /**
+     * Execute a GET request and return the response body as a string.
+     * @param url the URL to download
+     * @return the response body
+     * @throws IOException if an I/O error occurs or if the server answers with an error status
+     */
+    String get(URL url) throws IOException;
+
+    /**
+     * Execute a GET request and hand the response body over to a reader, as it arrives.
+     * @param url the URL to download
+     * @param reader the reader consuming the response body
+     * @throws IOException if an I/O error occurs, if the reader fails or if the server answers with an error status
+     */
+    void get(URL url, ResponseBodyReader reader) throws IOException;
+
+    /**
+     * Release all resources held by this transport, such as idle connections.
+     */
+    void shutdown();
+}
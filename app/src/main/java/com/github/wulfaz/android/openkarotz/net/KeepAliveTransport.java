@@ -0,0 +1,317 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Transport keeping persistent HTTP/1.1 connections to each Karotz, so that consecutive commands do not pay a
+ * new TCP handshake every time.
+ * <p>
+ * Idle connections are kept in a {@link ConnectionPool}. The number of concurrent requests sent to a single host is
+ * limited, to spare the Karotz CPU. Non-HTTP URLs are handed over to a {@link UrlConnectionTransport}.
+ */
+public class KeepAliveTransport implements HttpTransport {
+
+    /**
+     * Initialize a new transport with default settings.
+     */
+    public KeepAliveTransport() {
+        this(new ConnectionPool(), DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * Initialize a new transport.
+     * @param pool the pool of idle connections
+     * @param maxRequestsPerHost the maximum number of concurrent requests per host
+     */
+    public KeepAliveTransport(ConnectionPool pool, int maxRequestsPerHost) {
+        if (maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("maxRequestsPerHost <= 0: " + maxRequestsPerHost);
+        }
+        this.pool = pool;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    @Override
+    public String get(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            return fallback.get(url);
+        }
+
+        StringBodyReader reader = new StringBodyReader();
+        get(url, reader);
+        return reader.body;
+    }
+
+    @Override
+    public void get(URL url, ResponseBodyReader reader) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            fallback.get(url, reader);
+            return;
+        }
+
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String key = HttpConnection.keyOf(host, port);
+
+        Cancellation.throwIfCancelled();
+        HostPermits permits = permitsFor(key);
+        try {
+            try {
+                permits.semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + key);
+            }
+
+            try {
+                exchange(host, port, key, url.getFile(), reader);
+            } finally {
+                permits.semaphore.release();
+            }
+        } finally {
+            releasePermits(key, permits);
+        }
+    }
+
+    /**
+     * Get the number of connections opened so far.
+     * @return the number of new connections
+     */
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    /**
+     * Get the number of hosts with requests in progress or waiting.
+     * @return the number of hosts
+     */
+    synchronized int getHostCount() {
+        return hostPermits.size();
+    }
+
+    /**
+     * Get the connection pool.
+     * @return the connection pool
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Get the number of requests sent on a pooled connection so far.
+     * @return the number of reused connections
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        pool.evictAll();
+    }
+
+    private void exchange(String host, int port, String key, String file, ResponseBodyReader reader) throws IOException {
+        // First try pooled connections, then a fresh one
+        HttpConnection connection;
+        while ((connection = pool.acquire(key)) != null) {
+            if (!connection.isHealthy(System.currentTimeMillis())) {
+                connection.closeQuietly();
+                continue;
+            }
+            try {
+                exchange(connection, file, reader);
+                reuseCount.incrementAndGet();
+                return;
+            } catch (IOException e) {
+                if (connection.isRequestSent() || isCancelled()) {
+                    // The Karotz may have run the command, it must not run twice
+                    throw e;
+                }
+                // Server dropped the idle connection before the request was sent, retry
+                Log.d(LOG_TAG, "Stale connection to " + key + ": " + e.getMessage());
+            }
+        }
+
+        Cancellation.throwIfCancelled();
+        connection = new HttpConnection(host, port, NetUtils.CONNECT_TIMEOUT, NetUtils.READ_TIMEOUT);
+        connectCount.incrementAndGet();
+        exchange(connection, file, reader);
+    }
+
+    private void exchange(HttpConnection connection, String file, ResponseBodyReader reader) throws IOException {
+        // Cancelling the request closes the socket, which unblocks a pending read
+        Cancellation cancellation = Cancellation.current();
+        if (cancellation != null) {
+            cancellation.attach(connection::closeQuietly);
+        }
+
+        boolean done = false;
+        try {
+            HttpConnection.Response response = connection.get(file);
+            connection.useCount++;
+            Log.d(LOG_TAG, "Response code: " + response.code + " (request #" + connection.useCount + " on connection)");
+
+            if (response.code >= 400) {
+                drain(response.body);
+                pool.release(connection);
+                done = true;
+                throw new IOException("HTTP error " + response.code + " for " + file);
+            }
+
+            reader.read(response.body);
+            // The reader may stop before the end of the body, skip the rest to keep the connection
+            drain(response.body);
+
+            pool.release(connection);
+            done = true;
+        } catch (IOException e) {
+            if (isCancelled()) {
+                InterruptedIOException cancelled = new InterruptedIOException("Request cancelled: " + file);
+                cancelled.initCause(e);
+                throw cancelled;
+            }
+            throw e;
+        } finally {
+            if (cancellation != null) {
+                cancellation.detach();
+            }
+            if (!done) {
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    private static boolean isCancelled() {
+        Cancellation c = Cancellation.current();
+        return c != null && c.isCancelled();
+    }
+
+    private synchronized HostPermits permitsFor(String key) {
+        HostPermits p = hostPermits.get(key);
+        if (p == null) {
+            p = new HostPermits(maxRequestsPerHost);
+            hostPermits.put(key, p);
+        }
+        p.users++;
+        return p;
+    }
+
+    private synchronized void releasePermits(String key, HostPermits p) {
+        // Forget hosts without requests, the application may see many addresses over time
+        if (--p.users == 0) {
+            hostPermits.remove(key);
+        }
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        try {
+            if (stream.read() != -1) {
+                byte[] buffer = new byte[256];
+                while (stream.read(buffer) != -1) {
+                    // Discard
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static String readIt(InputStream stream) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            stream.close();
+        }
+    }
+
+
+    /**
+     * Request permits of a host, with the number of requests holding or waiting for one.
+     */
+    private static final class HostPermits {
+
+        HostPermits(int permits) {
+            semaphore = new Semaphore(permits, true);
+        }
+
+        final Semaphore semaphore;
+
+        int users;
+    }
+
+    /**
+     * Reader buffering the whole body into a string.
+     */
+    private static final class StringBodyReader implements ResponseBodyReader {
+
+        @Override
+        public void read(InputStream stream) throws IOException {
+            body = readIt(stream);
+        }
+
+        String body;
+    }
+
+
+    private final ConnectionPool pool;
+
+    private final int maxRequestsPerHost;
+
+    private final Map<String, HostPermits> hostPermits = new HashMap<String, HostPermits>();
+
+    private final HttpTransport fallback = new UrlConnectionTransport();
+
+    private final AtomicLong connectCount = new AtomicLong();
+
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    /** Default number of concurrent requests sent to a single Karotz. */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
+
+    private static final String LOG_TAG = KeepAliveTransport.class.getSimpleName();
+}
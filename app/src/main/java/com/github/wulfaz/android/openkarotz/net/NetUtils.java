@@ -29,13 +29,7 @@
 package com.github.wulfaz.android.openkarotz.net;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 
 import android.app.Activity;
 import android.content.Context;
@@ -49,8 +43,8 @@ import android.util.Log;
 public class NetUtils {
 
     /**
-     * Given a URL, establishes an HttpUrlConnection and retrieves the web page content as a InputStream, which it
-     * returns as a string.
+     * Given a URL, retrieves the web page content through the current {@link HttpTransport transport} and returns it
+     * as a string.
      * 
      * @param myurl the URL to download
      * @return the url content as string
@@ -61,48 +55,38 @@ public class NetUtils {
     }
 
     /**
-     * Given a URL, establishes an HttpUrlConnection and retrieves the web page content as a InputStream, which it
-     * returns as a string.
+     * Given a URL, retrieves the web page content through the current {@link HttpTransport transport} and returns it
+     * as a string.
      * 
      * @param url the URL to download
      * @return the url content as string
      * @throws IOException if an I/O error occurs
      */
     public static String downloadUrl(URL url) throws IOException {
+        String contentAsString = transport.get(url);
+        Log.d(LOG_TAG, "Response string: " + contentAsString);
+        return contentAsString;
+    }
 
-        InputStream is = null;
-
-        try {
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setReadTimeout(10000);
-            conn.setConnectTimeout(6000);
-            conn.setRequestMethod("GET");
-            conn.setDoInput(true);
-
-            // Starts the query
-            conn.connect();
-            int response = conn.getResponseCode();
-            Log.d(LOG_TAG, "Response code: " + response);
-
-            is = conn.getInputStream();
-            int len = conn.getContentLength();
-            if (len < 0) {
-                len = 512;
-            }
-
-            // Convert the InputStream into a string
-            String contentAsString = readIt(is, len);
-            Log.d(LOG_TAG, "Response string: " + contentAsString);
-
-            return contentAsString;
-
-        } finally {
-            // Makes sure that the InputStream is closed after the app is
-            // finished using it.
-            if (is != null) {
-                is.close();
-            }
-        }
+    /**
+     * Given a URL, retrieves the web page content through the current {@link HttpTransport transport} and hands it
+     * over to a reader as a stream, without buffering it into a string.
+     * 
+     * @param url the URL to download
+     * @param reader the reader consuming the content
+     * @throws IOException if an I/O error occurs
+     */
+    public static void downloadUrl(URL url, ResponseBodyReader reader) throws IOException {
+        transport.get(url, reader);
+    }
+
+    /**
+     * Get the transport used to download URLs.
+     * 
+     * @return the transport
+     */
+    public static HttpTransport getTransport() {
+        return transport;
     }
 
     /**
@@ -120,18 +104,30 @@ public class NetUtils {
         return networkInfo != null && networkInfo.isConnected();
     }
 
-    // Reads an InputStream and converts it to a String.
-    private static String readIt(InputStream stream, int len) throws IOException {
-        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
-        StringBuilder sb = new StringBuilder();
-        char[] buffer = new char[1024];
-        int count;
-        while ((count = reader.read(buffer)) != -1) {
-            sb.append(buffer, 0, count);
+    /**
+     * Set the transport used to download URLs. The previous transport is shut down.
+     * 
+     * @param newTransport the transport to use
+     */
+    public static void setTransport(HttpTransport newTransport) {
+        if (newTransport == null) {
+            throw new IllegalArgumentException("transport is null");
+        }
+        HttpTransport old = transport;
+        transport = newTransport;
+        if (old != newTransport) {
+            old.shutdown();
         }
-        return sb.toString();
     }
 
 
+    /** Connect timeout, in milliseconds. */
+    static final int CONNECT_TIMEOUT = 6000;
+
+    /** Read timeout, in milliseconds. */
+    static final int READ_TIMEOUT = 10000;
+
+    private static volatile HttpTransport transport = new KeepAliveTransport();
+
     private static final String LOG_TAG = NetUtils.class.getSimpleName();
 }
@@ -0,0 +1,123 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import android.util.Log;
+
+/**
+ * Transport based on {@link HttpURLConnection}, opening a new connection for every request.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    @Override
+    public String get(URL url) throws IOException {
+
+        InputStream is = null;
+
+        try {
+            is = open(url);
+
+            // Convert the InputStream into a string
+            return readIt(is);
+
+        } finally {
+            // Makes sure that the InputStream is closed after the app is
+            // finished using it.
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
+
+    @Override
+    public void get(URL url, ResponseBodyReader reader) throws IOException {
+
+        InputStream is = null;
+
+        try {
+            is = open(url);
+            reader.read(is);
+
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // Nothing to release
+    }
+
+    private static InputStream open(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setReadTimeout(NetUtils.READ_TIMEOUT);
+        conn.setConnectTimeout(NetUtils.CONNECT_TIMEOUT);
+        conn.setRequestMethod("GET");
+        conn.setDoInput(true);
+
+        // Cancelling the request disconnects, which unblocks a pending read
+        Cancellation.throwIfCancelled();
+        Cancellation cancellation = Cancellation.current();
+        if (cancellation != null) {
+            cancellation.attach(conn::disconnect);
+        }
+
+        // Starts the query
+        conn.connect();
+        int response = conn.getResponseCode();
+        Log.d(LOG_TAG, "Response code: " + response);
+
+        return conn.getInputStream();
+    }
+
+    // Reads an InputStream and converts it to a String.
+    private static String readIt(InputStream stream) throws IOException {
+        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return sb.toString();
+    }
+
+
+    private static final String LOG_TAG = UrlConnectionTransport.class.getSimpleName();
+}
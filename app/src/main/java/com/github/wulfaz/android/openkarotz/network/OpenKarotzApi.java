@@ -31,9 +31,12 @@ package com.github.wulfaz.android.openkarotz.network;
 import com.github.wulfaz.android.openkarotz.network.model.EarsResponse;
 import com.github.wulfaz.android.openkarotz.network.model.EarsModeResponse;
 import com.github.wulfaz.android.openkarotz.network.model.KarotzResponse;
+import com.github.wulfaz.android.openkarotz.network.model.LedsResponse;
 import com.github.wulfaz.android.openkarotz.network.model.StatusResponse;
+import com.github.wulfaz.android.openkarotz.network.model.TtsResponse;
 import com.github.wulfaz.android.openkarotz.network.model.VersionResponse;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Query;
@@ -47,19 +50,16 @@ public interface OpenKarotzApi {
     @GET("cgi-bin/status")
     Call<StatusResponse> getStatus();
 
-    @GET("cgi-bin/version")
+    @GET("cgi-bin/get_version")
     Call<VersionResponse> getVersion();
 
     // LED Control
-    @GET("cgi-bin/led")
-    Call<KarotzResponse> setLedColor(
+    @GET("cgi-bin/leds")
+    Call<LedsResponse> setLedColor(
             @Query("color") String color,
             @Query("pulse") Integer pulse
     );
 
-    @GET("cgi-bin/led")
-    Call<KarotzResponse> setLedOff();
-
     // Ears Control
     @GET("cgi-bin/ears")
     Call<EarsResponse> moveEars(
@@ -77,41 +77,35 @@ public interface OpenKarotzApi {
     @GET("cgi-bin/ears_mode")
     Call<EarsModeResponse> setEarsMode(@Query("disable") int disable);
 
-    @GET("cgi-bin/ears_mode")
-    Call<EarsModeResponse> getEarsMode();
-
     // Sound Control
     @GET("cgi-bin/sound")
-    Call<KarotzResponse> playSound(@Query("url") String url);
+    Call<KarotzResponse> playSound(@Query(value = "url", encoded = true) String url);
 
-    @GET("cgi-bin/sound")
-    Call<KarotzResponse> stopSound(@Query("cmd") String cmd);
-
-    @GET("cgi-bin/sound")
-    Call<KarotzResponse> pauseSound(@Query("cmd") String cmd);
+    @GET("cgi-bin/sound_control")
+    Call<KarotzResponse> soundControl(@Query("cmd") String cmd);
 
-    @GET("cgi-bin/sound")
-    Call<KarotzResponse> resumeSound(@Query("cmd") String cmd);
-
-    // System Control  
+    // System Control
     @GET("cgi-bin/sleep")
     Call<KarotzResponse> sleep();
 
     @GET("cgi-bin/wakeup")
-    Call<KarotzResponse> wakeup();
+    Call<KarotzResponse> wakeup(@Query("silent") Integer silent);
+
+    // Apps
+    @GET("cgi-bin/apps/moods")
+    Call<KarotzResponse> randomMood();
 
-    // TTS (Text-to-Speech) - if supported
+    @GET("cgi-bin/radios_list")
+    Call<ResponseBody> getRadiosList();
+
+    // TTS (Text-to-Speech)
     @GET("cgi-bin/tts")
-    Call<KarotzResponse> speak(
+    Call<TtsResponse> speak(
+            @Query("voice") String voice,
             @Query("text") String text,
-            @Query("lang") String language
+            @Query("nocache") Long nocache
     );
 
-    // Custom API calls for extensibility
-    @GET("cgi-bin/custom")
-    Call<KarotzResponse> customCommand(
-            @Query("cmd") String command,
-            @Query("param1") String param1,
-            @Query("param2") String param2
-    );
+    @GET("cgi-bin/voice_list")
+    Call<ResponseBody> getVoiceList();
 }
@@ -28,6 +28,16 @@
 
 package com.github.wulfaz.android.openkarotz.network;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.wulfaz.android.openkarotz.BuildConfig;
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.google.gson.Gson;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -35,36 +45,130 @@ import retrofit2.converter.gson.GsonConverterFactory;
 
 /**
  * Service generator for creating Retrofit service instances.
+ * <p>
+ * A single {@link OkHttpClient} is shared by all Karotz devices, so connection pool, dispatcher threads and Gson
+ * adapters are only created once. One {@link Retrofit} instance is cached per device base URL, and service proxies are
+ * cached per device and service class.
  */
 public class ServiceGenerator {
 
-    private static final String API_BASE_URL = "http://your-default-karotz-url";
-
-    private static final Retrofit.Builder builder =
-            new Retrofit.Builder()
-                    .baseUrl(API_BASE_URL)
-                    .addConverterFactory(GsonConverterFactory.create());
+    private ServiceGenerator() {
+        // No instance
+    }
 
-    private static final OkHttpClient.Builder httpClient =
-            new OkHttpClient.Builder();
+    /**
+     * Create, or get the cached, service for the given Karotz device.
+     *
+     * @param serviceClass the service interface
+     * @param device the Karotz device
+     * @return the service
+     */
+    public static <T> T createService(Class<T> serviceClass, KarotzDevice device) {
+        return createService(serviceClass, device.getBaseUrl());
+    }
 
+    /**
+     * Create, or get the cached, service for the given base URL.
+     *
+     * @param serviceClass the service interface
+     * @param baseUrl the base URL, like {@code http://192.168.1.10:80}
+     * @return the service
+     */
     public static <T> T createService(Class<T> serviceClass, String baseUrl) {
+        String key = normalize(baseUrl);
+        Map<Class<?>, Object> services = SERVICES.get(key);
+        if (services == null) {
+            services = new ConcurrentHashMap<Class<?>, Object>();
+            Map<Class<?>, Object> existing = SERVICES.putIfAbsent(key, services);
+            if (existing != null) {
+                services = existing;
+            }
+        }
 
-        HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
-        logging.setLevel(HttpLoggingInterceptor.Level.BODY);
-        if (!httpClient.interceptors().contains(logging)) {
-            httpClient.addInterceptor(logging);
+        Object service = services.get(serviceClass);
+        if (service == null) {
+            service = retrofitFor(key).create(serviceClass);
+            Object existing = services.putIfAbsent(serviceClass, service);
+            if (existing != null) {
+                service = existing;
+            }
         }
+        return serviceClass.cast(service);
+    }
+
+    /**
+     * Forget the Retrofit instance and services cached for a base URL, e.g. when a device is deleted or its host changed.
+     *
+     * @param baseUrl the base URL
+     */
+    public static void evict(String baseUrl) {
+        String key = normalize(baseUrl);
+        RETROFITS.remove(key);
+        SERVICES.remove(key);
+    }
 
-        Retrofit retrofit = builder
-                .client(httpClient.build())
-                .baseUrl(baseUrl)
-                .build();
+    /**
+     * Get the HTTP client shared by all devices.
+     *
+     * @return the shared HTTP client
+     */
+    public static OkHttpClient getHttpClient() {
+        return HTTP_CLIENT;
+    }
+
+    private static Retrofit retrofitFor(String key) {
+        Retrofit retrofit = RETROFITS.get(key);
+        if (retrofit == null) {
+            retrofit = new Retrofit.Builder()
+                    .baseUrl(key)
+                    .client(HTTP_CLIENT)
+                    .addConverterFactory(GSON_CONVERTER)
+                    .build();
+            Retrofit existing = RETROFITS.putIfAbsent(key, retrofit);
+            if (existing != null) {
+                retrofit = existing;
+            }
+        }
+        return retrofit;
+    }
 
-        return retrofit.create(serviceClass);
+    private static String normalize(String baseUrl) {
+        // Retrofit requires base URLs ending with a slash
+        return baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
     }
 
-    public static <T> T createService(Class<T> serviceClass) {
-        return createService(serviceClass, API_BASE_URL);
+    private static OkHttpClient newHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(6, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS);
+
+        // Requests carry the text spoken by the Karotz, only log them in debug builds
+        if (BuildConfig.DEBUG) {
+            HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
+            logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
+            builder.addInterceptor(logging);
+        }
+        return builder.build();
     }
+
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static final long KEEP_ALIVE_SECONDS = 15;
+
+    // The Karotz CPU is weak, do not flood it
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+
+    private static final OkHttpClient HTTP_CLIENT = newHttpClient();
+
+    private static final GsonConverterFactory GSON_CONVERTER = GsonConverterFactory.create(new Gson());
+
+    private static final Map<String, Retrofit> RETROFITS = new ConcurrentHashMap<String, Retrofit>();
+
+    private static final Map<String, Map<Class<?>, Object>> SERVICES = new ConcurrentHashMap<String, Map<Class<?>, Object>>();
 }
@@ -0,0 +1,86 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.network.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Response model for LED API calls.
+ * <p>
+ * Answer: {"color":"0000FF","secondary_color":"000000","pulse":"0","no_memory":"0","speed":"700","return":"0"}
+ */
+public class LedsResponse extends KarotzResponse {
+    
+    @SerializedName("color")
+    private String color;
+    
+    @SerializedName("pulse")
+    private String pulse;
+    
+    // Constructors
+    public LedsResponse() {}
+    
+    public LedsResponse(String returnCode, String message, String color, String pulse) {
+        super(returnCode, message);
+        this.color = color;
+        this.pulse = pulse;
+    }
+    
+    // Getters and Setters
+    public String getColor() {
+        return color;
+    }
+    
+    public void setColor(String color) {
+        this.color = color;
+    }
+    
+    public String getPulse() {
+        return pulse;
+    }
+    
+    public void setPulse(String pulse) {
+        this.pulse = pulse;
+    }
+    
+    // Helper methods
+    public boolean isPulsing() {
+        return "1".equals(pulse);
+    }
+    
+    @Override
+    public String toString() {
+        return "LedsResponse{" +
+                "color='" + color + '\'' +
+                ", pulse='" + pulse + '\'' +
+                ", returnCode='" + getReturnCode() + '\'' +
+                ", message='" + getMessage() + '\'' +
+                '}';
+    }
+}
@@ -32,118 +32,139 @@ import com.google.gson.annotations.SerializedName;
 
 /**
  * Response model for status API calls.
+ * <p>
+ * Answer: {"version":"210","patch":"310","ears_disabled":"0","sleep":"1","sleep_time":"1754001236","led_color":"000000",
+ * "led_pulse":"0","tts_cache_size":"1","usb_free_space":"-1","karotz_free_space":"147.3M","eth_mac":"00:00:00:00:00:00",
+ * "wlan_mac":"01:23:45:67:89:AB","nb_tags":"6","nb_moods":"305","nb_sounds":"14","nb_stories":"0",
+ * "karotz_percent_used_space":"37","usb_percent_used_space":"","data_dir":"/usr/openkarotz"}
  */
 public class StatusResponse extends KarotzResponse {
     
-    @SerializedName("sleeping")
-    private String sleeping;
+    @SerializedName("version")
+    private String version;
     
-    @SerializedName("left_ear")
-    private String leftEar;
+    @SerializedName("patch")
+    private String patch;
     
-    @SerializedName("right_ear")
-    private String rightEar;
+    @SerializedName("ears_disabled")
+    private String earsDisabled;
     
-    @SerializedName("ear_mode")
-    private String earMode;
+    @SerializedName("sleep")
+    private String sleep;
     
-    @SerializedName("color")
-    private String color;
+    @SerializedName("led_color")
+    private String ledColor;
     
-    @SerializedName("pulse")
-    private String pulse;
+    @SerializedName("led_pulse")
+    private String ledPulse;
+    
+    @SerializedName("tts_cache_size")
+    private String ttsCacheSize;
+    
+    @SerializedName("karotz_free_space")
+    private String karotzFreeSpace;
+    
+    @SerializedName("karotz_percent_used_space")
+    private String karotzPercentUsedSpace;
+    
+    @SerializedName("wlan_mac")
+    private String wlanMac;
+    
+    @SerializedName("nb_tags")
+    private String nbTags;
+    
+    @SerializedName("nb_moods")
+    private String nbMoods;
+    
+    @SerializedName("nb_sounds")
+    private String nbSounds;
     
     // Constructors
     public StatusResponse() {}
     
-    // Getters and Setters
-    public String getSleeping() {
-        return sleeping;
+    // Getters
+    public String getVersion() {
+        return version;
     }
     
-    public void setSleeping(String sleeping) {
-        this.sleeping = sleeping;
+    public String getPatch() {
+        return patch;
     }
     
-    public String getLeftEar() {
-        return leftEar;
+    public String getEarsDisabled() {
+        return earsDisabled;
     }
     
-    public void setLeftEar(String leftEar) {
-        this.leftEar = leftEar;
+    public String getSleep() {
+        return sleep;
     }
     
-    public String getRightEar() {
-        return rightEar;
+    public String getLedColor() {
+        return ledColor;
     }
     
-    public void setRightEar(String rightEar) {
-        this.rightEar = rightEar;
+    public String getLedPulse() {
+        return ledPulse;
     }
     
-    public String getEarMode() {
-        return earMode;
+    public String getTtsCacheSize() {
+        return ttsCacheSize;
     }
     
-    public void setEarMode(String earMode) {
-        this.earMode = earMode;
+    public String getKarotzFreeSpace() {
+        return karotzFreeSpace;
     }
     
-    public String getColor() {
-        return color;
+    public String getKarotzPercentUsedSpace() {
+        return karotzPercentUsedSpace;
     }
     
-    public void setColor(String color) {
-        this.color = color;
+    public String getWlanMac() {
+        return wlanMac;
     }
     
-    public String getPulse() {
-        return pulse;
+    public String getNbTags() {
+        return nbTags;
     }
     
-    public void setPulse(String pulse) {
-        this.pulse = pulse;
+    public String getNbMoods() {
+        return nbMoods;
     }
     
-    // Helper methods
-    public boolean isSleeping() {
-        return "1".equals(sleeping);
+    public String getNbSounds() {
+        return nbSounds;
     }
     
-    public boolean isAwake() {
-        return "0".equals(sleeping);
+    // Helper methods
+    public boolean isSleeping() {
+        return "1".equals(sleep);
     }
     
     public boolean areEarsEnabled() {
-        return "0".equals(earMode);
+        return !"1".equals(earsDisabled);
     }
     
-    public int getLeftEarInt() {
-        try {
-            return Integer.parseInt(leftEar);
-        } catch (NumberFormatException e) {
-            return 0;
-        }
+    public boolean isPulsing() {
+        return "1".equals(ledPulse);
     }
     
-    public int getRightEarInt() {
-        try {
-            return Integer.parseInt(rightEar);
-        } catch (NumberFormatException e) {
-            return 0;
-        }
+    /**
+     * The status answer has no "return" field: a parsed answer with a LED color is a success.
+     */
+    @Override
+    public boolean isSuccess() {
+        return ledColor != null && (getReturnCode() == null || super.isSuccess());
     }
     
     @Override
     public String toString() {
         return "StatusResponse{" +
-                "sleeping='" + sleeping + '\'' +
-                ", leftEar='" + leftEar + '\'' +
-                ", rightEar='" + rightEar + '\'' +
-                ", earMode='" + earMode + '\'' +
-                ", color='" + color + '\'' +
-                ", pulse='" + pulse + '\'' +
-                ", returnCode='" + getReturnCode() + '\'' +
+                "version='" + version + '\'' +
+                ", patch='" + patch + '\'' +
+                ", sleep='" + sleep + '\'' +
+                ", earsDisabled='" + earsDisabled + '\'' +
+                ", ledColor='" + ledColor + '\'' +
+                ", ledPulse='" + ledPulse + '\'' +
                 '}';
     }
 }
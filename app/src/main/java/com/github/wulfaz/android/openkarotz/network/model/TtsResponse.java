@@ -0,0 +1,84 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.network.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Response model for TTS API calls.
+ * <p>
+ * Answer: {"return": true, "played": true, "cache": false, "voicelanguage": "fr", "voicegender": "male",
+ * "id": "7629fdab05ffe2bc183743b02004476c"}
+ */
+public class TtsResponse extends KarotzResponse {
+    
+    @SerializedName("played")
+    private boolean played;
+    
+    @SerializedName("cache")
+    private boolean cache;
+    
+    @SerializedName("id")
+    private String id;
+    
+    // Constructors
+    public TtsResponse() {}
+    
+    // Getters
+    public boolean isPlayed() {
+        return played;
+    }
+    
+    public boolean isCache() {
+        return cache;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * TTS answers with a boolean "return" field, older versions with "0".
+     */
+    @Override
+    public boolean isSuccess() {
+        return "true".equals(getReturnCode()) || super.isSuccess();
+    }
+    
+    @Override
+    public String toString() {
+        return "TtsResponse{" +
+                "played=" + played +
+                ", cache=" + cache +
+                ", id='" + id + '\'' +
+                ", returnCode='" + getReturnCode() + '\'' +
+                ", message='" + getMessage() + '\'' +
+                '}';
+    }
+}
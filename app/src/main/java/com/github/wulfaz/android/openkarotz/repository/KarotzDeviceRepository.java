@@ -36,8 +36,11 @@ import androidx.lifecycle.LiveData;
 import com.github.wulfaz.android.openkarotz.database.AppDatabase;
 import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
 import com.github.wulfaz.android.openkarotz.database.KarotzDeviceDao;
+import com.github.wulfaz.android.openkarotz.database.RadioStationDao;
+import com.github.wulfaz.android.openkarotz.karotz.Karotz;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -49,6 +52,7 @@ public class KarotzDeviceRepository {
     private static final String LOG_TAG = "KarotzDeviceRepository";
     
     private final KarotzDeviceDao deviceDao;
+    private final RadioStationDao radioDao;
     private final ExecutorService executor;
     
     private static KarotzDeviceRepository INSTANCE;
@@ -56,6 +60,7 @@ public class KarotzDeviceRepository {
     private KarotzDeviceRepository(Context context) {
         AppDatabase database = AppDatabase.getInstance(context);
         deviceDao = database.karotzDeviceDao();
+        radioDao = database.radioStationDao();
         executor = Executors.newFixedThreadPool(4);
     }
     
@@ -121,6 +126,8 @@ public class KarotzDeviceRepository {
         executor.execute(() -> {
             try {
                 deviceDao.deleteDevice(device);
+                Karotz.getRegistry().remove(device.getId());
+                radioDao.deleteAllForDevice(device.getId());
                 Log.d(LOG_TAG, "Device deleted: " + device.getName());
             } catch (Exception e) {
                 Log.e(LOG_TAG, "Error deleting device", e);
@@ -152,6 +159,39 @@ public class KarotzDeviceRepository {
         });
     }
     
+    public void updateOnlineStatuses(Map<Long, Boolean> statuses) {
+        executor.execute(() -> {
+            try {
+                deviceDao.updateOnlineStatuses(statuses, System.currentTimeMillis());
+                Log.d(LOG_TAG, "Online status updated for " + statuses.size() + " devices");
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error updating online statuses", e);
+            }
+        });
+    }
+    
+    public void addDiscoveredDevice(String hostname, int port, String version) {
+        executor.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+                KarotzDevice device = deviceDao.findByHostnameAndPort(hostname, port);
+                if (device == null) {
+                    device = new KarotzDevice("Karotz " + hostname, hostname, port);
+                    device.setOnline(true);
+                    device.setVersion(version);
+                    device.setLastSeen(now);
+                    device.setId(deviceDao.insertDevice(device));
+                    Log.d(LOG_TAG, "Discovered device inserted with ID: " + device.getId());
+                } else {
+                    deviceDao.updateOnlineStatus(device.getId(), true, now);
+                    deviceDao.updateVersion(device.getId(), version);
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error adding discovered device", e);
+            }
+        });
+    }
+    
     public void updateVersion(long deviceId, String version) {
         executor.execute(() -> {
             try {
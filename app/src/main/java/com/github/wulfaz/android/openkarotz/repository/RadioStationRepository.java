@@ -0,0 +1,145 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+
+import com.github.wulfaz.android.openkarotz.database.AppDatabase;
+import com.github.wulfaz.android.openkarotz.database.RadioStation;
+import com.github.wulfaz.android.openkarotz.database.RadioStationDao;
+import com.github.wulfaz.android.openkarotz.database.RadioSyncState;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Repository for the radio stations of Karotz devices. Stations are read from the database and synchronized from the
+ * Karotz in the background, writing only what changed.
+ */
+public class RadioStationRepository {
+    
+    private static final String LOG_TAG = "RadioStationRepository";
+    
+    private final RadioStationDao radioDao;
+    private final ExecutorService executor;
+    private final Set<Long> syncing = ConcurrentHashMap.newKeySet();
+    
+    private static RadioStationRepository INSTANCE;
+    
+    private RadioStationRepository(Context context) {
+        radioDao = AppDatabase.getInstance(context).radioStationDao();
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    public static RadioStationRepository getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (RadioStationRepository.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RadioStationRepository(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+    
+    // LiveData methods for UI observing
+    public LiveData<List<RadioStation>> getStations(long deviceId) {
+        return radioDao.getStations(deviceId);
+    }
+    
+    public boolean isSyncing(long deviceId) {
+        return syncing.contains(deviceId);
+    }
+    
+    /**
+     * Synchronize the stations of a device from the Karotz. Nothing is written if the list did not change.
+     * @param deviceId the device
+     * @param karotz the Karotz of the device
+     * @param callback the callback, called on a background thread, or null
+     * @return false if a synchronization of the device is already running
+     */
+    public boolean sync(long deviceId, IKarotz karotz, OnSyncCallback callback) {
+        if (!syncing.add(deviceId)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                List<RadioStation> fresh = RadioStationSync.parse(deviceId, karotz.getRadiosList());
+                String hash = RadioStationSync.hash(fresh);
+                
+                RadioSyncState state = radioDao.getSyncState(deviceId);
+                RadioStationSync.Changes changes;
+                if (state != null && hash.equals(state.getHash())) {
+                    changes = RadioStationSync.Changes.NONE;
+                    Log.d(LOG_TAG, "Radios unchanged for device " + deviceId);
+                } else {
+                    changes = RadioStationSync.diff(radioDao.getStationsSync(deviceId), fresh);
+                    radioDao.applyChanges(changes.getInserts(), changes.getUpdates(), changes.getDeletes(),
+                            new RadioSyncState(deviceId, hash, System.currentTimeMillis()));
+                    Log.d(LOG_TAG, "Radios synchronized for device " + deviceId + ": " + changes);
+                }
+                syncing.remove(deviceId);
+                if (callback != null) {
+                    callback.onSynced(changes, fresh.size());
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error synchronizing radios", e);
+                syncing.remove(deviceId);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+        return true;
+    }
+    
+    public void deleteStations(long deviceId) {
+        executor.execute(() -> {
+            try {
+                radioDao.deleteAllForDevice(deviceId);
+                Log.d(LOG_TAG, "Radios deleted for device " + deviceId);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error deleting radios", e);
+            }
+        });
+    }
+    
+    // Callback interfaces
+    public interface OnSyncCallback {
+        void onSynced(RadioStationSync.Changes changes, int count);
+        void onError(Exception error);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.repository;
+
+import com.github.wulfaz.android.openkarotz.database.RadioStation;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decoding of the Karotz radio list, and changes to apply to the stored one.
+ */
+public final class RadioStationSync {
+    
+    private RadioStationSync() {
+        // Utility class
+    }
+    
+    /**
+     * Changes between the stored radio list and the one of the Karotz.
+     */
+    public static final class Changes {
+        
+        /** No changes. */
+        public static final Changes NONE = new Changes(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        
+        private final List<RadioStation> inserts;
+        private final List<RadioStation> updates;
+        private final List<RadioStation> deletes;
+        
+        Changes(List<RadioStation> inserts, List<RadioStation> updates, List<RadioStation> deletes) {
+            this.inserts = Collections.unmodifiableList(inserts);
+            this.updates = Collections.unmodifiableList(updates);
+            this.deletes = Collections.unmodifiableList(deletes);
+        }
+        
+        public List<RadioStation> getInserts() {
+            return inserts;
+        }
+        
+        public List<RadioStation> getUpdates() {
+            return updates;
+        }
+        
+        public List<RadioStation> getDeletes() {
+            return deletes;
+        }
+        
+        public boolean isEmpty() {
+            return inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+        }
+        
+        @Override
+        public String toString() {
+            return inserts.size() + " inserted, " + updates.size() + " updated, " + deletes.size() + " deleted";
+        }
+    }
+    
+    /**
+     * Decode a <code>/cgi-bin/radios_list</code> response.
+     * @param deviceId the device the list comes from
+     * @param json the response
+     * @return the stations, in Karotz order; stations listed twice are kept once
+     * @throws IOException if the Karotz reported an error or the response cannot be decoded
+     */
+    public static List<RadioStation> parse(long deviceId, String json) throws IOException {
+        try {
+            JSONObject response = new JSONObject(json);
+            if (!"0".equals(response.optString("return", "1"))) {
+                throw new IOException("Karotz could not list radios: " + response.optString("msg", "no message"));
+            }
+            
+            JSONArray streams = response.getJSONArray("streams");
+            List<RadioStation> stations = new ArrayList<>(streams.length());
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < streams.length(); i++) {
+                JSONObject stream = streams.getJSONObject(i);
+                int id = stream.getInt("id");
+                if (ids.add(id)) {
+                    stations.add(new RadioStation(deviceId, id, stream.getString("name"), stream.getString("url"),
+                            stations.size()));
+                }
+            }
+            return stations;
+        } catch (JSONException e) {
+            throw new IOException("Invalid radio list: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Compute the content hash of a radio list. Lists with the same stations, in the same order, have the same hash.
+     * @param stations the stations, in order
+     * @return the hash, in hexadecimal
+     */
+    public static String hash(List<RadioStation> stations) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (RadioStation station : stations) {
+            // Separators cannot appear in names or URLs
+            digest.update((station.getStationId() + "\u0000" + station.getName() + "\u0000" + station.getUrl() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Compute the changes turning the stored radio list into the one of the Karotz.
+     * @param stored the stored stations
+     * @param fresh the stations of the Karotz
+     * @return the changes, empty if the lists are the same
+     */
+    public static Changes diff(List<RadioStation> stored, List<RadioStation> fresh) {
+        Map<Integer, RadioStation> old = new HashMap<>();
+        for (RadioStation station : stored) {
+            old.put(station.getStationId(), station);
+        }
+        
+        List<RadioStation> inserts = new ArrayList<>();
+        List<RadioStation> updates = new ArrayList<>();
+        for (RadioStation station : fresh) {
+            RadioStation previous = old.remove(station.getStationId());
+            if (previous == null) {
+                inserts.add(station);
+            } else if (!previous.equals(station)) {
+                updates.add(station);
+            }
+        }
+        return new Changes(inserts, updates, new ArrayList<>(old.values()));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.search;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.catalog.Catalogs;
+import com.github.wulfaz.android.openkarotz.catalog.RadioCatalog;
+import com.github.wulfaz.android.openkarotz.database.RadioStation;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
+
+/**
+ * Search over the radio stations of a Karotz and the bundled radio catalog.
+ */
+public final class RadioSearch {
+
+    private RadioSearch() {
+        // Utility class
+    }
+
+    /**
+     * Listener of index builds.
+     */
+    public interface OnIndexListener {
+
+        /**
+         * Called on a background thread once the index is built.
+         *
+         * @param index the index
+         */
+        void onIndex(StationIndex<RadioStation> index);
+    }
+
+    /**
+     * Build an index in the background.
+     *
+     * @param context a context
+     * @param deviceId the Karotz device id
+     * @param stations the stations of the Karotz
+     * @param listener the listener
+     */
+    public static void buildIndexAsync(Context context, long deviceId, List<RadioStation> stations,
+            OnIndexListener listener) {
+        Context appContext = context.getApplicationContext();
+        EXECUTOR.execute(() -> {
+            long start = System.nanoTime();
+            StationIndex<RadioStation> index = buildIndex(deviceId, stations, Catalogs.getRadioCatalog(appContext));
+            Log.d(LOG_TAG, "Indexed " + index.size() + " radio stations in " + (System.nanoTime() - start) / 1000 + " us");
+            listener.onIndex(index);
+        });
+    }
+
+    /**
+     * Build an index of the stations of a Karotz, then the catalog radios it does not have.
+     * <p>
+     * Catalog radios are returned as stations of the Karotz with negative ids, <code>-1 - index</code> in the catalog,
+     * after its own stations.
+     *
+     * @param deviceId the Karotz device id
+     * @param stations the stations of the Karotz
+     * @param catalog the radio catalog, may be null
+     * @return the index
+     */
+    public static StationIndex<RadioStation> buildIndex(long deviceId, List<RadioStation> stations, RadioCatalog catalog) {
+        StationIndex.Builder<RadioStation> builder = StationIndex.builder();
+        Set<String> urls = new HashSet<String>();
+        for (RadioStation station : stations) {
+            builder.add(station, station.getName(), String.valueOf(station.getStationId()));
+            urls.add(station.getUrl());
+        }
+
+        if (catalog != null) {
+            for (int i = 0; i < catalog.getRadioCount(); i++) {
+                RadioModel radio = catalog.getRadio(i);
+                if (urls.add(radio.getUrl())) {
+                    RadioStation station = new RadioStation(deviceId, -1 - i, radio.getName(), radio.getUrl(),
+                            stations.size() + i);
+                    builder.add(station, radio.getName(), radio.getId());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final String LOG_TAG = RadioSearch.class.getSimpleName();
+}
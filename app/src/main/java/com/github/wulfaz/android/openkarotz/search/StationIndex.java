@@ -0,0 +1,600 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search index over radio stations, matching as the user types.
+ * <p>
+ * Station names and ids are split into words, without case or accents, and stored in a prefix trie. Each query word
+ * matches the words it is a prefix of, allowing typos: one edit from 3 letters, two from 6 letters, an edit being an
+ * insertion, a deletion, a substitution or a swap of two letters. A station matches if all query words do. Stations
+ * are ranked by number of typos, then by how early the first query word appears, then by name.
+ * <p>
+ * The index is immutable once built and can be searched from any thread. A {@link Session} follows the query as it
+ * is typed, and only checks the previous matches when the query grows.
+ *
+ * @param <T> the type of stations
+ */
+public final class StationIndex<T> {
+
+    /**
+     * Builder of an index.
+     *
+     * @param <T> the type of stations
+     */
+    public static final class Builder<T> {
+
+        /**
+         * Add a station.
+         *
+         * @param item the station, returned by searches
+         * @param name the station name, used for ranking
+         * @param keywords other searchable texts, such as the station id
+         * @return this builder
+         */
+        public Builder<T> add(T item, String name, String... keywords) {
+            items.add(item);
+            names.add(name == null ? "" : name);
+
+            List<String> words = tokenize(name);
+            for (String keyword : keywords) {
+                for (String word : tokenize(keyword)) {
+                    if (!words.contains(word)) {
+                        words.add(word);
+                    }
+                }
+            }
+            entryWords.add(words);
+            return this;
+        }
+
+        /**
+         * Build the index.
+         *
+         * @return the index
+         */
+        public StationIndex<T> build() {
+            return new StationIndex<T>(this);
+        }
+
+        private final List<T> items = new ArrayList<T>();
+
+        private final List<String> names = new ArrayList<String>();
+
+        private final List<List<String>> entryWords = new ArrayList<List<String>>();
+    }
+
+    /**
+     * Search following a query as it is typed. Not thread-safe.
+     */
+    public final class Session {
+
+        Session() {
+            // Use StationIndex.newSession()
+        }
+
+        /**
+         * Search for a new state of the query.
+         *
+         * @param query the query
+         * @param limit the maximum number of stations returned
+         * @return the matching stations, best first; all stations in index order if the query is empty
+         */
+        public List<T> search(String query, int limit) {
+            List<String> tokens = tokenize(query);
+            int[] candidates = narrows(tokens) ? matches.entries : null;
+            incremental = candidates != null;
+
+            matches = match(tokens, candidates);
+            lastTokens = tokens;
+            return top(tokens, matches, limit);
+        }
+
+        /**
+         * Get the number of stations matching the last query, before the limit.
+         *
+         * @return the number of matches
+         */
+        public int getMatchCount() {
+            return matches == null ? 0 : matches.entries.length;
+        }
+
+        /**
+         * Tell whether the last search only checked the matches of the previous one.
+         *
+         * @return true if the search was incremental
+         */
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        /**
+         * Tell whether the matches of a query are among the matches of the previous one: words are added, or the last
+         * word is extended without allowing more typos.
+         */
+        private boolean narrows(List<String> tokens) {
+            if (matches == null || lastTokens.isEmpty() || tokens.size() < lastTokens.size()) {
+                return false;
+            }
+            int last = lastTokens.size() - 1;
+            for (int i = 0; i < last; i++) {
+                if (!tokens.get(i).equals(lastTokens.get(i))) {
+                    return false;
+                }
+            }
+            String previous = lastTokens.get(last);
+            String current = tokens.get(last);
+            return current.startsWith(previous) && maxDistance(current.length()) == maxDistance(previous.length());
+        }
+
+        private List<String> lastTokens = Collections.emptyList();
+
+        private Matches matches;
+
+        private boolean incremental;
+    }
+
+    private StationIndex(Builder<T> builder) {
+        this.items = new ArrayList<T>(builder.items);
+
+        // Stations in name order, ties in index order
+        String[] sortKeys = new String[items.size()];
+        Integer[] order = new Integer[items.size()];
+        for (int i = 0; i < sortKeys.length; i++) {
+            sortKeys[i] = normalize(builder.names.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> sortKeys[a].compareTo(sortKeys[b]));
+        this.byName = new int[order.length];
+        this.nameRanks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            byName[rank] = order[rank];
+            nameRanks[order[rank]] = rank;
+        }
+
+        // Distinct words, and the stations having each of them
+        Map<String, Integer> wordIds = new HashMap<String, Integer>();
+        List<String> words = new ArrayList<String>();
+        List<int[]> postings = new ArrayList<int[]>();
+        int[] postingSizes = new int[16];
+        this.entryWords = new int[items.size()][];
+        for (int e = 0; e < items.size(); e++) {
+            List<String> tokens = builder.entryWords.get(e);
+            entryWords[e] = new int[tokens.size()];
+            for (int t = 0; t < tokens.size(); t++) {
+                String word = tokens.get(t);
+                Integer id = wordIds.get(word);
+                if (id == null) {
+                    id = words.size();
+                    wordIds.put(word, id);
+                    words.add(word);
+                    postings.add(new int[2]);
+                    if (id == postingSizes.length) {
+                        postingSizes = Arrays.copyOf(postingSizes, id * 2);
+                    }
+                    root.insert(word, id);
+                }
+                entryWords[e][t] = id;
+                int[] list = postings.get(id);
+                if (postingSizes[id] == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    postings.set(id, list);
+                }
+                list[postingSizes[id]++] = e;
+            }
+        }
+        this.words = words.toArray(new String[0]);
+        this.postings = new int[postings.size()][];
+        for (int w = 0; w < postings.size(); w++) {
+            this.postings[w] = Arrays.copyOf(postings.get(w), postingSizes[w]);
+        }
+    }
+
+    /**
+     * Create a builder of an index.
+     *
+     * @param <T> the type of stations
+     * @return a new builder
+     */
+    public static <T> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    /**
+     * Start a search following a query as it is typed.
+     *
+     * @return a new session
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Search stations.
+     *
+     * @param query the query
+     * @param limit the maximum number of stations returned
+     * @return the matching stations, best first; all stations in index order if the query is empty
+     */
+    public List<T> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        return top(tokens, match(tokens, null), limit);
+    }
+
+    /**
+     * Get the number of stations.
+     *
+     * @return the number of stations
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Get the number of distinct words.
+     *
+     * @return the number of words
+     */
+    public int getWordCount() {
+        return words.length;
+    }
+
+    /**
+     * Normalize a text for searching: lower case, without accents.
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Split a text into normalized words.
+     *
+     * @param text the text, may be null
+     * @return the words, in order
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Get the number of typos allowed in a query word.
+     *
+     * @param length the word length
+     * @return the maximum edit distance
+     */
+    public static int maxDistance(int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /**
+     * Get the edit distance between a query word and the closest prefix of a word, counting swaps of two adjacent
+     * letters as one edit.
+     *
+     * @param query the query word
+     * @param word the word
+     * @param max the maximum distance of interest
+     * @return the distance, or more than max if larger
+     */
+    public static int prefixDistance(String query, String word, int max) {
+        int m = query.length();
+        int[] previous2 = null;
+        int[] previous = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+        int best = previous[m];
+        for (int j = 1; j <= word.length() && best > 0; j++) {
+            int[] row = nextRow(query, previous2, previous, word.charAt(j - 1), j >= 2 ? word.charAt(j - 2) : 0);
+            best = Math.min(best, row[m]);
+            if (min(row) > max) {
+                break;
+            }
+            previous2 = previous;
+            previous = row;
+        }
+        return best;
+    }
+
+    /**
+     * Compute the next row of the edit distance matrix, for one more letter of the word.
+     */
+    static int[] nextRow(String query, int[] previous2, int[] previous, char c, char before) {
+        int m = query.length();
+        int[] row = new int[m + 1];
+        row[0] = previous[0] + 1;
+        for (int i = 1; i <= m; i++) {
+            char q = query.charAt(i - 1);
+            int cost = q == c ? 0 : 1;
+            int d = Math.min(Math.min(row[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+            if (previous2 != null && i >= 2 && q == before && query.charAt(i - 2) == c) {
+                d = Math.min(d, previous2[i - 2] + 1);
+            }
+            row[i] = d;
+        }
+        return row;
+    }
+
+    private static int min(int[] row) {
+        int min = Integer.MAX_VALUE;
+        for (int v : row) {
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    /**
+     * Find the stations matching all words of a query, among candidates or all stations.
+     *
+     * @return the matching stations
+     */
+    private Matches match(List<String> tokens, int[] candidates) {
+        int[] distances = new int[items.size()];
+        if (tokens.isEmpty()) {
+            int[] all = new int[items.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return new Matches(all, distances);
+        }
+
+        int[] current = candidates;
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            int max = maxDistance(token.length());
+            int[] best = new int[items.size()];
+            Arrays.fill(best, Integer.MAX_VALUE);
+            int count = 0;
+            int[] found;
+
+            if (current == null) {
+                // First word, from the trie
+                int[] wordDistances = new int[words.length];
+                Arrays.fill(wordDistances, Integer.MAX_VALUE);
+                root.search(token, max, wordDistances);
+                found = new int[items.size()];
+                for (int w = 0; w < words.length; w++) {
+                    if (wordDistances[w] <= max) {
+                        for (int e : postings[w]) {
+                            if (best[e] == Integer.MAX_VALUE) {
+                                found[count++] = e;
+                            }
+                            best[e] = Math.min(best[e], wordDistances[w]);
+                        }
+                    }
+                }
+            } else {
+                // Following words, or incremental search, on the stations left; stations share many words
+                int[] wordDistances = new int[words.length];
+                Arrays.fill(wordDistances, -1);
+                found = new int[current.length];
+                for (int e : current) {
+                    for (int w : entryWords[e]) {
+                        if (wordDistances[w] < 0) {
+                            wordDistances[w] = prefixDistance(token, words[w], max);
+                        }
+                        if (wordDistances[w] <= max) {
+                            best[e] = Math.min(best[e], wordDistances[w]);
+                        }
+                    }
+                    if (best[e] <= max) {
+                        found[count++] = e;
+                    }
+                }
+            }
+
+            current = Arrays.copyOf(found, count);
+            for (int e : current) {
+                distances[e] += best[e];
+            }
+        }
+        return new Matches(current, distances);
+    }
+
+    /**
+     * Rank matches.
+     */
+    private List<T> top(List<String> tokens, Matches found, int limit) {
+        int[] matches = found.entries;
+        int[] distances = found.distances;
+        if (tokens.isEmpty()) {
+            List<T> result = new ArrayList<T>();
+            for (int i = 0; i < Math.min(limit, items.size()); i++) {
+                result.add(items.get(i));
+            }
+            return result;
+        }
+
+        // Sort keys packing typos, position of the first word and name order: no object nor string comparison
+        String first = tokens.get(0);
+        long[] keys = new long[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            int e = matches[i];
+            long distance = Math.min(distances[e], 0xFF);
+            long position = Math.min(firstPosition(e, first), 0xFF);
+            keys[i] = distance << 40 | position << 32 | nameRanks[e];
+        }
+        Arrays.sort(keys);
+
+        List<T> result = new ArrayList<T>(Math.min(limit, keys.length));
+        for (int i = 0; i < Math.min(limit, keys.length); i++) {
+            result.add(items.get(byName[(int) keys[i]]));
+        }
+        return result;
+    }
+
+    /**
+     * Get the position of the first station word starting with the first query word, the number of words otherwise.
+     */
+    private int firstPosition(int entry, String token) {
+        int[] ids = entryWords[entry];
+        for (int i = 0; i < ids.length; i++) {
+            if (words[ids[i]].startsWith(token)) {
+                return i;
+            }
+        }
+        return ids.length;
+    }
+
+
+    /**
+     * Stations matching a query.
+     */
+    private static final class Matches {
+
+        Matches(int[] entries, int[] distances) {
+            this.entries = entries;
+            this.distances = distances;
+        }
+
+        /** Matching stations, in index order. */
+        final int[] entries;
+
+        /** Total number of typos, per station. */
+        final int[] distances;
+    }
+
+
+    /**
+     * Node of the word trie.
+     */
+    private static final class Node {
+
+        void insert(String word, int id) {
+            Node node = this;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.child(word.charAt(i));
+            }
+            node.word = id;
+        }
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(labels, 0, count, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            if (count == labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(2, count * 2));
+                children = Arrays.copyOf(children, labels.length);
+            }
+            System.arraycopy(labels, i, labels, i + 1, count - i);
+            System.arraycopy(children, i, children, i + 1, count - i);
+            labels[i] = c;
+            children[i] = new Node();
+            count++;
+            return children[i];
+        }
+
+        /**
+         * Find the words a query is close to a prefix of, walking the trie while the distance can stay within max.
+         */
+        void search(String query, int max, int[] distances) {
+            int[] row = new int[query.length() + 1];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = i;
+            }
+            search(query, max, null, row, (char) 0, row[query.length()], distances);
+        }
+
+        private void search(String query, int max, int[] previous, int[] row, char c, int best, int[] distances) {
+            if (word >= 0) {
+                distances[word] = Math.min(distances[word], best);
+            }
+            for (int i = 0; i < count; i++) {
+                int[] next = nextRow(query, previous, row, labels[i], c);
+                int nextBest = Math.min(best, next[query.length()]);
+                if (nextBest <= max || min(next) <= max) {
+                    children[i].search(query, max, row, next, labels[i], nextBest, distances);
+                }
+            }
+        }
+
+        private char[] labels = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private int count;
+
+        private int word = -1;
+    }
+
+
+    private final List<T> items;
+
+    /** Stations in name order. */
+    private final int[] byName;
+
+    /** Rank of each station in name order. */
+    private final int[] nameRanks;
+
+    private final String[] words;
+
+    /** Stations having each word. */
+    private final int[][] postings;
+
+    /** Words of each station, name first. */
+    private final int[][] entryWords;
+
+    private final Node root = new Node();
+}
@@ -0,0 +1,174 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.stream;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes and parses the M3U and PLS playlists radios publish instead of their stream URL.
+ */
+public final class PlaylistParser {
+
+    private PlaylistParser() {
+        // Utility class
+    }
+
+    /**
+     * Tell whether a content type is the one of a playlist.
+     *
+     * @param contentType the content type, without parameters, may be {@code null}
+     * @return {@code true} for M3U and PLS content types
+     */
+    public static boolean isPlaylistType(String contentType) {
+        return contentType != null && PLAYLIST_TYPES.contains(contentType);
+    }
+
+    /**
+     * Tell whether a URL path ends with a playlist extension.
+     *
+     * @param path the URL path, may be {@code null}
+     * @return {@code true} for {@code .m3u}, {@code .m3u8} and {@code .pls} paths
+     */
+    public static boolean isPlaylistPath(String path) {
+        if (path == null) {
+            return false;
+        }
+        String lower = path.toLowerCase(Locale.US);
+        return lower.endsWith(".m3u") || lower.endsWith(".m3u8") || lower.endsWith(".pls");
+    }
+
+    /**
+     * Tell whether the first bytes of a body are the ones of a playlist.
+     *
+     * @param head the first bytes
+     * @param length the number of bytes
+     * @return {@code true} if the body starts with an extended M3U or a PLS header
+     */
+    public static boolean startsLikePlaylist(byte[] head, int length) {
+        int start = 0;
+        // Byte order mark and blank lines
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            start = 3;
+        }
+        while (start < length && Character.isWhitespace(head[start])) {
+            start++;
+        }
+        return startsWithIgnoreCase(head, start, length, "#EXTM3U")
+                || startsWithIgnoreCase(head, start, length, "[playlist]");
+    }
+
+    /**
+     * Tell whether a playlist is an HTTP Live Streaming playlist, made of short segments rather than streams.
+     *
+     * @param body the playlist
+     * @return {@code true} for HLS playlists
+     */
+    public static boolean isLiveStreamingPlaylist(String body) {
+        return body.contains("#EXT-X-");
+    }
+
+    /**
+     * Get the entries of a playlist. PLS playlists are recognized by their header or their {@code FileN=} keys, any
+     * other playlist is read as M3U.
+     *
+     * @param body the playlist
+     * @param base the URL of the playlist, relative entries are resolved against it
+     * @return the absolute HTTP URLs of the entries, in order and without duplicates
+     */
+    public static List<String> parse(String body, URL base) {
+        String[] lines = body.split("\r\n|\r|\n");
+        boolean pls = false;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.equalsIgnoreCase("[playlist]") || PLS_FILE.matcher(trimmed).matches()) {
+                pls = true;
+                break;
+            }
+        }
+
+        Set<String> entries = new LinkedHashSet<String>();
+        for (String line : lines) {
+            String entry = line.trim();
+            if (entry.startsWith("\uFEFF")) {
+                entry = entry.substring(1);
+            }
+            if (pls) {
+                Matcher matcher = PLS_FILE.matcher(entry);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                entry = matcher.group(1).trim();
+            } else if (entry.startsWith("#")) {
+                continue;
+            }
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            try {
+                URL url = new URL(base, entry);
+                String protocol = url.getProtocol();
+                if ("http".equals(protocol) || "https".equals(protocol)) {
+                    entries.add(url.toString());
+                }
+            } catch (MalformedURLException e) {
+                // Not an URL, skip it
+            }
+        }
+        return new ArrayList<String>(entries);
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] head, int start, int length, String prefix) {
+        if (length - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) head[start + i]) != Character.toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final Pattern PLS_FILE = Pattern.compile("(?i)File\\d+\\s*=(.*)");
+
+    private static final Set<String> PLAYLIST_TYPES = new LinkedHashSet<String>(Arrays.asList(
+            "audio/x-mpegurl", "audio/mpegurl", "application/x-mpegurl", "application/vnd.apple.mpegurl",
+            "audio/x-scpls", "audio/scpls", "application/pls+xml"));
+}
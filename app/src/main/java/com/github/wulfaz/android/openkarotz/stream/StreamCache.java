@@ -0,0 +1,130 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.stream;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of stream checks, by radio URL. Playable radios are kept longer than dead ones, which are checked again
+ * sooner in case they were only down for a while.
+ */
+public final class StreamCache {
+
+    /**
+     * Initialize a new cache.
+     *
+     * @param okTtlMillis the time to live of the checks of playable radios, in milliseconds
+     * @param deadTtlMillis the time to live of the checks of dead radios, in milliseconds
+     */
+    public StreamCache(long okTtlMillis, long deadTtlMillis) {
+        this(okTtlMillis, deadTtlMillis, System::currentTimeMillis);
+    }
+
+    StreamCache(long okTtlMillis, long deadTtlMillis, LongSupplier clock) {
+        this.okTtl = okTtlMillis;
+        this.deadTtl = deadTtlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Forget all checks.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the check of a URL, if it has not expired.
+     *
+     * @param url the URL
+     * @return the check, {@code null} if unknown or expired
+     */
+    public StreamCheck get(String url) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() >= entry.expiresAt) {
+            entries.remove(url, entry);
+            return null;
+        }
+        return entry.check;
+    }
+
+    /**
+     * Forget the check of a URL, for instance when the Karotz could not play its stream.
+     *
+     * @param url the URL
+     */
+    public void invalidate(String url) {
+        entries.remove(url);
+    }
+
+    /**
+     * Add a check, replacing the previous one of the same URL.
+     *
+     * @param check the check
+     */
+    public void put(StreamCheck check) {
+        long ttl = check.isOk() ? okTtl : deadTtl;
+        entries.put(check.getUrl(), new Entry(check, clock.getAsLong() + ttl));
+    }
+
+    /**
+     * Get the number of checks, including expired ones not dropped yet.
+     *
+     * @return the number of checks
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+
+        Entry(StreamCheck check, long expiresAt) {
+            this.check = check;
+            this.expiresAt = expiresAt;
+        }
+
+        final StreamCheck check;
+
+        final long expiresAt;
+    }
+
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final long okTtl;
+
+    private final long deadTtl;
+
+    private final LongSupplier clock;
+}
@@ -0,0 +1,140 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.stream;
+
+/**
+ * Result of the check of a radio URL: either the direct URL of a playable audio stream, or the reason why the radio
+ * cannot be played.
+ */
+public final class StreamCheck {
+
+    private StreamCheck(String url, String streamUrl, String contentType, String error, long elapsedMillis) {
+        this.url = url;
+        this.streamUrl = streamUrl;
+        this.contentType = contentType;
+        this.error = error;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Create the result of a playable radio.
+     *
+     * @param url the checked URL
+     * @param streamUrl the direct URL of the audio stream, after redirects and playlists
+     * @param contentType the content type of the stream, may be {@code null}
+     * @param elapsedMillis the duration of the check, in milliseconds
+     * @return the result
+     */
+    public static StreamCheck ok(String url, String streamUrl, String contentType, long elapsedMillis) {
+        return new StreamCheck(url, streamUrl, contentType, null, elapsedMillis);
+    }
+
+    /**
+     * Create the result of a radio that cannot be played.
+     *
+     * @param url the checked URL
+     * @param error the reason
+     * @param elapsedMillis the duration of the check, in milliseconds
+     * @return the result
+     */
+    public static StreamCheck dead(String url, String error, long elapsedMillis) {
+        return new StreamCheck(url, null, null, error == null ? "Unknown error" : error, elapsedMillis);
+    }
+
+    /**
+     * Get the content type of the stream.
+     *
+     * @return the content type, {@code null} if unknown or if the radio cannot be played
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the duration of the check.
+     *
+     * @return the duration, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Get the reason why the radio cannot be played.
+     *
+     * @return the reason, {@code null} if the radio can be played
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Get the direct URL of the audio stream.
+     *
+     * @return the stream URL, {@code null} if the radio cannot be played
+     */
+    public String getStreamUrl() {
+        return streamUrl;
+    }
+
+    /**
+     * Get the checked URL.
+     *
+     * @return the URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Tell whether the radio can be played.
+     *
+     * @return {@code true} if the URL leads to an audio stream
+     */
+    public boolean isOk() {
+        return streamUrl != null;
+    }
+
+    @Override
+    public String toString() {
+        return url + (isOk() ? " -> " + streamUrl + " (" + contentType + ")" : " dead: " + error) + ", "
+                + elapsedMillis + " ms";
+    }
+
+
+    private final String url;
+
+    private final String streamUrl;
+
+    private final String contentType;
+
+    private final String error;
+
+    private final long elapsedMillis;
+}
@@ -0,0 +1,274 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks that a radio URL leads to an audio stream, and finds the direct URL of the stream.
+ * <p>
+ * Redirects are followed, including from HTTP to HTTPS, and M3U or PLS playlists are replaced by the first of their
+ * entries that is a stream. Only the first bytes of a stream are read, to recognize audio from its content type,
+ * its Icecast/Shoutcast headers or its magic number: web pages, errors and dead hosts are rejected.
+ * <p>
+ * A probe has no state, it can check several URLs at the same time.
+ */
+public class StreamProbe {
+
+    /**
+     * Initialize a new probe with the default timeouts.
+     */
+    public StreamProbe() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Initialize a new probe.
+     *
+     * @param connectTimeoutMillis the connect timeout, in milliseconds
+     * @param readTimeoutMillis the read timeout, in milliseconds
+     */
+    public StreamProbe(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeout = connectTimeoutMillis;
+        this.readTimeout = readTimeoutMillis;
+    }
+
+    /**
+     * Check a radio URL.
+     *
+     * @param url the URL
+     * @return the result, never {@code null}: failures are reported as dead radios
+     */
+    public StreamCheck probe(String url) {
+        long start = System.nanoTime();
+        try {
+            String[] stream = resolve(new URL(url), 0);
+            return StreamCheck.ok(url, stream[0], stream[1], elapsedMillis(start));
+        } catch (IOException e) {
+            return StreamCheck.dead(url, e.getClass().getSimpleName() + ": " + e.getMessage(), elapsedMillis(start));
+        } catch (RuntimeException e) {
+            // Malformed answers of broken servers
+            return StreamCheck.dead(url, e.toString(), elapsedMillis(start));
+        }
+    }
+
+    /**
+     * Open a connection. Can be overridden to set more request properties.
+     *
+     * @param url the URL
+     * @return the connection, not connected yet
+     * @throws IOException if the connection cannot be opened
+     */
+    protected HttpURLConnection open(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new MalformedURLException("Not an HTTP URL: " + url);
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        http.setConnectTimeout(connectTimeout);
+        http.setReadTimeout(readTimeout);
+        http.setInstanceFollowRedirects(false);
+        http.setUseCaches(false);
+        http.setRequestProperty("User-Agent", USER_AGENT);
+        // No metadata interleaved with the audio
+        http.setRequestProperty("Icy-MetaData", "0");
+        return http;
+    }
+
+    /**
+     * Resolve a URL to the direct URL of an audio stream.
+     *
+     * @return the stream URL and its content type
+     */
+    private String[] resolve(URL url, int depth) throws IOException {
+        String playlist = null;
+        URL current = url;
+        for (int redirects = 0; playlist == null; redirects++) {
+            HttpURLConnection connection = open(current);
+            try {
+                int code = connection.getResponseCode();
+                if (code >= 300 && code < 400 && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    String location = connection.getHeaderField("Location");
+                    if (location == null) {
+                        throw new IOException("Redirect without location: HTTP " + code);
+                    }
+                    if (redirects >= MAX_REDIRECTS) {
+                        throw new IOException("Too many redirects");
+                    }
+                    current = new URL(current, location);
+                    continue;
+                }
+                if (code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + code);
+                }
+
+                String type = mediaType(connection.getContentType());
+                InputStream in = connection.getInputStream();
+                byte[] head = new byte[PLAYLIST_MAX_BYTES];
+                int length = readAtLeast(in, head, 0, SNIFF_BYTES);
+
+                boolean playlistHead = PlaylistParser.isPlaylistType(type)
+                        || PlaylistParser.startsLikePlaylist(head, length);
+                if (!playlistHead && isAudio(type, connection, head, length)) {
+                    return new String[] { current.toString(), type };
+                }
+                // Plain M3U playlists are only known by their extension, often served as text
+                if (!playlistHead && !PlaylistParser.isPlaylistPath(current.getPath())) {
+                    throw new IOException("Not an audio stream: " + type);
+                }
+
+                length = readAtLeast(in, head, length, head.length);
+                if (length == head.length) {
+                    throw new IOException("Playlist too large");
+                }
+                playlist = new String(head, 0, length, StandardCharsets.UTF_8);
+            } finally {
+                // Closes the socket, a live stream never ends
+                connection.disconnect();
+            }
+        }
+
+        if (PlaylistParser.isLiveStreamingPlaylist(playlist)) {
+            throw new IOException("HTTP live streaming is not supported");
+        }
+        if (depth >= MAX_PLAYLIST_DEPTH) {
+            throw new IOException("Too many nested playlists");
+        }
+        List<String> entries = PlaylistParser.parse(playlist, current);
+        if (entries.isEmpty()) {
+            throw new IOException("Empty playlist");
+        }
+
+        // Radios list mirrors in their playlists, the first one that plays wins
+        IOException error = null;
+        for (String entry : entries.subList(0, Math.min(entries.size(), MAX_PLAYLIST_ENTRIES))) {
+            try {
+                return resolve(new URL(entry), depth + 1);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    private static boolean isAudio(String type, HttpURLConnection connection, byte[] head, int length) {
+        if (type != null && (type.startsWith("audio/") || type.equals("application/ogg"))) {
+            return true;
+        }
+        if (connection.getHeaderField("icy-name") != null || connection.getHeaderField("icy-br") != null) {
+            return true;
+        }
+        if (type != null && type.startsWith("text/")) {
+            return false;
+        }
+        // Servers sending streams as application/octet-stream, or without content type
+        return startsLikeAudio(head, length);
+    }
+
+    /**
+     * Tell whether bytes start like an audio file: ID3 tag, MPEG or AAC frame, Ogg, FLAC or WAV.
+     */
+    static boolean startsLikeAudio(byte[] head, int length) {
+        if (length < 4) {
+            return false;
+        }
+        if (head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            return true;
+        }
+        if ((head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0) {
+            return true;
+        }
+        String magic = new String(head, 0, 4, StandardCharsets.ISO_8859_1);
+        return magic.equals("OggS") || magic.equals("fLaC") || magic.equals("RIFF");
+    }
+
+    /**
+     * Get the media type of a content type, without its parameters.
+     */
+    static String mediaType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+        return type.isEmpty() ? null : type.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Read until a minimum length or the end of the stream.
+     *
+     * @return the number of bytes in the buffer
+     */
+    private static int readAtLeast(InputStream in, byte[] buffer, int offset, int min) throws IOException {
+        int length = offset;
+        while (length < min) {
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
+
+    private final int connectTimeout;
+
+    private final int readTimeout;
+
+    /** Default connect timeout, in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+
+    /** Default read timeout, in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT = 4000;
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final int MAX_PLAYLIST_DEPTH = 3;
+
+    private static final int MAX_PLAYLIST_ENTRIES = 4;
+
+    private static final int PLAYLIST_MAX_BYTES = 64 * 1024;
+
+    private static final int SNIFF_BYTES = 16;
+
+    private static final String USER_AGENT = "OpenKarotz-Android";
+}
@@ -0,0 +1,241 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.stream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Checks radio URLs in the background, so that only direct URLs of live streams are sent to the Karotz.
+ * <p>
+ * Checks mostly wait for slow or dead hosts, so many of them run at the same time. A URL is never checked twice at
+ * the same time: callers asking for a URL already being checked share the same result, and results are cached for a
+ * while. Radios are usually all checked in the background when their list is shown, so that playing one of them only
+ * reads the cache.
+ */
+public final class StreamValidator {
+
+    /**
+     * Listener of checks.
+     */
+    public interface OnCheckListener {
+
+        /**
+         * Called on a background thread when a URL has been checked.
+         *
+         * @param check the result
+         */
+        void onChecked(StreamCheck check);
+    }
+
+    /**
+     * Get the validator of the application.
+     *
+     * @return the validator
+     */
+    public static synchronized StreamValidator getInstance() {
+        if (instance == null) {
+            instance = new StreamValidator(new StreamProbe(), new StreamCache(OK_TTL_MILLIS, DEAD_TTL_MILLIS),
+                    THREADS);
+        }
+        return instance;
+    }
+
+    StreamValidator(StreamProbe probe, StreamCache cache, int threads) {
+        this.probe = probe;
+        this.cache = cache;
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread thread = new Thread(r, "Stream checker #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Check a URL, from the cache if possible.
+     *
+     * @param url the URL
+     * @return the future result
+     */
+    public CompletableFuture<StreamCheck> check(String url) {
+        StreamCheck cached = cache.get(url);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<StreamCheck> created = new CompletableFuture<StreamCheck>();
+        CompletableFuture<StreamCheck> flight = inFlight.putIfAbsent(url, created);
+        if (flight != null) {
+            return flight;
+        }
+
+        // Checked again, in case another thread finished between the cache and the flight lookups
+        cached = cache.get(url);
+        if (cached != null) {
+            inFlight.remove(url, created);
+            created.complete(cached);
+            return created;
+        }
+
+        probeCount.incrementAndGet();
+        executor.execute(() -> {
+            StreamCheck check = probe.probe(url);
+            cache.put(check);
+            inFlight.remove(url, created);
+            if (!check.isOk()) {
+                Log.i(LOG_TAG, "Radio unavailable: " + check);
+            }
+            created.complete(check);
+        });
+        return created;
+    }
+
+    /**
+     * Get the cached check of a URL, without checking it.
+     *
+     * @param url the URL
+     * @return the check, {@code null} if not checked yet or expired
+     */
+    public StreamCheck getCached(String url) {
+        return cache.get(url);
+    }
+
+    /**
+     * Get the number of probes started, not counting the checks served from the cache or shared with a probe in
+     * flight.
+     *
+     * @return the number of probes
+     */
+    public int getProbeCount() {
+        return probeCount.get();
+    }
+
+    /**
+     * Forget the check of a URL, so that it is checked again next time.
+     *
+     * @param url the URL
+     */
+    public void invalidate(String url) {
+        cache.invalidate(url);
+    }
+
+    /**
+     * Get the direct URL of the stream of a radio, waiting for its check if needed.
+     *
+     * @param url the URL of the radio
+     * @return the direct stream URL
+     * @throws IOException if the radio cannot be played, or the thread was interrupted
+     */
+    public String resolve(String url) throws IOException {
+        StreamCheck check;
+        try {
+            check = check(url).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while checking " + url);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot check " + url, e.getCause());
+        }
+        if (!check.isOk()) {
+            throw new IOException("Radio unavailable: " + url + " (" + check.getError() + ")");
+        }
+        return check.getStreamUrl();
+    }
+
+    /**
+     * Check URLs in the background. Duplicates are checked once.
+     *
+     * @param urls the URLs
+     * @param listener the listener called for each URL, may be {@code null}
+     * @return the future results, in the order of the distinct URLs
+     */
+    public CompletableFuture<List<StreamCheck>> validateAll(Collection<String> urls, OnCheckListener listener) {
+        List<CompletableFuture<StreamCheck>> checks = new ArrayList<CompletableFuture<StreamCheck>>();
+        for (String url : new LinkedHashSet<String>(urls)) {
+            CompletableFuture<StreamCheck> check = check(url);
+            if (listener != null) {
+                check.thenAccept(listener::onChecked);
+            }
+            checks.add(check);
+        }
+
+        return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[checks.size()])).thenApply(done -> {
+            List<StreamCheck> results = new ArrayList<StreamCheck>(checks.size());
+            for (CompletableFuture<StreamCheck> check : checks) {
+                results.add(check.join());
+            }
+            return results;
+        });
+    }
+
+
+    private final StreamProbe probe;
+
+    private final StreamCache cache;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, CompletableFuture<StreamCheck>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<StreamCheck>>();
+
+    private final AtomicInteger probeCount = new AtomicInteger();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private static StreamValidator instance = null;
+
+    /** Time to live of the checks of playable radios: streams rarely move. */
+    private static final long OK_TTL_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /** Time to live of the checks of dead radios, which may only be down for a while. */
+    private static final long DEAD_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Number of URLs checked at the same time, mostly waiting for the network. */
+    private static final int THREADS = 16;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final String LOG_TAG = StreamValidator.class.getSimpleName();
+}
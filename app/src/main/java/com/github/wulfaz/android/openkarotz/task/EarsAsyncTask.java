@@ -54,6 +54,14 @@ public class EarsAsyncTask extends KarotzAsyncTask {
         this.right = right;
     }
 
+    /**
+     * Only the latest ear positions waiting to be sent are kept.
+     */
+    @Override
+    protected String getCoalescingKey() {
+        return COALESCING_KEY;
+    }
+
     /**
      * This tasks returns the ear positions.
      */
@@ -72,6 +80,9 @@ public class EarsAsyncTask extends KarotzAsyncTask {
     private final EarPosition left;
     private final EarPosition right;
 
+    /** Key of the tasks changing the ear positions. */
+    public static final String COALESCING_KEY = "ears";
+
     // Log tag
     private static final String LOG_TAG = EarsAsyncTask.class.getSimpleName();
 }
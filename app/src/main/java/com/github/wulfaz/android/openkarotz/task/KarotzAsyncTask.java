@@ -29,21 +29,27 @@
 package com.github.wulfaz.android.openkarotz.task;
 
 import android.app.Activity;
-import android.app.ProgressDialog;
-import android.content.DialogInterface;
-import android.os.AsyncTask;
 import android.util.Log;
+import android.view.View;
+
+import androidx.lifecycle.LifecycleOwner;
 
 import com.github.wulfaz.android.openkarotz.R;
+import com.github.wulfaz.android.openkarotz.command.CommandExecutor;
+import com.github.wulfaz.android.openkarotz.karotz.Karotz;
 
 /**
- * This {@link AsyncTask asynchronous task} is equipped with a {@link ProgressDialog progress dialog} during
- * communication with the Karotz. It is triggered on pre-execution step and dismissed on post-execution step.
- * <p>Developers can override {@link #onPreExecute()} and {@link #onPostExecute(Object)} to add custom code
- * during those steps.
- * <p>Developers can override {@link #onDialogCancelled()} to handle cancellation of progress dialog.
+ * This task sends a command to the Karotz in the background, on the {@link CommandExecutor executor} of the
+ * current Karotz. Commands do not wait for each other, unlike the serial executor of <code>AsyncTask</code>.
+ * <p>Tasks setting an absolute target can declare a {@link #getCoalescingKey() coalescing key}: a task still
+ * waiting to be sent is then replaced by a newer task with the same key, and is {@link #onCancelled() cancelled}.
+ * <p>A non-modal progress bar is shown in the calling activity while commands are running.
+ * <p>The result is delivered to {@link #onPostExecute(Object)} once the activity is started. The task is cancelled
+ * when the activity is destroyed, and it does not reference the activity any more once it is over.
+ * <p>Developers can override {@link #onPreExecute()}, {@link #onPostExecute(Object)} and {@link #onCancelled()} to
+ * add custom code during those steps.
  */
-public abstract class KarotzAsyncTask extends AsyncTask<Object, Object, Object> {
+public abstract class KarotzAsyncTask {
 
     /**
      * Initialize a new task.
@@ -55,58 +61,142 @@ public abstract class KarotzAsyncTask extends AsyncTask<Object, Object, Object>
     }
 
     /**
-     * Get this task's calling activity.
+     * Send the command.
      *
-     * @return the activity
+     * @param params the parameters given to {@link #doInBackground(Object...)}
+     * @return this task
      */
-    public Activity getActivity() {
-        return activity;
+    public final KarotzAsyncTask execute(final Object... params) {
+        if (handle != null) {
+            throw new IllegalStateException("Task already executed");
+        }
+
+        onPreExecute();
+        showProgress(activity, 1);
+
+        LifecycleOwner owner = activity instanceof LifecycleOwner ? (LifecycleOwner) activity : null;
+        CommandExecutor.Callback<Object> callback = new CommandExecutor.Callback<Object>() {
+
+            @Override
+            public void onResult(Object result) {
+                showProgress(activity, -1);
+                onPostExecute(result);
+                activity = null;
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(LOG_TAG, "Command failed: " + e.getMessage(), e);
+                onResult(null);
+            }
+
+            @Override
+            public void onCancelled() {
+                showProgress(activity, -1);
+                KarotzAsyncTask.this.onCancelled();
+                activity = null;
+            }
+        };
+
+        CommandExecutor executor = CommandExecutor.forDevice(Karotz.getAddress());
+        String key = getCoalescingKey();
+        if (key != null) {
+            handle = executor.submitLatest(key, owner, () -> doInBackground(params), callback);
+        } else {
+            handle = executor.submit(owner, () -> doInBackground(params), callback);
+        }
+        return this;
     }
 
     /**
-     * Runs on the UI thread when progress dialog is cancelled.
+     * Cancel this task. A running command is interrupted and its connection closed.
+     *
+     * @param mayInterruptIfRunning ignored, a running command is always interrupted
+     * @return <code>false</code> if the task was already over
      */
-    protected void onDialogCancelled() {
-        // Empty implementation
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        return handle != null && handle.cancel();
     }
 
-    @Override
-    protected void onPostExecute(Object result) {
-        pd.dismiss();
-        Log.v(LOG_TAG, "Progress dialog dismissed");
+    /**
+     * Check if this task was cancelled.
+     *
+     * @return <code>true</code> if cancelled
+     */
+    public final boolean isCancelled() {
+        return handle != null && handle.isCancelled();
     }
 
-    @Override
-    protected void onPreExecute() {
-        Log.v(LOG_TAG, "Showing progress dialog...");
+    /**
+     * Get this task's calling activity.
+     *
+     * @return the activity, <code>null</code> once the task is over
+     */
+    public Activity getActivity() {
+        return activity;
+    }
 
-        // pd = ProgressDialog.show(activity, activity.getString(R.string.progress_karotz_title),
-        // activity.getString(R.string.progress_karotz_description));
-        pd = new ProgressDialog(activity);
-        pd.setTitle(activity.getString(R.string.progress_karotz_title));
-        pd.setMessage(activity.getString(R.string.progress_karotz_description));
-        pd.setCancelable(true);
+    /**
+     * Get the key of commands this task replaces while they are waiting to be sent.
+     *
+     * @return the key, or <code>null</code> if every task must be sent
+     */
+    protected String getCoalescingKey() {
+        return null;
+    }
 
-        pd.setOnCancelListener(new DialogInterface.OnCancelListener() {
+    /**
+     * Runs on a worker thread to send the command.
+     *
+     * @param params the parameters given to {@link #execute(Object...)}
+     * @return the result given to {@link #onPostExecute(Object)}
+     */
+    protected abstract Object doInBackground(Object... params);
 
-            @Override
-            public void onCancel(DialogInterface dialog) {
-                pd.dismiss();
-                Log.v(LOG_TAG, "Progress dialog dismissed by user");
+    /**
+     * Runs on the UI thread when the task is cancelled, instead of {@link #onPostExecute(Object)}.
+     */
+    protected void onCancelled() {
+        Log.d(LOG_TAG, "Task cancelled");
+    }
 
-                KarotzAsyncTask.this.cancel(true);
-                Log.d(LOG_TAG, "Task cancelled by user");
+    /**
+     * Runs on the UI thread with the command result.
+     *
+     * @param result the result of {@link #doInBackground(Object...)}
+     */
+    protected void onPostExecute(Object result) {
+        // Empty implementation
+    }
 
-                onDialogCancelled();
-            }
-        });
+    /**
+     * Runs on the UI thread before the command is sent.
+     */
+    protected void onPreExecute() {
+        // Empty implementation
+    }
 
-        pd.show();
+    /**
+     * Update the count of running commands of an activity and the visibility of its progress bar.
+     */
+    private static void showProgress(Activity activity, int delta) {
+        if (activity == null) {
+            return;
+        }
+        View progress = activity.findViewById(R.id.progressCommand);
+        if (progress == null) {
+            return;
+        }
+        Object tag = progress.getTag(R.id.progressCommand);
+        int running = Math.max(0, (tag instanceof Integer ? (Integer) tag : 0) + delta);
+        progress.setTag(R.id.progressCommand, running);
+        progress.setVisibility(running > 0 ? View.VISIBLE : View.GONE);
     }
 
 
-    private final Activity activity;
-    private ProgressDialog pd = null;
+    private Activity activity;
+
+    private CommandExecutor.Handle handle = null;
 
     // Log tag
     private static final String LOG_TAG = KarotzAsyncTask.class.getSimpleName();
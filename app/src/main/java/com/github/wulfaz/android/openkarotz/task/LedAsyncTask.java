@@ -53,6 +53,14 @@ public class LedAsyncTask extends KarotzAsyncTask {
         this.pulse = pulse;
     }
 
+    /**
+     * Only the latest LED color waiting to be sent is kept.
+     */
+    @Override
+    protected String getCoalescingKey() {
+        return COALESCING_KEY;
+    }
+
     /**
      * This tasks returns the color code as an {@code Integer} or {@code null} if the Karotz cannot be contacted.
      */
@@ -72,6 +80,9 @@ public class LedAsyncTask extends KarotzAsyncTask {
     private int color = 0;
     private boolean pulse = true;
 
+    /** Key of the tasks changing the LED color. */
+    public static final String COALESCING_KEY = "leds";
+
     // Log tag
     private static final String LOG_TAG = LedAsyncTask.class.getSimpleName();
 }
@@ -34,9 +34,11 @@ import android.app.Activity;
 import android.util.Log;
 
 import com.github.wulfaz.android.openkarotz.karotz.Karotz;
+import com.github.wulfaz.android.openkarotz.stream.StreamValidator;
 
 /**
- * Task to make Karotz play a sound URL in the background.
+ * Task to make Karotz play a sound URL in the background. Playlists are resolved to their stream first, and dead
+ * streams are not sent to the Karotz.
  */
 public class SoundAsyncTask extends KarotzAsyncTask {
 
@@ -58,7 +60,8 @@ public class SoundAsyncTask extends KarotzAsyncTask {
     protected Boolean doInBackground(Object... params) {
 
         try {
-            return Boolean.valueOf(Karotz.getInstance().sound(sound));
+            String stream = StreamValidator.getInstance().resolve(sound);
+            return Boolean.valueOf(Karotz.getInstance().sound(stream));
         } catch (IOException e) {
             Log.e(LOG_TAG, "Cannot make Karotz play a sound: " + e.getMessage(), e);
             return Boolean.FALSE;
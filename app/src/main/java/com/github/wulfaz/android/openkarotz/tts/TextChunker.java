@@ -0,0 +1,138 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.tts;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.github.wulfaz.android.openkarotz.karotz.TtsCache;
+
+/**
+ * Splits a long text into chunks the Karotz can speak in one TTS request.
+ * <p>
+ * Whole sentences are packed together as long as they fit, so that a bulletin needs as few requests, and as few
+ * pauses between them, as possible. A sentence too long for a chunk is split after a comma, semicolon or colon, else
+ * between words; only a word longer than a chunk is cut. Chunks are {@link TtsCache#normalize(String) normalized}, so
+ * that the same text is always split into the same chunks, which the Karotz then replays from its cache.
+ */
+public final class TextChunker {
+
+    private TextChunker() {
+        // Utility class
+    }
+
+    /**
+     * Split a text into chunks.
+     *
+     * @param text the text
+     * @param maxLength the maximum length of a chunk
+     * @return the chunks, empty if the text is blank
+     */
+    public static List<String> split(String text, int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("Invalid chunk length: " + maxLength);
+        }
+
+        List<String> chunks = new ArrayList<String>();
+        String normalized = TtsCache.normalize(text);
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+        sentences.setText(normalized);
+
+        StringBuilder chunk = new StringBuilder();
+        int start = sentences.first();
+        for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+            String sentence = normalized.substring(start, end).trim();
+            if (sentence.isEmpty()) {
+                continue;
+            }
+            if (chunk.length() > 0 && chunk.length() + 1 + sentence.length() <= maxLength) {
+                chunk.append(' ').append(sentence);
+                continue;
+            }
+
+            flush(chunk, chunks);
+            if (sentence.length() <= maxLength) {
+                chunk.append(sentence);
+            } else {
+                splitSentence(sentence, maxLength, chunks);
+            }
+        }
+        flush(chunk, chunks);
+        return chunks;
+    }
+
+    private static void flush(StringBuilder chunk, List<String> chunks) {
+        if (chunk.length() > 0) {
+            chunks.add(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+
+    private static void splitSentence(String sentence, int maxLength, List<String> chunks) {
+        int start = 0;
+        while (sentence.length() - start > maxLength) {
+            int limit = start + maxLength;
+            int cut = clauseEnd(sentence, start + maxLength / 2, limit);
+            if (cut < 0) {
+                int space = sentence.lastIndexOf(' ', limit);
+                cut = space > start ? space : limit;
+            }
+            chunks.add(sentence.substring(start, cut).trim());
+
+            start = cut;
+            while (start < sentence.length() && sentence.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        if (start < sentence.length()) {
+            chunks.add(sentence.substring(start));
+        }
+    }
+
+    /**
+     * Find the end of the last clause ending between two positions.
+     *
+     * @return the position after the punctuation, or {@code -1} if none
+     */
+    private static int clauseEnd(String sentence, int from, int limit) {
+        for (int i = limit - 1; i >= from; i--) {
+            char c = sentence.charAt(i);
+            if ((c == ',' || c == ';' || c == ':') && (i + 1 == sentence.length() || sentence.charAt(i + 1) == ' ')) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+
+    /** Longest text the Karotz speaks in one request. */
+    public static final int MAX_LENGTH = 200;
+}
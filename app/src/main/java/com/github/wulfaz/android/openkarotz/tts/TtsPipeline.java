@@ -0,0 +1,233 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.tts;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.SoundControlCommand;
+import com.github.wulfaz.android.openkarotz.karotz.TtsCache;
+
+/**
+ * Speaks a text of any length as a sequence of TTS requests, one per {@link TextChunker chunk}.
+ * <p>
+ * The Karotz answers a TTS request when it starts playing the phrase, and a new request interrupts the phrase
+ * playing. Each chunk is therefore sent when the previous one is about to end: its playing time is estimated from its
+ * length and the speech rate, and the chunk is sent ahead by the time the Karotz takes to answer, measured by the
+ * {@link TtsCache} of the Karotz, short when the chunk is replayed from the cache and long when it must be
+ * synthesized. The shortest answer time is taken: a chunk sent too late leaves a short pause, but a chunk sent too
+ * early cuts the end of the previous one. Chunks thus follow each other with a minimal gap.
+ * <p>
+ * {@link #speak(String, String, Listener)} blocks until the last chunk is over, and is meant to run on a worker
+ * thread. {@link #cancel()} can be called from any thread: no more chunks are sent, and the chunk playing is stopped
+ * with {@link IKarotz#soundControl(SoundControlCommand)}. A pipeline speaks one text.
+ */
+public final class TtsPipeline {
+
+    /**
+     * Listener of the chunks being played.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the speaking thread when a chunk starts playing.
+         *
+         * @param index the index of the chunk
+         * @param count the number of chunks
+         * @param chunk the text of the chunk
+         */
+        void onChunkStarted(int index, int count, String chunk);
+    }
+
+    /**
+     * Initialize a new pipeline.
+     *
+     * @param karotz the Karotz speaking
+     */
+    public TtsPipeline(IKarotz karotz) {
+        this.karotz = karotz;
+    }
+
+    /**
+     * Stop speaking. Can be called from any thread.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Estimate the playing time of a chunk.
+     *
+     * @param chunk the chunk
+     * @return the playing time, in milliseconds
+     */
+    public long estimateMillis(String chunk) {
+        return Math.round(chunk.length() * millisPerChar);
+    }
+
+    /**
+     * Tell whether the pipeline was cancelled.
+     *
+     * @return {@code true} if {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Set the pause left between two chunks, a margin for the error of the estimated playing time.
+     *
+     * @param millis the pause, in milliseconds
+     */
+    public void setGapMillis(long millis) {
+        gapMillis = millis;
+    }
+
+    /**
+     * Set the maximum length of a chunk.
+     *
+     * @param length the length, at most {@link TextChunker#MAX_LENGTH} for a Karotz
+     */
+    public void setMaxChunkLength(int length) {
+        maxChunkLength = length;
+    }
+
+    /**
+     * Set the speech rate used to estimate the playing time of a chunk.
+     *
+     * @param millis the playing time of a character, in milliseconds
+     */
+    public void setMillisPerChar(double millis) {
+        millisPerChar = millis;
+    }
+
+    /**
+     * Speak a text, blocking until the last chunk is over or the pipeline is cancelled.
+     *
+     * @param voiceId the voice ID
+     * @param text the text
+     * @param listener the listener of the chunks, may be {@code null}
+     * @return {@code true} if all chunks were played, {@code false} if cancelled
+     * @throws IOException if a chunk cannot be sent
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public boolean speak(String voiceId, String text, Listener listener) throws IOException, InterruptedException {
+        List<String> chunks = TextChunker.split(text, maxChunkLength);
+        Log.d(LOG_TAG, "Speaking " + chunks.size() + " chunks");
+
+        TtsCache cache = karotz.getTtsCache();
+        long endNanos = System.nanoTime();
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                String chunk = chunks.get(i);
+
+                // Send ahead of the end of the previous chunk by the expected answer time
+                TtsCache.Stats stats = cache.getStats();
+                double leadMillis = cache.prepare(voiceId, chunk).isIndexed() ? stats.getMinHitLatencyMillis()
+                        : stats.getMinMissLatencyMillis();
+                long sendNanos = endNanos + TimeUnit.MILLISECONDS.toNanos(gapMillis) - (long) (leadMillis * 1e6);
+                if (!awaitUntil(sendNanos)) {
+                    stop();
+                    return false;
+                }
+
+                if (!karotz.tts(voiceId, chunk)) {
+                    throw new IOException("Cannot speak chunk " + (i + 1) + " of " + chunks.size());
+                }
+                long startNanos = System.nanoTime();
+                endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(estimateMillis(chunk));
+                if (listener != null) {
+                    listener.onChunkStarted(i, chunks.size(), chunk);
+                }
+            }
+
+            if (!awaitUntil(endNanos)) {
+                stop();
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until a time, or until cancelled.
+     *
+     * @return {@code false} if cancelled
+     */
+    private boolean awaitUntil(long deadlineNanos) throws InterruptedException {
+        synchronized (lock) {
+            long remaining;
+            while (!cancelled && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return !cancelled;
+        }
+    }
+
+    private void stop() {
+        try {
+            karotz.soundControl(SoundControlCommand.STOP);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Cannot stop speaking: " + e.getMessage(), e);
+        }
+    }
+
+
+    private final IKarotz karotz;
+
+    private final Object lock = new Object();
+
+    private boolean cancelled;
+
+    private volatile int maxChunkLength = TextChunker.MAX_LENGTH;
+
+    private volatile double millisPerChar = DEFAULT_MILLIS_PER_CHAR;
+
+    private volatile long gapMillis = DEFAULT_GAP_MILLIS;
+
+    /** Playing time of a character at the speech rate of the Karotz voices, about 15 characters per second. */
+    public static final double DEFAULT_MILLIS_PER_CHAR = 65;
+
+    /** Default pause between two chunks, in milliseconds. */
+    public static final long DEFAULT_GAP_MILLIS = 50;
+
+    private static final String LOG_TAG = TtsPipeline.class.getSimpleName();
+}
@@ -28,6 +28,7 @@
 
 package com.github.wulfaz.android.openkarotz.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -77,7 +78,8 @@ public class AssetUtils {
     }
 
     /**
-     * Load a JSON resource from the asset filename.
+     * Load a JSON resource from the asset filename. Prefer the compiled catalogs of
+     * {@link com.github.wulfaz.android.openkarotz.catalog.Catalogs} for radios and colors.
      * @param context the context
      * @param filename the name of the JSON object
      * @return the JSON object
@@ -89,11 +91,15 @@ public class AssetUtils {
         try {
             is = context.getAssets().open(filename);
 
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
+            // available() is only an estimate, read until the end
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
 
-            String content = new String(buffer, StandardCharsets.UTF_8);
+            String content = new String(out.toByteArray(), StandardCharsets.UTF_8);
             json = new JSONObject(content);
 
         } catch (IOException e) {
@@ -116,5 +122,7 @@ public class AssetUtils {
     }
 
 
+    private static final int BUFFER_SIZE = 8192;
+
     private static final String LOG_TAG = AssetUtils.class.getSimpleName();
 }
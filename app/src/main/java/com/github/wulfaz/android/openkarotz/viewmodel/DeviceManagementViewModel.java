@@ -29,15 +29,27 @@
 package com.github.wulfaz.android.openkarotz.viewmodel;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
 import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.github.wulfaz.android.openkarotz.discovery.ProbeScheduler;
+import com.github.wulfaz.android.openkarotz.discovery.Subnet;
+import com.github.wulfaz.android.openkarotz.discovery.SubnetScanner;
 import com.github.wulfaz.android.openkarotz.repository.KarotzDeviceRepository;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * ViewModel for device management operations.
@@ -47,12 +59,18 @@ public class DeviceManagementViewModel extends AndroidViewModel {
     private final KarotzDeviceRepository repository;
     private final LiveData<List<KarotzDevice>> allDevices;
     private final LiveData<KarotzDevice> defaultDevice;
+    private final ProbeScheduler probeScheduler;
+    private final ExecutorService scanExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private SubnetScanner scanner;
 
     public DeviceManagementViewModel(@NonNull Application application) {
         super(application);
         repository = KarotzDeviceRepository.getInstance(application);
         allDevices = repository.getAllDevices();
         defaultDevice = repository.getDefaultDevice();
+        probeScheduler = new ProbeScheduler(ProbeScheduler.tcpProbe(ProbeScheduler.DEFAULT_TIMEOUT),
+                repository::updateOnlineStatuses);
     }
 
     public LiveData<List<KarotzDevice>> getAllDevices() {
@@ -94,4 +112,70 @@ public class DeviceManagementViewModel extends AndroidViewModel {
     public void updateVersion(long deviceId, String version) {
         repository.updateVersion(deviceId, version);
     }
+
+    public void checkOnlineStatus(List<KarotzDevice> devices) {
+        probeScheduler.probeAll(devices);
+    }
+
+    public boolean isScanning() {
+        return scanner != null;
+    }
+
+    /**
+     * Scan the network for rabbits, found rabbits are added to the device list as they answer.
+     *
+     * @param cidr the subnet to scan, empty for the local networks
+     * @param listener the listener, called on the main thread
+     * @return the number of addresses to scan, 0 if there is no network
+     * @throws IllegalArgumentException if the subnet is invalid
+     */
+    public int scanDevices(String cidr, SubnetScanner.Listener listener) {
+        List<Subnet> subnets = cidr == null || cidr.trim().isEmpty()
+                ? Subnet.localSubnets() : Collections.singletonList(Subnet.parse(cidr));
+        List<InetSocketAddress> targets = new ArrayList<>();
+        for (Subnet subnet : subnets) {
+            targets.addAll(subnet.getTargets(SubnetScanner.DEFAULT_PORT));
+        }
+        if (targets.isEmpty()) {
+            return 0;
+        }
+
+        SubnetScanner current = new SubnetScanner();
+        scanner = current;
+        scanExecutor.execute(() -> {
+            try {
+                current.scan(targets, new SubnetScanner.Listener() {
+                    @Override
+                    public void onKarotzFound(String host, int port, String version) {
+                        repository.addDiscoveredDevice(host, port, version);
+                        mainHandler.post(() -> listener.onKarotzFound(host, port, version));
+                    }
+
+                    @Override
+                    public void onScanFinished(int scanned, int found) {
+                        mainHandler.post(() -> listener.onScanFinished(scanned, found));
+                    }
+                });
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Cannot scan " + subnets, e);
+            }
+            mainHandler.post(() -> {
+                if (scanner == current) {
+                    scanner = null;
+                }
+            });
+        });
+        return targets.size();
+    }
+
+    @Override
+    protected void onCleared() {
+        probeScheduler.shutdown();
+        if (scanner != null) {
+            scanner.cancel();
+        }
+        scanExecutor.shutdown();
+    }
+
+    private static final String LOG_TAG = "DeviceManagementViewModel";
 }
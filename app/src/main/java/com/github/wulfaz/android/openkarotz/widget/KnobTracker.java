@@ -0,0 +1,253 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.widget;
+
+/**
+ * Angle tracking of a {@link RotaryKnob}: follows touch samples around the knob center, estimates the rotation
+ * velocity, and decelerates flings.
+ * <p>
+ * Angles are in degrees, clockwise on screen, and not wrapped: two turns clockwise are 720°.
+ */
+final class KnobTracker {
+
+    /**
+     * Start tracking a touch.
+     * @param x the x coordinate, from the knob center
+     * @param y the y coordinate, from the knob center
+     * @param rotation the rotation of the coordinates, in degrees
+     * @param time the sample time, in milliseconds
+     */
+    void begin(float x, float y, float rotation, long time) {
+        flingVelocity = 0f;
+        sampleCount = 0;
+        tracking = !isNearCenter(x, y);
+        if (tracking) {
+            lastTheta = atan2Degrees(y, x) + rotation;
+        }
+        addSample(time);
+    }
+
+    /**
+     * Follow a touch sample.
+     * @param x the x coordinate, from the knob center
+     * @param y the y coordinate, from the knob center
+     * @param rotation the rotation of the coordinates, in degrees: samples in the coordinates of the rotated knob
+     *            are at its angle plus their own
+     * @param time the sample time, in milliseconds
+     * @return the rotation since the previous sample
+     */
+    float move(float x, float y, float rotation, long time) {
+        float delta = 0f;
+        // The angle is unstable close to the center
+        if (!isNearCenter(x, y)) {
+            float theta = atan2Degrees(y, x) + rotation;
+            if (tracking) {
+                // Shortest way round, across 0°
+                delta = theta - lastTheta;
+                delta -= 360f * Math.round(delta / 360f);
+                angle += delta;
+            }
+            lastTheta = theta;
+            tracking = true;
+        }
+        addSample(time);
+        return delta;
+    }
+
+    /**
+     * Get the rotation velocity over the last samples.
+     * @return the velocity, in degrees per second
+     */
+    float getVelocity() {
+        if (sampleCount < 2) {
+            return 0f;
+        }
+        int last = (sampleCount - 1) % HISTORY;
+        long lastTime = sampleTimes[last];
+        int first = last;
+        for (int i = 1; i < Math.min(sampleCount, HISTORY); i++) {
+            int index = (last - i + HISTORY) % HISTORY;
+            if (lastTime - sampleTimes[index] > VELOCITY_WINDOW) {
+                break;
+            }
+            first = index;
+        }
+        long duration = lastTime - sampleTimes[first];
+        return duration <= 0 ? 0f : (sampleAngles[last] - sampleAngles[first]) * 1000f / duration;
+    }
+
+    /**
+     * Start a fling.
+     * @param velocity the initial velocity, in degrees per second
+     */
+    void fling(float velocity) {
+        flingVelocity = velocity;
+    }
+
+    /**
+     * Advance a fling.
+     * @param seconds the time since the last step
+     * @return the rotation of this step
+     */
+    float flingStep(float seconds) {
+        // Exponential deceleration, exact whatever the frame rate
+        float decay = (float) Math.exp(-FLING_FRICTION * seconds);
+        float delta = flingVelocity * (1f - decay) / FLING_FRICTION;
+        flingVelocity *= decay;
+        if (Math.abs(flingVelocity) < MIN_FLING_VELOCITY) {
+            flingVelocity = 0f;
+        }
+        angle += delta;
+        return delta;
+    }
+
+    /**
+     * Stop a fling.
+     */
+    void stopFling() {
+        flingVelocity = 0f;
+    }
+
+    /**
+     * @return <code>true</code> while a fling goes on
+     */
+    boolean isFlinging() {
+        return flingVelocity != 0f;
+    }
+
+    /**
+     * @return the angle
+     */
+    float getAngle() {
+        return angle;
+    }
+
+    /**
+     * @param angle the angle
+     */
+    void setAngle(float angle) {
+        this.angle = angle;
+    }
+
+    /**
+     * Snap an angle to one of evenly spaced positions.
+     * @param angle an angle, any number of turns
+     * @param count the number of positions in a turn
+     * @return the position index, 0 to count - 1, position 0 being at 0°
+     */
+    static int snap(float angle, int count) {
+        int index = Math.round(normalize(angle) * count / 360f);
+        return index == count ? 0 : index;
+    }
+
+    /**
+     * Bring an angle within a turn.
+     * @param angle an angle, any number of turns
+     * @return the angle, 0 (inclusive) to 360° (exclusive)
+     */
+    static float normalize(float angle) {
+        float a = angle % 360f;
+        return a < 0f ? a + 360f : a;
+    }
+
+    /**
+     * Approximate atan2 in degrees, within 0.1°, without trigonometry.
+     * @param y the y coordinate
+     * @param x the x coordinate
+     * @return the angle, 0 to 360°, clockwise from the x axis on screen
+     */
+    static float atan2Degrees(float y, float x) {
+        float ax = Math.abs(x);
+        float ay = Math.abs(y);
+        if (ax == 0f && ay == 0f) {
+            return 0f;
+        }
+        // Octant reduction, then a polynomial of atan over 0..1
+        float t = Math.min(ax, ay) / Math.max(ax, ay);
+        float t2 = t * t;
+        float a = ((-0.0464964749f * t2 + 0.15931422f) * t2 - 0.327622764f) * t2 * t + t;
+        if (ay > ax) {
+            a = HALF_PI - a;
+        }
+        if (x < 0f) {
+            a = PI - a;
+        }
+        if (y < 0f) {
+            a = -a;
+        }
+        float degrees = a * RAD_TO_DEG;
+        return degrees < 0f ? degrees + 360f : degrees;
+    }
+
+    private boolean isNearCenter(float x, float y) {
+        return x * x + y * y < MIN_RADIUS * MIN_RADIUS;
+    }
+
+    private void addSample(long time) {
+        int index = sampleCount % HISTORY;
+        sampleTimes[index] = time;
+        sampleAngles[index] = angle;
+        sampleCount++;
+    }
+
+
+    /** Distance from the center under which samples are ignored, in pixels. */
+    static final float MIN_RADIUS = 8f;
+
+    /** Velocity under which a fling stops, in degrees per second. */
+    static final float MIN_FLING_VELOCITY = 20f;
+
+    /** Fling deceleration rate, per second. */
+    private static final float FLING_FRICTION = 4f;
+
+    /** Time over which the velocity is estimated, in milliseconds. */
+    private static final long VELOCITY_WINDOW = 100;
+
+    private static final int HISTORY = 20;
+
+    private static final float PI = (float) Math.PI;
+
+    private static final float HALF_PI = (float) (Math.PI / 2);
+
+    private static final float RAD_TO_DEG = (float) (180.0 / Math.PI);
+
+    private final long[] sampleTimes = new long[HISTORY];
+
+    private final float[] sampleAngles = new float[HISTORY];
+
+    private int sampleCount;
+
+    private float angle;
+
+    private float lastTheta;
+
+    private boolean tracking;
+
+    private float flingVelocity;
+}
@@ -29,7 +29,6 @@
 package com.github.wulfaz.android.openkarotz.widget;
 
 import android.content.Context;
-import android.graphics.Canvas;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
@@ -40,6 +39,10 @@ import com.github.wulfaz.android.openkarotz.R;
 /**
  * Rotary knob view.
  * <p>
+ * The knob turns with the finger, all touch samples included, and keeps turning when flung. It is rotated as a view
+ * property, drawn from a hardware layer while it moves, so turning it does not redraw the image. Listeners are told of
+ * snapped positions only, when they change.
+ * <p>
  * Inspired by <a href="from http://go-lambda.blogspot.fr/2012/02/rotary-knob-widget-on-android.html">RotaryKnobView
  * example</a>.
  */
@@ -80,16 +83,18 @@ public class RotaryKnob extends ImageView {
      * @return the knob angle
      */
     public float getAngle() {
-        return angle;
+        return tracker.getAngle();
     }
 
     /**
-     * Set the knob angle.
+     * Set the knob angle, without notifying the listener.
      * @param angle the knob angle
      */
     public void setAngle(float angle) {
-        this.angle = angle;
-        invalidate();
+        cancelFling();
+        tracker.setAngle(angle);
+        position = KnobTracker.snap(angle, POSITIONS);
+        setRotation(angle);
     }
 
     /**
@@ -101,24 +106,9 @@ public class RotaryKnob extends ImageView {
     }
 
     @Override
-    protected void onDraw(Canvas c) {
-        c.rotate(angle, getWidth() / 2, getHeight() / 2);
-        super.onDraw(c);
-    }
-
-    private float getTheta(float x, float y) {
-        float sx = x - (getWidth() / 2.0f);
-        float sy = y - (getHeight() / 2.0f);
-
-        float length = (float) Math.sqrt(sx * sx + sy * sy);
-        float nx = sx / length;
-        float ny = sy / length;
-        float theta = (float) Math.atan2(ny, nx);
-
-        final float rad2deg = (float) (180.0 / Math.PI);
-        float thetaDeg = theta * rad2deg;
-
-        return (thetaDeg < 0) ? thetaDeg + 360.0f : thetaDeg;
+    protected void onDetachedFromWindow() {
+        cancelFling();
+        super.onDetachedFromWindow();
     }
 
     /**
@@ -130,29 +120,28 @@ public class RotaryKnob extends ImageView {
         setOnTouchListener(new OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
-                float x = event.getX(0);
-                float y = event.getY(0);
-                float theta = getTheta(x, y);
-
-                switch (event.getAction() & MotionEvent.ACTION_MASK) {
-                case MotionEvent.ACTION_POINTER_DOWN:
-                    theta_old = theta;
+                switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    cancelFling();
+                    startMoving();
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                    tracker.begin(event.getX() - getPivotX(), event.getY() - getPivotY(), getRotation(),
+                            event.getEventTime());
                     break;
                 case MotionEvent.ACTION_MOVE:
-                    invalidate();
-                    float delta_theta = theta - theta_old;
-                    theta_old = theta;
-                    int direction = (delta_theta > 0) ? 1 : -1;
-                    angle += 3 * direction;
-                    notifyChangeListener(direction, angle);
+                    track(event);
                     break;
                 case MotionEvent.ACTION_UP:
-                    invalidate();
-                    delta_theta = theta - theta_old;
-                    theta_old = theta;
-                    direction = (delta_theta > 0) ? 1 : -1;
-                    angle += 3 * direction;
-                    notifyReleaseListener(direction, angle);
+                    track(event);
+                    float velocity = tracker.getVelocity();
+                    if (Math.abs(velocity) >= MIN_FLING_VELOCITY) {
+                        startFling(velocity);
+                    } else {
+                        stopMoving();
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    stopMoving();
                     break;
                 default:
                     break;
@@ -162,20 +151,86 @@ public class RotaryKnob extends ImageView {
         });
     }
 
-    private void notifyChangeListener(int direction, float angl) {
-        if (null != listener) {
-            int arg = Math.round(angl);
-            listener.onKnobChanged(direction, arg);
+    /**
+     * Follow the samples of a touch event, historical ones first, then turn the knob once.
+     */
+    private void track(MotionEvent event) {
+        // Events come in the coordinates of the view, rotated as it was when dispatched
+        float rotation = getRotation();
+        float pivotX = getPivotX();
+        float pivotY = getPivotY();
+        for (int h = 0; h < event.getHistorySize(); h++) {
+            tracker.move(event.getHistoricalX(h) - pivotX, event.getHistoricalY(h) - pivotY, rotation,
+                    event.getHistoricalEventTime(h));
+        }
+        tracker.move(event.getX() - pivotX, event.getY() - pivotY, rotation, event.getEventTime());
+        turn();
+    }
+
+    /**
+     * Rotate the view to the tracked angle, and notify a change of snapped position.
+     */
+    private void turn() {
+        float angle = tracker.getAngle();
+        setRotation(angle);
+
+        int snapped = KnobTracker.snap(angle, POSITIONS);
+        if (snapped != position) {
+            int direction = direction(snapped - position);
+            position = snapped;
+            if (listener != null) {
+                listener.onKnobChanged(direction, getPositionAngle());
+            }
+        }
+    }
+
+    private void startMoving() {
+        // Rotating a hardware layer does not redraw the knob
+        setLayerType(LAYER_TYPE_HARDWARE, null);
+        releasedPosition = position;
+    }
+
+    private void stopMoving() {
+        setLayerType(LAYER_TYPE_NONE, null);
+        if (listener != null) {
+            listener.onKnobReleased(direction(position - releasedPosition), getPositionAngle());
         }
     }
 
-    private void notifyReleaseListener(int direction, float angl) {
-        if (null != listener) {
-            int arg = Math.round(angl);
-            listener.onKnobReleased(direction, arg);
+    private void startFling(float velocity) {
+        tracker.fling(velocity);
+        lastFlingTime = System.nanoTime();
+        postOnAnimation(flingStep);
+    }
+
+    /**
+     * Stop a fling, without notifying the listener: the knob is touched again or set.
+     */
+    private void cancelFling() {
+        if (tracker.isFlinging()) {
+            removeCallbacks(flingStep);
+            tracker.stopFling();
+            setLayerType(LAYER_TYPE_NONE, null);
         }
     }
 
+    /**
+     * Get the angle of the snapped position.
+     * @return the angle, 0 to 360°
+     */
+    private int getPositionAngle() {
+        return Math.round(position * 360f / POSITIONS);
+    }
+
+    /**
+     * Get the direction of a change of position, the shortest way round.
+     * @return {@code 1} for clockwise, else {@code -1}
+     */
+    private static int direction(int change) {
+        int c = ((change % POSITIONS) + POSITIONS) % POSITIONS;
+        return c != 0 && c <= POSITIONS / 2 ? 1 : -1;
+    }
+
 
     /**
      * THe interface describes the knob listener.
@@ -183,24 +238,49 @@ public class RotaryKnob extends ImageView {
     public interface RotaryKnobListener {
 
         /**
-         * This method is called on knob change, every time the knob turns.
+         * This method is called when the knob turns to another snapped position.
          * @param direction the direction of the rotation: {@code 1} for clockwise, else {@code -1}
-         * @param angle the angle of the knob, starting from top position
+         * @param angle the angle of the position, starting from top position, 0 to 360°
          */
         void onKnobChanged(int direction, int angle);
 
         /**
-         * This method is called on knob selection, each time the user releases it.
-         * @param direction the direction of the rotation: {@code 1} for clockwise, else {@code -1}
-         * @param angle the angle of the knob, starting from top position
+         * This method is called on knob selection, each time the user releases it or a fling ends.
+         * @param direction the direction of the rotation since touched: {@code 1} for clockwise, else {@code -1}
+         * @param angle the angle of the position, starting from top position, 0 to 360°
          */
         void onKnobReleased(int direction, int angle);
     }
 
 
-    private float angle = 0f;
+    /** Number of snapped positions, one per ear position. */
+    private static final int POSITIONS = 16;
+
+    /** Release velocity from which the knob keeps turning, in degrees per second. */
+    private static final float MIN_FLING_VELOCITY = 90f;
+
+    private final KnobTracker tracker = new KnobTracker();
+
+    private final Runnable flingStep = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            tracker.flingStep((now - lastFlingTime) / 1e9f);
+            lastFlingTime = now;
+            turn();
+            if (tracker.isFlinging()) {
+                postOnAnimation(this);
+            } else {
+                stopMoving();
+            }
+        }
+    };
+
+    private int position = 0;
+
+    private int releasedPosition = 0;
 
-    private float theta_old = 0f;
+    private long lastFlingTime;
 
     private RotaryKnobListener listener;
-}
\ No newline at end of file
+}
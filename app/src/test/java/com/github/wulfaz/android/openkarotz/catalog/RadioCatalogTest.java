@@ -0,0 +1,289 @@
+package com.github.wulfaz.android.openkarotz.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.model.RadioGroupModel;
+import com.github.wulfaz.android.openkarotz.model.RadioModel;
+
+public class RadioCatalogTest {
+
+    @Before
+    public void setUp() throws IOException {
+        File file = new File(ASSETS, "radios.json");
+        Assume.assumeTrue("Catalog not found in " + file.getAbsolutePath(), file.exists());
+        radiosJson = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        colorsJson = new String(Files.readAllBytes(new File(ASSETS, "colors.json").toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAllRadiosAreFound() throws Exception {
+        RadioCatalog catalog = RadioCatalog.read(ByteBuffer.wrap(compileRadios(radiosJson)));
+        RadioGroupModel[] groups = parseJson(radiosJson);
+
+        int count = 0;
+        for (RadioGroupModel group : groups) {
+            for (RadioModel expected : group.getRadios()) {
+                RadioModel radio = catalog.findRadio(expected.getId());
+                assertEquals(expected.getId(), radio.getId());
+                assertEquals(expected.getName(), radio.getName());
+                assertEquals(expected.getUrl(), radio.getUrl());
+                count++;
+            }
+        }
+        assertEquals(count, catalog.getRadioCount());
+        assertEquals("Chérie FM", catalog.findRadio("cheriefm").getName());
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        RadioCatalog catalog = RadioCatalog.read(ByteBuffer.wrap(compileRadios(radiosJson)));
+        RadioGroupModel[] expected = parseJson(radiosJson);
+        RadioGroupModel[] groups = catalog.getGroups();
+
+        assertEquals(expected.length, groups.length);
+        for (int i = 0; i < groups.length; i++) {
+            assertEquals(expected[i].getId(), groups[i].getId());
+            assertEquals(expected[i].getName(), groups[i].getName());
+            assertEquals(expected[i].getRadios().size(), groups[i].getRadios().size());
+            assertEquals(expected[i].getRadios().get(0).getId(), groups[i].getRadios().get(0).getId());
+        }
+    }
+
+    @Test
+    public void testUnknownRadio() throws Exception {
+        RadioCatalog catalog = RadioCatalog.read(ByteBuffer.wrap(compileRadios(radiosJson)));
+
+        assertNull(catalog.findRadio("nosuchradio"));
+        assertNull(catalog.findRadio(""));
+        assertNull(catalog.findRadio(null));
+        assertEquals(-1, catalog.indexOf("FIP"));
+    }
+
+    @Test
+    public void testBadCatalog() throws Exception {
+        byte[] data = compileRadios(radiosJson);
+        try {
+            ColorCatalog.read(ByteBuffer.wrap(data));
+            fail("Radio catalog should not be read as colors");
+        } catch (IOException e) {
+            // Expected
+        }
+        data[20]++;
+        try {
+            RadioCatalog.read(ByteBuffer.wrap(data));
+            fail("Wrong pool offset should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testColors() throws Exception {
+        ColorCatalog catalog = ColorCatalog.read(ByteBuffer.wrap(compileColors(colorsJson)));
+
+        assertEquals(20, catalog.size());
+        assertEquals(0xFFFFFF, catalog.getColor(0));
+        assertEquals("FF0000", catalog.getCode(1));
+        assertEquals(13, catalog.indexOf(0xFF0000FF));
+        assertEquals(-1, catalog.indexOf(0x123456));
+    }
+
+    /**
+     * Compares loading the radio list from JSON, as before, with the compiled catalog mapped from a file, for the
+     * first load (interpreted code) and repeated loads. Each load looks up one radio, as a screen showing it would.
+     */
+    @Test
+    public void benchmarkLoad() throws Exception {
+        File file = File.createTempFile("radios", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), compileRadios(radiosJson));
+
+        // Load the classes of both paths, on another catalog
+        String small = "{\"radios\":[{\"id\":\"g\",\"name\":\"G\",\"radios\":[{\"id\":\"r\",\"name\":\"R\",\"url\":\"u\"}]}]}";
+        File smallFile = File.createTempFile("small", ".bin");
+        smallFile.deleteOnExit();
+        Files.write(smallFile.toPath(), compileRadios(small));
+        parseJson(small);
+        loadCatalog(smallFile, "r");
+
+        long start = System.nanoTime();
+        assertEquals("TSF Jazz", loadJson("tsfjazz").getName());
+        long jsonCold = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        assertEquals("TSF Jazz", loadCatalog(file, "tsfjazz").getName());
+        long catalogCold = System.nanoTime() - start;
+
+        int n = 2000;
+        for (int i = 0; i < n; i++) {
+            loadJson("tsfjazz");
+            loadCatalog(file, "tsfjazz");
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            loadJson("tsfjazz");
+        }
+        long jsonWarm = (System.nanoTime() - start) / n;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            loadCatalog(file, "tsfjazz");
+        }
+        long catalogWarm = (System.nanoTime() - start) / n;
+
+        System.out.println(String.format("JSON:    cold %.1f us, warm %.1f us", jsonCold / 1000.0, jsonWarm / 1000.0));
+        System.out.println(String.format("Catalog: cold %.1f us, warm %.1f us (mapped, %d bytes)", catalogCold / 1000.0,
+                catalogWarm / 1000.0, file.length()));
+
+        assertTrue(catalogWarm < jsonWarm);
+    }
+
+    private RadioModel loadJson(String id) throws JSONException {
+        for (RadioGroupModel group : parseJson(radiosJson)) {
+            for (RadioModel radio : group.getRadios()) {
+                if (radio.getId().equals(id)) {
+                    return radio;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static RadioModel loadCatalog(File file, String id) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return RadioCatalog.read(buffer).findRadio(id);
+        }
+    }
+
+    /**
+     * Parse the radio list, as the radio tabs did.
+     */
+    private static RadioGroupModel[] parseJson(String content) throws JSONException {
+        JSONArray list = new JSONObject(content).getJSONArray("radios");
+        RadioGroupModel[] groups = new RadioGroupModel[list.length()];
+        for (int i = 0; i < groups.length; i++) {
+            JSONObject element = list.getJSONObject(i);
+            groups[i] = new RadioGroupModel(element.getString("id"), element.getString("name"));
+            JSONArray radios = element.getJSONArray("radios");
+            for (int j = 0; j < radios.length(); j++) {
+                JSONObject radio = radios.getJSONObject(j);
+                groups[i].addRadio(new RadioModel(radio.getString("id"), radio.getString("name"), radio.getString("url")));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Compile a radio catalog as the generateCatalogs task does.
+     */
+    static byte[] compileRadios(String content) throws JSONException, IOException {
+        RadioGroupModel[] groups = parseJson(content);
+        int radioCount = 0;
+        for (RadioGroupModel group : groups) {
+            radioCount += group.getRadios().size();
+        }
+        int slotCount = Integer.highestOneBit(Math.max(1, radioCount * 2 - 1)) << 1;
+
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        Map<String, Integer> refs = new HashMap<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4F4B5243);
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeInt(groups.length);
+        out.writeInt(radioCount);
+        out.writeInt(slotCount);
+        out.writeInt(24 + (groups.length + radioCount) * 16 + slotCount * 4);
+
+        int first = 0;
+        for (RadioGroupModel group : groups) {
+            out.writeInt(ref(group.getId(), pool, refs));
+            out.writeInt(ref(group.getName(), pool, refs));
+            out.writeInt(first);
+            out.writeInt(group.getRadios().size());
+            first += group.getRadios().size();
+        }
+        int[] slots = new int[slotCount];
+        int index = 0;
+        for (int g = 0; g < groups.length; g++) {
+            for (RadioModel radio : groups[g].getRadios()) {
+                out.writeInt(ref(radio.getId(), pool, refs));
+                out.writeInt(ref(radio.getName(), pool, refs));
+                out.writeInt(ref(radio.getUrl(), pool, refs));
+                out.writeInt(g);
+                int slot = RadioCatalog.slotOf(radio.getId(), slotCount);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (slotCount - 1);
+                }
+                slots[slot] = ++index;
+            }
+        }
+        for (int slot : slots) {
+            out.writeInt(slot);
+        }
+        pool.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    private static int ref(String s, ByteArrayOutputStream pool, Map<String, Integer> refs) throws IOException {
+        Integer ref = refs.get(s);
+        if (ref == null) {
+            ref = pool.size();
+            refs.put(s, ref);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            pool.write(bytes.length >> 8);
+            pool.write(bytes.length & 0xFF);
+            pool.write(bytes);
+        }
+        return ref;
+    }
+
+    /**
+     * Compile a color catalog as the generateCatalogs task does.
+     */
+    static byte[] compileColors(String content) throws JSONException, IOException {
+        JSONArray colors = new JSONObject(content).getJSONArray("colors");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4F4B4343);
+        out.writeShort(1);
+        out.writeShort(colors.length());
+        for (int i = 0; i < colors.length(); i++) {
+            out.writeInt(Integer.parseInt(colors.getJSONObject(i).getString("code"), 16));
+        }
+        return bytes.toByteArray();
+    }
+
+
+    private static final File ASSETS = new File("src/main/assets");
+
+    private String radiosJson;
+
+    private String colorsJson;
+}
@@ -0,0 +1,308 @@
+package com.github.wulfaz.android.openkarotz.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+
+import com.github.wulfaz.android.openkarotz.net.KeepAliveTransport;
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+
+public class CommandExecutorTest {
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        release.countDown();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSlowCommandDoesNotBlockOthers() throws Exception {
+        executor.submit(() -> await(release), recorder);
+
+        // An ear move sent during a long TTS
+        long start = System.nanoTime();
+        executor.submit(() -> "ears", recorder);
+        assertEquals("ears", results.poll(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+        release.countDown();
+        assertEquals("released", results.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        for (int i = 0; i < 12; i++) {
+            executor.submit(() -> {
+                max.accumulateAndGet(current.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                current.decrementAndGet();
+                return "done";
+            }, recorder);
+        }
+        for (int i = 0; i < 12; i++) {
+            assertEquals("done", results.poll(2, TimeUnit.SECONDS));
+        }
+        assertEquals(THREADS, max.get());
+    }
+
+    @Test
+    public void testFullQueueIsRejected() throws Exception {
+        executor = new CommandExecutor("test", 1, 1, Runnable::run);
+        executor.submit(() -> await(release), recorder);
+        executor.submit(() -> await(release), recorder);
+        executor.submit(() -> "rejected", recorder);
+
+        assertEquals("failed", results.poll(1, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+        release.countDown();
+        assertEquals("released", results.poll(1, TimeUnit.SECONDS));
+        assertEquals("released", results.poll(1, TimeUnit.SECONDS));
+        assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelQueuedCommand() throws Exception {
+        executor = new CommandExecutor("test", 1, 4, Runnable::run);
+        AtomicInteger runs = new AtomicInteger();
+        executor.submit(() -> await(release), recorder);
+        CommandExecutor.Handle queued = executor.submit(() -> "run " + runs.incrementAndGet(), recorder);
+
+        assertTrue(queued.cancel());
+        assertTrue(queued.isCancelled());
+        assertEquals("cancelled", results.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueuedCount());
+
+        release.countDown();
+        assertEquals("released", results.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void testCancelUnblocksSocketRead() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        server = new StubHttpServer(request -> {
+            received.countDown();
+            // A Karotz busy speaking, well beyond the cancellation
+            await(release);
+            return StubHttpServer.Response.ok("{\"return\":\"0\"}");
+        });
+        KeepAliveTransport transport = new KeepAliveTransport();
+        AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+        CountDownLatch over = new CountDownLatch(1);
+
+        CommandExecutor.Handle handle = executor.submit(() -> {
+            try {
+                return transport.get(server.url("/cgi-bin/tts?text=long"));
+            } catch (IOException e) {
+                thrown.set(e);
+                throw e;
+            } finally {
+                over.countDown();
+            }
+        }, recorder);
+
+        assertTrue(received.await(1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        assertTrue(handle.cancel());
+
+        assertTrue(over.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(thrown.get() instanceof InterruptedIOException);
+        assertEquals("cancelled", results.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, transport.getPool().getIdleConnectionCount());
+    }
+
+    @Test
+    public void testResultHeldUntilOwnerStarted() throws Exception {
+        TestOwner owner = new TestOwner();
+        owner.registry.setCurrentState(Lifecycle.State.CREATED);
+
+        executor.submit(owner, () -> "status", recorder);
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+
+        owner.registry.setCurrentState(Lifecycle.State.STARTED);
+        assertEquals("status", results.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, owner.registry.getObserverCount());
+    }
+
+    @Test
+    public void testOwnerDestroyedCancelsCommand() throws Exception {
+        TestOwner owner = new TestOwner();
+        owner.registry.setCurrentState(Lifecycle.State.RESUMED);
+
+        CommandExecutor.Handle handle = executor.submit(owner, () -> await(release), recorder);
+        owner.registry.setCurrentState(Lifecycle.State.DESTROYED);
+
+        assertTrue(handle.isCancelled());
+        assertEquals(0, owner.registry.getObserverCount());
+        // Nothing is delivered to a destroyed owner
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+
+        CommandExecutor.Handle late = executor.submit(owner, () -> "late", recorder);
+        assertTrue(late.isCancelled());
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailureIsDelivered() throws Exception {
+        executor.submit(() -> {
+            throw new IOException("Karotz unreachable");
+        }, recorder);
+        assertEquals("failed", results.poll(1, TimeUnit.SECONDS));
+        assertEquals("Karotz unreachable", failure.get().getMessage());
+        assertFalse(failure.get() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testLatestCommandWins() throws Exception {
+        executor.setMinInterval("leds", 100);
+        List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 50; i++) {
+            String color = "color " + i;
+            executor.submitLatest("leds", null, () -> {
+                sent.add(color);
+                return color;
+            }, recorder);
+        }
+
+        // The first command is sent right away, the last one after the interval, the others are dropped
+        List<String> delivered = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            delivered.add(results.poll(1, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("color 0", "color 49"), sent);
+        assertEquals(48, Collections.frequency(delivered, "cancelled"));
+        assertEquals(48, executor.getCoalescedCount());
+        assertEquals("color 49", delivered.get(49));
+    }
+
+    @Test
+    public void testSendingRateIsBounded() throws Exception {
+        long interval = 50;
+        executor.setMinInterval("ears", interval);
+        List<Long> sentAt = Collections.synchronizedList(new ArrayList<Long>());
+        List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+        // A knob dragged for half a second
+        int n = 100;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            String position = "position " + i;
+            executor.submitLatest("ears", null, () -> {
+                sentAt.add(System.nanoTime());
+                sent.add(position);
+                Thread.sleep(10);
+                return position;
+            }, recorder);
+            Thread.sleep(5);
+        }
+        for (int i = 0; i < n; i++) {
+            assertTrue(results.poll(1, TimeUnit.SECONDS) != null);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println(String.format("%d knob moves in %d ms, %d commands sent", n, elapsed, sent.size()));
+        assertEquals("position " + (n - 1), sent.get(sent.size() - 1));
+        assertTrue(sent.size() <= elapsed / interval + 2);
+        for (int i = 1; i < sentAt.size(); i++) {
+            assertTrue(sentAt.get(i) - sentAt.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(interval - 5));
+        }
+    }
+
+    @Test
+    public void testKindsAreIndependent() throws Exception {
+        executor.setMinInterval("ears", 10000);
+        assertEquals(10000, executor.getMinInterval("ears"));
+        assertEquals(CommandExecutor.DEFAULT_MIN_INTERVAL, executor.getMinInterval("leds"));
+        executor.submitLatest("ears", null, () -> "ears 1", recorder);
+        assertEquals("ears 1", results.poll(1, TimeUnit.SECONDS));
+        // Held by the interval
+        executor.submitLatest("ears", null, () -> "ears 2", recorder);
+
+        executor.submitLatest("leds", null, () -> "leds", recorder);
+        executor.submit(() -> "status", recorder);
+        assertEquals(new HashSet<String>(Arrays.asList("leds", "status")),
+                new HashSet<String>(Arrays.asList(results.poll(1, TimeUnit.SECONDS), results.poll(1, TimeUnit.SECONDS))));
+        assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static String await(CountDownLatch latch) throws InterruptedException {
+        latch.await(10, TimeUnit.SECONDS);
+        return "released";
+    }
+
+
+    /**
+     * Lifecycle owner driven by the test.
+     */
+    private static final class TestOwner implements LifecycleOwner {
+
+        @Override
+        public Lifecycle getLifecycle() {
+            return registry;
+        }
+
+
+        final LifecycleRegistry registry = LifecycleRegistry.createUnsafe(this);
+    }
+
+
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<String>();
+
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    private final CommandExecutor.Callback<String> recorder = new CommandExecutor.Callback<String>() {
+
+        @Override
+        public void onResult(String result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            failure.set(e);
+            results.add("failed");
+        }
+
+        @Override
+        public void onCancelled() {
+            results.add("cancelled");
+        }
+    };
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CommandExecutor executor = new CommandExecutor("test", THREADS, 16, Runnable::run);
+
+    private StubHttpServer server;
+
+    private static final int THREADS = 3;
+}
@@ -0,0 +1,239 @@
+package com.github.wulfaz.android.openkarotz.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+import com.github.wulfaz.android.openkarotz.karotz.KarotzRegistry;
+import com.github.wulfaz.android.openkarotz.karotz.MockKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+import com.github.wulfaz.android.openkarotz.net.DelayProxy;
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+
+public class FanOutTest {
+
+    @After
+    public void tearDown() throws IOException {
+        if (fanOut != null) {
+            fanOut.shutdown();
+        }
+        for (Closeable c : servers) {
+            c.close();
+        }
+    }
+
+    /**
+     * Sends a command to many rabbits answering slowly, the fan-out takes about as long as a single rabbit.
+     */
+    @Test
+    public void testLoadManyRabbits() throws Exception {
+        int n = 40;
+        long delay = 100;
+        List<MockKarotz> mocks = new ArrayList<MockKarotz>();
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        for (int i = 0; i < n; i++) {
+            MockKarotz mock = add(new MockKarotz());
+            mock.getServer().setResponseDelayMillis(delay);
+            mocks.add(mock);
+            devices.add(device(i, mock.getHost(), mock.getPort()));
+        }
+        fanOut = new FanOut(new KarotzRegistry(n, OpenKarotz::new), n);
+
+        // Warm up, the status is cached afterwards
+        fanOut.execute(devices, FanOut.led(0xFF0000, false), 5000);
+
+        FanOut.Report<Void> report = fanOut.execute(devices, FanOut.led(0x0000FF, false), 5000);
+
+        long sum = 0;
+        for (FanOut.Result<Void> r : report.getResults()) {
+            sum += r.getElapsedMillis();
+        }
+        System.out.println(String.format("Fan-out to %d rabbits (%d ms each request): %d ms, sum of device times %d ms",
+                n, delay, report.getElapsedMillis(), sum));
+
+        assertTrue(report.toString(), report.isAllSucceeded());
+        assertEquals(n, report.getResults().size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(devices.get(i), report.getResults().get(i).getDevice());
+            assertEquals("0000FF", mocks.get(i).getLedColor());
+        }
+        // One LED request per rabbit, in sequence they would take 4 s
+        assertTrue("Took " + report.getElapsedMillis() + " ms", report.getElapsedMillis() < 1000);
+    }
+
+    @Test
+    public void testSlowRabbitTimesOut() throws Exception {
+        MockKarotz fast = add(new MockKarotz());
+        MockKarotz slow = add(new MockKarotz());
+        slow.getServer().setResponseDelayMillis(5000);
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        devices.add(device(1, fast.getHost(), fast.getPort()));
+        devices.add(device(2, slow.getHost(), slow.getPort()));
+        fanOut = new FanOut(new KarotzRegistry(2, OpenKarotz::new));
+
+        FanOut.Report<Boolean> report = fanOut.execute(devices, FanOut.sound("http://radio/stream"), 300);
+
+        assertEquals(FanOut.Status.SUCCESS, report.getResults().get(0).getStatus());
+        assertEquals(Boolean.TRUE, report.getResults().get(0).getValue());
+        assertEquals(FanOut.Status.TIMEOUT, report.getResults().get(1).getStatus());
+        assertEquals(1, report.getFailedDevices().size());
+        assertEquals(devices.get(1), report.getFailedDevices().get(0));
+        assertTrue("Took " + report.getElapsedMillis() + " ms", report.getElapsedMillis() < 1000);
+    }
+
+    @Test
+    public void testPartialFailure() throws Exception {
+        MockKarotz ok = add(new MockKarotz());
+        StubHttpServer refusing = add(new StubHttpServer(
+                request -> StubHttpServer.Response.ok("{\"return\":\"1\",\"msg\":\"Unable to perform action, rabbit is sleeping.\"}")));
+        int closed;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closed = socket.getLocalPort();
+        }
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        devices.add(device(1, ok.getHost(), ok.getPort()));
+        devices.add(device(2, refusing.getHost(), refusing.getPort()));
+        devices.add(device(3, "127.0.0.1", closed));
+        fanOut = new FanOut(new KarotzRegistry(3, OpenKarotz::new));
+
+        FanOut.Report<Boolean> report = fanOut.execute(devices, FanOut.sound("http://radio/stream"), 2000);
+
+        assertFalse(report.isAllSucceeded());
+        assertEquals(1, report.getCount(FanOut.Status.SUCCESS));
+        assertEquals(2, report.getCount(FanOut.Status.FAILED));
+        assertEquals(0, report.getCount(FanOut.Status.TIMEOUT));
+        // Refused by the rabbit
+        assertNull(report.getResults().get(1).getError());
+        assertNull(report.getResults().get(1).getValue());
+        // Not reachable
+        assertNotNull(report.getResults().get(2).getError());
+    }
+
+    @Test
+    public void testQueuedRabbitsGetTheirOwnTimeout() throws Exception {
+        List<MockKarotz> mocks = new ArrayList<MockKarotz>();
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        for (int i = 0; i < 3; i++) {
+            MockKarotz mock = add(new MockKarotz());
+            mock.getServer().setResponseDelayMillis(300);
+            mocks.add(mock);
+            devices.add(device(i, mock.getHost(), mock.getPort()));
+        }
+        fanOut = new FanOut(new KarotzRegistry(3, OpenKarotz::new), 1);
+
+        FanOut.Report<Boolean> report = fanOut.execute(devices, FanOut.sound("http://radio/stream"), 500);
+
+        // One after the other, each within its timeout
+        for (int i = 0; i < 3; i++) {
+            assertEquals(FanOut.Status.SUCCESS, report.getResults().get(i).getStatus());
+            assertEquals(1, mocks.get(i).getRequestCount("/cgi-bin/sound"));
+        }
+        assertTrue("Took " + report.getElapsedMillis() + " ms", report.getElapsedMillis() >= 900);
+
+        // A slow rabbit is cut off at its own timeout, the ones queued behind it still get theirs
+        mocks.get(0).getServer().setResponseDelayMillis(2000);
+        report = fanOut.execute(devices, FanOut.sound("http://radio/stream"), 500);
+
+        assertEquals(FanOut.Status.TIMEOUT, report.getResults().get(0).getStatus());
+        assertEquals(FanOut.Status.SUCCESS, report.getResults().get(1).getStatus());
+        assertEquals(FanOut.Status.SUCCESS, report.getResults().get(2).getStatus());
+        assertTrue("Took " + report.getElapsedMillis() + " ms", report.getElapsedMillis() < 1500);
+    }
+
+    /**
+     * Rabbits at different distances receive a plain fan-out at different times, a synchronized one at the same time.
+     */
+    @Test
+    public void testSynchronizedStart() throws Exception {
+        long[] latencies = { 0, 15, 40, 70 };
+        List<MockKarotz> mocks = new ArrayList<MockKarotz>();
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        for (int i = 0; i < latencies.length; i++) {
+            MockKarotz mock = add(new MockKarotz());
+            DelayProxy proxy = add(new DelayProxy(mock.getHost(), mock.getPort(), latencies[i]));
+            mocks.add(mock);
+            devices.add(device(i, proxy.getHost(), proxy.getPort()));
+        }
+        fanOut = new FanOut(new KarotzRegistry(latencies.length, OpenKarotz::new));
+
+        FanOut.Report<Boolean> plain = fanOut.execute(devices, FanOut.sound("http://radio/stream"), 2000);
+        double plainSkew = arrivalSkewMillis(mocks);
+        FanOut.Report<Boolean> synced = fanOut.executeSynchronized(devices, FanOut.sound("http://radio/stream"), 2000);
+        double syncedSkew = arrivalSkewMillis(mocks);
+
+        System.out.println(String.format("Start skew of %d rabbits: plain %.1f ms (reported %.1f ms), synchronized %.1f ms (reported %.1f ms)",
+                devices.size(), plainSkew, plain.getSkewMillis(), syncedSkew, synced.getSkewMillis()));
+
+        assertTrue(plain.isAllSucceeded());
+        assertTrue(synced.isAllSucceeded());
+        for (KarotzDevice device : devices) {
+            assertTrue(fanOut.getRoundTrips().getSampleCount(device.getId()) >= FanOut.MIN_SAMPLES);
+        }
+        assertTrue("Plain skew " + plainSkew + " ms", plainSkew > 40);
+        assertTrue("Synchronized skew " + syncedSkew + " ms", syncedSkew < 15);
+        assertEquals(syncedSkew, synced.getSkewMillis(), 15);
+    }
+
+    @Test
+    public void testRoundTripEstimator() {
+        RoundTripEstimator estimator = new RoundTripEstimator();
+        assertEquals(-1, estimator.getRoundTripNanos(1));
+        assertEquals(0, estimator.getOneWayNanos(1));
+
+        // The first round trip includes the connect
+        estimator.record(1, 9000000);
+        estimator.record(1, 4000000);
+        estimator.record(1, 5000000);
+        assertEquals(3, estimator.getSampleCount(1));
+        assertEquals(4000000, estimator.getRoundTripNanos(1));
+        assertEquals(2000000, estimator.getOneWayNanos(1));
+
+        // Old round trips are forgotten
+        for (int i = 0; i < RoundTripEstimator.WINDOW; i++) {
+            estimator.record(1, 6000000);
+        }
+        assertEquals(RoundTripEstimator.WINDOW, estimator.getSampleCount(1));
+        assertEquals(6000000, estimator.getRoundTripNanos(1));
+
+        estimator.forget(1);
+        assertEquals(0, estimator.getSampleCount(1));
+    }
+
+    private static double arrivalSkewMillis(List<MockKarotz> mocks) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (MockKarotz mock : mocks) {
+            first = Math.min(first, mock.getLastRequestNanos("/cgi-bin/sound"));
+            last = Math.max(last, mock.getLastRequestNanos("/cgi-bin/sound"));
+        }
+        return (last - first) / 1e6;
+    }
+
+    private <T extends Closeable> T add(T server) {
+        servers.add(server);
+        return server;
+    }
+
+    private static KarotzDevice device(long id, String host, int port) {
+        KarotzDevice device = new KarotzDevice("Karotz " + id, host, port);
+        device.setId(id);
+        return device;
+    }
+
+
+    private final List<Closeable> servers = new ArrayList<Closeable>();
+
+    private FanOut fanOut;
+}
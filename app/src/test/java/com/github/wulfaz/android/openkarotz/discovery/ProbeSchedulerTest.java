@@ -0,0 +1,216 @@
+package com.github.wulfaz.android.openkarotz.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.database.KarotzDevice;
+
+public class ProbeSchedulerTest {
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testProbesAreBoundedAndBatched() throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        scheduler = newScheduler((host, port) -> {
+            max.accumulateAndGet(current.incrementAndGet(), Math::max);
+            pause(() -> Thread.sleep(10));
+            current.decrementAndGet();
+            return true;
+        });
+
+        List<KarotzDevice> devices = devices(40);
+        assertEquals(40, scheduler.probeAll(devices));
+        awaitWrites(40);
+
+        assertEquals(THREADS, max.get());
+        assertEquals(40, probes.get());
+        // Status changes are written in a few batches, not one write per device
+        assertTrue("Batches: " + batches.size(), batches.size() <= 3);
+    }
+
+    @Test
+    public void testProbesAreDeduplicated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler = newScheduler((host, port) -> {
+            pause(() -> release.await(5, TimeUnit.SECONDS));
+            return true;
+        });
+
+        List<KarotzDevice> devices = devices(5);
+        assertEquals(5, scheduler.probeAll(devices));
+        // LiveData emitting again while probes are running
+        assertEquals(0, scheduler.probeAll(devices));
+        assertEquals(0, scheduler.probeAll(devices));
+
+        release.countDown();
+        awaitWrites(5);
+        assertEquals(5, probes.get());
+    }
+
+    @Test
+    public void testWritesDoNotStartNewProbes() throws Exception {
+        scheduler = newScheduler((host, port) -> true);
+        List<KarotzDevice> devices = devices(10);
+
+        scheduler.probeAll(devices);
+        awaitWrites(10);
+
+        // The database emits the updated list
+        for (KarotzDevice device : devices) {
+            device.setOnline(true);
+        }
+        assertEquals(0, scheduler.probeAll(devices));
+
+        // Once the recheck interval elapsed, devices are probed again but unchanged statuses are not written
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ProbeScheduler.RECHECK_INTERVAL));
+        assertEquals(10, scheduler.probeAll(devices));
+        waitForProbes(20);
+        Thread.sleep(ProbeScheduler.BATCH_DELAY * 2);
+        assertEquals(10, written.size());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testOfflineDevicesBackOff() throws Exception {
+        scheduler = newScheduler((host, port) -> {
+            throw new IOException("Connection refused");
+        });
+        List<KarotzDevice> devices = devices(1);
+        devices.get(0).setOnline(true);
+
+        assertEquals(1, scheduler.probeAll(devices));
+        awaitWrites(1);
+        assertFalse(written.get(devices.get(0).getId()));
+        devices.get(0).setOnline(false);
+
+        long backoff = ProbeScheduler.BASE_BACKOFF;
+        for (int failures = 1; failures < 5; failures++) {
+            waitForProbes(failures);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(backoff - 1));
+            assertEquals(0, scheduler.probeAll(devices));
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+            assertEquals(1, scheduler.probeAll(devices));
+            backoff *= 2;
+        }
+        waitForProbes(5);
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testEditedDeviceIsProbedAgain() throws Exception {
+        scheduler = newScheduler((host, port) -> true);
+        List<KarotzDevice> devices = devices(1);
+        scheduler.probeAll(devices);
+        awaitWrites(1);
+
+        devices.get(0).setHostname("192.168.1.200");
+        assertEquals(1, scheduler.probeAll(devices));
+    }
+
+    @Test
+    public void testTcpProbe() throws Exception {
+        ProbeScheduler.Probe probe = ProbeScheduler.tcpProbe(500);
+        int closedPort;
+        try (ServerSocket server = new ServerSocket(0)) {
+            assertTrue(probe.isOnline("127.0.0.1", server.getLocalPort()));
+            closedPort = server.getLocalPort();
+        }
+
+        try {
+            assertFalse(probe.isOnline("127.0.0.1", closedPort));
+        } catch (IOException e) {
+            // Connection refused
+        }
+    }
+
+    private ProbeScheduler newScheduler(ProbeScheduler.Probe probe) {
+        return new ProbeScheduler((host, port) -> {
+            try {
+                return probe.isOnline(host, port);
+            } finally {
+                probes.incrementAndGet();
+            }
+        }, statuses -> {
+            batches.add(statuses);
+            written.putAll(statuses);
+        }, THREADS, clock::get);
+    }
+
+    private void awaitWrites(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (written.size() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(n, written.size());
+    }
+
+    private void waitForProbes(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (probes.get() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(n, probes.get());
+        // Let the probe thread record the result
+        Thread.sleep(20);
+    }
+
+    private static void pause(Wait wait) throws IOException {
+        try {
+            wait.run();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static List<KarotzDevice> devices(int n) {
+        List<KarotzDevice> devices = new ArrayList<KarotzDevice>();
+        for (int i = 1; i <= n; i++) {
+            KarotzDevice device = new KarotzDevice("Karotz " + i, "192.168.1." + i);
+            device.setId(i);
+            devices.add(device);
+        }
+        return devices;
+    }
+
+
+    private interface Wait {
+        void run() throws InterruptedException;
+    }
+
+
+    private final AtomicLong clock = new AtomicLong(-1000);
+
+    private final AtomicInteger probes = new AtomicInteger();
+
+    private final List<Map<Long, Boolean>> batches = Collections.synchronizedList(new ArrayList<Map<Long, Boolean>>());
+
+    private final Map<Long, Boolean> written = new ConcurrentHashMap<Long, Boolean>();
+
+    private ProbeScheduler scheduler;
+
+    private static final int THREADS = 4;
+}
@@ -0,0 +1,211 @@
+package com.github.wulfaz.android.openkarotz.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.MockKarotz;
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+
+public class SubnetScannerTest {
+
+    @After
+    public void tearDown() throws IOException {
+        for (Closeable c : servers) {
+            c.close();
+        }
+    }
+
+    @Test
+    public void testOnlyRabbitsAreFound() throws Exception {
+        List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>();
+        Set<Integer> rabbits = new HashSet<Integer>();
+        for (int i = 0; i < 3; i++) {
+            MockKarotz mock = add(new MockKarotz());
+            rabbits.add(mock.getPort());
+            targets.add(new InetSocketAddress(LOCALHOST, mock.getPort()));
+        }
+        // Other web servers
+        StubHttpServer notFound = add(new StubHttpServer(request -> new StubHttpServer.Response(404, "Not found")));
+        StubHttpServer router = add(new StubHttpServer(request -> StubHttpServer.Response.ok("<html>Router</html>")));
+        StubHttpServer otherJson = add(new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\"}")));
+        targets.add(new InetSocketAddress(LOCALHOST, notFound.getPort()));
+        targets.add(new InetSocketAddress(LOCALHOST, router.getPort()));
+        targets.add(new InetSocketAddress(LOCALHOST, otherJson.getPort()));
+        // Nothing listening
+        for (int port : closedPorts(20)) {
+            targets.add(new InetSocketAddress(LOCALHOST, port));
+        }
+        Collections.shuffle(targets);
+
+        Set<Integer> found = ConcurrentHashMap.newKeySet();
+        AtomicInteger finished = new AtomicInteger();
+        int count = new SubnetScanner().scan(targets, new SubnetScanner.Listener() {
+
+            @Override
+            public void onKarotzFound(String host, int port, String version) {
+                assertEquals(LOCALHOST, host);
+                assertEquals("200", version);
+                found.add(port);
+            }
+
+            @Override
+            public void onScanFinished(int scanned, int total) {
+                assertEquals(26, scanned);
+                finished.set(total);
+            }
+        });
+
+        assertEquals(3, count);
+        assertEquals(3, finished.get());
+        assertEquals(rabbits, found);
+    }
+
+    @Test
+    public void testResultsAreStreamed() throws Exception {
+        MockKarotz fast = add(new MockKarotz());
+        MockKarotz slow = add(new MockKarotz());
+        slow.getServer().setResponseDelayMillis(500);
+        List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>();
+        targets.add(new InetSocketAddress(LOCALHOST, slow.getPort()));
+        targets.add(new InetSocketAddress(LOCALHOST, fast.getPort()));
+
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread scan = new Thread(() -> {
+            try {
+                new SubnetScanner().scan(targets, (host, port, version) -> first.countDown());
+            } catch (IOException e) {
+                // The latches are not released
+            }
+            done.countDown();
+        });
+        scan.start();
+
+        assertTrue(first.await(2, TimeUnit.SECONDS));
+        assertEquals(1, done.getCount());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A /24 where no host answers takes about one connect timeout, not one per host.
+     */
+    @Test
+    public void testSweepIsConcurrent() throws Exception {
+        List<InetSocketAddress> targets = Subnet.parse(UNREACHABLE).getTargets(SubnetScanner.DEFAULT_PORT);
+        AtomicInteger found = new AtomicInteger();
+
+        long start = System.nanoTime();
+        new SubnetScanner(SubnetScanner.DEFAULT_MAX_CONNECTS, 300, 300).scan(targets, (host, port, version) -> found.incrementAndGet());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println(String.format("Swept %d addresses in %d ms", targets.size(), millis));
+        assertEquals(254, targets.size());
+        assertEquals(0, found.get());
+        assertTrue("Took " + millis + " ms", millis < 3000);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        List<InetSocketAddress> targets = Subnet.parse(UNREACHABLE).getTargets(SubnetScanner.DEFAULT_PORT);
+        SubnetScanner scanner = new SubnetScanner(16, 10000, 10000);
+        AtomicInteger finished = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread scan = new Thread(() -> {
+            try {
+                scanner.scan(targets, new SubnetScanner.Listener() {
+
+                    @Override
+                    public void onKarotzFound(String host, int port, String version) {
+                        fail("Nothing to find");
+                    }
+
+                    @Override
+                    public void onScanFinished(int scanned, int found) {
+                        finished.incrementAndGet();
+                    }
+                });
+            } catch (IOException e) {
+                // The latches are not released
+            }
+            done.countDown();
+        });
+        scan.start();
+        Thread.sleep(100);
+
+        scanner.cancel();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(scanner.isCancelled());
+        assertEquals(0, finished.get());
+    }
+
+    @Test
+    public void testSubnet() {
+        Subnet subnet = Subnet.parse("192.168.1.57/24");
+        assertEquals("192.168.1.0/24", subnet.toString());
+        assertEquals(254, subnet.getHostCount());
+        assertEquals("192.168.1.1", subnet.getHosts().get(0).getHostAddress());
+        assertEquals("192.168.1.254", subnet.getHosts().get(253).getHostAddress());
+
+        assertEquals(subnet, Subnet.parse("192.168.1.200"));
+        assertEquals(1022, Subnet.parse("10.0.0.0/22").getHostCount());
+        assertEquals(2, Subnet.parse("10.0.0.0/31").getHostCount());
+        assertEquals(1, Subnet.parse("10.0.0.7/32").getHosts().size());
+        assertEquals("10.0.0.7", Subnet.parse("10.0.0.7/32").getHosts().get(0).getHostAddress());
+
+        for (String invalid : new String[] { "10.0.0.0/16", "10.0.0/24", "10.0.0.256/24", "host/24", "10.0.0.0/x", "" }) {
+            try {
+                Subnet.parse(invalid);
+                fail(invalid + " should not be accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        assertFalse(Subnet.localSubnets().contains(Subnet.parse("127.0.0.0/24")));
+    }
+
+    private <T extends Closeable> T add(T server) {
+        servers.add(server);
+        return server;
+    }
+
+    private static List<Integer> closedPorts(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+        List<Integer> ports = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            ServerSocket socket = new ServerSocket(0);
+            sockets.add(socket);
+            ports.add(socket.getLocalPort());
+        }
+        for (ServerSocket socket : sockets) {
+            socket.close();
+        }
+        return ports;
+    }
+
+
+    private final List<Closeable> servers = new ArrayList<Closeable>();
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    /** Documentation network, never routed. */
+    private static final String UNREACHABLE = "192.0.2.0/24";
+}
@@ -0,0 +1,165 @@
+package com.github.wulfaz.android.openkarotz.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ByteLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBySize() {
+        List<String> evicted = new ArrayList<>();
+        ByteLruCache<String, byte[]> cache = new ByteLruCache<>(100, v -> v.length, (k, v) -> evicted.add(k));
+
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.get("a");
+        cache.put("c", new byte[40]);
+
+        assertEquals(Arrays.asList("b"), evicted);
+        assertEquals(80, cache.size());
+        assertEquals(2, cache.count());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testReplacedValueIsEvicted() {
+        List<byte[]> evicted = new ArrayList<>();
+        ByteLruCache<String, byte[]> cache = new ByteLruCache<>(100, v -> v.length, (k, v) -> evicted.add(v));
+        byte[] first = new byte[30];
+
+        cache.put("a", first);
+        cache.put("a", new byte[50]);
+
+        assertEquals(1, evicted.size());
+        assertSame(first, evicted.get(0));
+        assertEquals(50, cache.size());
+    }
+
+    @Test
+    public void testOversizeValueIsNotCached() {
+        ByteLruCache<String, byte[]> cache = new ByteLruCache<>(100, v -> v.length, null);
+        cache.put("a", new byte[10]);
+        cache.put("big", new byte[101]);
+
+        assertNull(cache.get("big"));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testHitAndMissCounts() {
+        ByteLruCache<String, byte[]> cache = new ByteLruCache<>(100, v -> v.length, null);
+        cache.put("a", new byte[10]);
+
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testTrimAndEvictAll() {
+        List<String> evicted = new ArrayList<>();
+        ByteLruCache<String, byte[]> cache = new ByteLruCache<>(100, v -> v.length, (k, v) -> evicted.add(k));
+        for (int i = 0; i < 5; i++) {
+            cache.put("k" + i, new byte[20]);
+        }
+
+        cache.trimToSize(40);
+        assertEquals(Arrays.asList("k0", "k1", "k2"), evicted);
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(5, evicted.size());
+    }
+
+    @Test
+    public void testInSampleSize() {
+        assertEquals(1, LogoLoader.calculateInSampleSize(80, 80, 80, 80));
+        assertEquals(1, LogoLoader.calculateInSampleSize(150, 150, 80, 80));
+        assertEquals(2, LogoLoader.calculateInSampleSize(160, 160, 80, 80));
+        assertEquals(4, LogoLoader.calculateInSampleSize(400, 300, 80, 60));
+        assertEquals(1, LogoLoader.calculateInSampleSize(400, 300, 0, 0));
+    }
+
+    /**
+     * Simulates switching back and forth between radio tabs, decoding the bundled logos each time (as before) or once
+     * through the cache. Runs on the JVM decoder, so only the ratio is meaningful.
+     */
+    @Test
+    public void benchmarkTabSwitches() throws IOException {
+        File dir = new File("src/main/assets/radios");
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".png"));
+        Assume.assumeTrue("Logos not found in " + dir.getAbsolutePath(), files != null && files.length > 0);
+        Arrays.sort(files);
+
+        int switches = 20;
+        List<List<File>> tabs = new ArrayList<>();
+        for (int i = 0; i < files.length; i += TAB_SIZE) {
+            tabs.add(Arrays.asList(files).subList(i, Math.min(files.length, i + TAB_SIZE)));
+        }
+
+        // Warm up
+        decodeTabs(tabs, 2, null);
+
+        long uncachedBytes = decodeTabs(tabs, switches, null);
+        long start = System.nanoTime();
+        decodeTabs(tabs, switches, null);
+        long uncachedNanos = System.nanoTime() - start;
+
+        ByteLruCache<String, BufferedImage> cache = new ByteLruCache<>(4 * 1024 * 1024,
+                image -> image.getWidth() * image.getHeight() * 4, null);
+        start = System.nanoTime();
+        long cachedBytes = decodeTabs(tabs, switches, cache);
+        long cachedNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("Uncached: %d logos in %d tabs, %d switches, %.1f ms, %d KB decoded",
+                files.length, tabs.size(), switches, uncachedNanos / 1e6, uncachedBytes / 1024));
+        System.out.println(String.format("Cached:   %.1f ms, %d KB decoded, %d hits, %d misses",
+                cachedNanos / 1e6, cachedBytes / 1024, cache.hitCount(), cache.missCount()));
+
+        assertEquals(files.length, cache.missCount());
+        assertTrue(cachedBytes * (switches / tabs.size()) <= uncachedBytes);
+        assertTrue(cachedNanos < uncachedNanos);
+    }
+
+    /**
+     * Show each tab in turn, as many times as given, and return the number of bytes decoded.
+     */
+    private static long decodeTabs(List<List<File>> tabs, int switches, ByteLruCache<String, BufferedImage> cache)
+            throws IOException {
+        long bytes = 0;
+        for (int s = 0; s < switches; s++) {
+            for (File file : tabs.get(s % tabs.size())) {
+                BufferedImage image = cache == null ? null : cache.get(file.getName());
+                if (image == null) {
+                    image = ImageIO.read(file);
+                    bytes += image.getWidth() * image.getHeight() * 4L;
+                    if (cache != null) {
+                        cache.put(file.getName(), image);
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+
+    private static final int TAB_SIZE = 12;
+}
@@ -0,0 +1,104 @@
+package com.github.wulfaz.android.openkarotz.image;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class LogoAtlasTest {
+
+    @Test
+    public void testReadIndex() throws IOException {
+        LogoAtlas atlas = LogoAtlas.read(index(0x4F4B4C41, 160, 80, new Object[] { "fip", 0, 0, 80, 80 },
+                new Object[] { "rtl", 80, 0, 80, 43 }));
+
+        assertEquals(80, atlas.getCellSize());
+        assertEquals(160, atlas.getWidth());
+        assertEquals(80, atlas.getHeight());
+        assertEquals(2, atlas.size());
+        assertEquals("80x43+80+0", atlas.get("rtl").toString());
+        assertEquals(80, atlas.get("fip").getWidth());
+        assertNull(atlas.get("nrj"));
+    }
+
+    @Test
+    public void testBadMagic() {
+        try {
+            LogoAtlas.read(index(0x89504E47, 80, 80, new Object[] { "fip", 0, 0, 80, 80 }));
+            fail("PNG header should not be read as an index");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testEntryOutOfAtlas() {
+        try {
+            LogoAtlas.read(index(0x4F4B4C41, 80, 80, new Object[] { "fip", 40, 0, 80, 80 }));
+            fail("Entry out of the atlas should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTruncatedIndex() throws IOException {
+        byte[] data = index(0x4F4B4C41, 80, 80, new Object[] { "fip", 0, 0, 80, 80 }).readAllBytes();
+        try {
+            LogoAtlas.read(new ByteArrayInputStream(data, 0, data.length - 2));
+            fail("Truncated index should throw");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testParseCellSizes() {
+        String[] files = { "radios-80.png", "radios-80.idx", "radios-60.idx", "radios-60.png", "other-40.idx", "radios-x.idx" };
+
+        assertArrayEquals(new int[] { 60, 80 }, LogoAtlas.parseCellSizes(files, "radios"));
+        assertArrayEquals(new int[] { 40 }, LogoAtlas.parseCellSizes(files, "other"));
+        assertArrayEquals(new int[0], LogoAtlas.parseCellSizes(null, "radios"));
+        assertEquals("atlas/radios-80.idx", LogoAtlas.getIndexPath("radios", 80));
+        assertEquals("atlas/radios-80.png", LogoAtlas.getImagePath("radios", 80));
+    }
+
+    @Test
+    public void testChooseCellSize() {
+        int[] sizes = { 60, 80 };
+
+        assertEquals(60, LogoAtlas.chooseCellSize(sizes, 40));
+        assertEquals(60, LogoAtlas.chooseCellSize(sizes, 60));
+        assertEquals(80, LogoAtlas.chooseCellSize(sizes, 61));
+        assertEquals(80, LogoAtlas.chooseCellSize(sizes, 240));
+        assertEquals(-1, LogoAtlas.chooseCellSize(new int[0], 80));
+    }
+
+    /**
+     * Write an index as the generateLogoAtlas task does.
+     */
+    private static ByteArrayInputStream index(int magic, int width, int height, Object[]... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(magic);
+        out.writeShort(1);
+        out.writeShort(80);
+        out.writeShort(width);
+        out.writeShort(height);
+        out.writeInt(entries.length);
+        for (Object[] entry : entries) {
+            out.writeUTF((String) entry[0]);
+            for (int i = 1; i < 5; i++) {
+                out.writeShort((Integer) entry[i]);
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
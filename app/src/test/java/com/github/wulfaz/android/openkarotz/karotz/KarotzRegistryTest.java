@@ -0,0 +1,121 @@
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class KarotzRegistryTest {
+
+    @After
+    public void tearDown() throws Exception {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+    }
+
+    @Test
+    public void testSwitchingKeepsClientsAndState() throws Exception {
+        first = new MockKarotz();
+        second = new MockKarotz();
+        KarotzRegistry registry = new KarotzRegistry(KarotzRegistry.DEFAULT_CAPACITY, OpenKarotz::new);
+
+        IKarotz a = registry.get(1, first.getHost(), first.getPort());
+        a.getColor();
+        IKarotz b = registry.get(2, second.getHost(), second.getPort());
+        b.getColor();
+        IKarotz again = registry.get(1, first.getHost(), first.getPort());
+        again.getColor();
+
+        assertSame(a, again);
+        assertNotSame(a, b);
+        assertEquals(2, registry.getCreateCount());
+        // The status of the first rabbit is still cached, each rabbit got its own request
+        assertEquals(1, first.getRequestCount("/cgi-bin/status"));
+        assertEquals(1, second.getRequestCount("/cgi-bin/status"));
+    }
+
+    @Test
+    public void testPortIsUsed() throws Exception {
+        first = new MockKarotz();
+        second = new MockKarotz();
+        KarotzRegistry registry = new KarotzRegistry(KarotzRegistry.DEFAULT_CAPACITY, OpenKarotz::new);
+
+        registry.get(1, second.getHost(), second.getPort()).led(0x123456, false);
+
+        assertEquals(0, first.getRequestCount("/cgi-bin/leds"));
+        assertEquals(1, second.getRequestCount("/cgi-bin/leds"));
+        assertEquals("123456", second.getLedColor());
+    }
+
+    @Test
+    public void testAddressChangeReplacesClient() {
+        KarotzRegistry registry = new KarotzRegistry(KarotzRegistry.DEFAULT_CAPACITY, OpenKarotz::new);
+
+        IKarotz a = registry.get(1, "192.168.1.10", 80);
+        assertSame(a, registry.get(1, "192.168.1.10", 80));
+        IKarotz otherPort = registry.get(1, "192.168.1.10", 8080);
+        assertNotSame(a, otherPort);
+        IKarotz otherHost = registry.get(1, "192.168.1.11", 8080);
+        assertNotSame(otherPort, otherHost);
+        assertEquals("192.168.1.11", otherHost.getHostname());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        KarotzRegistry registry = new KarotzRegistry(2, OpenKarotz::new);
+
+        IKarotz a = registry.get(1, "192.168.1.1", 80);
+        registry.get(2, "192.168.1.2", 80);
+        // Use 1, so 2 is the eldest
+        registry.get(1, "192.168.1.1", 80);
+        registry.get(3, "192.168.1.3", 80);
+
+        assertEquals(2, registry.size());
+        assertSame(a, registry.peek(1));
+        assertNull(registry.peek(2));
+
+        registry.remove(1);
+        assertNull(registry.peek(1));
+        registry.clear();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testConcurrentGetCreatesOneClient() throws Exception {
+        KarotzRegistry registry = new KarotzRegistry(KarotzRegistry.DEFAULT_CAPACITY, OpenKarotz::new);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<IKarotz>> results = new ArrayList<Future<IKarotz>>();
+        for (int i = 0; i < 64; i++) {
+            long id = i % 4;
+            results.add(pool.submit(() -> registry.get(id, "192.168.1." + id, 80)));
+        }
+        for (Future<IKarotz> f : results) {
+            f.get();
+        }
+        pool.shutdown();
+
+        assertEquals(4, registry.getCreateCount());
+        for (long id = 0; id < 4; id++) {
+            assertSame(results.get((int) id).get(), registry.peek(id));
+        }
+    }
+
+
+    private MockKarotz first;
+
+    private MockKarotz second;
+}
@@ -0,0 +1,343 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.EarMode;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
+
+public class KarotzResponseDecoderTest {
+
+    @Test
+    public void testDecodeStatus() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        assertTrue(decoder.decodeStatus(stream(STATUS_210)));
+        KarotzResponseDecoder.Status status = decoder.getStatus();
+        assertTrue(status.isValid());
+        assertTrue(status.isSleeping());
+        assertFalse(status.isPulsing());
+        assertFalse(status.isEarsDisabled());
+        assertEquals(0x000000, status.getLedColor());
+        assertEquals("210/310", status.getVersion().toString());
+        assertEquals("147.3M", status.freeSpace);
+        assertEquals("37", status.percentUsed);
+        assertEquals("01:23:45:67:89:AB", status.wlanMac);
+        assertEquals("305", status.nbMoods);
+        assertEquals("14", status.nbSounds);
+        assertEquals("6", status.nbTags);
+        assertEquals(1, status.ttsCacheSize);
+
+        // Holder is reused, and missing patch is reported as before
+        assertTrue(decoder.decodeStatus(stream(STATUS_200)));
+        assertSame(status, decoder.getStatus());
+        assertFalse(status.isSleeping());
+        assertTrue(status.isPulsing());
+        assertEquals(0x0000FF, status.getLedColor());
+        assertEquals("200/undefined", status.getVersion().toString());
+        assertEquals("148.4M", status.freeSpace);
+        assertEquals("4", status.nbTags);
+    }
+
+    @Test
+    public void testDecodeStatusMatchesJsonState() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        for (String json : new String[] { STATUS_200, STATUS_201, STATUS_210 }) {
+            assertTrue(decoder.decodeStatus(stream(json)));
+            OpenKarotzState streamed = new OpenKarotzState(decoder.getStatus());
+            OpenKarotzState parsed = new OpenKarotzState(json);
+
+            assertEquals(parsed.getStatus(), streamed.getStatus());
+            assertEquals(parsed.getEarMode(), streamed.getEarMode());
+            assertEquals(parsed.isPulsing(), streamed.isPulsing());
+            assertEquals(parsed.getVersion().toString(), streamed.getVersion().toString());
+            assertEquals(parsed.getFreeSpace(), streamed.getFreeSpace());
+            assertEquals(parsed.getPercentUsed(), streamed.getPercentUsed());
+            assertEquals(parsed.getWlanMac(), streamed.getWlanMac());
+            assertEquals(parsed.getNbMoods(), streamed.getNbMoods());
+            assertEquals(parsed.getNbSounds(), streamed.getNbSounds());
+            assertEquals(parsed.getNbTags(), streamed.getNbTags());
+            assertEquals(parsed.getTtsCacheSize(), streamed.getTtsCacheSize());
+        }
+    }
+
+    @Test
+    public void testDecodeStatusReusesUnchangedValues() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        assertTrue(decoder.decodeStatus(stream(STATUS_210)));
+        KarotzResponseDecoder.Status status = decoder.getStatus();
+        String mac = status.wlanMac;
+        String freeSpace = status.freeSpace;
+        IKarotz.KarotzVersion version = status.getVersion();
+
+        assertTrue(decoder.decodeStatus(stream(STATUS_210)));
+        assertSame(mac, status.wlanMac);
+        assertSame(freeSpace, status.freeSpace);
+        assertSame(version, status.getVersion());
+    }
+
+    @Test
+    public void testDecodeStatusMissingFields() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        assertTrue(decoder.decodeStatus(stream(STATUS_210)));
+        assertFalse(decoder.decodeStatus(stream("{\"version\":\"200\",\"sleep\":\"0\"}")));
+        assertFalse(decoder.getStatus().isValid());
+        assertEquals("-", decoder.getStatus().wlanMac);
+
+        OpenKarotzState state = new OpenKarotzState(decoder.getStatus());
+        assertEquals(KarotzStatus.UNKNOWN, state.getStatus());
+    }
+
+    @Test
+    public void testDecodeStatusVersionAsSent() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        // Versions are not always numbers, and are reported as the JSON parser does
+        String[] jsons = { STATUS_210.replace("\"210\"", "\"2.0.1\"").replace("\"310\"", "\"rc1\""),
+                STATUS_210.replace("\"210\"", "\"0210\"").replace("\"310\"", "\"\""),
+                STATUS_200.replace("\"200\"", "\"\"") };
+        String[] versions = { "2.0.1/rc1", "0210", "/undefined" };
+        for (int i = 0; i < jsons.length; i++) {
+            assertTrue(jsons[i], decoder.decodeStatus(stream(jsons[i])));
+            assertTrue(decoder.getStatus().isValid());
+            assertEquals(versions[i], decoder.getStatus().getVersion().toString());
+            assertEquals(new OpenKarotzState(jsons[i]).getVersion().toString(),
+                    new OpenKarotzState(decoder.getStatus()).getVersion().toString());
+        }
+    }
+
+    @Test
+    public void testDecodeStatusUnknownTtsCacheSize() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        for (String size : new String[] { "", "n/a", "12345678901" }) {
+            String json = STATUS_210.replace("\"tts_cache_size\":\"1\"", "\"tts_cache_size\":\"" + size + "\"");
+            assertTrue(json, decoder.decodeStatus(stream(json)));
+            assertTrue(decoder.getStatus().isValid());
+            assertEquals(-1, decoder.getStatus().ttsCacheSize);
+            assertEquals(new OpenKarotzState(json).getTtsCacheSize(),
+                    new OpenKarotzState(decoder.getStatus()).getTtsCacheSize());
+        }
+    }
+
+    @Test
+    public void testDecodeStatusMalformed() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        assertFalse(decoder.decodeStatus(stream("")));
+        assertFalse(decoder.decodeStatus(stream("<html>Not found</html>")));
+        assertFalse(decoder.decodeStatus(stream(STATUS_210.substring(0, 100))));
+        assertFalse(decoder.decodeStatus(stream(STATUS_210.replace("\"000000\"", "\"black\""))));
+        assertFalse(decoder.decodeStatus(stream(STATUS_210.replace(",\"led_pulse\"", "\"led_pulse\""))));
+    }
+
+    @Test
+    public void testDecodeSkipsUnknownValues() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        String json = "{ \"extra\" : { \"a\": [1, 2, {\"b\": \"}\"}] },\n"
+                + "  \"msg\": \"Escaped \\\"quote\\\" and \\u00e9\",\n"
+                + "  \"sleep\": 0, \"ears_disabled\": true, \"led_color\": \"ff00AA\",\n"
+                + "  \"wlan_mac\": \"caf\\u00e9\", \"a_very_long_key_that_does_not_fit_the_key_buffer\": null }";
+        assertTrue(decoder.decodeStatus(stream(json)));
+        KarotzResponseDecoder.Status status = decoder.getStatus();
+        assertFalse(status.isSleeping());
+        assertTrue(status.isEarsDisabled());
+        assertEquals(0xFF00AA, status.getLedColor());
+        assertEquals("caf\u00e9", status.wlanMac);
+    }
+
+    @Test
+    public void testDecodeEars() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        assertTrue(decoder.decodeEars(stream("{\"return\":\"0\",\"left\":\"7\",\"right\":\"12\"}")));
+        KarotzResponseDecoder.Ears ears = decoder.getEars();
+        assertTrue(ears.isOk());
+        assertEquals(7, ears.getLeft());
+        assertEquals(12, ears.getRight());
+
+        // Key order does not matter
+        assertTrue(decoder.decodeEars(stream("{\"left\":\"3\",\"right\":\"4\",\"return\":\"0\"}")));
+        assertSame(ears, decoder.getEars());
+        assertTrue(ears.isOk());
+        assertEquals(3, ears.getLeft());
+        assertEquals(4, ears.getRight());
+
+        // Error
+        assertTrue(decoder.decodeEars(stream("{\"return\":\"1\",\"msg\":\"Unable to perform action, rabbit is sleeping.\"}")));
+        assertTrue(ears.isValid());
+        assertFalse(ears.isSuccess());
+        assertFalse(ears.isOk());
+
+        // Reset answer has no positions
+        assertTrue(decoder.decodeEars(stream("{\"return\":\"0\"}")));
+        assertTrue(ears.isSuccess());
+        assertFalse(ears.isOk());
+
+        assertFalse(decoder.decodeEars(stream("{\"return\":\"0\",\"left\":\"x\",\"right\":\"1\"}")));
+        assertFalse(ears.isValid());
+    }
+
+    @Test
+    public void testDecodeAcrossReadBoundaries() throws IOException {
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        // Stream returning one byte at a time, like a slow socket
+        byte[] bytes = STATUS_210.getBytes(StandardCharsets.UTF_8);
+        InputStream in = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        assertTrue(decoder.decodeStatus(in));
+        assertEquals("01:23:45:67:89:AB", decoder.getStatus().wlanMac);
+
+        // Payload larger than the internal buffer
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < 100; i++) {
+            sb.append("\"padding").append(i).append("\":\"0123456789\",");
+        }
+        sb.append(STATUS_210.substring(1));
+        assertTrue(decoder.decodeStatus(stream(sb.toString())));
+        assertTrue(decoder.getStatus().isSleeping());
+    }
+
+    @Test
+    public void benchmarkDecoding() throws Exception {
+        // Comparison with the org.json path, on the documented sample payloads
+        byte[] status = STATUS_210.getBytes(StandardCharsets.UTF_8);
+        byte[] ears = EARS.getBytes(StandardCharsets.UTF_8);
+        KarotzResponseDecoder decoder = new KarotzResponseDecoder();
+
+        // Warm up
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            statusWithJson(status);
+            statusWithDecoder(decoder, status);
+            earsWithJson(ears);
+            earsWithDecoder(decoder, ears);
+        }
+
+        long statusJson = 0;
+        long statusDecoder = 0;
+        long earsJson = 0;
+        long earsDecoder = 0;
+        int checksum = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                checksum += statusWithJson(status).getStatus().ordinal();
+            }
+            statusJson += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                checksum += statusWithDecoder(decoder, status).getStatus().ordinal();
+            }
+            statusDecoder += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                checksum += earsWithJson(ears);
+            }
+            earsJson += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                checksum += earsWithDecoder(decoder, ears);
+            }
+            earsDecoder += System.nanoTime() - start;
+        }
+
+        long n = (long) BENCHMARK_ITERATIONS * BENCHMARK_ROUNDS;
+        System.out.println(String.format("/status org.json: %.2f us/op, streaming: %.2f us/op",
+                statusJson / 1000.0 / n, statusDecoder / 1000.0 / n));
+        System.out.println(String.format("/ears   org.json: %.2f us/op, streaming: %.2f us/op (checksum %d)",
+                earsJson / 1000.0 / n, earsDecoder / 1000.0 / n, checksum));
+    }
+
+    private static OpenKarotzState statusWithJson(byte[] body) {
+        // Buffer into a string, then parse into a map
+        return new OpenKarotzState(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static OpenKarotzState statusWithDecoder(KarotzResponseDecoder decoder, byte[] body) throws IOException {
+        decoder.decodeStatus(new ByteArrayInputStream(body));
+        return new OpenKarotzState(decoder.getStatus());
+    }
+
+    private static int earsWithJson(byte[] body) throws JSONException {
+        JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        if (!"0".equals(json.getString("return"))) {
+            return 0;
+        }
+        return Integer.valueOf(json.getString("left")).intValue() + Integer.valueOf(json.getString("right")).intValue();
+    }
+
+    private static int earsWithDecoder(KarotzResponseDecoder decoder, byte[] body) throws IOException {
+        decoder.decodeEars(new ByteArrayInputStream(body));
+        KarotzResponseDecoder.Ears ears = decoder.getEars();
+        return ears.isOk() ? ears.getLeft() + ears.getRight() : 0;
+    }
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    // Sample answers documented in OpenKarotzState and OpenKarotz
+    private static final String STATUS_200 = "{\"version\":\"200\",\"ears_disabled\":\"0\",\"sleep\":\"0\",\"sleep_time\":\"0\",\"led_color\":\"0000FF\",\"led_pulse\":\"1\",\"tts_cache_size\":\"4\",\"usb_free_space\":\"-1\",\"karotz_free_space\":\"148.4M\",\"eth_mac\":\"00:00:00:00:00:00\",\"wlan_mac\":\"01:23:45:67:89:AB\",\"nb_tags\":\"4\",\"nb_moods\":\"305\",\"nb_sounds\":\"14\",\"nb_stories\":\"0\",\"karotz_percent_used_space\":\"37\",\"usb_percent_used_space\":\"\"}";
+
+    private static final String STATUS_201 = "{\"version\":\"201\", \"ears_disabled\":\"0\", \"sleep\":\"0\",\"sleep_time\":\"0\",\"led_color\":\"FFC0CB\",\"led_pulse\":\"1\",\"tts_cache_size\":\"0\", \"usb_free_space\":\"-1\",\"karotz_free_space\":\"148.6M\", \"eth_mac\":\"00:00:00:00:00:00\", \"wlan_mac\":\"00:0E:8E:2C:BD:EE\",\"nb_tags\":\"1\", \"nb_moods\":\"305\",\"nb_sounds\":\"14\",\"nb_stories\":\"0\",\"karotz_percent_used_space\":\"36\",\"usb_percent_used_space\":\"\",\"data_dir\":\"/usr/openkarotz\"}";
+
+    private static final String STATUS_210 = "{\"version\":\"210\",\"patch\":\"310\",\"ears_disabled\":\"0\",\"sleep\":\"1\",\"sleep_time\":\"1754001236\",\"led_color\":\"000000\",\"led_pulse\":\"0\",\"tts_cache_size\":\"1\",\"usb_free_space\":\"-1\",\"karotz_free_space\":\"147.3M\",\"eth_mac\":\"00:00:00:00:00:00\",\"wlan_mac\":\"01:23:45:67:89:AB\",\"nb_tags\":\"6\",\"nb_moods\":\"305\",\"nb_sounds\":\"14\",\"nb_stories\":\"0\",\"karotz_percent_used_space\":\"37\",\"usb_percent_used_space\":\"\",\"data_dir\":\"/usr/openkarotz\"}";
+
+    private static final String EARS = "{\"left\":\"5\",\"right\":\"11\",\"return\":\"0\"}";
+
+    private static final int BENCHMARK_ITERATIONS = 20000;
+
+    private static final int BENCHMARK_ROUNDS = 5;
+}
@@ -0,0 +1,131 @@
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.command.CommandExecutor;
+import com.github.wulfaz.android.openkarotz.command.LatencyTracker;
+import com.github.wulfaz.android.openkarotz.net.KeepAliveTransport;
+import com.github.wulfaz.android.openkarotz.net.NetUtils;
+
+/**
+ * Live LED preview: colors streamed through the coalescing command queue to a mock Karotz.
+ */
+public class LedStreamingTest {
+
+    @Before
+    public void setUp() throws IOException {
+        NetUtils.setTransport(new KeepAliveTransport());
+        mock = new MockKarotz();
+        karotz = mock.newClient();
+        executor = new CommandExecutor("leds", CommandExecutor.DEFAULT_THREADS, 64, Runnable::run);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        mock.close();
+    }
+
+    @Test
+    public void testLastColorIsFlushed() throws Exception {
+        executor.setMinInterval(KEY, 20);
+        int n = 200;
+        CountDownLatch over = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            stream(0xFF0000 | i, over, null);
+        }
+
+        assertTrue(over.await(5, TimeUnit.SECONDS));
+        assertEquals(String.format("%06X", 0xFF0000 | (n - 1)), mock.getLedColor());
+        assertTrue(mock.getRequestCount("/cgi-bin/leds") < n / 10);
+        assertEquals(mock.getRequestCount("/cgi-bin/leds") + executor.getCoalescedCount(), n);
+    }
+
+    /**
+     * Reports the updates per second sustained while a slider is dragged, for several throttling intervals.
+     */
+    @Test
+    public void benchmarkLiveUpdates() throws Exception {
+        // Time taken by the Karotz to change its LED
+        mock.getServer().setResponseDelayMillis(5);
+
+        for (long interval : new long[] { 0, 20, 50, 100 }) {
+            executor.setMinInterval(KEY, interval);
+            LatencyTracker latency = new LatencyTracker();
+            int before = mock.getRequestCount("/cgi-bin/leds");
+            long coalescedBefore = executor.getCoalescedCount();
+
+            // Slider moved every 2 ms for one second
+            int n = 500;
+            CountDownLatch over = new CountDownLatch(n);
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                stream((i * 0x010203) & 0xFFFFFF, over, latency);
+                Thread.sleep(2);
+            }
+            assertTrue(over.await(5, TimeUnit.SECONDS));
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int sent = mock.getRequestCount("/cgi-bin/leds") - before;
+            System.out.println(String.format(
+                    "Interval %3d ms: %d slider moves, %d updates sent, %.1f updates/s, last %d ms, avg %d ms",
+                    interval, n, sent, sent / seconds, latency.getLastMillis(), latency.getAverageMillis()));
+
+            assertEquals(n, sent + executor.getCoalescedCount() - coalescedBefore);
+            assertEquals(String.format("%06X", ((n - 1) * 0x010203) & 0xFFFFFF), mock.getLedColor());
+            if (interval > 0) {
+                assertTrue(sent <= seconds * 1000 / interval + 2);
+            }
+        }
+
+        // All updates went through persistent connections
+        assertTrue(mock.getServer().getConnectionCount() <= CommandExecutor.DEFAULT_THREADS);
+    }
+
+    private void stream(int color, CountDownLatch over, LatencyTracker latency) {
+        AtomicInteger unused = new AtomicInteger();
+        executor.submitLatest(KEY, null, () -> {
+            long start = System.nanoTime();
+            karotz.led(color, false);
+            if (latency != null) {
+                latency.record(System.nanoTime() - start);
+            }
+            return unused.get();
+        }, new CommandExecutor.Callback<Integer>() {
+
+            @Override
+            public void onResult(Integer result) {
+                over.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                over.countDown();
+            }
+
+            @Override
+            public void onCancelled() {
+                over.countDown();
+            }
+        });
+    }
+
+
+    private MockKarotz mock;
+
+    private OpenKarotz karotz;
+
+    private CommandExecutor executor;
+
+    private static final String KEY = "leds";
+}
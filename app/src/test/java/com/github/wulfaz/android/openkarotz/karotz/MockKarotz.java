@@ -0,0 +1,254 @@
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+
+/**
+ * Local mock of an OpenKarotz web API, keeping the LED and ear state between requests.
+ * <p>
+ * TTS requests are answered like the Karotz does: phrases are kept in a cache by voice and text, and replayed unless
+ * the request has a <code>nocache</code> parameter. Synthesizing a phrase takes {@link #setTtsSynthesisMillis(long)}.
+ * The answer is sent when the phrase starts playing, for {@link #setTtsMillisPerChar(double)} per character; a new
+ * phrase or <code>sound_control</code> interrupts the phrase playing. Playbacks are recorded to check their timing.
+ */
+public class MockKarotz implements Closeable {
+
+    public MockKarotz() throws IOException {
+        server = new StubHttpServer(this::handle);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Create a client of this mock.
+     */
+    public OpenKarotz newClient() {
+        return new OpenKarotz(server.getHost(), server.getPort());
+    }
+
+    public String getHost() {
+        return server.getHost();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public StubHttpServer getServer() {
+        return server;
+    }
+
+    /**
+     * Get the number of requests received for an API, such as <code>/cgi-bin/leds</code>.
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Get the time the last request for an API was received, from {@link System#nanoTime()}.
+     */
+    public long getLastRequestNanos(String path) {
+        Long time = lastRequests.get(path);
+        return time == null ? 0 : time;
+    }
+
+    public synchronized String getLedColor() {
+        return ledColor;
+    }
+
+    public synchronized boolean isPulsing() {
+        return pulse;
+    }
+
+    public synchronized int getLeftEar() {
+        return left;
+    }
+
+    public synchronized int getRightEar() {
+        return right;
+    }
+
+    /**
+     * Get the number of phrases in the TTS cache.
+     */
+    public synchronized int getTtsCacheSize() {
+        return ttsCache.size();
+    }
+
+    /**
+     * Clear the TTS cache, like the Karotz does when it runs out of space.
+     */
+    public synchronized void clearTtsCache() {
+        ttsCache.clear();
+    }
+
+    /**
+     * Get the phrases played, in order.
+     */
+    public synchronized List<Playback> getTtsPlaybacks() {
+        return new ArrayList<Playback>(playbacks);
+    }
+
+    /**
+     * Set the playing time of a character, <code>0</code> by default.
+     */
+    public void setTtsMillisPerChar(double millis) {
+        ttsMillisPerChar = millis;
+    }
+
+    /**
+     * Set the time taken to synthesize a phrase that is not in the cache.
+     */
+    public void setTtsSynthesisMillis(long millis) {
+        ttsSynthesisMillis = millis;
+    }
+
+    private StubHttpServer.Response handle(StubHttpServer.Request request) {
+        String path = request.getPath();
+        lastRequests.put(path, System.nanoTime());
+        requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+        if ("/cgi-bin/tts".equals(path)) {
+            return tts(request);
+        }
+
+        synchronized (this) {
+            switch (path) {
+            case "/cgi-bin/status":
+                return ok("{\"version\":\"200\",\"ears_disabled\":\"0\",\"sleep\":\"0\",\"sleep_time\":\"0\","
+                        + "\"led_color\":\"" + ledColor + "\",\"led_pulse\":\"" + (pulse ? 1 : 0) + "\","
+                        + "\"karotz_free_space\":\"148.4M\",\"wlan_mac\":\"01:23:45:67:89:AB\",\"nb_tags\":\"4\","
+                        + "\"nb_moods\":\"305\",\"nb_sounds\":\"14\",\"karotz_percent_used_space\":\"37\","
+                        + "\"tts_cache_size\":\"" + ttsCache.size() + "\"}");
+            case "/cgi-bin/leds":
+                ledColor = request.getParameter("color").toUpperCase(Locale.ROOT);
+                pulse = "1".equals(request.getParameter("pulse"));
+                return ok("{\"color\":\"" + ledColor + "\",\"secondary_color\":\"000000\",\"pulse\":\""
+                        + (pulse ? 1 : 0) + "\",\"no_memory\":\"0\",\"speed\":\"700\",\"return\":\"0\"}");
+            case "/cgi-bin/sound_control":
+                if (!stopPlayback(System.nanoTime())) {
+                    return ok("{\"return\":\"1\",\"msg\":\"No sound currently playing.\"}");
+                }
+                return ok("{\"return\":\"0\"}");
+            case "/cgi-bin/ears":
+                left = Integer.parseInt(request.getParameter("left"));
+                right = Integer.parseInt(request.getParameter("right"));
+                return ok("{\"return\":\"0\",\"left\":\"" + left + "\",\"right\":\"" + right + "\"}");
+            default:
+                return ok("{\"return\":\"0\"}");
+            }
+        }
+    }
+
+    private StubHttpServer.Response tts(StubHttpServer.Request request) {
+        String voice = request.getParameter("voice");
+        String text = request.getParameter("text");
+        String id = md5(voice + ":" + text);
+        boolean cached;
+        synchronized (this) {
+            cached = request.getParameter("nocache") == null && ttsCache.containsKey(id);
+        }
+        if (!cached) {
+            try {
+                Thread.sleep(ttsSynthesisMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            ttsCache.put(id, text);
+            long now = System.nanoTime();
+            stopPlayback(now);
+            playbacks.add(new Playback(text, now, now + (long) (text.length() * ttsMillisPerChar * 1e6)));
+        }
+        return ok("{\"played\":\"1\",\"cache\":" + cached + ",\"voicelanguage\":\"fr\",\"voicegender\":\"male\","
+                + "\"id\":\"" + id + "\",\"return\":true}");
+    }
+
+    private boolean stopPlayback(long now) {
+        Playback playing = playbacks.isEmpty() ? null : playbacks.get(playbacks.size() - 1);
+        if (playing == null || playing.endNanos <= now) {
+            return false;
+        }
+        playing.endNanos = now;
+        playing.interrupted = true;
+        return true;
+    }
+
+    private static String md5(String s) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static StubHttpServer.Response ok(String body) {
+        return StubHttpServer.Response.ok(body);
+    }
+
+
+    private final StubHttpServer server;
+
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final Map<String, Long> lastRequests = new ConcurrentHashMap<String, Long>();
+
+    private String ledColor = "00FF00";
+
+    private boolean pulse = false;
+
+    private int left = 0;
+
+    private int right = 0;
+
+    private final Map<String, String> ttsCache = new HashMap<String, String>();
+
+    private volatile long ttsSynthesisMillis = 0;
+
+    private volatile double ttsMillisPerChar = 0;
+
+    private final List<Playback> playbacks = new ArrayList<Playback>();
+
+    /**
+     * A phrase played, with the times it started and ended, from {@link System#nanoTime()}.
+     */
+    public static final class Playback {
+
+        Playback(String text, long startNanos, long endNanos) {
+            this.text = text;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public final String text;
+
+        public final long startNanos;
+
+        public long endNanos;
+
+        /** Whether the phrase was cut by another phrase or stopped. */
+        public boolean interrupted;
+    }
+}
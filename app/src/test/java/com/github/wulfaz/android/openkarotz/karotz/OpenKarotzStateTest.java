@@ -0,0 +1,198 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.EarMode;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.EarPosition;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
+
+public class OpenKarotzStateTest {
+
+    @Test
+    public void testWithCopies() {
+        OpenKarotzState state = new OpenKarotzState().withStatus(KarotzStatus.AWAKE);
+
+        OpenKarotzState led = state.withLed(0xFF0000FF, false);
+        assertNotSame(state, led);
+        assertEquals(0x0000FF, led.getLedColor());
+        assertEquals(false, led.isPulsing());
+        assertEquals(KarotzStatus.AWAKE, led.getStatus());
+
+        // Original snapshot is untouched
+        assertEquals(0x00FF00, state.getLedColor());
+        assertEquals(true, state.isPulsing());
+
+        OpenKarotzState ears = led.withEarPositions(EarPosition.POSITION_3, EarPosition.POSITION_7).withEarMode(EarMode.DISABLED);
+        assertEquals(EarPosition.POSITION_3, ears.getLeftEarPosition());
+        assertEquals(EarPosition.POSITION_7, ears.getRightEarPosition());
+        assertEquals(EarMode.DISABLED, ears.getEarMode());
+        assertEquals(0x0000FF, ears.getLedColor());
+        assertEquals(EarPosition.POSITION_1, led.getLeftEarPosition());
+        assertEquals(EarMode.ENABLED, led.getEarMode());
+
+        OpenKarotzState info = ears.withSystemInfo("147.3M", "37", "01:23:45:67:89:AB", "305", "14", "6");
+        assertEquals("01:23:45:67:89:AB", info.getWlanMac());
+        assertEquals("", ears.getWlanMac());
+        assertSame(EarMode.DISABLED, info.getEarMode());
+
+        OpenKarotzState sized = info.withTtsCacheSize(3);
+        assertEquals(3, sized.getTtsCacheSize());
+        assertEquals(-1, info.getTtsCacheSize());
+        assertEquals("01:23:45:67:89:AB", sized.getWlanMac());
+        assertEquals(EarPosition.POSITION_7, sized.getRightEarPosition());
+    }
+
+    @Test
+    public void testPatchesAreNotLost() throws Exception {
+        StatusCache cache = new StatusCache(() -> new OpenKarotzState().withStatus(KarotzStatus.AWAKE).withLed(0, false), 60000);
+        cache.get();
+
+        // Every thread increments the LED color, like many commands patching the status at once
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    cache.patch(s -> s.withLed(s.getLedColor() + 1, (s.getLedColor() + 1) % 2 == 0));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : results) {
+            f.get();
+        }
+        pool.shutdown();
+
+        assertEquals(THREADS * ITERATIONS, cache.peek().getLedColor());
+    }
+
+    @Test
+    public void stressSnapshotsAreConsistent() throws Exception {
+        // Writers always keep LED color, pulse and ear positions in sync: a reader seeing a mix of two snapshots
+        // would break the invariant
+        AtomicInteger loads = new AtomicInteger();
+        StatusCache cache = new StatusCache(() -> {
+            loads.incrementAndGet();
+            return consistent(new OpenKarotzState().withStatus(KarotzStatus.AWAKE), 0);
+        }, 0);
+        cache.get();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS * 2 + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger snapshots = new AtomicInteger();
+        AtomicInteger gets = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * ITERATIONS;
+            writers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int value = offset + i;
+                    cache.patch(s -> consistent(s, value));
+                    if (i % 100 == 0) {
+                        cache.invalidate();
+                    }
+                }
+                return null;
+            }));
+            readers.add(pool.submit(() -> {
+                start.await();
+                do {
+                    assertConsistent(cache.peek());
+                    snapshots.incrementAndGet();
+                } while (running.get());
+                return null;
+            }));
+        }
+        // Loader publishing fresh snapshots concurrently
+        readers.add(pool.submit(() -> {
+            start.await();
+            do {
+                assertConsistent(cache.get());
+                gets.incrementAndGet();
+            } while (running.get());
+            return null;
+        }));
+
+        start.countDown();
+        for (Future<?> f : writers) {
+            f.get();
+        }
+        running.set(false);
+        for (Future<?> f : readers) {
+            f.get();
+        }
+        pool.shutdown();
+
+        assertConsistent(cache.peek());
+        assertTrue(snapshots.get() >= THREADS);
+        // Without TTL every get loads, unless it joins a load in flight; peeks never load
+        assertTrue(loads.get() > 1);
+        assertTrue(loads.get() <= gets.get() + 1);
+    }
+
+    private static OpenKarotzState consistent(OpenKarotzState state, int value) {
+        EarPosition ear = EarPosition.fromIntValue(1 + value % 16);
+        return state.withLed(value, value % 2 == 0).withEarPositions(ear, ear);
+    }
+
+    private static void assertConsistent(OpenKarotzState state) {
+        int value = state.getLedColor();
+        assertEquals(value % 2 == 0, state.isPulsing());
+        assertEquals(EarPosition.fromIntValue(1 + value % 16), state.getLeftEarPosition());
+        assertEquals(state.getLeftEarPosition(), state.getRightEarPosition());
+    }
+
+
+    private static final int THREADS = 8;
+
+    private static final int ITERATIONS = 20000;
+}
@@ -0,0 +1,168 @@
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.EarMode;
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
+import com.github.wulfaz.android.openkarotz.net.Cancellation;
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+
+public class RetrofitOpenKarotzTest {
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            RetrofitOpenKarotz karotz = newClient(mock);
+
+            assertEquals(KarotzStatus.AWAKE, karotz.getStatus());
+            assertEquals("200/undefined", karotz.getVersion().toString());
+            assertEquals(EarMode.ENABLED, karotz.getEarMode());
+            assertFalse(karotz.isPulsing());
+
+            OpenKarotzState state = karotz.getState();
+            assertEquals("148.4M", state.getFreeSpace());
+            assertEquals("37", state.getPercentUsed());
+            assertEquals("01:23:45:67:89:AB", state.getWlanMac());
+            assertEquals("305", state.getNbMoods());
+            assertEquals("14", state.getNbSounds());
+            assertEquals("4", state.getNbTags());
+            assertEquals(0, state.getTtsCacheSize());
+
+            // Getters answer from the cached status
+            karotz.getEarMode();
+            assertEquals(1, mock.getRequestCount("/cgi-bin/status"));
+        }
+    }
+
+    @Test
+    public void testLed() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            RetrofitOpenKarotz karotz = newClient(mock);
+
+            karotz.led(0xFF8000, true);
+            assertEquals("FF8000", mock.getLedColor());
+            assertTrue(mock.isPulsing());
+            assertTrue(karotz.isPulsing());
+            assertEquals(0xFF8000, karotz.getState().getLedColor());
+
+            // No change, no request
+            karotz.led(0xFF8000, true);
+            assertEquals(1, mock.getRequestCount("/cgi-bin/leds"));
+            assertEquals(1, mock.getRequestCount("/cgi-bin/status"));
+        }
+    }
+
+    @Test
+    public void testTts() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            RetrofitOpenKarotz karotz = newClient(mock);
+
+            assertTrue(karotz.tts("1", "Il est midi"));
+            assertTrue(karotz.tts("1", " Il est  midi"));
+            assertFalse(karotz.tts("1", ""));
+
+            assertEquals(2, mock.getRequestCount("/cgi-bin/tts"));
+            assertEquals(1, mock.getTtsCacheSize());
+            TtsCache.Stats stats = karotz.getTtsCache().getStats();
+            assertEquals(1, stats.getHitCount());
+            assertEquals(1, stats.getMissCount());
+        }
+    }
+
+    @Test
+    public void testErrorAnswers() throws Exception {
+        server = new StubHttpServer(request -> {
+            switch (request.getPath()) {
+            case "/cgi-bin/status":
+                return new StubHttpServer.Response(500, "Internal error");
+            case "/cgi-bin/tts":
+                return StubHttpServer.Response.ok("{\"return\":\"1\",\"msg\":\"Unable to perform action, rabbit is sleeping.\"}");
+            case "/cgi-bin/sound_control":
+                return StubHttpServer.Response.ok("<html>Not found</html>").contentType("text/html");
+            default:
+                return StubHttpServer.Response.ok("{\"return\":\"1\"}");
+            }
+        });
+        RetrofitOpenKarotz karotz = new RetrofitOpenKarotz(server.getHost(), server.getPort());
+
+        try {
+            karotz.getStatus();
+            fail("HTTP error should throw");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(karotz.tts("1", "Bonjour"));
+        assertEquals(0, karotz.getTtsCache().getStats().getIndexSize());
+        // Malformed answers are failures, not errors
+        assertFalse(karotz.soundControl(IKarotz.SoundControlCommand.STOP));
+        assertFalse(karotz.randomMood());
+    }
+
+    @Test
+    public void testCancelUnblocksRead() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server = new StubHttpServer(request -> {
+            received.countDown();
+            // A Karotz busy, well beyond the cancellation
+            release.await(5, TimeUnit.SECONDS);
+            return StubHttpServer.Response.ok("{\"return\":\"0\"}");
+        });
+        RetrofitOpenKarotz karotz = new RetrofitOpenKarotz(server.getHost(), server.getPort());
+        Cancellation cancellation = new Cancellation();
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> mood = worker.submit(() -> {
+                Cancellation.bind(cancellation);
+                try {
+                    return karotz.randomMood();
+                } finally {
+                    Cancellation.bind(null);
+                }
+            });
+            assertTrue(received.await(1, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            cancellation.cancel();
+            try {
+                mood.get(1, TimeUnit.SECONDS);
+                fail("Cancelled call should throw");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof InterruptedIOException);
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        } finally {
+            release.countDown();
+            worker.shutdownNow();
+        }
+    }
+
+    private static RetrofitOpenKarotz newClient(MockKarotz mock) {
+        return new RetrofitOpenKarotz(mock.getHost(), mock.getPort());
+    }
+
+
+    private StubHttpServer server;
+}
@@ -0,0 +1,228 @@
+/*
+ * OpenKarotz-Android
+ * http://github.com/hobbe/OpenKarotz-Android
+ *
+ * Copyright (c) 2014 Olivier Bagot (http://github.com/hobbe)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ */
+
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.IKarotz.KarotzStatus;
+
+public class StatusCacheTest {
+
+    @Test
+    public void testConcurrentCallersShareOneRequest() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        StatusCache cache = new StatusCache(() -> {
+            loads.incrementAndGet();
+            await(release);
+            return awake();
+        }, 60000);
+
+        // Like opening the color page: status, pulse and color tasks at once
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        List<Future<OpenKarotzState>> results = new ArrayList<Future<OpenKarotzState>>();
+        for (int i = 0; i < 3; i++) {
+            results.add(pool.submit(cache::get));
+        }
+        Thread.sleep(100);
+        release.countDown();
+
+        OpenKarotzState first = results.get(0).get();
+        for (Future<OpenKarotzState> f : results) {
+            assertSame(first, f.get());
+        }
+        pool.shutdown();
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(2, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        StatusCache cache = new StatusCache(() -> {
+            loads.incrementAndGet();
+            return awake();
+        }, 100);
+
+        assertNull(cache.peek());
+        OpenKarotzState state = cache.get();
+        assertSame(state, cache.get());
+        assertSame(state, cache.get());
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.getHitCount());
+
+        Thread.sleep(150);
+        cache.get();
+        assertEquals(2, loads.get());
+
+        cache.setTtl(0);
+        cache.get();
+        cache.get();
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        StatusCache cache = new StatusCache(() -> {
+            loads.incrementAndGet();
+            return awake();
+        }, 60000);
+
+        OpenKarotzState state = cache.get();
+        cache.invalidate();
+
+        // Stale status is still visible, but not served
+        assertSame(state, cache.peek());
+        cache.get();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testInvalidateDuringRequest() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StatusCache cache = new StatusCache(() -> {
+            if (loads.incrementAndGet() == 1) {
+                started.countDown();
+                await(release);
+            }
+            return awake();
+        }, 60000);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<OpenKarotzState> pending = pool.submit(cache::get);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // A command changed the state while the status was loading
+        cache.invalidate();
+        release.countDown();
+        pending.get();
+        pool.shutdown();
+
+        cache.get();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testOfflineIsNotCached() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        StatusCache cache = new StatusCache(() -> {
+            loads.incrementAndGet();
+            return new OpenKarotzState((String) null);
+        }, 60000);
+
+        assertEquals(KarotzStatus.UNKNOWN, cache.get().getStatus());
+        assertEquals(KarotzStatus.UNKNOWN, cache.get().getStatus());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testErrorIsSharedAndRetried() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        StatusCache cache = new StatusCache(() -> {
+            if (loads.incrementAndGet() == 1) {
+                await(release);
+                throw new IOException("Connection refused");
+            }
+            return awake();
+        }, 60000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<OpenKarotzState> first = pool.submit(cache::get);
+        Thread.sleep(50);
+        Future<OpenKarotzState> second = pool.submit(cache::get);
+        Thread.sleep(50);
+        release.countDown();
+
+        for (Future<OpenKarotzState> f : Arrays.asList(first, second)) {
+            try {
+                f.get();
+                fail("Error should be reported to every caller");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        pool.shutdown();
+
+        // Next call sends a new request
+        assertEquals(KarotzStatus.AWAKE, cache.get().getStatus());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testCommandsCompareWithKnownStatus() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            OpenKarotz karotz = mock.newClient();
+            karotz.setStatusTtl(0);
+            karotz.getStatus();
+
+            // Stale status is enough to skip commands that change nothing
+            karotz.led(0xFF0000, false);
+            karotz.led(0xFF0000, false);
+            assertEquals(IKarotz.EarMode.ENABLED, karotz.earsMode(IKarotz.EarMode.ENABLED));
+            assertEquals(1, mock.getRequestCount("/cgi-bin/leds"));
+            assertEquals(1, mock.getRequestCount("/cgi-bin/status"));
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static OpenKarotzState awake() {
+        return new OpenKarotzState().withStatus(KarotzStatus.AWAKE);
+    }
+}
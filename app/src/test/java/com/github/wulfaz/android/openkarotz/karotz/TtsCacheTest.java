@@ -0,0 +1,191 @@
+package com.github.wulfaz.android.openkarotz.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TtsCacheTest {
+
+    @After
+    public void tearDown() {
+        TtsCache.setEnabled(true);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("Bonjour le monde", TtsCache.normalize("  Bonjour\t le\n monde "));
+        // Decomposed accents are composed
+        assertEquals("\u00e9t\u00e9", TtsCache.normalize("e\u0301te\u0301"));
+        // Case and punctuation change the speech
+        assertEquals("Bonjour !", TtsCache.normalize("Bonjour !"));
+        assertNotEquals(TtsCache.normalize("bonjour"), TtsCache.normalize("Bonjour"));
+    }
+
+    @Test
+    public void testKey() {
+        String key = TtsCache.key("1", "Bonjour");
+        assertEquals(40, key.length());
+        assertEquals(key, TtsCache.key("1", "Bonjour"));
+        assertNotEquals(key, TtsCache.key("2", "Bonjour"));
+        // Voice and text are separated
+        assertNotEquals(TtsCache.key("1", "1Bonjour"), TtsCache.key("11", "Bonjour"));
+    }
+
+    @Test
+    public void testIndex() {
+        TtsCache cache = new TtsCache(2);
+
+        TtsCache.Phrase first = cache.prepare("1", " Bonjour ");
+        assertEquals("Bonjour", first.getText());
+        assertFalse(first.isIndexed());
+        cache.record(first, false, "id1");
+        assertEquals("id1", cache.getPhraseId(first.getKey()));
+
+        TtsCache.Phrase again = cache.prepare("1", "Bonjour");
+        assertEquals(first.getKey(), again.getKey());
+        assertTrue(again.isIndexed());
+        cache.record(again, true, "id1");
+
+        // Least recently used phrases are dropped
+        cache.record(cache.prepare("1", "Au revoir"), false, "id2");
+        cache.record(cache.prepare("1", "Bonne nuit"), false, "id3");
+        assertEquals(2, cache.getStats().getIndexSize());
+        assertNull(cache.getPhraseId(first.getKey()));
+
+        TtsCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(3, stats.getMissCount());
+        assertEquals(0.25, stats.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testEvictionAndCacheSize() {
+        TtsCache cache = new TtsCache();
+        cache.record(cache.prepare("1", "Bonjour"), false, "id1");
+        cache.record(cache.prepare("1", "Au revoir"), false, "id2");
+
+        // Indexed but synthesized again: the Karotz dropped it
+        cache.record(cache.prepare("1", "Bonjour"), false, "id1");
+        assertEquals(1, cache.getStats().getEvictionCount());
+
+        // Unknown or larger sizes keep the index
+        cache.onCacheSize(-1);
+        cache.onCacheSize(5);
+        assertEquals(2, cache.getStats().getIndexSize());
+
+        cache.onCacheSize(1);
+        assertEquals(0, cache.getStats().getIndexSize());
+        assertFalse(cache.prepare("1", "Bonjour").isIndexed());
+    }
+
+    @Test
+    public void testDisabled() {
+        TtsCache.setEnabled(false);
+        TtsCache cache = new TtsCache();
+
+        TtsCache.Phrase phrase = cache.prepare("1", " Bonjour ");
+        assertEquals(" Bonjour ", phrase.getText());
+        assertNull(phrase.getKey());
+        cache.record(phrase, false, "id1");
+        assertEquals(1, cache.getStats().getMissCount());
+        assertEquals(0, cache.getStats().getIndexSize());
+    }
+
+    @Test
+    public void testRepeatedPhrasesAreReplayed() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            OpenKarotz karotz = mock.newClient();
+
+            assertTrue(karotz.tts("1", "Il est midi"));
+            assertTrue(karotz.tts("1", "Il est  midi "));
+            assertTrue(karotz.tts("1", "Il est midi"));
+            assertTrue(karotz.tts("2", "Il est midi"));
+
+            assertEquals(4, mock.getRequestCount("/cgi-bin/tts"));
+            assertEquals(2, mock.getTtsCacheSize());
+            TtsCache.Stats stats = karotz.getTtsCache().getStats();
+            assertEquals(2, stats.getHitCount());
+            assertEquals(2, stats.getMissCount());
+            assertEquals(2, stats.getIndexSize());
+        }
+    }
+
+    @Test
+    public void testNoCacheWhenDisabled() throws Exception {
+        TtsCache.setEnabled(false);
+        try (MockKarotz mock = new MockKarotz()) {
+            OpenKarotz karotz = mock.newClient();
+
+            assertTrue(karotz.tts("1", "Il est midi"));
+            assertTrue(karotz.tts("1", "Il est midi"));
+
+            TtsCache.Stats stats = karotz.getTtsCache().getStats();
+            assertEquals(0, stats.getHitCount());
+            assertEquals(2, stats.getMissCount());
+        }
+    }
+
+    @Test
+    public void testStatusDropsIndex() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            OpenKarotz karotz = mock.newClient();
+            karotz.setStatusTtl(0);
+
+            karotz.tts("1", "Bonjour");
+            karotz.tts("1", "Au revoir");
+            karotz.getStatus();
+            assertEquals(2, karotz.getState().getTtsCacheSize());
+            assertEquals(2, karotz.getTtsCache().getStats().getIndexSize());
+
+            mock.clearTtsCache();
+            karotz.getStatus();
+            assertEquals(0, karotz.getState().getTtsCacheSize());
+            assertEquals(0, karotz.getTtsCache().getStats().getIndexSize());
+
+            karotz.tts("1", "Bonjour");
+            assertEquals(0, karotz.getTtsCache().getStats().getEvictionCount());
+        }
+    }
+
+    /**
+     * Compares repeated announcements sent with {@code nocache}, synthesized each time, and sent as cache-aware
+     * requests, replayed from the Karotz cache.
+     */
+    @Test
+    public void benchmarkRepeatedAnnouncements() throws Exception {
+        String[] phrases = { "Il est midi", "Le courrier est arrivé", "Bonne nuit", "Il pleut" };
+        try (MockKarotz mock = new MockKarotz()) {
+            mock.setTtsSynthesisMillis(40);
+
+            TtsCache.setEnabled(false);
+            OpenKarotz legacy = mock.newClient();
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                legacy.tts("1", phrases[i % phrases.length]);
+            }
+            long legacyMillis = (System.nanoTime() - start) / 1000000;
+
+            mock.clearTtsCache();
+            TtsCache.setEnabled(true);
+            OpenKarotz aware = mock.newClient();
+            start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                aware.tts("1", phrases[i % phrases.length]);
+            }
+            long awareMillis = (System.nanoTime() - start) / 1000000;
+
+            TtsCache.Stats stats = aware.getTtsCache().getStats();
+            assertEquals(16, stats.getHitCount());
+            assertEquals(4, stats.getMissCount());
+            assertTrue(awareMillis < legacyMillis);
+            System.out.println("nocache:     20 phrases in " + legacyMillis + " ms, "
+                    + legacy.getTtsCache().getStats());
+            System.out.println("cache-aware: 20 phrases in " + awareMillis + " ms, " + stats);
+        }
+    }
+}
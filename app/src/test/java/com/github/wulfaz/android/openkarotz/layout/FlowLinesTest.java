@@ -0,0 +1,451 @@
+package com.github.wulfaz.android.openkarotz.layout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FlowLinesTest {
+
+    @Test
+    public void testSimpleFlow() {
+        // Three 40x20 children with 10 spacing in 100: two per line
+        FakeChildren children = new FakeChildren(3);
+        for (int i = 0; i < 3; i++) {
+            children.set(i, 40, 20);
+        }
+        children.spacingLength = 10;
+        children.spacingThickness = 5;
+
+        FlowLines lines = new FlowLines();
+        assertEquals(3, lines.flow(children, 100, true));
+
+        assertArrayEquals(new int[] {0, 50, 0}, children.lengths);
+        assertArrayEquals(new int[] {0, 0, 25}, children.lines);
+        assertEquals(90, lines.getMaxLength());
+        assertEquals(45, lines.getMaxThickness());
+    }
+
+    @Test
+    public void testUnlimitedFlow() {
+        FakeChildren children = random(new Random(1), 50);
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 10, false);
+
+        // Only forced line breaks
+        Reference reference = new Reference(children, 10, false);
+        assertArrayEquals(reference.lines, children.lines);
+    }
+
+    @Test
+    public void testSameAsFullFlow() {
+        Random random = new Random(2);
+        for (int n : new int[] {0, 1, 10, 100, 500}) {
+            FakeChildren children = random(random, n);
+            FlowLines lines = new FlowLines();
+            lines.flow(children, 400, true);
+            children.layout();
+            assertFlow(children, lines, 400, true);
+        }
+    }
+
+    @Test
+    public void testNothingDirty() {
+        FakeChildren children = random(new Random(3), 100);
+        FlowLines lines = new FlowLines();
+        assertEquals(100 - children.goneCount(), lines.flow(children, 400, true));
+        children.layout();
+
+        assertEquals(0, lines.flow(children, 400, true));
+        assertFlow(children, lines, 400, true);
+    }
+
+    @Test
+    public void testOnlyDirtyChildrenAreMeasured() {
+        Random random = new Random(4);
+        FakeChildren children = random(random, 200);
+        Arrays.fill(children.gone, false);
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 400, true);
+        children.layout();
+
+        for (int i = 0; i < 50; i++) {
+            int index = random.nextInt(children.count);
+            children.resize(index, 10 + random.nextInt(200), 10 + random.nextInt(60));
+            assertEquals(1, lines.flow(children, 400, true));
+            children.layout();
+            assertFlow(children, lines, 400, true);
+        }
+    }
+
+    @Test
+    public void testGoneChild() {
+        FakeChildren children = random(new Random(5), 100);
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 400, true);
+        children.layout();
+
+        children.gone[10] = !children.gone[10];
+        children.dirty[10] = true;
+        lines.flow(children, 400, true);
+        children.layout();
+        assertFlow(children, lines, 400, true);
+    }
+
+    @Test
+    public void testSizeChange() {
+        FakeChildren children = random(new Random(6), 100);
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 400, true);
+        children.layout();
+
+        assertEquals(0, lines.flow(children, 400, true));
+        assertEquals(100 - children.goneCount(), lines.flow(children, 300, true));
+        assertFlow(children, lines, 300, true);
+        lines.invalidate();
+        assertEquals(100 - children.goneCount(), lines.flow(children, 300, true));
+    }
+
+    @Test
+    public void testChildrenAddedAndRemoved() {
+        Random random = new Random(7);
+        FakeChildren children = random(random, 100);
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 400, true);
+        children.layout();
+
+        // Insert at 30, the new child is dirty
+        children.insert(30, 77, 33);
+        lines.invalidateFrom(30);
+        assertEquals(1, lines.flow(children, 400, true));
+        children.layout();
+        assertFlow(children, lines, 400, true);
+
+        // Remove 5
+        children.remove(5);
+        lines.invalidateFrom(0);
+        assertEquals(0, lines.flow(children, 400, true));
+        assertFlow(children, lines, 400, true);
+    }
+
+    /**
+     * Compares a full flow on each change (as before) with flowing from the first dirty child, for 10 to 1000 children
+     * whose measurement costs about a microsecond. Line breaking is the same for both orientations, which only swap
+     * the width and height of children: the vertical runs swap them.
+     */
+    @Test
+    public void benchmarkFlow() {
+        Random random = new Random(8);
+        for (String orientation : new String[] {"horizontal", "vertical"}) {
+            for (int n : new int[] {10, 100, 1000}) {
+                FakeChildren children = random(random, n);
+                if ("vertical".equals(orientation)) {
+                    children.swapAxes();
+                }
+                children.measureCost = 200;
+                int passes = 200;
+
+                // Warm up
+                run(children, random, passes, true);
+                run(children, random, passes, false);
+
+                long[] full = run(children, random, passes, true);
+                long[] incremental = run(children, random, passes, false);
+                System.out.println(String.format("%-10s %4d children: full %7.1f us, %5d measures; "
+                        + "incremental %6.1f us, %2d measures per pass", orientation, n,
+                        full[0] / 1000.0 / passes, full[1] / passes,
+                        incremental[0] / 1000.0 / passes, incremental[1] / passes));
+
+                assertEquals(1, incremental[1] / passes);
+            }
+        }
+    }
+
+    /**
+     * Resize a random child then flow, a number of times.
+     * @return the time and number of measures
+     */
+    private static long[] run(FakeChildren children, Random random, int passes, boolean full) {
+        FlowLines lines = new FlowLines();
+        lines.flow(children, 1000, true);
+        children.layout();
+        Arrays.fill(children.gone, false);
+
+        long nanos = 0;
+        long measures = 0;
+        for (int i = 0; i < passes; i++) {
+            children.resize(random.nextInt(children.count), 10 + random.nextInt(200), 10 + random.nextInt(60));
+            long start = System.nanoTime();
+            if (full) {
+                lines.invalidate();
+            }
+            measures += lines.flow(children, 1000, true);
+            nanos += System.nanoTime() - start;
+            children.layout();
+        }
+        return new long[] {nanos, measures};
+    }
+
+    private static void assertFlow(FakeChildren children, FlowLines lines, int size, boolean limited) {
+        Reference reference = new Reference(children, size, limited);
+        for (int i = 0; i < children.count; i++) {
+            if (!children.gone[i]) {
+                assertEquals("length " + i, reference.lengths[i], children.lengths[i]);
+                assertEquals("line " + i, reference.lines[i], children.lines[i]);
+            }
+        }
+        assertEquals(reference.maxLength, lines.getMaxLength());
+        assertEquals(reference.maxThickness, lines.getMaxThickness());
+    }
+
+    private static FakeChildren random(Random random, int n) {
+        FakeChildren children = new FakeChildren(n);
+        for (int i = 0; i < n; i++) {
+            children.set(i, 10 + random.nextInt(200), 10 + random.nextInt(60));
+            children.gone[i] = random.nextInt(20) == 0;
+            children.newLine[i] = random.nextInt(30) == 0;
+        }
+        children.spacingLength = 4;
+        children.spacingThickness = 6;
+        return children;
+    }
+
+    /**
+     * The original FlowLayout.onMeasure() loop, measuring every child.
+     */
+    private static final class Reference {
+
+        Reference(FakeChildren children, int size, boolean limited) {
+            int n = children.count;
+            lengths = new int[n];
+            lines = new int[n];
+            int lineThicknessWithSpacing = 0;
+            int lineThickness = 0;
+            int lineLengthWithSpacing = 0;
+            int lineLength;
+            int prevLinePosition = 0;
+            for (int i = 0; i < n; i++) {
+                if (children.gone[i]) {
+                    continue;
+                }
+                int childLength = children.pendingLength[i];
+                int childThickness = children.pendingThickness[i];
+                lineLength = lineLengthWithSpacing + childLength;
+                lineLengthWithSpacing = lineLength + children.spacingLength;
+                if (children.newLine[i] || (limited && lineLength > size)) {
+                    prevLinePosition = prevLinePosition + lineThicknessWithSpacing;
+                    lineThickness = childThickness;
+                    lineLength = childLength;
+                    lineThicknessWithSpacing = childThickness + children.spacingThickness;
+                    lineLengthWithSpacing = lineLength + children.spacingLength;
+                }
+                lineThicknessWithSpacing = Math.max(lineThicknessWithSpacing, childThickness + children.spacingThickness);
+                lineThickness = Math.max(lineThickness, childThickness);
+                lengths[i] = lineLength - childLength;
+                lines[i] = prevLinePosition;
+                maxLength = Math.max(maxLength, lineLength);
+                maxThickness = prevLinePosition + lineThickness;
+            }
+        }
+
+        final int[] lengths;
+
+        final int[] lines;
+
+        int maxLength;
+
+        int maxThickness;
+    }
+
+    /**
+     * Children with sizes known up front, measured at a simulated cost.
+     */
+    private static final class FakeChildren implements FlowLines.Children {
+
+        FakeChildren(int n) {
+            count = n;
+            pendingLength = new int[n];
+            pendingThickness = new int[n];
+            measuredLength = new int[n];
+            measuredThickness = new int[n];
+            gone = new boolean[n];
+            dirty = new boolean[n];
+            newLine = new boolean[n];
+            lengths = new int[n];
+            lines = new int[n];
+        }
+
+        void set(int i, int length, int thickness) {
+            pendingLength[i] = length;
+            pendingThickness[i] = thickness;
+            dirty[i] = true;
+        }
+
+        void resize(int i, int length, int thickness) {
+            set(i, length, thickness);
+        }
+
+        /** Layout clears the dirty flags, as View.layout() does. */
+        void layout() {
+            Arrays.fill(dirty, false);
+        }
+
+        int goneCount() {
+            int gones = 0;
+            for (boolean g : gone) {
+                gones += g ? 1 : 0;
+            }
+            return gones;
+        }
+
+        void swapAxes() {
+            int[] t = pendingLength;
+            pendingLength = pendingThickness;
+            pendingThickness = t;
+            Arrays.fill(dirty, true);
+        }
+
+        void insert(int index, int length, int thickness) {
+            count++;
+            pendingLength = insert(pendingLength, index, length);
+            pendingThickness = insert(pendingThickness, index, thickness);
+            measuredLength = insert(measuredLength, index, 0);
+            measuredThickness = insert(measuredThickness, index, 0);
+            lengths = insert(lengths, index, 0);
+            lines = insert(lines, index, 0);
+            gone = insert(gone, index, false);
+            dirty = insert(dirty, index, true);
+            newLine = insert(newLine, index, false);
+        }
+
+        void remove(int index) {
+            count--;
+            pendingLength = remove(pendingLength, index);
+            pendingThickness = remove(pendingThickness, index);
+            measuredLength = remove(measuredLength, index);
+            measuredThickness = remove(measuredThickness, index);
+            lengths = remove(lengths, index);
+            lines = remove(lines, index);
+            gone = remove(gone, index);
+            dirty = remove(dirty, index);
+            newLine = remove(newLine, index);
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean isGone(int index) {
+            return gone[index];
+        }
+
+        @Override
+        public boolean isDirty(int index) {
+            return dirty[index];
+        }
+
+        @Override
+        public void measure(int index) {
+            // Simulated work of a child measure
+            for (int i = 0; i < measureCost; i++) {
+                sink += i * index;
+            }
+            measuredLength[index] = pendingLength[index];
+            measuredThickness[index] = pendingThickness[index];
+        }
+
+        @Override
+        public int getLength(int index) {
+            return measuredLength[index];
+        }
+
+        @Override
+        public int getThickness(int index) {
+            return measuredThickness[index];
+        }
+
+        @Override
+        public int getSpacingLength(int index) {
+            return spacingLength;
+        }
+
+        @Override
+        public int getSpacingThickness(int index) {
+            return spacingThickness;
+        }
+
+        @Override
+        public boolean isNewLine(int index) {
+            return newLine[index];
+        }
+
+        @Override
+        public void setPosition(int index, int length, int line) {
+            lengths[index] = length;
+            lines[index] = line;
+        }
+
+        private static int[] insert(int[] a, int index, int value) {
+            int[] b = new int[a.length + 1];
+            System.arraycopy(a, 0, b, 0, index);
+            b[index] = value;
+            System.arraycopy(a, index, b, index + 1, a.length - index);
+            return b;
+        }
+
+        private static boolean[] insert(boolean[] a, int index, boolean value) {
+            boolean[] b = new boolean[a.length + 1];
+            System.arraycopy(a, 0, b, 0, index);
+            b[index] = value;
+            System.arraycopy(a, index, b, index + 1, a.length - index);
+            return b;
+        }
+
+        private static int[] remove(int[] a, int index) {
+            int[] b = new int[a.length - 1];
+            System.arraycopy(a, 0, b, 0, index);
+            System.arraycopy(a, index + 1, b, index, b.length - index);
+            return b;
+        }
+
+        private static boolean[] remove(boolean[] a, int index) {
+            boolean[] b = new boolean[a.length - 1];
+            System.arraycopy(a, 0, b, 0, index);
+            System.arraycopy(a, index + 1, b, index, b.length - index);
+            return b;
+        }
+
+        int count;
+
+        int[] pendingLength;
+
+        int[] pendingThickness;
+
+        int[] measuredLength;
+
+        int[] measuredThickness;
+
+        boolean[] gone;
+
+        boolean[] dirty;
+
+        boolean[] newLine;
+
+        int[] lengths;
+
+        int[] lines;
+
+        int spacingLength;
+
+        int spacingThickness;
+
+        int measureCost;
+
+        long sink;
+    }
+}
@@ -0,0 +1,309 @@
+package com.github.wulfaz.android.openkarotz.media;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaServerTest {
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[100000];
+        new Random(42).nextBytes(content);
+        file = File.createTempFile("media", ".mp3");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        server = new MediaServer(0);
+        path = server.publish(new MediaSource.FileSource(file, "audio/mpeg"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        file.delete();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        assertTrue(path, path.startsWith("/media/") && path.endsWith(".mp3"));
+
+        HttpURLConnection connection = open(path, null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("audio/mpeg", connection.getContentType());
+        assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        assertEquals(content.length, connection.getContentLengthLong());
+        assertArrayEquals(content, read(connection.getInputStream()));
+        assertEquals(content.length, server.getBytesSent());
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        HttpURLConnection connection = open(path, null);
+        connection.setRequestMethod("HEAD");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(content.length, connection.getContentLengthLong());
+        assertEquals(0, server.getBytesSent());
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        assertRange("bytes=10-19", "bytes 10-19/100000", 10, 20);
+        assertRange("bytes=99990-", "bytes 99990-99999/100000", 99990, 100000);
+        assertRange("bytes=-100", "bytes 99900-99999/100000", 99900, 100000);
+        assertRange("bytes=99000-200000", "bytes 99000-99999/100000", 99000, 100000);
+
+        HttpURLConnection unsatisfiable = open(path, "bytes=100000-");
+        assertEquals(416, unsatisfiable.getResponseCode());
+        assertEquals("bytes */100000", unsatisfiable.getHeaderField("Content-Range"));
+
+        // Multiple or invalid ranges: the whole content
+        HttpURLConnection multiple = open(path, "bytes=0-1,5-6");
+        assertEquals(200, multiple.getResponseCode());
+        assertArrayEquals(content, read(multiple.getInputStream()));
+        assertEquals(200, open(path, "bytes=20-10").getResponseCode());
+        assertEquals(200, open(path, "items=0-1").getResponseCode());
+    }
+
+    @Test
+    public void testParseRange() {
+        assertNull(ByteRange.parse(null, 10));
+        assertEquals("0-9", ByteRange.parse("bytes=0-", 10).toString());
+        assertEquals("5-9", ByteRange.parse("Bytes=5- 20", 10).toString());
+        assertEquals("0-9", ByteRange.parse("bytes=-50", 10).toString());
+        assertEquals(ByteRange.NOT_SATISFIABLE, ByteRange.parse("bytes=-0", 10));
+        assertEquals(ByteRange.NOT_SATISFIABLE, ByteRange.parse("bytes=0-", 0));
+        assertNull(ByteRange.parse("bytes=a-b", 10));
+        assertNull(ByteRange.parse("bytes=-", 10));
+    }
+
+    @Test
+    public void testNameWithSpaces() throws Exception {
+        File dir = Files.createTempDirectory("media").toFile();
+        File named = new File(dir, "Ma chanson préférée.MP3");
+        try (OutputStream out = new FileOutputStream(named)) {
+            out.write(content, 0, 1000);
+        }
+        try {
+            String namedPath = server.publish(new MediaSource.FileSource(named, "audio/mpeg"));
+            // The Karotz may decode the URL, and send a request line with the path as is
+            assertTrue(namedPath, namedPath.matches("/media/[0-9a-f]+\\.mp3"));
+
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write(("GET " + namedPath + " HTTP/1.1\r\nHost: rabbit\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                String headers = readHeaders(socket.getInputStream());
+                assertTrue(headers, headers.startsWith("HTTP/1.1 200 OK"));
+                assertTrue(headers, headers.contains("Content-Length: 1000"));
+            }
+        } finally {
+            named.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testUnknownSources() throws Exception {
+        assertEquals(404, open("/media/0123456789abcdef.mp3", null).getResponseCode());
+        assertEquals(404, open("/etc/passwd", null).getResponseCode());
+
+        server.unpublish(path);
+        assertEquals(404, open(path, null).getResponseCode());
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 3; i++) {
+                out.write(("GET " + path + " HTTP/1.1\r\nHost: rabbit\r\nRange: bytes=" + i + "-" + (i + 3)
+                        + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                String headers = readHeaders(in);
+                assertTrue(headers, headers.startsWith("HTTP/1.1 206 Partial Content"));
+                assertTrue(headers, headers.contains("Content-Length: 4"));
+                byte[] body = new byte[4];
+                for (int n = 0; n < 4; n += in.read(body, n, 4 - n)) {
+                    // Read the whole body
+                }
+                assertArrayEquals(Arrays.copyOfRange(content, i, i + 4), body);
+            }
+        }
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<byte[]>> downloads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            downloads.add(pool.submit(() -> read(open(path, null).getInputStream())));
+        }
+        for (Future<byte[]> download : downloads) {
+            assertArrayEquals(content, download.get());
+        }
+        pool.shutdown();
+        assertEquals(16L * content.length, server.getBytesSent());
+    }
+
+    @Test
+    public void testLocalAddress() throws Exception {
+        assertEquals(InetAddress.getByName("127.0.0.1"), MediaServer.localAddressFor("127.0.0.1"));
+        assertEquals("http://127.0.0.1:" + server.getPort() + path,
+                server.getUrl(path, InetAddress.getByName("127.0.0.1")));
+    }
+
+    /**
+     * Compares sending a large file with {@code transferTo} and with a copy through a heap buffer, with several
+     * clients at the same time.
+     */
+    @Test
+    public void benchmarkZeroCopy() throws Exception {
+        File large = File.createTempFile("media", ".mp3");
+        try {
+            byte[] block = new byte[1024 * 1024];
+            new Random(1).nextBytes(block);
+            try (OutputStream out = new FileOutputStream(large)) {
+                for (int i = 0; i < 64; i++) {
+                    out.write(block);
+                }
+            }
+            String largePath = server.publish(new MediaSource.FileSource(large, "audio/mpeg"));
+
+            int clients = 4;
+            int rounds = 4;
+            // Warm up
+            download(largePath, clients, 1, true);
+            download(largePath, clients, 1, false);
+
+            long[] copy = download(largePath, clients, rounds, false);
+            long[] zeroCopy = download(largePath, clients, rounds, true);
+
+            double megabytes = clients * rounds * large.length() / 1e6;
+            System.out.println(String.format("Heap copy:     %.0f MB in %d ms, %.0f MB/s, %d ms CPU", megabytes,
+                    copy[0], megabytes * 1000 / copy[0], copy[1]));
+            System.out.println(String.format("transferTo:    %.0f MB in %d ms, %.0f MB/s, %d ms CPU", megabytes,
+                    zeroCopy[0], megabytes * 1000 / zeroCopy[0], zeroCopy[1]));
+        } finally {
+            large.delete();
+        }
+    }
+
+    /**
+     * Download a path with several clients at the same time.
+     *
+     * @return the elapsed time and the CPU time of the process, in milliseconds
+     */
+    private long[] download(String file, int clients, int rounds, boolean zeroCopy) throws Exception {
+        server.setZeroCopy(zeroCopy);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long cpuBefore = processCpuNanos();
+        long start = System.nanoTime();
+        List<Future<Long>> downloads = new ArrayList<>();
+        for (int i = 0; i < clients * rounds; i++) {
+            downloads.add(pool.submit(() -> {
+                long total = 0;
+                byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = open(file, null).getInputStream()) {
+                    for (int n; (n = in.read(buffer)) > 0;) {
+                        total += n;
+                    }
+                }
+                return total;
+            }));
+        }
+        for (Future<Long> download : downloads) {
+            assertEquals(64L * 1024 * 1024, download.get().longValue());
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        long cpu = (processCpuNanos() - cpuBefore) / 1000000;
+        pool.shutdown();
+        return new long[] { Math.max(1, elapsed), cpu };
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private void assertRange(String range, String contentRange, int from, int to) throws IOException {
+        HttpURLConnection connection = open(path, range);
+        assertEquals(206, connection.getResponseCode());
+        assertEquals(contentRange, connection.getHeaderField("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(content, from, to), read(connection.getInputStream()));
+    }
+
+    private HttpURLConnection open(String file, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + file)
+                .openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0;) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            int c = in.read();
+            if (c < 0) {
+                break;
+            }
+            headers.append((char) c);
+        }
+        return headers.toString();
+    }
+
+
+    private byte[] content;
+
+    private File file;
+
+    private MediaServer server;
+
+    private String path;
+}
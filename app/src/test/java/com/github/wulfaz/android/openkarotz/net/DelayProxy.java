@@ -0,0 +1,134 @@
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP proxy adding a fixed one-way latency in both directions, as a distant rabbit would have.
+ */
+public class DelayProxy implements Closeable {
+
+    public DelayProxy(String targetHost, int targetPort, long oneWayMillis) throws IOException {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(oneWayMillis);
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(this::acceptLoop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket s : sockets) {
+            s.close();
+        }
+        executor.shutdownNow();
+    }
+
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket target = new Socket(targetHost, targetPort);
+                client.setTcpNoDelay(true);
+                target.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(target);
+                forward(client, target);
+                forward(target, client);
+            } catch (IOException e) {
+                // Proxy closed
+            }
+        }
+    }
+
+    /**
+     * Forward the data read from a socket after the delay, keeping the time each chunk was read.
+     */
+    private void forward(Socket from, Socket to) {
+        LinkedBlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+        executor.execute(() -> {
+            byte[] buffer = new byte[8192];
+            try {
+                InputStream in = from.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    queue.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, n)));
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+            queue.add(new Chunk(0, null));
+        });
+        executor.execute(() -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk.data == null) {
+                        break;
+                    }
+                    long wait = chunk.due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    out.write(chunk.data);
+                    out.flush();
+                }
+                to.shutdownOutput();
+            } catch (IOException | InterruptedException e) {
+                // Closed
+            }
+        });
+    }
+
+
+    private static final class Chunk {
+
+        Chunk(long due, byte[] data) {
+            this.due = due;
+            this.data = data;
+        }
+
+
+        final long due;
+
+        final byte[] data;
+    }
+
+
+    private final String targetHost;
+
+    private final int targetPort;
+
+    private final long delayNanos;
+
+    private final ServerSocket serverSocket;
+
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile boolean closed;
+}
@@ -0,0 +1,219 @@
+package com.github.wulfaz.android.openkarotz.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class KeepAliveTransportTest {
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\",\"path\":\"" + request.getPath() + "\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("{\"return\":\"0\",\"path\":\"/cgi-bin/ears\"}", transport.get(server.url("/cgi-bin/ears?left=" + i)));
+        }
+
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, transport.getConnectCount());
+        assertEquals(19, transport.getReuseCount());
+        transport.shutdown();
+        assertEquals(0, transport.getPool().getIdleConnectionCount());
+    }
+
+    @Test
+    public void testServerClosingConnections() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\"}"));
+        server.setKeepAlive(false);
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("{\"return\":\"0\"}", transport.get(server.url("/cgi-bin/status")));
+        }
+
+        assertEquals(5, server.getConnectionCount());
+        assertEquals(0, transport.getPool().getIdleConnectionCount());
+    }
+
+    @Test
+    public void testChunkedBody() throws Exception {
+        String body = "{\"color\":\"0000FF\",\"secondary_color\":\"000000\",\"pulse\":\"0\",\"return\":\"0\"}";
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok(body).chunked());
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        assertEquals(body, transport.get(server.url("/cgi-bin/leds?color=0000FF")));
+        assertEquals(body, transport.get(server.url("/cgi-bin/leds?color=0000FF")));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStreamingReaderKeepsConnection() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\",\"left\":\"3\",\"right\":\"4\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        for (int i = 0; i < 5; i++) {
+            StringBuilder first = new StringBuilder();
+            // Stop reading early, the rest of the body must be skipped
+            transport.get(server.url("/cgi-bin/ears"), body -> first.append((char) body.read()));
+            assertEquals("{", first.toString());
+        }
+
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(4, transport.getReuseCount());
+    }
+
+    @Test
+    public void testStaleConnectionIsReplaced() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        transport.get(server.url("/cgi-bin/status"));
+        server.closeClientConnections();
+        Thread.sleep(50);
+
+        assertEquals("{\"return\":\"0\"}", transport.get(server.url("/cgi-bin/status")));
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testReceivedRequestIsNotRetried() throws Exception {
+        server = new StubHttpServer(request -> "/cgi-bin/tts".equals(request.getPath())
+                ? StubHttpServer.Response.drop()
+                : StubHttpServer.Response.ok("{\"return\":\"0\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        transport.get(server.url("/cgi-bin/status"));
+        try {
+            transport.get(server.url("/cgi-bin/tts?text=Bonjour"));
+            fail("Connection closed without an answer should throw");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The Karotz may have spoken, the request is not sent again
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(0, transport.getHostCount());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport(new ConnectionPool(2, 50), 2);
+
+        transport.get(server.url("/cgi-bin/status"));
+        assertEquals(1, transport.getPool().getIdleConnectionCount());
+        Thread.sleep(100);
+
+        transport.get(server.url("/cgi-bin/status"));
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testHttpErrorKeepsConnection() throws Exception {
+        server = new StubHttpServer(request -> "/missing".equals(request.getPath())
+                ? new StubHttpServer.Response(404, "Not found")
+                : StubHttpServer.Response.ok("{\"return\":\"0\"}"));
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        try {
+            transport.get(server.url("/missing"));
+            fail("404 should throw");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals("{\"return\":\"0\"}", transport.get(server.url("/cgi-bin/status")));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testRequestsPerHostAreLimited() throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        server = new StubHttpServer(request -> {
+            int c = current.incrementAndGet();
+            max.accumulateAndGet(c, Math::max);
+            Thread.sleep(20);
+            current.decrementAndGet();
+            return StubHttpServer.Response.ok("{\"return\":\"0\"}");
+        });
+        KeepAliveTransport transport = new KeepAliveTransport(new ConnectionPool(), 1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> transport.get(server.url("/cgi-bin/status"))));
+        }
+        for (Future<String> f : results) {
+            assertEquals("{\"return\":\"0\"}", f.get());
+        }
+        pool.shutdown();
+
+        assertEquals(1, max.get());
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(0, transport.getHostCount());
+    }
+
+    /**
+     * Compares rapid command sequences with one connection per call (as before) and with pooled connections.
+     */
+    @Test
+    public void benchmarkConnectionReuse() throws Exception {
+        server = new StubHttpServer(request -> StubHttpServer.Response.ok("{\"return\":\"0\",\"left\":\"3\",\"right\":\"3\"}"));
+        int n = 300;
+
+        KeepAliveTransport perCall = new KeepAliveTransport(new ConnectionPool(0, 1), 2);
+        KeepAliveTransport pooled = new KeepAliveTransport();
+
+        // Warm up
+        run(perCall, 50);
+        run(pooled, 50);
+        int connectionsBefore = server.getConnectionCount();
+
+        long perCallNanos = run(perCall, n);
+        int perCallConnections = server.getConnectionCount() - connectionsBefore;
+
+        connectionsBefore = server.getConnectionCount();
+        long pooledNanos = run(pooled, n);
+        int pooledConnections = server.getConnectionCount() - connectionsBefore;
+
+        System.out.println(String.format("Per-call connect: %d requests, %d connections, %.1f us/request",
+                n, perCallConnections, perCallNanos / 1000.0 / n));
+        System.out.println(String.format("Keep-alive pool:  %d requests, %d connections, %.1f us/request",
+                n, pooledConnections, pooledNanos / 1000.0 / n));
+
+        assertEquals(n, perCallConnections);
+        assertEquals(0, pooledConnections);
+        assertTrue(pooled.getReuseCount() >= n);
+    }
+
+    private long run(KeepAliveTransport transport, int n) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            transport.get(server.url("/cgi-bin/ears?noreset=1&left=3&right=3"));
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private StubHttpServer server;
+}
@@ -0,0 +1,326 @@
+package com.github.wulfaz.android.openkarotz.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface, used to test the network code without a real Karotz.
+ */
+public class StubHttpServer implements Closeable {
+
+    public StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        executor.execute(this::acceptLoop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        closeClientConnections();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Close all client connections currently open, as a server dropping idle clients would do.
+     */
+    public void closeClientConnections() {
+        for (Socket s : clients) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        clients.clear();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Keep client connections open between requests, or close them after each response (like busybox httpd).
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Delay applied before each response, to simulate the Karotz CPU.
+     */
+    public void setResponseDelayMillis(long delayMillis) {
+        this.responseDelayMillis = delayMillis;
+    }
+
+    public URL url(String file) throws MalformedURLException {
+        return new URL("http", getHost(), getPort(), file);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connectionCount.incrementAndGet();
+                clients.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // Server closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            while (!closed) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                    }
+                }
+                requestCount.incrementAndGet();
+
+                Request request = new Request(parts[0], parts[1], headers);
+                Response response;
+                try {
+                    if (responseDelayMillis > 0) {
+                        Thread.sleep(responseDelayMillis);
+                    }
+                    response = handler.handle(request);
+                } catch (Exception e) {
+                    response = new Response(500, e.toString());
+                }
+
+                if (response.dropped) {
+                    break;
+                }
+                boolean close = !keepAlive || response.close;
+                writeResponse(out, request, response, close);
+                if (close) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Client gone
+        } finally {
+            clients.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Request request, Response response, boolean close) throws IOException {
+        byte[] body = response.body;
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(response.code).append(response.code < 400 ? " OK" : " Error").append("\r\n");
+        sb.append("Content-Type: ").append(response.contentType).append("\r\n");
+        for (Map.Entry<String, String> h : response.headers.entrySet()) {
+            sb.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+        }
+        if (response.chunked) {
+            sb.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        sb.append("Connection: ").append(close ? "close" : "keep-alive").append("\r\n\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        if (!"HEAD".equals(request.method)) {
+            if (response.chunked) {
+                int off = 0;
+                while (off < body.length) {
+                    int n = Math.min(7, body.length - off);
+                    out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    out.write(body, off, n);
+                    out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    off += n;
+                }
+                out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            } else {
+                out.write(body);
+            }
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                String s = line.toString("ISO-8859-1");
+                return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+            }
+            line.write(c);
+        }
+        return line.size() == 0 ? null : line.toString("ISO-8859-1");
+    }
+
+
+    public interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    public static final class Request {
+
+        Request(String method, String file, Map<String, String> headers) {
+            this.method = method;
+            this.file = file;
+            this.headers = headers;
+        }
+
+        public String getPath() {
+            int q = file.indexOf('?');
+            return q < 0 ? file : file.substring(0, q);
+        }
+
+        public String getParameter(String name) {
+            int q = file.indexOf('?');
+            if (q < 0) {
+                return null;
+            }
+            for (String pair : file.substring(q + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq);
+                if (key.equals(name)) {
+                    try {
+                        return java.net.URLDecoder.decode(eq < 0 ? "" : pair.substring(eq + 1), "UTF-8");
+                    } catch (java.io.UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return null;
+        }
+
+        public final String method;
+
+        public final String file;
+
+        public final Map<String, String> headers;
+    }
+
+    public static final class Response {
+
+        public Response(int code, String body) {
+            this(code, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        /**
+         * No answer: the connection is closed once the request was read, as a server crashing would do.
+         */
+        public static Response drop() {
+            Response response = new Response(0, new byte[0]);
+            response.dropped = true;
+            return response;
+        }
+
+        public Response chunked() {
+            this.chunked = true;
+            return this;
+        }
+
+        public Response closing() {
+            this.close = true;
+            return this;
+        }
+
+        public Response contentType(String type) {
+            this.contentType = type;
+            return this;
+        }
+
+        public Response header(String name, String value) {
+            this.headers.put(name, value);
+            return this;
+        }
+
+        final int code;
+
+        final byte[] body;
+
+        final Map<String, String> headers = new HashMap<>();
+
+        boolean chunked = false;
+
+        boolean close = false;
+
+        boolean dropped = false;
+
+        String contentType = "application/json";
+    }
+
+
+    private final Handler handler;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private volatile boolean keepAlive = true;
+
+    private volatile long responseDelayMillis = 0;
+
+    private volatile boolean closed = false;
+}
@@ -0,0 +1,124 @@
+package com.github.wulfaz.android.openkarotz.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.database.RadioStation;
+
+public class RadioStationSyncTest {
+
+    @Test
+    public void testParse() throws IOException {
+        List<RadioStation> stations = RadioStationSync.parse(3, response(
+                "{\"id\":\"7\",\"name\":\"FIP\",\"url\":\"http://fip\"}",
+                "{\"id\":2,\"name\":\"Chérie FM\",\"url\":\"http://cherie\"}"));
+
+        assertEquals(Arrays.asList(new RadioStation(3, 7, "FIP", "http://fip", 0),
+                new RadioStation(3, 2, "Chérie FM", "http://cherie", 1)), stations);
+    }
+
+    @Test
+    public void testParseSkipsDuplicates() throws IOException {
+        List<RadioStation> stations = RadioStationSync.parse(1, response(
+                "{\"id\":1,\"name\":\"A\",\"url\":\"a\"}",
+                "{\"id\":1,\"name\":\"B\",\"url\":\"b\"}",
+                "{\"id\":2,\"name\":\"C\",\"url\":\"c\"}"));
+
+        assertEquals(2, stations.size());
+        assertEquals("A", stations.get(0).getName());
+        assertEquals(1, stations.get(1).getPosition());
+    }
+
+    @Test
+    public void testParseError() {
+        try {
+            RadioStationSync.parse(1, "{\"return\":\"1\",\"msg\":\"No radios\"}");
+            fail("Karotz error should throw");
+        } catch (IOException e) {
+            // Expected, the stored list is kept
+        }
+        try {
+            RadioStationSync.parse(1, "<html>");
+            fail("Invalid response should throw");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testHash() {
+        List<RadioStation> stations = list(station(1, "A", "a"), station(2, "B", "b"));
+
+        assertEquals(RadioStationSync.hash(stations), RadioStationSync.hash(list(station(1, "A", "a"), station(2, "B", "b"))));
+        assertNotEquals(RadioStationSync.hash(stations), RadioStationSync.hash(list(station(2, "B", "b"), station(1, "A", "a"))));
+        assertNotEquals(RadioStationSync.hash(stations), RadioStationSync.hash(list(station(1, "A", "a"), station(2, "B", "c"))));
+        assertNotEquals(RadioStationSync.hash(list(station(1, "AB", "c"))), RadioStationSync.hash(list(station(1, "A", "Bc"))));
+        assertEquals(64, RadioStationSync.hash(new ArrayList<>()).length());
+    }
+
+    @Test
+    public void testDiff() {
+        List<RadioStation> stored = list(station(1, "A", "a"), station(2, "B", "b"), station(3, "C", "c"));
+        List<RadioStation> fresh = list(station(1, "A", "a"), station(3, "C2", "c"), station(4, "D", "d"));
+
+        RadioStationSync.Changes changes = RadioStationSync.diff(stored, fresh);
+
+        assertEquals(Arrays.asList(fresh.get(2)), changes.getInserts());
+        assertEquals(1, changes.getUpdates().size());
+        assertEquals("C2", changes.getUpdates().get(0).getName());
+        assertEquals(1, changes.getDeletes().size());
+        assertEquals(2, changes.getDeletes().get(0).getStationId());
+        assertEquals("1 inserted, 1 updated, 1 deleted", changes.toString());
+    }
+
+    @Test
+    public void testDiffUnchanged() {
+        List<RadioStation> stations = list(station(1, "A", "a"), station(2, "B", "b"));
+
+        assertTrue(RadioStationSync.diff(stations, list(station(1, "A", "a"), station(2, "B", "b"))).isEmpty());
+        assertTrue(RadioStationSync.Changes.NONE.isEmpty());
+    }
+
+    @Test
+    public void testDiffMove() {
+        List<RadioStation> stored = list(station(1, "A", "a"), station(2, "B", "b"));
+        List<RadioStation> fresh = list(station(2, "B", "b"), station(1, "A", "a"));
+
+        RadioStationSync.Changes changes = RadioStationSync.diff(stored, fresh);
+
+        // Only positions change
+        assertEquals(0, changes.getInserts().size());
+        assertEquals(2, changes.getUpdates().size());
+        assertEquals(0, changes.getDeletes().size());
+        assertEquals(0, changes.getUpdates().get(0).getPosition());
+    }
+
+    private static String response(String... streams) {
+        return "{\"return\":\"0\",\"streams\":[" + String.join(",", streams) + "]}";
+    }
+
+    private static RadioStation station(int id, String name, String url) {
+        return new RadioStation(1, id, name, url, -1);
+    }
+
+    /**
+     * Number the stations in list order.
+     */
+    private static List<RadioStation> list(RadioStation... stations) {
+        List<RadioStation> list = new ArrayList<>();
+        for (RadioStation station : stations) {
+            list.add(new RadioStation(station.getDeviceId(), station.getStationId(), station.getName(), station.getUrl(),
+                    list.size()));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.wulfaz.android.openkarotz.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StationIndexTest {
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("cherie", "fm", "80"), StationIndex.tokenize("Chérie FM (80)"));
+        assertEquals(Arrays.asList("rtl2"), StationIndex.tokenize("  RTL2 "));
+        assertTrue(StationIndex.tokenize(null).isEmpty());
+        assertTrue(StationIndex.tokenize(" - ").isEmpty());
+    }
+
+    @Test
+    public void testPrefixDistance() {
+        assertEquals(0, StationIndex.prefixDistance("fra", "france", 2));
+        assertEquals(1, StationIndex.prefixDistance("frn", "france", 2));
+        assertEquals(1, StationIndex.prefixDistance("farn", "france", 2));
+        assertEquals(1, StationIndex.prefixDistance("nostalgei", "nostalgie", 2));
+        assertTrue(StationIndex.prefixDistance("jazz", "france", 1) > 1);
+    }
+
+    @Test
+    public void testPrefixSearch() {
+        StationIndex<String> index = sample();
+
+        assertEquals(Arrays.asList("France Culture", "France Info", "France Inter"), index.search("france", 10));
+        assertEquals(Arrays.asList("France Info", "France Inter"), index.search("france in", 10));
+        assertEquals(Arrays.asList("Chérie FM"), index.search("cher", 10));
+        assertEquals(Arrays.asList("Chérie FM"), index.search("CHÉRIE", 10));
+        // By id
+        assertEquals(Arrays.asList("RTL2"), index.search("rtl2", 10));
+        assertEquals(Arrays.asList("France Culture"), index.search("fcult", 10));
+        assertTrue(index.search("zzz", 10).isEmpty());
+    }
+
+    @Test
+    public void testRanking() {
+        StationIndex<String> index = sample();
+
+        // Station names starting with the word come first
+        assertEquals(Arrays.asList("Jazz Radio", "TSF Jazz"), index.search("jazz", 10));
+        // Exact matches before typos
+        assertEquals("Nostalgie", index.search("nostalgie", 10).get(0));
+        assertEquals(1, index.search("france", 1).size());
+    }
+
+    @Test
+    public void testTypos() {
+        StationIndex<String> index = sample();
+
+        assertEquals(Arrays.asList("Nostalgie"), index.search("nostalgei", 10));
+        assertEquals(Arrays.asList("Nostalgie"), index.search("nostlagie", 10));
+        assertEquals(Arrays.asList("France Culture"), index.search("frnace cutlure", 10));
+        assertEquals(Arrays.asList("Jazz Radio", "TSF Jazz"), index.search("jaz", 10));
+        // No typo allowed on short words
+        assertTrue(index.search("zi", 10).isEmpty());
+    }
+
+    @Test
+    public void testEmptyQuery() {
+        StationIndex<String> index = sample();
+
+        assertEquals(index.size(), index.search("", 100).size());
+        assertEquals(Arrays.asList("France Inter", "France Info"), index.search(" ", 2));
+    }
+
+    @Test
+    public void testSession() {
+        StationIndex<String> index = sample();
+        StationIndex<String>.Session session = index.newSession();
+
+        session.search("f", 10);
+        assertFalse(session.isIncremental());
+        session.search("fr", 10);
+        assertTrue(session.isIncremental());
+        // One typo allowed from 3 letters: more matches possible
+        session.search("fra", 10);
+        assertFalse(session.isIncremental());
+        assertEquals(Arrays.asList("France Culture", "France Info", "France Inter"), session.search("fran", 10));
+        assertTrue(session.isIncremental());
+        assertEquals(Arrays.asList("France Culture"), session.search("franc c", 10));
+        assertTrue(session.isIncremental());
+        // Backspace
+        assertEquals(3, session.search("franc", 10).size());
+        assertFalse(session.isIncremental());
+        assertEquals(3, session.getMatchCount());
+    }
+
+    @Test
+    public void testSessionMatchesFullSearch() {
+        StationIndex<Integer> index = generate(2000, new Random(7));
+        StationIndex<Integer>.Session session = index.newSession();
+        Random random = new Random(11);
+
+        for (String query : queries(random, 40)) {
+            for (int i = 1; i <= query.length(); i++) {
+                String typed = query.substring(0, i);
+                assertEquals(typed, index.search(typed, 1000), session.search(typed, 1000));
+            }
+        }
+    }
+
+    /**
+     * Types queries one key at a time over a large catalog, and checks each keystroke is answered well within a frame.
+     */
+    @Test
+    public void benchmarkTyping() {
+        Random random = new Random(3);
+        long start = System.nanoTime();
+        StationIndex<Integer> index = generate(5000, random);
+        long buildNanos = System.nanoTime() - start;
+
+        List<String> queries = queries(random, 200);
+        // Warm up
+        type(index, queries.subList(0, 50), false);
+
+        long[] full = type(index, queries, false);
+        long[] incremental = type(index, queries, true);
+
+        System.out.println(String.format("Index: %d stations, %d words, built in %.1f ms",
+                index.size(), index.getWordCount(), buildNanos / 1e6));
+        System.out.println(String.format("Full search:        %d keystrokes, %.0f us average, %.0f us max",
+                full[0], full[1] / 1000.0 / full[0], full[2] / 1000.0));
+        System.out.println(String.format("Incremental search: %d keystrokes, %.0f us average, %.0f us max",
+                incremental[0], incremental[1] / 1000.0 / incremental[0], incremental[2] / 1000.0));
+
+        // A frame is 16 ms
+        assertTrue(incremental[1] / incremental[0] < 4000000L);
+        assertTrue(full[1] / full[0] < 8000000L);
+    }
+
+    /**
+     * @return keystrokes, total time and longest time
+     */
+    private static long[] type(StationIndex<Integer> index, List<String> queries, boolean incremental) {
+        long[] stats = new long[3];
+        for (String query : queries) {
+            StationIndex<Integer>.Session session = index.newSession();
+            for (int i = 1; i <= query.length(); i++) {
+                String typed = query.substring(0, i);
+                long start = System.nanoTime();
+                if (incremental) {
+                    session.search(typed, 50);
+                } else {
+                    index.search(typed, 50);
+                }
+                long nanos = System.nanoTime() - start;
+                stats[0]++;
+                stats[1] += nanos;
+                stats[2] = Math.max(stats[2], nanos);
+            }
+        }
+        return stats;
+    }
+
+    private static StationIndex<String> sample() {
+        StationIndex.Builder<String> builder = StationIndex.builder();
+        add(builder, "France Inter", "franceinter");
+        add(builder, "France Info", "franceinfo");
+        add(builder, "France Culture", "fculture");
+        add(builder, "Chérie FM", "cherie");
+        add(builder, "Nostalgie", "nostalgie");
+        add(builder, "RTL2", "rtl2");
+        add(builder, "TSF Jazz", "tsfjazz");
+        add(builder, "Jazz Radio", "jazzradio");
+        add(builder, "Fun Radio", "fun");
+        return builder.build();
+    }
+
+    private static void add(StationIndex.Builder<String> builder, String name, String id) {
+        builder.add(name, name, id);
+    }
+
+    private static StationIndex<Integer> generate(int count, Random random) {
+        StationIndex.Builder<Integer> builder = StationIndex.builder();
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            int words = 1 + random.nextInt(3);
+            for (int w = 0; w < words; w++) {
+                name.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextBoolean()) {
+                name.append(' ').append(random.nextInt(200));
+            }
+            builder.add(i, name.toString(), "station" + i);
+        }
+        return builder.build();
+    }
+
+    private static List<String> queries(Random random, int count) {
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder query = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextBoolean()) {
+                query.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextBoolean() && query.length() > 4) {
+                // Swap two letters
+                int p = 1 + random.nextInt(query.length() - 3);
+                char c = query.charAt(p);
+                query.setCharAt(p, query.charAt(p + 1));
+                query.setCharAt(p + 1, c);
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    private static final String[] WORDS = {
+        "france", "inter", "info", "culture", "musique", "bleu", "radio", "classique", "jazz", "rock", "pop", "hits",
+        "nostalgie", "cherie", "rire", "chansons", "fun", "skyrock", "virgin", "europe", "nova", "latina", "sud",
+        "nord", "alsace", "bretagne", "provence", "paris", "lyon", "marseille", "lounge", "chill", "electro", "dance",
+        "metal", "blues", "soul", "funk", "reggae", "country", "gospel", "opera", "baroque", "piano", "guitare",
+        "enfants", "sport", "news", "talk", "meteo", "trafic", "campus", "etudiant", "underground", "vintage",
+        "retro", "oldies", "gold", "classic", "love", "zen", "nature", "ocean", "montagne", "soleil", "lune"
+    };
+}
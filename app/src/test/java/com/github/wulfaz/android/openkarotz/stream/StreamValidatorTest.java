@@ -0,0 +1,286 @@
+package com.github.wulfaz.android.openkarotz.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer;
+import com.github.wulfaz.android.openkarotz.net.StubHttpServer.Response;
+
+public class StreamValidatorTest {
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer(request -> {
+            switch (request.getPath()) {
+            case "/stream.mp3":
+                return new Response(200, MP3).contentType("audio/mpeg");
+            case "/octet":
+                return new Response(200, MP3).contentType("application/octet-stream");
+            case "/icy":
+                return new Response(200, new byte[64]).contentType("application/octet-stream").header("icy-name", "Radio");
+            case "/radio.m3u":
+                return Response.ok("#EXTM3U\n#EXTINF:-1,Radio\n" + url("/stream.mp3") + "\n").contentType("audio/x-mpegurl");
+            case "/plain.m3u":
+                return Response.ok("\r\n# Comment\r\nstream.mp3\r\n").contentType("text/plain");
+            case "/radio.pls":
+                return Response.ok("[playlist]\nNumberOfEntries=2\nFile1=" + url("/missing") + "\nTitle1=Mirror\n"
+                        + "File2=/stream.mp3\nTitle2=Radio\nLength2=-1\nVersion=2\n").contentType("audio/x-scpls");
+            case "/sniffed":
+                return Response.ok("#EXTM3U\n" + url("/radio.pls") + "\n").contentType("application/octet-stream");
+            case "/hls.m3u8":
+                return Response.ok("#EXTM3U\n#EXT-X-TARGETDURATION:10\n#EXTINF:10,\nsegment1.ts\n")
+                        .contentType("application/vnd.apple.mpegurl");
+            case "/loop.m3u":
+                return Response.ok(url("/loop.m3u") + "\n").contentType("audio/x-mpegurl");
+            case "/empty.m3u":
+                return Response.ok("#EXTM3U\n#EXTINF:-1,Nothing\n").contentType("audio/x-mpegurl");
+            case "/redirect":
+                return new Response(302, "").header("Location", "/radio.m3u");
+            case "/redirect-loop":
+                return new Response(301, "").header("Location", "/redirect-loop");
+            case "/page":
+                return Response.ok("<html><body>Radio moved</body></html>").contentType("text/html; charset=UTF-8");
+            default:
+                return new Response(404, "Not found").contentType("text/html");
+            }
+        });
+        validator = new StreamValidator(new StreamProbe(1000, 1000), new StreamCache(OK_TTL, DEAD_TTL, clock::get), 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testDirectStream() throws Exception {
+        assertOk("/stream.mp3", "/stream.mp3");
+        assertEquals("audio/mpeg", validator.getCached(url("/stream.mp3")).getContentType());
+        assertOk("/octet", "/octet");
+        assertOk("/icy", "/icy");
+    }
+
+    @Test
+    public void testPlaylists() throws Exception {
+        assertOk("/radio.m3u", "/stream.mp3");
+        assertOk("/plain.m3u", "/stream.mp3");
+        // First entry is dead, second one is relative
+        assertOk("/radio.pls", "/stream.mp3");
+        // Recognized by content, then nested
+        assertOk("/sniffed", "/stream.mp3");
+    }
+
+    @Test
+    public void testRedirect() throws Exception {
+        assertOk("/redirect", "/stream.mp3");
+        assertDead("/redirect-loop", "Too many redirects");
+    }
+
+    @Test
+    public void testDeadRadios() throws Exception {
+        assertDead("/missing", "HTTP 404");
+        assertDead("/missing.m3u", "HTTP 404");
+        assertDead("/page", "Not an audio stream: text/html");
+        assertDead("/hls.m3u8", "live streaming");
+        assertDead("/loop.m3u", "nested");
+        assertDead("/empty.m3u", "Empty playlist");
+
+        try {
+            validator.resolve(url("/page"));
+            fail("Dead radio should throw");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Radio unavailable"));
+        }
+    }
+
+    @Test
+    public void testDeadHosts() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        StreamCheck refused = validator.check("http://127.0.0.1:" + port + "/stream").get();
+        assertFalse(refused.isOk());
+
+        // Accepts connections but never answers
+        List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+        try (ServerSocket silent = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        accepted.add(silent.accept());
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.start();
+
+            StreamValidator fast = new StreamValidator(new StreamProbe(300, 300), new StreamCache(OK_TTL, DEAD_TTL), 2);
+            StreamCheck silentCheck = fast.check("http://127.0.0.1:" + silent.getLocalPort() + "/stream").get();
+            assertFalse(silentCheck.isOk());
+            assertTrue(silentCheck.getError(), silentCheck.getError().contains("SocketTimeoutException"));
+            assertTrue(silentCheck.getElapsedMillis() < 1000);
+        }
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+
+        assertFalse(validator.check("not a url").get().isOk());
+        assertFalse(validator.check("ftp://127.0.0.1/stream").get().isOk());
+    }
+
+    @Test
+    public void testCacheExpiry() throws Exception {
+        String ok = url("/radio.m3u");
+        String dead = url("/missing");
+        validator.validateAll(Arrays.asList(ok, dead, ok), null).get();
+        assertEquals(2, validator.getProbeCount());
+        int requests = server.getRequestCount();
+
+        assertEquals(url("/stream.mp3"), validator.resolve(ok));
+        assertFalse(validator.check(dead).get().isOk());
+        assertEquals(2, validator.getProbeCount());
+        assertEquals(requests, server.getRequestCount());
+
+        // Dead radios are checked again sooner
+        clock.addAndGet(DEAD_TTL);
+        assertNull(validator.getCached(dead));
+        assertTrue(validator.getCached(ok).isOk());
+        validator.check(dead).get();
+        assertEquals(3, validator.getProbeCount());
+
+        clock.addAndGet(OK_TTL);
+        validator.check(ok).get();
+        assertEquals(4, validator.getProbeCount());
+
+        validator.invalidate(ok);
+        validator.check(ok).get();
+        assertEquals(5, validator.getProbeCount());
+    }
+
+    @Test
+    public void testConcurrentChecksShareProbe() throws Exception {
+        server.setResponseDelayMillis(200);
+        String radio = url("/stream.mp3");
+
+        List<CompletableFuture<StreamCheck>> checks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            checks.add(validator.check(radio));
+        }
+        StreamCheck first = checks.get(0).get();
+        for (CompletableFuture<StreamCheck> check : checks) {
+            assertSame(first, check.get());
+        }
+        assertEquals(1, validator.getProbeCount());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Checks many slow radios, as when the station list is shown: they are checked in parallel.
+     */
+    @Test
+    public void benchmarkValidateAll() throws Exception {
+        long delay = 100;
+        server.setResponseDelayMillis(delay);
+        int n = 160;
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            urls.add(url("/radio.m3u?id=" + i));
+        }
+
+        List<StreamCheck> seen = new ArrayList<>();
+        long start = System.nanoTime();
+        List<StreamCheck> checks = validator.validateAll(urls, check -> {
+            synchronized (seen) {
+                seen.add(check);
+            }
+        }).get(30, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Two requests per radio: the playlist and the stream
+        long sequential = 2 * n * delay;
+        System.out.println(String.format("Validated %d radios in %d ms, %d ms sequentially", n, elapsed, sequential));
+        assertEquals(n, checks.size());
+        for (StreamCheck check : checks) {
+            assertTrue(check.toString(), check.isOk());
+        }
+        Thread.sleep(50);
+        synchronized (seen) {
+            assertEquals(n, seen.size());
+        }
+        assertTrue(elapsed < sequential / 4);
+    }
+
+    @Test
+    public void testParsePlaylist() throws Exception {
+        URL base = new URL("http://radio.example/live/radio.pls");
+        assertEquals(Arrays.asList("http://radio.example/live/a.mp3", "https://mirror.example/b"),
+                PlaylistParser.parse("[Playlist]\r\nFile1=a.mp3\r\nTitle1=A\r\nFile2 = https://mirror.example/b\r\n"
+                        + "File3=a.mp3\r\nFile4=rtsp://radio.example/c\r\n", base));
+        assertEquals(Arrays.asList("http://radio.example/d?x=1&y=2"),
+                PlaylistParser.parse("\uFEFF#EXTM3U\n#EXTINF:-1,D\n/d?x=1&y=2\n\n", base));
+        assertTrue(PlaylistParser.isPlaylistPath("/live/RADIO.M3U"));
+        assertFalse(PlaylistParser.isPlaylistPath("/live/radio.mp3"));
+        assertEquals("audio/x-mpegurl", StreamProbe.mediaType(" Audio/X-MPEGURL ; charset=utf-8"));
+    }
+
+    private void assertDead(String path, String error) throws Exception {
+        StreamCheck check = validator.check(url(path)).get();
+        assertFalse(check.toString(), check.isOk());
+        assertNull(check.getStreamUrl());
+        assertTrue(check.getError(), check.getError().contains(error));
+    }
+
+    private void assertOk(String path, String streamPath) throws Exception {
+        StreamCheck check = validator.check(url(path)).get();
+        assertTrue(check.toString(), check.isOk());
+        assertEquals(url(streamPath), check.getStreamUrl());
+        assertEquals(url(streamPath), validator.resolve(url(path)));
+    }
+
+    private String url(String file) throws IOException {
+        return server.url(file).toString();
+    }
+
+
+    private static final byte[] MP3 = new byte[2048];
+
+    static {
+        MP3[0] = 'I';
+        MP3[1] = 'D';
+        MP3[2] = '3';
+    }
+
+    private static final long OK_TTL = 10000;
+
+    private static final long DEAD_TTL = 1000;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private StubHttpServer server;
+
+    private StreamValidator validator;
+}
@@ -0,0 +1,170 @@
+package com.github.wulfaz.android.openkarotz.tts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.wulfaz.android.openkarotz.karotz.MockKarotz;
+import com.github.wulfaz.android.openkarotz.karotz.OpenKarotz;
+
+public class TtsPipelineTest {
+
+    @Test
+    public void testSplitSentences() {
+        String text = "Bonjour à tous.  Voici les nouvelles du jour. Il fait beau! Demain, il pleuvra ?  Bonne journée.";
+        List<String> chunks = TextChunker.split(text, 50);
+
+        assertEquals(Arrays.asList("Bonjour à tous. Voici les nouvelles du jour.",
+                "Il fait beau! Demain, il pleuvra ? Bonne journée."), chunks);
+        assertEquals(Collections.singletonList("Il est midi."), TextChunker.split(" Il est\nmidi. ", 200));
+        assertTrue(TextChunker.split(" \n ", 200).isEmpty());
+    }
+
+    @Test
+    public void testSplitLongSentence() {
+        String text = "Le train de huit heures, qui devait partir de la gare centrale, est annule en raison de travaux";
+        List<String> chunks = TextChunker.split(text, 40);
+
+        // After a comma when possible, else between words
+        assertEquals(Arrays.asList("Le train de huit heures,", "qui devait partir de la gare centrale,",
+                "est annule en raison de travaux"), chunks);
+
+        chunks = TextChunker.split("un deux trois quatre cinq six sept huit neuf dix onze douze", 20);
+        for (String chunk : chunks) {
+            assertTrue(chunk, chunk.length() <= 20);
+            assertFalse(chunk, chunk.startsWith(" ") || chunk.endsWith(" "));
+        }
+        assertEquals("un deux trois quatre cinq six sept huit neuf dix onze douze", String.join(" ", chunks));
+
+        // Only words longer than a chunk are cut
+        assertEquals(Arrays.asList("abcdefghij", "klmno pq"), TextChunker.split("abcdefghijklmno pq", 10));
+    }
+
+    @Test
+    public void testChunksFollowEachOther() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            mock.setTtsSynthesisMillis(60);
+            mock.setTtsMillisPerChar(4);
+            OpenKarotz karotz = mock.newClient();
+            // Connected, like after the status read at startup
+            karotz.getStatus();
+            TtsPipeline pipeline = newPipeline(karotz);
+
+            List<Integer> started = new ArrayList<Integer>();
+            assertTrue(pipeline.speak("1", BULLETIN, (index, count, chunk) -> started.add(index)));
+
+            List<MockKarotz.Playback> playbacks = mock.getTtsPlaybacks();
+            int count = TextChunker.split(BULLETIN, 60).size();
+            assertEquals(count, playbacks.size());
+            assertEquals(count, started.size());
+            for (int i = 1; i < playbacks.size(); i++) {
+                assertFalse("Chunk " + (i - 1) + " was cut", playbacks.get(i - 1).interrupted);
+                long gap = gapMillis(playbacks.get(i - 1), playbacks.get(i));
+                assertTrue("Gap of " + gap + " ms before chunk " + i, gap >= 0 && gap < 60);
+            }
+            assertEquals(0, mock.getRequestCount("/cgi-bin/sound_control"));
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try (MockKarotz mock = new MockKarotz()) {
+            mock.setTtsMillisPerChar(10);
+            TtsPipeline pipeline = newPipeline(mock.newClient());
+
+            CountDownLatch first = new CountDownLatch(1);
+            Future<Boolean> speaking = worker.submit(() -> pipeline.speak("1", BULLETIN,
+                    (index, count, chunk) -> first.countDown()));
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            pipeline.cancel();
+            assertFalse(speaking.get(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(300));
+
+            // The chunk playing is stopped, and no more chunks are sent
+            assertEquals(1, mock.getRequestCount("/cgi-bin/sound_control"));
+            List<MockKarotz.Playback> playbacks = mock.getTtsPlaybacks();
+            assertEquals(1, playbacks.size());
+            assertTrue(playbacks.get(0).interrupted);
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares chunks sent one after the other, each when the previous one is over, with chunks sent ahead by the
+     * expected answer time, first synthesized and then replayed from the cache.
+     */
+    @Test
+    public void benchmarkGaps() throws Exception {
+        try (MockKarotz mock = new MockKarotz()) {
+            mock.setTtsSynthesisMillis(150);
+            mock.setTtsMillisPerChar(6);
+            OpenKarotz karotz = mock.newClient();
+
+            // Sequential: wait for the end of each chunk before sending the next one
+            for (String chunk : TextChunker.split(BULLETIN, 60)) {
+                karotz.tts("2", chunk);
+                Thread.sleep(Math.round(chunk.length() * 6.0));
+            }
+            long[] sequential = gaps(mock.getTtsPlaybacks());
+
+            int sent = mock.getTtsPlaybacks().size();
+            TtsPipeline pipeline = newPipeline(karotz);
+            pipeline.setMillisPerChar(6);
+            pipeline.speak("1", BULLETIN, null);
+            long[] synthesized = gaps(mock.getTtsPlaybacks().subList(sent, mock.getTtsPlaybacks().size()));
+
+            sent = mock.getTtsPlaybacks().size();
+            pipeline = newPipeline(karotz);
+            pipeline.setMillisPerChar(6);
+            pipeline.speak("1", BULLETIN, null);
+            long[] replayed = gaps(mock.getTtsPlaybacks().subList(sent, mock.getTtsPlaybacks().size()));
+
+            System.out.println("Sequential:          gaps " + Arrays.toString(sequential) + " ms");
+            System.out.println("Pipelined, new:      gaps " + Arrays.toString(synthesized) + " ms");
+            System.out.println("Pipelined, replayed: gaps " + Arrays.toString(replayed) + " ms");
+            System.out.println(karotz.getTtsCache().getStats());
+        }
+    }
+
+    private static TtsPipeline newPipeline(OpenKarotz karotz) {
+        TtsPipeline pipeline = new TtsPipeline(karotz);
+        pipeline.setMaxChunkLength(60);
+        pipeline.setMillisPerChar(4);
+        pipeline.setGapMillis(20);
+        return pipeline;
+    }
+
+    private static long[] gaps(List<MockKarotz.Playback> playbacks) {
+        long[] gaps = new long[playbacks.size() - 1];
+        for (int i = 1; i < playbacks.size(); i++) {
+            gaps[i - 1] = gapMillis(playbacks.get(i - 1), playbacks.get(i));
+        }
+        return gaps;
+    }
+
+    private static long gapMillis(MockKarotz.Playback previous, MockKarotz.Playback next) {
+        return (next.startNanos - previous.endNanos) / 1000000;
+    }
+
+
+    private static final String BULLETIN = "Bonjour, voici le journal de midi. La mairie annonce des travaux rue "
+            + "Victor Hugo, la circulation sera coupée du lundi au vendredi. Le marché de noël ouvrira samedi sur la "
+            + "place centrale. Côté météo, le soleil reviendra dans l'après-midi, avec des températures de saison. "
+            + "Bonne journée à tous.";
+}
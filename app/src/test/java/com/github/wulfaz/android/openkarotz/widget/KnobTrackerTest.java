@@ -0,0 +1,172 @@
+package com.github.wulfaz.android.openkarotz.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KnobTrackerTest {
+
+    @Test
+    public void testAtan2Degrees() {
+        for (int i = 0; i < 3600; i++) {
+            double radians = Math.toRadians(i / 10.0);
+            for (float radius : new float[] {10f, 150f, 2000f}) {
+                float x = (float) (radius * Math.cos(radians));
+                float y = (float) (radius * Math.sin(radians));
+                float expected = (float) Math.toDegrees(Math.atan2(y, x));
+                if (expected < 0) {
+                    expected += 360f;
+                }
+                float actual = KnobTracker.atan2Degrees(y, x);
+                float error = Math.abs(actual - expected);
+                assertTrue(i + ": " + actual + " vs " + expected, Math.min(error, 360f - error) < 0.1f);
+            }
+        }
+        assertEquals(0f, KnobTracker.atan2Degrees(0f, 0f), 0f);
+        assertEquals(90f, KnobTracker.atan2Degrees(1f, 0f), 0.01f);
+        assertEquals(180f, KnobTracker.atan2Degrees(0f, -1f), 0.01f);
+        assertEquals(270f, KnobTracker.atan2Degrees(-1f, 0f), 0.01f);
+    }
+
+    @Test
+    public void testFollowsFinger() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.begin(100f, 0f, 0f, 0);
+
+        // A quarter turn clockwise on screen, in small steps
+        float total = 0f;
+        for (int i = 1; i <= 90; i++) {
+            total += tracker.move(x(100f, i), y(100f, i), 0f, i);
+        }
+        assertEquals(90f, total, 0.2f);
+        assertEquals(90f, tracker.getAngle(), 0.2f);
+
+        // Back, counter clockwise
+        for (int i = 89; i >= 0; i--) {
+            tracker.move(x(100f, i), y(100f, i), 0f, 200 - i);
+        }
+        assertEquals(0f, tracker.getAngle(), 0.2f);
+    }
+
+    @Test
+    public void testAcrossZero() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.begin(x(100f, 350), y(100f, 350), 0f, 0);
+        tracker.move(x(100f, 10), y(100f, 10), 0f, 10);
+        assertEquals(20f, tracker.getAngle(), 0.2f);
+        tracker.move(x(100f, 340), y(100f, 340), 0f, 20);
+        assertEquals(-10f, tracker.getAngle(), 0.2f);
+    }
+
+    @Test
+    public void testSeveralTurns() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.begin(100f, 0f, 0f, 0);
+        for (int i = 1; i <= 720; i += 5) {
+            tracker.move(x(100f, i), y(100f, i), 0f, i);
+        }
+        assertEquals(716f, tracker.getAngle(), 0.5f);
+    }
+
+    @Test
+    public void testRotatedCoordinates() {
+        // The finger goes from 30° to 60° on screen, seen from a knob rotated by 200°
+        KnobTracker tracker = new KnobTracker();
+        tracker.setAngle(200f);
+        tracker.begin(x(100f, 30 - 200), y(100f, 30 - 200), 200f, 0);
+        tracker.move(x(100f, 60 - 200), y(100f, 60 - 200), 200f, 10);
+        assertEquals(230f, tracker.getAngle(), 0.2f);
+
+        // Next event, the knob is now rotated by 230°
+        tracker.move(x(100f, 90 - 230), y(100f, 90 - 230), 230f, 20);
+        assertEquals(260f, tracker.getAngle(), 0.2f);
+    }
+
+    @Test
+    public void testCenterIgnored() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.begin(1f, 1f, 0f, 0);
+        assertEquals(0f, tracker.move(-2f, 1f, 0f, 5), 0f);
+        // First sample away from the center only sets the reference
+        assertEquals(0f, tracker.move(0f, 100f, 0f, 10), 0f);
+        assertEquals(90f, tracker.move(-100f, 0f, 0f, 20), 0.1f);
+        assertEquals(0f, tracker.move(0f, 3f, 0f, 30), 0f);
+        assertEquals(90f, tracker.getAngle(), 0.1f);
+    }
+
+    @Test
+    public void testVelocity() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.begin(100f, 0f, 0f, 0);
+        assertEquals(0f, tracker.getVelocity(), 0f);
+
+        // Slow, then 2° per ms over the last 100 ms
+        for (int i = 1; i <= 50; i++) {
+            tracker.move(x(100f, i * 0.2f), y(100f, i * 0.2f), 0f, i * 10);
+        }
+        float angle = tracker.getAngle();
+        for (int i = 1; i <= 20; i++) {
+            tracker.move(x(100f, angle + i * 16), y(100f, angle + i * 16), 0f, 500 + i * 8);
+        }
+        assertEquals(2000f, tracker.getVelocity(), 20f);
+    }
+
+    @Test
+    public void testFling() {
+        KnobTracker tracker = new KnobTracker();
+        tracker.fling(800f);
+        assertTrue(tracker.isFlinging());
+
+        float total = 0f;
+        int frames = 0;
+        float previous = Float.MAX_VALUE;
+        while (tracker.isFlinging()) {
+            float step = tracker.flingStep(1f / 60f);
+            assertTrue(step > 0f && step < previous);
+            previous = step;
+            total += step;
+            frames++;
+        }
+        // v / friction, less the tail under the minimum velocity
+        assertEquals(200f, total, KnobTracker.MIN_FLING_VELOCITY / 4f);
+        assertEquals(total, tracker.getAngle(), 0.01f);
+        assertTrue(frames < 120);
+
+        // Independent of the frame rate
+        KnobTracker coarse = new KnobTracker();
+        coarse.fling(800f);
+        coarse.flingStep(0.25f);
+        KnobTracker fine = new KnobTracker();
+        fine.fling(800f);
+        for (int i = 0; i < 25; i++) {
+            fine.flingStep(0.01f);
+        }
+        assertEquals(coarse.getAngle(), fine.getAngle(), 0.01f);
+
+        coarse.stopFling();
+        assertFalse(coarse.isFlinging());
+    }
+
+    @Test
+    public void testSnap() {
+        assertEquals(0, KnobTracker.snap(0f, 16));
+        assertEquals(0, KnobTracker.snap(11f, 16));
+        assertEquals(1, KnobTracker.snap(12f, 16));
+        assertEquals(4, KnobTracker.snap(90f, 16));
+        assertEquals(0, KnobTracker.snap(355f, 16));
+        assertEquals(15, KnobTracker.snap(-22.5f, 16));
+        assertEquals(4, KnobTracker.snap(720f + 90f, 16));
+        assertEquals(350f, KnobTracker.normalize(-10f), 0.001f);
+        assertEquals(10f, KnobTracker.normalize(730f), 0.001f);
+    }
+
+    private static float x(float radius, float degrees) {
+        return (float) (radius * Math.cos(Math.toRadians(degrees)));
+    }
+
+    private static float y(float radius, float degrees) {
+        return (float) (radius * Math.sin(Math.toRadians(degrees)));
+    }
+}